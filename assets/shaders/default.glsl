@@ -4,18 +4,20 @@
 layout (location=0) in vec3 aPos;
 layout (location=1) in vec4 aColor;
 layout (location=2) in vec2 aTexCoords;
+layout (location=3) in float aTexId;
 
-uniform mat4 uProjection;
-uniform mat4 uView;
+uniform mat4 uViewProjection;
 
 out vec4 fColor;
 out vec2 fTexCoords;
+flat out float fTexId;
 
 void main()
 {
     fColor = aColor;
     fTexCoords = aTexCoords;
-    gl_Position = uProjection * uView * vec4(aPos, 1.0);
+    fTexId = aTexId;
+    gl_Position = uViewProjection * vec4(aPos, 1.0);
 }
 
 #type fragment
@@ -23,14 +25,25 @@ void main()
 
 in vec4 fColor;
 in vec2 fTexCoords;
+flat in float fTexId;
 
 out vec4 color;
 
 uniform float uTime;
-uniform sampler2D TEX_SAMPLER;
+uniform sampler2D uTextures[8];
 
 void main()
 {
-    color = texture(TEX_SAMPLER, fTexCoords) * fColor;
+    // Sampler arrays may only be indexed with constant expressions in GLSL 330
+    switch (int(fTexId))
+    {
+        case 1: color = fColor * texture(uTextures[1], fTexCoords); break;
+        case 2: color = fColor * texture(uTextures[2], fTexCoords); break;
+        case 3: color = fColor * texture(uTextures[3], fTexCoords); break;
+        case 4: color = fColor * texture(uTextures[4], fTexCoords); break;
+        case 5: color = fColor * texture(uTextures[5], fTexCoords); break;
+        case 6: color = fColor * texture(uTextures[6], fTexCoords); break;
+        case 7: color = fColor * texture(uTextures[7], fTexCoords); break;
+        default: color = fColor; break;
+    }
 }
-
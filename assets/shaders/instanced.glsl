@@ -0,0 +1,53 @@
+#type vertex
+#version 330 core
+
+// Corner of the shared unit quad, 0 at the left/bottom and 1 at the right/top
+layout (location=0) in vec2 aCorner;
+// Per instance, see InstanceBatch
+layout (location=1) in vec4 iRect;
+layout (location=2) in vec4 iColor;
+layout (location=3) in vec4 iUvRect;
+layout (location=4) in float iTexId;
+
+uniform mat4 uViewProjection;
+
+out vec4 fColor;
+out vec2 fTexCoords;
+flat out float fTexId;
+
+void main()
+{
+    fColor = iColor;
+    // (u0, v0) is the top left corner and (u1, v1) the bottom right one
+    fTexCoords = vec2(mix(iUvRect.x, iUvRect.z, aCorner.x), mix(iUvRect.w, iUvRect.y, aCorner.y));
+    fTexId = iTexId;
+    gl_Position = uViewProjection * vec4(iRect.xy + aCorner * iRect.zw, 0.0, 1.0);
+}
+
+#type fragment
+#version 330 core
+
+in vec4 fColor;
+in vec2 fTexCoords;
+flat in float fTexId;
+
+out vec4 color;
+
+uniform float uTime;
+uniform sampler2D uTextures[8];
+
+void main()
+{
+    // Sampler arrays may only be indexed with constant expressions in GLSL 330
+    switch (int(fTexId))
+    {
+        case 1: color = fColor * texture(uTextures[1], fTexCoords); break;
+        case 2: color = fColor * texture(uTextures[2], fTexCoords); break;
+        case 3: color = fColor * texture(uTextures[3], fTexCoords); break;
+        case 4: color = fColor * texture(uTextures[4], fTexCoords); break;
+        case 5: color = fColor * texture(uTextures[5], fTexCoords); break;
+        case 6: color = fColor * texture(uTextures[6], fTexCoords); break;
+        case 7: color = fColor * texture(uTextures[7], fTexCoords); break;
+        default: color = fColor; break;
+    }
+}
@@ -0,0 +1,46 @@
+#type vertex
+#version 330 core
+
+// Corner of the shared unit quad, 0 at the left/bottom and 1 at the right/top
+layout (location=0) in vec2 aCorner;
+// Per instance, see ParticleSystem
+layout (location=1) in vec2 iPosition;
+layout (location=2) in float iSize;
+layout (location=3) in vec4 iColor;
+
+uniform mat4 uViewProjection;
+
+out vec4 fColor;
+out vec2 fTexCoords;
+
+void main()
+{
+    fColor = iColor;
+    // The whole texture, top left corner at v = 0 like sprites
+    fTexCoords = vec2(aCorner.x, 1.0 - aCorner.y);
+    // The position is the particle's center
+    gl_Position = uViewProjection * vec4(iPosition + (aCorner - 0.5) * iSize, 0.0, 1.0);
+}
+
+#type fragment
+#version 330 core
+
+in vec4 fColor;
+in vec2 fTexCoords;
+
+out vec4 color;
+
+uniform sampler2D uTexture;
+uniform int uTextured;
+
+void main()
+{
+    if (uTextured != 0)
+    {
+        color = fColor * texture(uTexture, fTexCoords);
+    }
+    else
+    {
+        color = fColor;
+    }
+}
@@ -0,0 +1,48 @@
+package jade;
+
+import org.joml.Matrix4f;
+import org.joml.Vector2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CameraBenchmark {
+    private Camera camera;
+
+    @Setup
+    public void setup() {
+        this.camera = new Camera(new Vector2f(0.0f, 0.0f));
+    }
+
+    @Benchmark
+    public Matrix4f viewMatrixStill() {
+        return this.camera.getViewMatrix();
+    }
+
+    @Benchmark
+    public Matrix4f viewMatrixMoving() {
+        this.camera.position.x += 0.5f;
+        return this.camera.getViewMatrix();
+    }
+
+    @Benchmark
+    public Matrix4f viewProjectionMatrixMoving() {
+        this.camera.position.x += 0.5f;
+        return this.camera.getViewProjectionMatrix();
+    }
+
+    @Benchmark
+    public boolean isVisible() {
+        this.camera.position.x += 0.5f;
+        return this.camera.isVisible(640.0f, 360.0f, 660.0f, 380.0f);
+    }
+}
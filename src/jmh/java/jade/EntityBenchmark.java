@@ -0,0 +1,85 @@
+package jade;
+
+import org.joml.Vector2f;
+import org.joml.Vector4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One transform update tick over the dense {@link EntityStore} against the same data kept as a list of
+ * objects, each holding its own vectors. The objects are shuffled after creation, like they end up
+ * after a while of creating and destroying entities.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntityBenchmark {
+    private static final float DT = 1.0f / 60.0f;
+
+    @Param({"10000", "50000"})
+    public int entities;
+
+    private EntityStore store;
+    private List<NaiveEntity> naive;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        this.store = new EntityStore();
+        this.naive = new ArrayList<>();
+        for (int i = 0; i < this.entities; i++) {
+            float x = random.nextFloat() * 1000.0f;
+            float y = random.nextFloat() * 1000.0f;
+            float velocityX = random.nextFloat() - 0.5f;
+            float velocityY = random.nextFloat() - 0.5f;
+
+            int id = this.store.create();
+            this.store.setPosition(id, x, y);
+            this.store.setVelocity(id, velocityX, velocityY);
+            this.store.setSprite(id, null, 1.0f, 1.0f, 1.0f, 1.0f);
+
+            NaiveEntity entity = new NaiveEntity();
+            entity.position = new Vector2f(x, y);
+            entity.previousPosition = new Vector2f(x, y);
+            entity.velocity = new Vector2f(velocityX, velocityY);
+            entity.size = new Vector2f(1.0f, 1.0f);
+            entity.color = new Vector4f(1.0f);
+            this.naive.add(entity);
+        }
+        Collections.shuffle(this.naive, random);
+    }
+
+    @Benchmark
+    public EntityStore entityStore() {
+        this.store.integrate(DT);
+        return this.store;
+    }
+
+    @Benchmark
+    public List<NaiveEntity> listOfObjects() {
+        for (int i = 0; i < this.naive.size(); i++) {
+            NaiveEntity entity = this.naive.get(i);
+            entity.previousPosition.set(entity.position);
+            entity.position.x += entity.velocity.x * DT;
+            entity.position.y += entity.velocity.y * DT;
+        }
+        return this.naive;
+    }
+
+    public static class NaiveEntity {
+        Vector2f position, previousPosition, velocity, size;
+        Vector4f color;
+    }
+}
@@ -0,0 +1,63 @@
+package jade;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * Reading the input state, and the per tick cost of turning queued events into a snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InputBenchmark {
+
+    @Setup
+    public void setup() {
+        KeyListener.keyCallback(0L, GLFW_KEY_SPACE, 0, GLFW_PRESS, 0);
+        KeyListener.keyCallback(0L, GLFW_KEY_RIGHT, 0, GLFW_PRESS, 0);
+        MouseListener.mousePosCallback(0L, 320.0, 240.0);
+        MouseListener.mouseButtonCallback(0L, GLFW_MOUSE_BUTTON_LEFT, GLFW_PRESS, 0);
+        Input.update();
+    }
+
+    // A busy tick: a key tapped within the tick, the cursor moving and some scrolling
+    @Benchmark
+    public InputSnapshot update() {
+        Input.keyCallback(0L, GLFW_KEY_SPACE, 0, GLFW_RELEASE, 0);
+        Input.keyCallback(0L, GLFW_KEY_SPACE, 0, GLFW_PRESS, 0);
+        for (int i = 0; i < 8; i++) {
+            Input.cursorPosCallback(0L, 320.0 + i, 240.0 - i);
+        }
+        Input.scrollCallback(0L, 0.0, 1.0);
+        return Input.update();
+    }
+
+    // A typical frame asks for a handful of keys
+    @Benchmark
+    public void keyQueries(Blackhole blackhole) {
+        blackhole.consume(KeyListener.isKeyPressed(GLFW_KEY_SPACE));
+        blackhole.consume(KeyListener.isKeyPressed(GLFW_KEY_LEFT));
+        blackhole.consume(KeyListener.isKeyPressed(GLFW_KEY_RIGHT));
+        blackhole.consume(KeyListener.isKeyPressed(GLFW_KEY_UP));
+        blackhole.consume(KeyListener.isKeyPressed(GLFW_KEY_DOWN));
+    }
+
+    @Benchmark
+    public void mouseQueries(Blackhole blackhole) {
+        blackhole.consume(MouseListener.getX());
+        blackhole.consume(MouseListener.getY());
+        blackhole.consume(MouseListener.getDx());
+        blackhole.consume(MouseListener.getDy());
+        blackhole.consume(MouseListener.isButtonDown(GLFW_MOUSE_BUTTON_LEFT));
+    }
+}
@@ -0,0 +1,64 @@
+package jade;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import renderer.Renderer;
+import util.JobSystem;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick plus sprite vertex generation of an entity heavy scene at different job system thread counts.
+ * Quads are only queued, never drawn, so no GL context is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JobSystemBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"100000"})
+    public int entities;
+
+    private EntityStore store;
+    private Renderer renderer;
+    private int previousThreads;
+
+    @Setup
+    public void setup() {
+        this.previousThreads = JobSystem.getThreadCount();
+        JobSystem.setThreadCount(this.threads);
+        Random random = new Random(42);
+        this.store = new EntityStore();
+        for (int i = 0; i < this.entities; i++) {
+            int id = this.store.create();
+            this.store.setPosition(id, random.nextFloat() * 1000.0f, random.nextFloat() * 1000.0f);
+            this.store.setSize(id, 8.0f, 8.0f);
+            this.store.setVelocity(id, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+            this.store.setSprite(id, null, random.nextFloat(), random.nextFloat(), random.nextFloat(), 1.0f);
+        }
+        this.renderer = new Renderer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        JobSystem.setThreadCount(this.previousThreads);
+    }
+
+    @Benchmark
+    public Renderer updateAndSubmit() {
+        this.store.integrate(1.0f / 60.0f);
+        this.store.submitSprites(this.renderer, 0.5f);
+        this.renderer.clear();
+        return this.renderer;
+    }
+}
@@ -0,0 +1,113 @@
+package jade;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import renderer.Sprite;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full saves and loads of a large level through {@link SceneSerializer}, and the autosave case: a delta
+ * save after 1% of the objects moved. A tenth of the objects carry one of a few named sprites, a tenth
+ * move on their own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SceneSerializationBenchmark {
+
+    @Param({"100000"})
+    public int objects;
+
+    private final Map<String, Sprite> sprites = new HashMap<>();
+    private SceneSerializer serializer;
+    private Scene scene;
+    private Scene loadTarget;
+    private Path directory;
+    private Path fullPath;
+    private Path deltaPath;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            String name = "sprite" + i + ".png";
+            this.sprites.put(name, new Sprite(null, 0.0f, 0.0f, 1.0f, 1.0f, 16, 16, name));
+        }
+        this.serializer = new SceneSerializer(this.sprites::get);
+        this.random = new Random(42);
+        this.scene = new EmptyScene();
+        Sprite[] spriteArray = this.sprites.values().toArray(new Sprite[0]);
+        for (int i = 0; i < this.objects; i++) {
+            GameObject gameObject = this.scene.createGameObject("Tile " + i)
+                    .setPosition(this.random.nextFloat() * 4000.0f, this.random.nextFloat() * 4000.0f)
+                    .setSize(16.0f, 16.0f);
+            if (i % 10 == 0) {
+                gameObject.setSprite(spriteArray[i % spriteArray.length]);
+            } else {
+                gameObject.setColor(this.random.nextFloat(), this.random.nextFloat(), this.random.nextFloat(), 1.0f);
+            }
+            if (i % 10 == 1) {
+                gameObject.setVelocity(0.0f, 0.0f);
+            }
+        }
+        this.loadTarget = new EmptyScene();
+
+        this.directory = Files.createTempDirectory("scene-benchmark");
+        this.fullPath = this.directory.resolve("full.scene");
+        this.deltaPath = this.directory.resolve("delta.scene");
+        this.serializer.save(this.scene, this.fullPath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.fullPath);
+        Files.deleteIfExists(this.deltaPath);
+        Files.deleteIfExists(this.directory);
+    }
+
+    @Benchmark
+    public long saveFull() throws IOException {
+        this.serializer.save(this.scene, this.fullPath);
+        return this.serializer.getLastSaveBytes();
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        this.serializer.load(this.loadTarget, this.fullPath);
+        return this.loadTarget.getGameObjects().size();
+    }
+
+    @Benchmark
+    public long saveDelta() throws IOException {
+        List<GameObject> gameObjects = this.scene.getGameObjects();
+        for (int i = 0; i < this.objects / 100; i++) {
+            GameObject gameObject = gameObjects.get(this.random.nextInt(gameObjects.size()));
+            gameObject.setPosition(gameObject.getX() + 1.0f, gameObject.getY());
+        }
+        this.serializer.saveDelta(this.scene, this.deltaPath);
+        return this.serializer.getLastSaveBytes();
+    }
+
+    private static class EmptyScene extends Scene {
+        @Override
+        public void update(float dt) {
+
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package physics;
+
+import jade.EntityStore;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import util.JobSystem;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Physics steps of a pile of boxes in a walled tile arena, the way a level mostly sits still: the boxes
+ * were dropped in, a few of them as bullets, and settled before measuring, then every tenth step kicks
+ * one of them back up into the air. The bodies counter reports the simulated bodies per millisecond.
+ * With sleeping allowed only the kicked boxes and what they hit cost anything; without it every body is
+ * solved every step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PhysicsBenchmark {
+    private static final float DT = 1.0f / 60.0f;
+    private static final float TILE = 16.0f;
+    private static final float BOX = 6.0f;
+    private static final int KICK_INTERVAL = 10;
+
+    @Param({"1000", "10000"})
+    public int bodyCount;
+
+    @Param({"true", "false"})
+    public boolean sleeping;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private EntityStore store;
+    private PhysicsWorld world;
+    private int[] entities;
+    private int steps;
+    private int nextKick;
+    private int previousThreads;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.previousThreads = JobSystem.getThreadCount();
+        JobSystem.setThreadCount(this.threads);
+        this.store = new EntityStore();
+        this.world = new PhysicsWorld(this.store);
+        this.world.setGravity(0.0f, -600.0f);
+        this.world.setFriction(600.0f);
+
+        // Wide enough for a pile about 20 boxes high
+        int columns = Math.max(16, this.bodyCount / 20 * (int) BOX / (int) TILE + 2);
+        int rows = 64;
+        TileMap tiles = new TileMap(0.0f, 0.0f, TILE, columns, rows);
+        for (int column = 0; column < columns; column++) {
+            tiles.setSolid(column, 0, true);
+        }
+        for (int row = 0; row < rows; row++) {
+            tiles.setSolid(0, row, true);
+            tiles.setSolid(columns - 1, row, true);
+        }
+        this.world.setTileMap(tiles);
+
+        Random random = new Random(42);
+        this.entities = new int[this.bodyCount];
+        float width = (columns - 2) * TILE - BOX;
+        for (int i = 0; i < this.bodyCount; i++) {
+            int entity = this.entities[i] = this.store.create();
+            this.store.setPosition(entity, TILE + random.nextFloat() * width, TILE * 2.0f + random.nextFloat() * (rows - 4) * TILE);
+            this.store.setSize(entity, BOX, BOX);
+            this.world.addBody(entity, PhysicsWorld.DYNAMIC);
+            if (i % 100 == 0) {
+                this.world.setBullet(entity, true);
+                this.world.setVelocity(entity, (random.nextFloat() - 0.5f) * 6000.0f, -3000.0f);
+            }
+        }
+        for (int i = 0; i < 1200 && this.world.getAwakeCount() > 0; i++) {
+            this.world.step(DT);
+        }
+        this.world.setSleepingAllowed(this.sleeping);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        JobSystem.setThreadCount(this.previousThreads);
+    }
+
+    @Benchmark
+    public int step(Counters counters) {
+        if (this.steps++ % KICK_INTERVAL == 0) {
+            this.world.setVelocity(this.entities[this.nextKick], 0.0f, 200.0f);
+            this.nextKick = (this.nextKick + 7919) % this.bodyCount;
+        }
+        this.world.step(DT);
+        counters.bodies += this.bodyCount;
+        return this.world.getAwakeCount();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long bodies;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.bodies = 0;
+        }
+    }
+}
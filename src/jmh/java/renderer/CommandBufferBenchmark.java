@@ -0,0 +1,83 @@
+package renderer;
+
+import jade.Camera;
+import org.joml.Vector2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command buffer recording, sorting and replay against the {@link RecordingBackend}, so no GL context is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommandBufferBenchmark {
+    @Param({"1000", "10000"})
+    public int draws;
+
+    private CommandBuffer commands;
+    private RecordingBackend backend;
+    private RenderBatch batch;
+    private long[] keys;
+    private int[] programs;
+    private int[][] textures;
+
+    private Renderer renderer;
+    private Shader shader;
+    private Camera camera;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        this.commands = new CommandBuffer(this.draws);
+        this.backend = new RecordingBackend();
+        this.batch = new RenderBatch(1);
+        this.keys = new long[this.draws];
+        this.programs = new int[this.draws];
+        this.textures = new int[this.draws][1];
+        for (int i = 0; i < this.draws; i++) {
+            this.programs[i] = 1 + random.nextInt(4);
+            this.textures[i][0] = 1 + random.nextInt(32);
+            this.keys[i] = CommandBuffer.key(random.nextInt(4), this.programs[i], this.textures[i][0], 0);
+        }
+
+        this.renderer = new Renderer();
+        this.shader = new Shader("benchmark", "#type vertex\nvoid main() {}\n#type fragment\nvoid main() {}\n");
+        this.camera = new Camera(new Vector2f());
+    }
+
+    @Benchmark
+    public RecordingBackend recordSortExecute() {
+        this.commands.clear();
+        for (int i = 0; i < this.draws; i++) {
+            this.commands.drawBatch(this.keys[i], this.programs[i], this.batch, 6, this.textures[i], 1);
+        }
+        this.backend.reset();
+        this.commands.execute(this.backend);
+        return this.backend;
+    }
+
+    @Benchmark
+    public RecordingBackend rendererSubmission() {
+        for (int i = 0; i < this.draws; i++) {
+            float x = (i % 100) * 6.0f;
+            float y = (i / 100) * 6.0f;
+            this.renderer.drawQuad(x, y, 6.0f, 6.0f, x / 600.0f, y / 600.0f, 1.0f, 1.0f,
+                    null, 0.0f, 0.0f, 1.0f, 1.0f);
+        }
+        this.commands.clear();
+        this.renderer.record(this.shader, this.camera, this.commands);
+        this.backend.reset();
+        this.commands.execute(this.backend);
+        return this.backend;
+    }
+}
@@ -0,0 +1,87 @@
+package renderer;
+
+import jade.Camera;
+import org.joml.Vector2f;
+import org.lwjgl.opengl.GL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+/**
+ * Full submission path through a real GL context: packing, upload and draw calls into an offscreen
+ * framebuffer. Needs a display, run it under xvfb-run with LIBGL_ALWAYS_SOFTWARE=1 on build boxes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DrawSubmissionBenchmark {
+    private static final String SHADER_PATH = "assets/shaders/default.glsl";
+
+    @Param({"1000", "10000"})
+    public int quads;
+
+    private long glfwWindow;
+    private Framebuffer framebuffer;
+    private Shader shader;
+    private Renderer renderer;
+    private Camera camera;
+
+    @Setup
+    public void setup() {
+        if (!glfwInit()) {
+            throw new IllegalStateException("Unable to initialize GLFW");
+        }
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
+        glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        this.glfwWindow = glfwCreateWindow(640, 360, "benchmark", NULL, NULL);
+        if (this.glfwWindow == NULL) {
+            throw new IllegalStateException("Failed to create the GLFW window");
+        }
+        glfwMakeContextCurrent(this.glfwWindow);
+        GL.createCapabilities();
+        GLStateCache.invalidate();
+
+        this.framebuffer = new Framebuffer(640, 360);
+        this.framebuffer.bind();
+
+        this.shader = new Shader(SHADER_PATH);
+        this.shader.compile();
+        this.renderer = new Renderer();
+        this.camera = new Camera(new Vector2f(0.0f, 0.0f));
+    }
+
+    @Benchmark
+    public void submitAndDraw() {
+        glClear(GL_COLOR_BUFFER_BIT);
+        for (int i = 0; i < this.quads; i++) {
+            float x = (i % 100) * 6.0f;
+            float y = (i / 100) * 3.0f;
+            this.renderer.drawQuad(x, y, 6.0f, 3.0f, x / 600.0f, y / 300.0f, 1.0f, 1.0f,
+                    null, 0.0f, 0.0f, 1.0f, 1.0f);
+        }
+        this.renderer.render(this.shader, this.camera);
+        // Include the driver's share of the work, not just the command submission
+        glFinish();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.framebuffer.delete();
+        glfwDestroyWindow(this.glfwWindow);
+        glfwTerminate();
+    }
+}
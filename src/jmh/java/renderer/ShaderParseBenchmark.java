@@ -0,0 +1,36 @@
+package renderer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preprocessing a shader source into its stages, without the file read and without compiling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShaderParseBenchmark {
+    private static final String PATH = "assets/shaders/default.glsl";
+
+    private String source;
+
+    @Setup
+    public void setup() throws IOException {
+        this.source = new String(Files.readAllBytes(Paths.get(PATH)));
+    }
+
+    @Benchmark
+    public Shader parse() {
+        return new Shader(PATH, this.source);
+    }
+}
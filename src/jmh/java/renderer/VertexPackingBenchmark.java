@@ -0,0 +1,46 @@
+package renderer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of packing sprites into a batch's vertex buffer, as four vertices per quad or as one instance.
+ * Needs no GL context, the batch is never started.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VertexPackingBenchmark {
+    @Param({"100", "1000"})
+    public int quads;
+
+    @Param({"vertices", "instances"})
+    public String layout;
+
+    private QuadBatch batch;
+
+    @Setup
+    public void setup() {
+        this.batch = this.layout.equals("instances") ? new InstanceBatch(1000) : new RenderBatch(1000);
+    }
+
+    @Benchmark
+    public QuadBatch pack() {
+        this.batch.clear();
+        for (int i = 0; i < this.quads; i++) {
+            float x = (i % 100) * 6.0f;
+            float y = (i / 100) * 6.0f;
+            this.batch.addQuad(x, y, 6.0f, 6.0f, x / 600.0f, y / 600.0f, 1.0f, 1.0f,
+                    null, 0.0f, 0.0f, 1.0f, 1.0f);
+        }
+        return this.batch;
+    }
+}
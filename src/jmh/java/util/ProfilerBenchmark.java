@@ -0,0 +1,40 @@
+package util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead the instrumentation adds to every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProfilerBenchmark {
+    private static final int SCOPE = Profiler.register("benchmark");
+
+    private final FrameTimeHistogram histogram = new FrameTimeHistogram();
+    private long frameNanos = 0;
+
+    @Benchmark
+    public void scope() {
+        Profiler.begin(SCOPE);
+        Profiler.end();
+    }
+
+    @Benchmark
+    public void recordFrameTime() {
+        this.frameNanos = (this.frameNanos + 137_731L) % 40_000_000L;
+        this.histogram.record(this.frameNanos);
+    }
+
+    @Benchmark
+    public double p99() {
+        return this.histogram.getP99Millis();
+    }
+}
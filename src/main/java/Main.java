@@ -1,8 +1,86 @@
+import jade.Input;
+import jade.InputRecording;
 import jade.Window;
+import renderer.ShaderWatcher;
+import util.JobSystem;
+import util.Metrics;
+import util.MetricsServer;
+
+import static org.lwjgl.glfw.GLFW.GLFW_EGL_CONTEXT_API;
+import static org.lwjgl.glfw.GLFW.GLFW_OSMESA_CONTEXT_API;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         Window window = Window.get();
-        window.run();
+
+        // [--threads N] [--hot-reload] [--record file | --replay file] [--metrics-port N] [--metrics-log file.jsonl]
+        // --headless [--frames N] [--dt seconds] [--out file.png] [--context native|egl|osmesa]
+        boolean headless = false;
+        int frames = 600;
+        float dt = 1.0f / 60.0f;
+        String out = null;
+        String record = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--headless":
+                    headless = true;
+                    break;
+                case "--frames":
+                    frames = Integer.parseInt(args[++i]);
+                    break;
+                case "--dt":
+                    dt = Float.parseFloat(args[++i]);
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                case "--record":
+                    record = args[++i];
+                    Input.startRecording();
+                    break;
+                case "--replay":
+                    Input.replay(InputRecording.load(Paths.get(args[++i])));
+                    break;
+                case "--hot-reload":
+                    ShaderWatcher.start();
+                    break;
+                case "--metrics-port":
+                    MetricsServer.start(Integer.parseInt(args[++i]));
+                    break;
+                case "--metrics-log":
+                    Metrics.setLog(Paths.get(args[++i]));
+                    break;
+                case "--threads":
+                    JobSystem.setThreadCount(Integer.parseInt(args[++i]));
+                    break;
+                case "--context":
+                    String api = args[++i];
+                    if (api.equals("egl")) {
+                        window.setContextApi(GLFW_EGL_CONTEXT_API);
+                    } else if (api.equals("osmesa")) {
+                        window.setContextApi(GLFW_OSMESA_CONTEXT_API);
+                    }
+                    break;
+                default:
+                    System.out.println("Unknown argument '" + args[i] + "'");
+                    break;
+            }
+        }
+
+        if (headless) {
+            window.runHeadless(frames, dt, out);
+        } else {
+            window.run();
+        }
+        MetricsServer.stop();
+        Metrics.setLog(null);
+        if (record != null) {
+            InputRecording recording = Input.stopRecording();
+            recording.save(Paths.get(record));
+            System.out.println("Recorded " + recording.size() + " input events to '" + record + "'");
+        }
     }
 }
@@ -2,33 +2,70 @@ package jade;
 
 import org.joml.Matrix4f;
 import org.joml.Vector2f;
-import org.joml.Vector3f;
+import org.joml.Vector4f;
 
+/**
+ * Orthographic 2D camera. {@link #position} is the world position of the bottom left corner of the view
+ * and may be changed directly; the matrices are only rebuilt when the position or the viewport changed
+ * since they were last requested.
+ */
 public class Camera {
 
-    private Matrix4f projectionMatrix, viewMatrix;
+    private final Matrix4f projectionMatrix, viewMatrix, viewProjectionMatrix;
     public Vector2f position;
-    //private int i = 0;
+
+    private float viewportWidth, viewportHeight;
+    // Position the cached matrices were built for
+    private float cachedX, cachedY;
+    private boolean dirty;
 
     public Camera(Vector2f position) {
+        this(position, 1280.0f, 720.0f);
+    }
+
+    public Camera(Vector2f position, float viewportWidth, float viewportHeight) {
         this.position = position;
         this.projectionMatrix = new Matrix4f();
         this.viewMatrix = new Matrix4f();
+        this.viewProjectionMatrix = new Matrix4f();
+        this.viewportWidth = viewportWidth;
+        this.viewportHeight = viewportHeight;
         this.adjustProjection();
     }
 
     public void adjustProjection() {
         this.projectionMatrix.identity();
-        this.projectionMatrix.ortho(0.0f, 1280.0f, 0.0f, 720.0f, 0.0f, 100.0f);
+        this.projectionMatrix.ortho(0.0f, this.viewportWidth, 0.0f, this.viewportHeight, 0.0f, 100.0f);
+        this.dirty = true;
+    }
+
+    /**
+     * Resizes the visible area, one world unit per pixel.
+     */
+    public void setViewportSize(float width, float height) {
+        if (width <= 0.0f || height <= 0.0f) {
+            // Minimized window, keep the last usable projection
+            return;
+        }
+        this.viewportWidth = width;
+        this.viewportHeight = height;
+        this.adjustProjection();
+    }
+
+    private void update() {
+        if (!this.dirty && this.position.x == this.cachedX && this.position.y == this.cachedY) {
+            return;
+        }
+        this.cachedX = this.position.x;
+        this.cachedY = this.position.y;
+        // Same as looking down -z from (x, y, 20) with +y up
+        this.viewMatrix.translation(-this.cachedX, -this.cachedY, -20.0f);
+        this.projectionMatrix.mul(this.viewMatrix, this.viewProjectionMatrix);
+        this.dirty = false;
     }
 
     public Matrix4f getViewMatrix() {
-        Vector3f cameraFront = new Vector3f(0.0f, 0.0f, -1.0f);
-        Vector3f cameraUp = new Vector3f(0.0f, 1.0f, 0.0f);
-        this.viewMatrix.identity();
-        this.viewMatrix = viewMatrix.lookAt(new Vector3f(position.x, position.y, 20.0f),
-                cameraFront.add(position.x, position.y, 0.0f),
-                cameraUp);
+        this.update();
         return this.viewMatrix;
     }
 
@@ -36,4 +73,45 @@ public class Camera {
         return this.projectionMatrix;
     }
 
+    /**
+     * @return projection * view, ready to be uploaded as a single uniform
+     */
+    public Matrix4f getViewProjectionMatrix() {
+        this.update();
+        return this.viewProjectionMatrix;
+    }
+
+    public float getViewportWidth() {
+        return this.viewportWidth;
+    }
+
+    public float getViewportHeight() {
+        return this.viewportHeight;
+    }
+
+    /**
+     * Stores the visible world rectangle as (minX, minY, maxX, maxY).
+     */
+    public Vector4f getWorldBounds(Vector4f dest) {
+        return dest.set(this.position.x, this.position.y,
+                this.position.x + this.viewportWidth, this.position.y + this.viewportHeight);
+    }
+
+    /**
+     * @return whether the world space box overlaps the visible area
+     */
+    public boolean isVisible(float minX, float minY, float maxX, float maxY) {
+        float left = this.position.x;
+        float bottom = this.position.y;
+        return maxX >= left && minX <= left + this.viewportWidth
+                && maxY >= bottom && minY <= bottom + this.viewportHeight;
+    }
+
+    /**
+     * Converts a window position, with the origin at the top left like GLFW reports it, into world space.
+     */
+    public Vector2f screenToWorld(float screenX, float screenY, Vector2f dest) {
+        return dest.set(this.position.x + screenX, this.position.y + this.viewportHeight - screenY);
+    }
+
 }
@@ -0,0 +1,35 @@
+package jade;
+
+/**
+ * Behaviour attached to a {@link GameObject}. Data that every frame touches for many objects, like
+ * transforms and sprites, belongs in the scene's {@link EntityStore} instead of in components.
+ */
+public abstract class Component {
+
+    protected GameObject gameObject;
+
+    /**
+     * Called once, on the first update after the component was added.
+     */
+    public void start() {
+
+    }
+
+    /**
+     * Called every fixed tick, after the entity systems ran.
+     */
+    public void update(float dt) {
+
+    }
+
+    /**
+     * Called when the component or its game object is removed.
+     */
+    public void destroy() {
+
+    }
+
+    public GameObject getGameObject() {
+        return this.gameObject;
+    }
+}
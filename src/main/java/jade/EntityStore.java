@@ -0,0 +1,598 @@
+package jade;
+
+import renderer.Renderer;
+import renderer.Sprite;
+import util.IntList;
+import util.JobSystem;
+
+import java.util.Arrays;
+
+/**
+ * Component storage of a scene. Every live entity owns one slot in a set of parallel primitive arrays,
+ * and the slots of live entities are always packed at the front, so systems walk contiguous memory
+ * instead of following references from object to object. Destroying an entity moves the last slot
+ * into the hole, so slots don't keep any order; sprites are drawn in the order their entities were
+ * created instead, see {@link #getDrawOrder(int)}. Arrays only grow, so a scene that stopped growing
+ * doesn't allocate anymore.
+ * <p>
+ * Entities are referred to by id. An id stays valid until its entity is destroyed; ids are reused
+ * afterwards, with a new generation so stale handles can be detected with {@link #isAlive(int)}.
+ * Not thread safe.
+ */
+public class EntityStore {
+    public static final int TRANSFORM = 1;
+    public static final int MOTION = 1 << 1;
+    public static final int SPRITE = 1 << 2;
+
+    // Bookkeeping bits next to the components, never set by callers
+    private static final int MOVED = 1 << 26;
+    private static final int CHANGED = 1 << 27;
+    private static final int BOUNDS_DIRTY = 1 << 28;
+    private static final int IN_STATIC_INDEX = 1 << 29;
+    private static final int IN_DYNAMIC_INDEX = 1 << 30;
+
+    private static final int INITIAL_CAPACITY = 256;
+    // Smallest part of a system loop worth handing to another thread
+    private static final int PARALLEL_CHUNK = 2048;
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    public static final int MAX_ENTITIES = 1 << INDEX_BITS;
+
+    // Id index -> dense slot, and the generation each id index is at
+    private int[] slotOf;
+    private int[] generations;
+    private int[] freeIndices;
+    private int freeCount;
+    private int nextIndex;
+
+    // Dense slot -> data, packed in [0, size)
+    private int size;
+    private int[] ids;
+    private int[] masks;
+    private float[] x, y, previousX, previousY;
+    private float[] width, height;
+    private float[] velocityX, velocityY;
+    private float[] r, g, b, a;
+    private Sprite[] sprites;
+    // Creation sequence of every slot's entity, see getDrawOrder
+    private long[] drawOrders;
+    private long nextDrawOrder;
+
+    private UniformGrid staticIndex;
+    private LooseQuadtree dynamicIndex;
+    // Whether anything changed that the spatial index doesn't reflect yet
+    private boolean spatialIndexDirty;
+
+    // Ids destroyed since the last clearChanges(), only collected while tracking changes
+    private boolean trackingChanges;
+    private final IntList destroyedIds = new IntList();
+
+    // State of the running system for the job system tasks, kept in fields so a frame doesn't allocate
+    private final JobSystem.RangeTask integrateTask = this::integrateRange;
+    private final JobSystem.RangeTask writeSpritesTask = this::writeSprites;
+    private float integrateDt;
+    private final IntList spriteSlots = new IntList();
+    // Draw order in the high bits and slot in the low ones, sorted to put the sprite slots in draw order
+    private long[] spriteOrder = new long[INITIAL_CAPACITY];
+    private final IntList spriteQuads = new IntList();
+    private Renderer submitRenderer;
+    private float submitAlpha;
+
+    public EntityStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public EntityStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.slotOf = new int[capacity];
+        this.generations = new int[capacity];
+        this.freeIndices = new int[capacity];
+        this.ids = new int[capacity];
+        this.masks = new int[capacity];
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.previousX = new float[capacity];
+        this.previousY = new float[capacity];
+        this.width = new float[capacity];
+        this.height = new float[capacity];
+        this.velocityX = new float[capacity];
+        this.velocityY = new float[capacity];
+        this.r = new float[capacity];
+        this.g = new float[capacity];
+        this.b = new float[capacity];
+        this.a = new float[capacity];
+        this.sprites = new Sprite[capacity];
+        this.drawOrders = new long[capacity];
+    }
+
+    /**
+     * @return the id of a new entity with only a transform at the origin
+     */
+    public int create() {
+        int index;
+        if (this.freeCount > 0) {
+            index = this.freeIndices[--this.freeCount];
+        } else {
+            if (this.nextIndex == MAX_ENTITIES) {
+                throw new IllegalStateException("Error: More than " + MAX_ENTITIES + " entities");
+            }
+            index = this.nextIndex++;
+            if (index == this.slotOf.length) {
+                int capacity = Math.min(this.slotOf.length * 2, MAX_ENTITIES);
+                this.slotOf = Arrays.copyOf(this.slotOf, capacity);
+                this.generations = Arrays.copyOf(this.generations, capacity);
+                this.freeIndices = Arrays.copyOf(this.freeIndices, capacity);
+            }
+        }
+        if (this.size == this.ids.length) {
+            this.grow(this.ids.length * 2);
+        }
+
+        int slot = this.size++;
+        int id = (this.generations[index] << INDEX_BITS) | index;
+        this.slotOf[index] = slot;
+        this.ids[slot] = id;
+        this.masks[slot] = TRANSFORM | BOUNDS_DIRTY | CHANGED;
+        this.spatialIndexDirty = true;
+        this.x[slot] = this.y[slot] = this.previousX[slot] = this.previousY[slot] = 0.0f;
+        this.width[slot] = this.height[slot] = 1.0f;
+        this.velocityX[slot] = this.velocityY[slot] = 0.0f;
+        this.r[slot] = this.g[slot] = this.b[slot] = this.a[slot] = 1.0f;
+        this.sprites[slot] = null;
+        this.drawOrders[slot] = this.nextDrawOrder++;
+        return id;
+    }
+
+    public void destroy(int id) {
+        int slot = this.slot(id);
+        if ((this.masks[slot] & IN_STATIC_INDEX) != 0) {
+            this.staticIndex.remove(id);
+        }
+        if ((this.masks[slot] & IN_DYNAMIC_INDEX) != 0) {
+            this.dynamicIndex.remove(id);
+        }
+        if (this.trackingChanges) {
+            this.destroyedIds.add(id);
+        }
+        int index = id & INDEX_MASK;
+        int last = --this.size;
+        if (slot != last) {
+            this.ids[slot] = this.ids[last];
+            this.masks[slot] = this.masks[last];
+            this.x[slot] = this.x[last];
+            this.y[slot] = this.y[last];
+            this.previousX[slot] = this.previousX[last];
+            this.previousY[slot] = this.previousY[last];
+            this.width[slot] = this.width[last];
+            this.height[slot] = this.height[last];
+            this.velocityX[slot] = this.velocityX[last];
+            this.velocityY[slot] = this.velocityY[last];
+            this.r[slot] = this.r[last];
+            this.g[slot] = this.g[last];
+            this.b[slot] = this.b[last];
+            this.a[slot] = this.a[last];
+            this.sprites[slot] = this.sprites[last];
+            this.drawOrders[slot] = this.drawOrders[last];
+            this.slotOf[this.ids[slot] & INDEX_MASK] = slot;
+        }
+        this.sprites[last] = null;
+        this.generations[index] = (this.generations[index] + 1) & (Integer.MAX_VALUE >>> INDEX_BITS);
+        this.freeIndices[this.freeCount++] = index;
+    }
+
+    /**
+     * @return the part of the id that stays the same for the lifetime of the entity and is below
+     * {@link #MAX_ENTITIES}, usable as an array index
+     */
+    public static int indexOf(int id) {
+        return id & INDEX_MASK;
+    }
+
+    public boolean isAlive(int id) {
+        int index = id & INDEX_MASK;
+        return id >= 0 && index < this.nextIndex && (id >>> INDEX_BITS) == this.generations[index]
+                && this.slotOf[index] < this.size && this.ids[this.slotOf[index]] == id;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void clear() {
+        while (this.size > 0) {
+            this.destroy(this.ids[this.size - 1]);
+        }
+    }
+
+    private int slot(int id) {
+        assert this.isAlive(id) : "Error: Entity " + id + " is not alive";
+        return this.slotOf[id & INDEX_MASK];
+    }
+
+    /**
+     * @return a number that grows with every entity created, so an entity's sprite is drawn over the
+     * sprites of every entity created before it. Unlike its slot it never changes.
+     */
+    public long getDrawOrder(int id) {
+        return this.drawOrders[this.slot(id)];
+    }
+
+    // ==========================================================
+    // Change tracking
+    // ==========================================================
+
+    /**
+     * Starts or stops collecting destroyed ids for {@link #getDestroyedIds()}. Changed entities are always
+     * flagged, tracking only decides whether destroyed ones are remembered.
+     */
+    void setTrackingChanges(boolean tracking) {
+        this.trackingChanges = tracking;
+        if (!tracking) {
+            this.destroyedIds.clear();
+        }
+    }
+
+    /**
+     * @return whether the entity was created, set or moved by its velocity since the last {@link #clearChanges()}
+     */
+    boolean isChanged(int id) {
+        int slot = this.slot(id);
+        return (this.masks[slot] & CHANGED) != 0 || this.velocityX[slot] != 0.0f || this.velocityY[slot] != 0.0f;
+    }
+
+    /**
+     * @return the ids destroyed since the last {@link #clearChanges()} while tracking changes
+     */
+    IntList getDestroyedIds() {
+        return this.destroyedIds;
+    }
+
+    void clearChanges() {
+        for (int i = 0; i < this.size; i++) {
+            this.masks[i] &= ~CHANGED;
+        }
+        this.destroyedIds.clear();
+    }
+
+    private void grow(int capacity) {
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.masks = Arrays.copyOf(this.masks, capacity);
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.previousX = Arrays.copyOf(this.previousX, capacity);
+        this.previousY = Arrays.copyOf(this.previousY, capacity);
+        this.width = Arrays.copyOf(this.width, capacity);
+        this.height = Arrays.copyOf(this.height, capacity);
+        this.velocityX = Arrays.copyOf(this.velocityX, capacity);
+        this.velocityY = Arrays.copyOf(this.velocityY, capacity);
+        this.r = Arrays.copyOf(this.r, capacity);
+        this.g = Arrays.copyOf(this.g, capacity);
+        this.b = Arrays.copyOf(this.b, capacity);
+        this.a = Arrays.copyOf(this.a, capacity);
+        this.sprites = Arrays.copyOf(this.sprites, capacity);
+        this.drawOrders = Arrays.copyOf(this.drawOrders, capacity);
+    }
+
+    // ==========================================================
+    // Component access
+    // ==========================================================
+    /**
+     * @return whether the entity has all of the given components, e.g. {@code MOTION | SPRITE}
+     */
+    public boolean has(int id, int components) {
+        return (this.masks[this.slot(id)] & components) == components;
+    }
+
+    /**
+     * Moves the entity without interpolating from its old position.
+     */
+    public void setPosition(int id, float x, float y) {
+        int slot = this.slot(id);
+        this.x[slot] = this.previousX[slot] = x;
+        this.y[slot] = this.previousY[slot] = y;
+        this.masks[slot] |= BOUNDS_DIRTY | CHANGED;
+        this.spatialIndexDirty = true;
+    }
+
+    /**
+     * Moves the entity the way a system does during a tick: unlike {@link #setPosition(int, float, float)}
+     * the previous position stays, so the move is interpolated, and the spatial index treats the entity as
+     * moving until the next update. Only writes to the entity's own slot, so systems may call it for
+     * different entities from several threads.
+     */
+    public void setSimulatedPosition(int id, float x, float y) {
+        int slot = this.slot(id);
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.masks[slot] |= MOVED | CHANGED;
+        this.spatialIndexDirty = true;
+    }
+
+    public float getX(int id) {
+        return this.x[this.slot(id)];
+    }
+
+    public float getY(int id) {
+        return this.y[this.slot(id)];
+    }
+
+    public void setSize(int id, float width, float height) {
+        int slot = this.slot(id);
+        this.width[slot] = width;
+        this.height[slot] = height;
+        this.masks[slot] |= BOUNDS_DIRTY | CHANGED;
+        this.spatialIndexDirty = true;
+    }
+
+    public float getWidth(int id) {
+        return this.width[this.slot(id)];
+    }
+
+    public float getHeight(int id) {
+        return this.height[this.slot(id)];
+    }
+
+    public void setVelocity(int id, float velocityX, float velocityY) {
+        int slot = this.slot(id);
+        this.velocityX[slot] = velocityX;
+        this.velocityY[slot] = velocityY;
+        this.masks[slot] |= MOTION | CHANGED;
+        this.spatialIndexDirty = true;
+    }
+
+    public float getVelocityX(int id) {
+        return this.velocityX[this.slot(id)];
+    }
+
+    public float getVelocityY(int id) {
+        return this.velocityY[this.slot(id)];
+    }
+
+    /**
+     * @param sprite texture region to draw, or null for a plain colored quad
+     */
+    public void setSprite(int id, Sprite sprite, float r, float g, float b, float a) {
+        int slot = this.slot(id);
+        this.sprites[slot] = sprite;
+        this.r[slot] = r;
+        this.g[slot] = g;
+        this.b[slot] = b;
+        this.a[slot] = a;
+        this.masks[slot] |= SPRITE | CHANGED;
+    }
+
+    public Sprite getSprite(int id) {
+        return this.sprites[this.slot(id)];
+    }
+
+    public float getRed(int id) {
+        return this.r[this.slot(id)];
+    }
+
+    public float getGreen(int id) {
+        return this.g[this.slot(id)];
+    }
+
+    public float getBlue(int id) {
+        return this.b[this.slot(id)];
+    }
+
+    public float getAlpha(int id) {
+        return this.a[this.slot(id)];
+    }
+
+    /**
+     * @return the components of the entity, e.g. {@code TRANSFORM | SPRITE}
+     */
+    public int getComponents(int id) {
+        return this.masks[this.slot(id)] & (TRANSFORM | MOTION | SPRITE);
+    }
+
+    public void remove(int id, int components) {
+        assert (components & TRANSFORM) == 0 : "Error: The transform can't be removed";
+        int slot = this.slot(id);
+        this.masks[slot] = (this.masks[slot] & ~components) | BOUNDS_DIRTY | CHANGED;
+        this.spatialIndexDirty = true;
+        if ((components & MOTION) != 0) {
+            this.velocityX[slot] = this.velocityY[slot] = 0.0f;
+        }
+        if ((components & SPRITE) != 0) {
+            this.sprites[slot] = null;
+        }
+    }
+
+    // ==========================================================
+    // Systems
+    // ==========================================================
+
+    /**
+     * Remembers the current positions for interpolation and moves every entity by its velocity.
+     * Entities without {@link #MOTION} have zero velocity, so all of them are stepped branch free; only
+     * the moving ones that aren't at rest are marked for {@link #updateSpatialIndex()}. Runs on the
+     * {@link JobSystem}.
+     */
+    public void integrate(float dt) {
+        this.integrateDt = dt;
+        JobSystem.parallelFor(this.size, PARALLEL_CHUNK, this.integrateTask);
+    }
+
+    private void integrateRange(int from, int to) {
+        float[] x = this.x, y = this.y;
+        float[] previousX = this.previousX, previousY = this.previousY;
+        float[] velocityX = this.velocityX, velocityY = this.velocityY;
+        int[] masks = this.masks;
+        // Moving entities whose swept box stays the same, because they were and still are at rest, keep
+        // their place in the spatial index
+        boolean moved = false;
+        for (int i = from; i < to; i++) {
+            if ((masks[i] & MOTION) != 0 && (velocityX[i] != 0.0f || velocityY[i] != 0.0f
+                    || previousX[i] != x[i] || previousY[i] != y[i])) {
+                masks[i] |= MOVED;
+                moved = true;
+            }
+        }
+        if (moved) {
+            // Only ever set here, so ranges racing on it all write the same value
+            this.spatialIndexDirty = true;
+        }
+        System.arraycopy(x, from, previousX, from, to - from);
+        System.arraycopy(y, from, previousY, from, to - from);
+        float dt = this.integrateDt;
+        for (int i = from; i < to; i++) {
+            x[i] += velocityX[i] * dt;
+            y[i] += velocityY[i] * dt;
+        }
+    }
+
+    /**
+     * Queues a quad for every entity with a {@link #SPRITE}, in {@link #getDrawOrder(int) draw order}.
+     *
+     * @param alpha how far to interpolate from the previous to the current position, from 0 to 1
+     */
+    public void submitSprites(Renderer renderer, float alpha) {
+        int count = 0;
+        for (int i = 0; i < this.size; i++) {
+            if ((this.masks[i] & SPRITE) != 0) {
+                count = this.addSpriteOrder(count, i);
+            }
+        }
+        this.sortSpriteSlots(count);
+        this.submitSlots(renderer, alpha);
+    }
+
+    /**
+     * Queues a quad for the given entities that have a {@link #SPRITE}. They are drawn in draw order,
+     * like {@link #submitSprites(Renderer, float)} would, so overlapping sprites keep their order.
+     */
+    public void submitSprites(Renderer renderer, float alpha, IntList ids) {
+        int count = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            int slot = this.slot(ids.get(i));
+            if ((this.masks[slot] & SPRITE) != 0) {
+                count = this.addSpriteOrder(count, slot);
+            }
+        }
+        this.sortSpriteSlots(count);
+        this.submitSlots(renderer, alpha);
+    }
+
+    private int addSpriteOrder(int count, int slot) {
+        if (count == this.spriteOrder.length) {
+            this.spriteOrder = Arrays.copyOf(this.spriteOrder, count * 2);
+        }
+        // Slots are below MAX_ENTITIES, so they fit below the draw order
+        this.spriteOrder[count] = (this.drawOrders[slot] << INDEX_BITS) | slot;
+        return count + 1;
+    }
+
+    private void sortSpriteSlots(int count) {
+        long[] order = this.spriteOrder;
+        // Slots stay in draw order until something is destroyed, skip the sort while they do
+        boolean sorted = true;
+        for (int i = 1; i < count && sorted; i++) {
+            sorted = order[i - 1] < order[i];
+        }
+        if (!sorted) {
+            Arrays.sort(order, 0, count);
+        }
+        IntList slots = this.spriteSlots;
+        slots.clear();
+        for (int i = 0; i < count; i++) {
+            slots.add((int) (order[i] & INDEX_MASK));
+        }
+    }
+
+    /**
+     * Claims the quads in order on this thread, which decides batches and texture slots, then lets the
+     * {@link JobSystem} write the vertices.
+     */
+    private void submitSlots(Renderer renderer, float alpha) {
+        IntList slots = this.spriteSlots;
+        IntList quads = this.spriteQuads;
+        quads.clear();
+        for (int i = 0; i < slots.size(); i++) {
+            Sprite sprite = this.sprites[slots.get(i)];
+            quads.add(renderer.reserveQuad(sprite == null ? null : sprite.getTexture()));
+        }
+        this.submitRenderer = renderer;
+        this.submitAlpha = alpha;
+        JobSystem.parallelFor(slots.size(), PARALLEL_CHUNK, this.writeSpritesTask);
+        this.submitRenderer = null;
+    }
+
+    private void writeSprites(int from, int to) {
+        Renderer renderer = this.submitRenderer;
+        float alpha = this.submitAlpha;
+        for (int i = from; i < to; i++) {
+            int slot = this.spriteSlots.get(i);
+            float drawX = this.previousX[slot] + (this.x[slot] - this.previousX[slot]) * alpha;
+            float drawY = this.previousY[slot] + (this.y[slot] - this.previousY[slot]) * alpha;
+            Sprite sprite = this.sprites[slot];
+            if (sprite == null) {
+                renderer.writeQuad(this.spriteQuads.get(i), drawX, drawY, this.width[slot], this.height[slot],
+                        this.r[slot], this.g[slot], this.b[slot], this.a[slot],
+                        null, 0.0f, 0.0f, 1.0f, 1.0f);
+            } else {
+                renderer.writeQuad(this.spriteQuads.get(i), drawX, drawY, this.width[slot], this.height[slot],
+                        this.r[slot], this.g[slot], this.b[slot], this.a[slot],
+                        sprite.getTexture(), sprite.getU0(), sprite.getV0(), sprite.getU1(), sprite.getV1());
+            }
+        }
+    }
+
+    /**
+     * Entities with {@link #MOTION} go into the dynamic index, everything else into the static one.
+     * Must be set before the first {@link #updateSpatialIndex()}.
+     */
+    public void setSpatialIndex(UniformGrid staticIndex, LooseQuadtree dynamicIndex) {
+        assert this.staticIndex == null : "Error: Spatial index is already set";
+        this.staticIndex = staticIndex;
+        this.dynamicIndex = dynamicIndex;
+    }
+
+    /**
+     * @return whether entities were created, moved or resized since the last {@link #updateSpatialIndex()}
+     */
+    public boolean isSpatialIndexDirty() {
+        return this.spatialIndexDirty;
+    }
+
+    /**
+     * Brings the spatial index up to date, and returns right away when nothing changed since the last
+     * call. Moving entities are indexed with the box swept between their previous and current position, so
+     * it covers every interpolated position in between; those at rest since the last update are skipped.
+     * Static entities are only touched when they were moved, resized or lost their motion.
+     */
+    public void updateSpatialIndex() {
+        if (!this.spatialIndexDirty) {
+            return;
+        }
+        this.spatialIndexDirty = false;
+        int count = this.size;
+        int[] masks = this.masks;
+        for (int i = 0; i < count; i++) {
+            int mask = masks[i];
+            if ((mask & (MOTION | MOVED)) != 0) {
+                if ((mask & (MOVED | BOUNDS_DIRTY | IN_DYNAMIC_INDEX)) == IN_DYNAMIC_INDEX) {
+                    continue;
+                }
+                if ((mask & IN_STATIC_INDEX) != 0) {
+                    this.staticIndex.remove(this.ids[i]);
+                }
+                float minX = Math.min(this.x[i], this.previousX[i]);
+                float minY = Math.min(this.y[i], this.previousY[i]);
+                float maxX = Math.max(this.x[i], this.previousX[i]) + this.width[i];
+                float maxY = Math.max(this.y[i], this.previousY[i]) + this.height[i];
+                this.dynamicIndex.update(this.ids[i], minX, minY, maxX, maxY);
+                masks[i] = (mask & ~(IN_STATIC_INDEX | BOUNDS_DIRTY | MOVED)) | IN_DYNAMIC_INDEX;
+            } else if ((mask & (BOUNDS_DIRTY | IN_STATIC_INDEX)) != IN_STATIC_INDEX) {
+                if ((mask & IN_DYNAMIC_INDEX) != 0) {
+                    this.dynamicIndex.remove(this.ids[i]);
+                }
+                this.staticIndex.update(this.ids[i], this.x[i], this.y[i],
+                        this.x[i] + this.width[i], this.y[i] + this.height[i]);
+                masks[i] = (mask & ~(IN_DYNAMIC_INDEX | BOUNDS_DIRTY)) | IN_STATIC_INDEX;
+            }
+        }
+    }
+}
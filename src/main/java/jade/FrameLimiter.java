@@ -0,0 +1,71 @@
+package jade;
+
+import util.Time;
+
+/**
+ * Holds frames to a target rate with a sleep/spin hybrid. Thread.sleep is cheap on CPU but overshoots
+ * by an OS dependent amount, so it only sleeps while the remaining time exceeds the observed overshoot
+ * and spins for the rest.
+ */
+public class FrameLimiter {
+    private static final long SLEEP_NANOS = 1_000_000L;
+
+    private long frameNanos;
+    private long nextDeadline;
+
+    // Running mean and variance of how long a 1 ms sleep really takes (Welford)
+    private double sleepMean = SLEEP_NANOS * 2.0;
+    private double sleepM2 = 0.0;
+    private long sleepCount = 1;
+
+    public FrameLimiter(int targetFps) {
+        this.setTargetFps(targetFps);
+    }
+
+    public void setTargetFps(int targetFps) {
+        assert targetFps > 0 : "Error: Target fps must be positive, got " + targetFps;
+        this.frameNanos = 1_000_000_000L / targetFps;
+        this.nextDeadline = 0;
+    }
+
+    /**
+     * Blocks until the current frame has used up its budget.
+     */
+    public void sync() {
+        long now = Time.getNanos();
+        if (this.nextDeadline == 0 || now - this.nextDeadline > this.frameNanos) {
+            // First frame, or we fell more than a frame behind: don't try to catch up with a burst
+            this.nextDeadline = now + this.frameNanos;
+            return;
+        }
+
+        while (true) {
+            long remaining = this.nextDeadline - now;
+            double estimate = this.sleepMean + Math.sqrt(this.sleepM2 / this.sleepCount);
+            if (remaining <= estimate) {
+                break;
+            }
+            try {
+                Thread.sleep(SLEEP_NANOS / 1_000_000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long after = Time.getNanos();
+            this.recordSleep(after - now);
+            now = after;
+        }
+
+        while (Time.getNanos() < this.nextDeadline) {
+            Thread.yield();
+        }
+        this.nextDeadline += this.frameNanos;
+    }
+
+    private void recordSleep(long observed) {
+        this.sleepCount++;
+        double delta = observed - this.sleepMean;
+        this.sleepMean += delta / this.sleepCount;
+        this.sleepM2 += delta * (observed - this.sleepMean);
+    }
+}
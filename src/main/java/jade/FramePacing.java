@@ -0,0 +1,13 @@
+package jade;
+
+/**
+ * How {@link Window#loop()} paces presented frames. The simulation tick rate is independent of it.
+ */
+public enum FramePacing {
+    // Let the swap interval block until the next vertical blank
+    VSYNC,
+    // Present as fast as possible
+    UNCAPPED,
+    // Sleep, then spin, until the frame budget of the target frame rate is used up
+    CAPPED
+}
@@ -0,0 +1,142 @@
+package jade;
+
+import renderer.Sprite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named entity of a scene. Its transform, motion and sprite live in the scene's {@link EntityStore} and
+ * are only reached through the entity id, so game objects can be created by the ten thousands without
+ * the systems ever touching these objects. Components add per-object behaviour on top.
+ */
+public class GameObject {
+
+    private final String name;
+    private final EntityStore store;
+    private final int entity;
+    private final List<Component> components;
+    private int started;
+
+    GameObject(String name, EntityStore store) {
+        this.name = name;
+        this.store = store;
+        this.entity = store.create();
+        this.components = new ArrayList<>();
+        this.started = 0;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getEntity() {
+        return this.entity;
+    }
+
+    public boolean isAlive() {
+        return this.store.isAlive(this.entity);
+    }
+
+    public <T extends Component> T addComponent(T component) {
+        assert component.gameObject == null : "Error: Component already belongs to '" + component.gameObject.getName() + "'";
+        component.gameObject = this;
+        this.components.add(component);
+        return component;
+    }
+
+    public <T extends Component> T getComponent(Class<T> componentClass) {
+        for (int i = 0; i < this.components.size(); i++) {
+            Component component = this.components.get(i);
+            if (componentClass.isInstance(component)) {
+                return componentClass.cast(component);
+            }
+        }
+        return null;
+    }
+
+    public void removeComponent(Component component) {
+        int index = this.components.indexOf(component);
+        if (index >= 0) {
+            this.components.remove(index);
+            if (index < this.started) {
+                this.started--;
+            }
+            component.destroy();
+            component.gameObject = null;
+        }
+    }
+
+    public boolean hasComponents() {
+        return !this.components.isEmpty();
+    }
+
+    void update(float dt) {
+        // Components added during an update start on the next one
+        int count = this.components.size();
+        while (this.started < count) {
+            this.components.get(this.started++).start();
+        }
+        for (int i = 0; i < count && i < this.components.size(); i++) {
+            this.components.get(i).update(dt);
+        }
+    }
+
+    void destroy() {
+        for (int i = this.components.size() - 1; i >= 0; i--) {
+            Component component = this.components.get(i);
+            component.destroy();
+            component.gameObject = null;
+        }
+        this.components.clear();
+        this.store.destroy(this.entity);
+    }
+
+    // ==========================================================
+    // Shortcuts into the entity store
+    // ==========================================================
+    public GameObject setPosition(float x, float y) {
+        this.store.setPosition(this.entity, x, y);
+        return this;
+    }
+
+    public float getX() {
+        return this.store.getX(this.entity);
+    }
+
+    public float getY() {
+        return this.store.getY(this.entity);
+    }
+
+    public GameObject setSize(float width, float height) {
+        this.store.setSize(this.entity, width, height);
+        return this;
+    }
+
+    public float getWidth() {
+        return this.store.getWidth(this.entity);
+    }
+
+    public float getHeight() {
+        return this.store.getHeight(this.entity);
+    }
+
+    public GameObject setVelocity(float velocityX, float velocityY) {
+        this.store.setVelocity(this.entity, velocityX, velocityY);
+        return this;
+    }
+
+    public GameObject setColor(float r, float g, float b, float a) {
+        this.store.setSprite(this.entity, this.store.has(this.entity, EntityStore.SPRITE)
+                ? this.store.getSprite(this.entity) : null, r, g, b, a);
+        return this;
+    }
+
+    /**
+     * Draws the sprite untinted, call {@link #setColor(float, float, float, float)} afterwards to tint it.
+     */
+    public GameObject setSprite(Sprite sprite) {
+        this.store.setSprite(this.entity, sprite, 1.0f, 1.0f, 1.0f, 1.0f);
+        return this;
+    }
+}
@@ -0,0 +1,193 @@
+package jade;
+
+import util.Time;
+
+import static org.lwjgl.glfw.GLFW.GLFW_PRESS;
+import static org.lwjgl.glfw.GLFW.GLFW_RELEASE;
+
+/**
+ * Input as a stream of events instead of shared state. The GLFW callbacks only append to a lock-free
+ * ring; {@link #update()} drains it once per simulation tick, on the main thread, and publishes an
+ * immutable {@link InputSnapshot}. Nothing that arrives between two ticks is lost, and events that
+ * arrive during a frame without a tick wait for the next one.
+ * <p>
+ * Applied events can be recorded and replayed, see {@link InputRecording}. While replaying, live
+ * events are ignored.
+ */
+public class Input {
+    private static final int RING_CAPACITY = 4096;
+
+    private static final InputRing ring = new InputRing(RING_CAPACITY);
+    private static volatile InputSnapshot current = InputSnapshot.EMPTY;
+
+    // State being built, main thread only
+    private static final long[] keysDown = new long[InputSnapshot.KEY_WORDS];
+    private static final long[] keysPressed = new long[InputSnapshot.KEY_WORDS];
+    private static final long[] keysReleased = new long[InputSnapshot.KEY_WORDS];
+    private static int buttonsDown, buttonsPressed, buttonsReleased, buttonsDragging;
+    private static double x, y, lastX, lastY, scrollX, scrollY;
+    private static long tick;
+
+    // Ticks in recordings count from the tick the recording or the replay started at
+    private static InputRecording recording;
+    private static long recordingStart;
+    private static InputRecording replay;
+    private static long replayStart;
+    private static int replayPosition;
+
+    private Input() {
+
+    }
+
+    public static void keyCallback(long window, int key, int scanCode, int action, int mods) {
+        push(InputRing.KEY, key, action, 0.0, 0.0);
+    }
+
+    public static void mouseButtonCallback(long window, int button, int action, int mods) {
+        push(InputRing.MOUSE_BUTTON, button, action, 0.0, 0.0);
+    }
+
+    public static void cursorPosCallback(long window, double xPos, double yPos) {
+        push(InputRing.CURSOR, 0, 0, xPos, yPos);
+    }
+
+    public static void scrollCallback(long window, double xOffset, double yOffset) {
+        push(InputRing.SCROLL, 0, 0, xOffset, yOffset);
+    }
+
+    private static void push(int type, int code, int action, double eventX, double eventY) {
+        if (replay == null) {
+            ring.offer(type, code, action, eventX, eventY, Time.getNanos());
+        }
+    }
+
+    /**
+     * Applies every event that arrived since the last call and publishes the result. Call once per
+     * simulation tick, before the scene updates.
+     */
+    public static InputSnapshot update() {
+        for (int i = 0; i < InputSnapshot.KEY_WORDS; i++) {
+            keysPressed[i] = 0;
+            keysReleased[i] = 0;
+        }
+        buttonsPressed = 0;
+        buttonsReleased = 0;
+        scrollX = 0.0;
+        scrollY = 0.0;
+        lastX = x;
+        lastY = y;
+
+        if (replay != null) {
+            while (replayPosition < replay.size() && replay.getTick(replayPosition) <= tick - replayStart) {
+                int i = replayPosition++;
+                apply(replay.getType(i), replay.getCode(i), replay.getAction(i), replay.getX(i), replay.getY(i),
+                        replay.getTime(i));
+            }
+            if (replayPosition == replay.size()) {
+                replay = null;
+            }
+        }
+        while (ring.hasNext()) {
+            apply(ring.type(), ring.code(), ring.action(), ring.x(), ring.y(), ring.time());
+            ring.advance();
+        }
+
+        current = new InputSnapshot(tick, keysDown, keysPressed, keysReleased,
+                buttonsDown, buttonsPressed, buttonsReleased, buttonsDragging,
+                (float) x, (float) y, (float) (x - lastX), (float) (y - lastY), (float) scrollX, (float) scrollY);
+        tick++;
+        return current;
+    }
+
+    private static void apply(int type, int code, int action, double eventX, double eventY, long time) {
+        if (recording != null) {
+            recording.add(tick - recordingStart, time, type, code, action, eventX, eventY);
+        }
+        switch (type) {
+            case InputRing.KEY:
+                if (code < 0 || code >= InputSnapshot.KEY_COUNT) {
+                    return;
+                }
+                long bit = 1L << code;
+                if (action == GLFW_PRESS) {
+                    keysDown[code >>> 6] |= bit;
+                    keysPressed[code >>> 6] |= bit;
+                } else if (action == GLFW_RELEASE) {
+                    keysDown[code >>> 6] &= ~bit;
+                    keysReleased[code >>> 6] |= bit;
+                }
+                break;
+            case InputRing.MOUSE_BUTTON:
+                if (code < 0 || code >= InputSnapshot.BUTTON_COUNT) {
+                    return;
+                }
+                if (action == GLFW_PRESS) {
+                    buttonsDown |= 1 << code;
+                    buttonsPressed |= 1 << code;
+                } else if (action == GLFW_RELEASE) {
+                    buttonsDown &= ~(1 << code);
+                    buttonsReleased |= 1 << code;
+                    buttonsDragging &= ~(1 << code);
+                }
+                break;
+            case InputRing.CURSOR:
+                if (eventX != x || eventY != y) {
+                    buttonsDragging |= buttonsDown;
+                }
+                x = eventX;
+                y = eventY;
+                break;
+            case InputRing.SCROLL:
+                scrollX += eventX;
+                scrollY += eventY;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the snapshot of the latest tick, safe to call from any thread
+     */
+    public static InputSnapshot current() {
+        return current;
+    }
+
+    /**
+     * Records every event applied from now on.
+     */
+    public static void startRecording() {
+        recording = new InputRecording();
+        recordingStart = tick;
+    }
+
+    /**
+     * @return the events applied since {@link #startRecording()}, null if it wasn't called
+     */
+    public static InputRecording stopRecording() {
+        InputRecording result = recording;
+        recording = null;
+        return result;
+    }
+
+    /**
+     * Replays a recording, starting with its first tick at the next {@link #update()}. Live events are
+     * ignored until the recording ran out.
+     */
+    public static void replay(InputRecording recording) {
+        replay = recording.size() > 0 ? recording : null;
+        replayStart = tick;
+        replayPosition = 0;
+    }
+
+    public static boolean isReplaying() {
+        return replay != null;
+    }
+
+    /**
+     * @return events lost because more of them arrived between two ticks than the ring holds
+     */
+    public static int getDroppedEvents() {
+        return ring.getDropped();
+    }
+}
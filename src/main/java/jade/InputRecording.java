@@ -0,0 +1,114 @@
+package jade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Input events in the order they were applied, each with the tick it was applied in, counted from the
+ * start of the recording, and the time it arrived. Replaying by tick instead of by time makes a replay deterministic on any machine, e.g. for
+ * headless benchmarks that need the same input every run.
+ */
+public class InputRecording {
+    private static final int MAGIC = 0x494E5054;
+    private static final int VERSION = 1;
+
+    private long[] ticks = new long[64];
+    private long[] times = new long[64];
+    private int[] types = new int[64];
+    private int[] codes = new int[64];
+    private int[] actions = new int[64];
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private int size;
+
+    void add(long tick, long time, int type, int code, int action, double x, double y) {
+        if (this.size == this.ticks.length) {
+            int capacity = this.size * 2;
+            this.ticks = Arrays.copyOf(this.ticks, capacity);
+            this.times = Arrays.copyOf(this.times, capacity);
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.codes = Arrays.copyOf(this.codes, capacity);
+            this.actions = Arrays.copyOf(this.actions, capacity);
+            this.xs = Arrays.copyOf(this.xs, capacity);
+            this.ys = Arrays.copyOf(this.ys, capacity);
+        }
+        this.ticks[this.size] = tick;
+        this.times[this.size] = time;
+        this.types[this.size] = type;
+        this.codes[this.size] = code;
+        this.actions[this.size] = action;
+        this.xs[this.size] = x;
+        this.ys[this.size] = y;
+        this.size++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    long getTick(int i) {
+        return this.ticks[i];
+    }
+
+    long getTime(int i) {
+        return this.times[i];
+    }
+
+    int getType(int i) {
+        return this.types[i];
+    }
+
+    int getCode(int i) {
+        return this.codes[i];
+    }
+
+    int getAction(int i) {
+        return this.actions[i];
+    }
+
+    double getX(int i) {
+        return this.xs[i];
+    }
+
+    double getY(int i) {
+        return this.ys[i];
+    }
+
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.size);
+            for (int i = 0; i < this.size; i++) {
+                out.writeLong(this.ticks[i]);
+                out.writeLong(this.times[i]);
+                out.writeInt(this.types[i]);
+                out.writeInt(this.codes[i]);
+                out.writeInt(this.actions[i]);
+                out.writeDouble(this.xs[i]);
+                out.writeDouble(this.ys[i]);
+            }
+        }
+    }
+
+    public static InputRecording load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("'" + path + "' is not an input recording of version " + VERSION);
+            }
+            int size = in.readInt();
+            InputRecording recording = new InputRecording();
+            for (int i = 0; i < size; i++) {
+                recording.add(in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readInt(),
+                        in.readDouble(), in.readDouble());
+            }
+            return recording;
+        }
+    }
+}
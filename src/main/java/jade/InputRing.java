@@ -0,0 +1,118 @@
+package jade;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded ring of raw input events, preallocated as parallel primitive arrays. Any number of threads may
+ * {@link #offer} without locking; a single thread consumes. Every slot carries a sequence number telling
+ * whether it is free for the producer of a given position or ready for the consumer.
+ * A full ring drops the new event and counts it instead of blocking the window thread.
+ */
+class InputRing {
+    static final int KEY = 0;
+    static final int MOUSE_BUTTON = 1;
+    static final int CURSOR = 2;
+    static final int SCROLL = 3;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] types, codes, actions;
+    private final double[] xs, ys;
+    private final long[] times;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicInteger dropped = new AtomicInteger();
+    // Consumer only
+    private long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    InputRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.types = new int[size];
+        this.codes = new int[size];
+        this.actions = new int[size];
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.times = new long[size];
+    }
+
+    boolean offer(int type, int code, int action, double x, double y, long time) {
+        long position;
+        while (true) {
+            position = this.tail.get();
+            long available = this.sequences.get((int) position & this.mask) - position;
+            if (available == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                this.dropped.incrementAndGet();
+                return false;
+            }
+            // Another producer claimed this position meanwhile, retry with the new tail
+        }
+        int slot = (int) position & this.mask;
+        this.types[slot] = type;
+        this.codes[slot] = code;
+        this.actions[slot] = action;
+        this.xs[slot] = x;
+        this.ys[slot] = y;
+        this.times[slot] = time;
+        // Publishes the fields above to the consumer
+        this.sequences.set(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * @return whether the oldest event is ready to be read with the getters below
+     */
+    boolean hasNext() {
+        return this.sequences.get((int) this.head & this.mask) == this.head + 1;
+    }
+
+    /**
+     * Frees the oldest event's slot for the producers.
+     */
+    void advance() {
+        int slot = (int) this.head & this.mask;
+        this.sequences.set(slot, this.head + this.mask + 1);
+        this.head++;
+    }
+
+    int type() {
+        return this.types[(int) this.head & this.mask];
+    }
+
+    int code() {
+        return this.codes[(int) this.head & this.mask];
+    }
+
+    int action() {
+        return this.actions[(int) this.head & this.mask];
+    }
+
+    double x() {
+        return this.xs[(int) this.head & this.mask];
+    }
+
+    double y() {
+        return this.ys[(int) this.head & this.mask];
+    }
+
+    long time() {
+        return this.times[(int) this.head & this.mask];
+    }
+
+    int getDropped() {
+        return this.dropped.get();
+    }
+}
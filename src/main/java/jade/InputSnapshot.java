@@ -0,0 +1,123 @@
+package jade;
+
+/**
+ * The input state of one simulation tick. Immutable, so worker threads may read it while the next one is
+ * built. Keys and mouse buttons are held while down at the end of the tick; pressed and released mean
+ * the key went down or up at least once since the previous tick, so a press and release between two
+ * ticks shows up as both, without the key being held.
+ */
+public class InputSnapshot {
+    static final int KEY_COUNT = 350;
+    static final int KEY_WORDS = (KEY_COUNT + 63) / 64;
+    static final int BUTTON_COUNT = 8;
+
+    static final InputSnapshot EMPTY = new InputSnapshot(0, new long[KEY_WORDS], new long[KEY_WORDS],
+            new long[KEY_WORDS], 0, 0, 0, 0, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f);
+
+    private final long tick;
+    private final long[] keysDown, keysPressed, keysReleased;
+    private final int buttonsDown, buttonsPressed, buttonsReleased, buttonsDragging;
+    private final float x, y, dx, dy, scrollX, scrollY;
+
+    InputSnapshot(long tick, long[] keysDown, long[] keysPressed, long[] keysReleased,
+                  int buttonsDown, int buttonsPressed, int buttonsReleased, int buttonsDragging,
+                  float x, float y, float dx, float dy, float scrollX, float scrollY) {
+        this.tick = tick;
+        this.keysDown = keysDown.clone();
+        this.keysPressed = keysPressed.clone();
+        this.keysReleased = keysReleased.clone();
+        this.buttonsDown = buttonsDown;
+        this.buttonsPressed = buttonsPressed;
+        this.buttonsReleased = buttonsReleased;
+        this.buttonsDragging = buttonsDragging;
+        this.x = x;
+        this.y = y;
+        this.dx = dx;
+        this.dy = dy;
+        this.scrollX = scrollX;
+        this.scrollY = scrollY;
+    }
+
+    private static boolean test(long[] bits, int key) {
+        return key >= 0 && key < KEY_COUNT && (bits[key >>> 6] & (1L << key)) != 0;
+    }
+
+    private static boolean test(int bits, int button) {
+        return button >= 0 && button < BUTTON_COUNT && (bits & (1 << button)) != 0;
+    }
+
+    /**
+     * @return the number of {@link Input#update()} calls this snapshot is the result of
+     */
+    public long getTick() {
+        return this.tick;
+    }
+
+    public boolean isKeyDown(int keyCode) {
+        return test(this.keysDown, keyCode);
+    }
+
+    public boolean wasKeyPressed(int keyCode) {
+        return test(this.keysPressed, keyCode);
+    }
+
+    public boolean wasKeyReleased(int keyCode) {
+        return test(this.keysReleased, keyCode);
+    }
+
+    public boolean isButtonDown(int button) {
+        return test(this.buttonsDown, button);
+    }
+
+    public boolean wasButtonPressed(int button) {
+        return test(this.buttonsPressed, button);
+    }
+
+    public boolean wasButtonReleased(int button) {
+        return test(this.buttonsReleased, button);
+    }
+
+    /**
+     * @return whether the cursor moved while the button was held, since the button went down
+     */
+    public boolean isDragging(int button) {
+        return test(this.buttonsDragging, button);
+    }
+
+    public boolean isDragging() {
+        return this.buttonsDragging != 0;
+    }
+
+    /**
+     * @return the cursor position in window coordinates, origin at the top left
+     */
+    public float getX() {
+        return this.x;
+    }
+
+    public float getY() {
+        return this.y;
+    }
+
+    /**
+     * @return how far the cursor moved since the previous tick
+     */
+    public float getDx() {
+        return this.dx;
+    }
+
+    public float getDy() {
+        return this.dy;
+    }
+
+    /**
+     * @return scrolling accumulated since the previous tick
+     */
+    public float getScrollX() {
+        return this.scrollX;
+    }
+
+    public float getScrollY() {
+        return this.scrollY;
+    }
+}
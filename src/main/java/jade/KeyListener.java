@@ -1,36 +1,22 @@
 package jade;
 
-import static org.lwjgl.glfw.GLFW.GLFW_PRESS;
-import static org.lwjgl.glfw.GLFW.GLFW_RELEASE;
-
+/**
+ * Keyboard state of the current tick, a shorthand for {@link Input#current()}.
+ */
 public class KeyListener {
-    private static KeyListener instance;
-    private final boolean[] keyPressed = new boolean[350];
 
     private KeyListener() {
 
     }
 
-    public static KeyListener get() {
-        if (KeyListener.instance == null) {
-            KeyListener.instance = new KeyListener();
-        }
-        return KeyListener.instance;
-    }
-
     public static void keyCallback(long window, int key, int scanCode, int action, int mods) {
-        if (action == GLFW_PRESS) {
-            get().keyPressed[key] = true;
-        } else if (action == GLFW_RELEASE) {
-            get().keyPressed[key] = false;
-        }
+        Input.keyCallback(window, key, scanCode, action, mods);
     }
 
+    /**
+     * @return whether the key is held down
+     */
     public static boolean isKeyPressed(int keyCode) {
-        if (keyCode < get().keyPressed.length) {
-            return get().keyPressed[keyCode];
-        } else {
-            return false;
-        }
+        return Input.current().isKeyDown(keyCode);
     }
 }
@@ -1,120 +1,235 @@
 package jade;
 
 import org.joml.Vector2f;
-import org.lwjgl.BufferUtils;
+import org.joml.Vector4f;
+import renderer.ParticleSystem;
 import renderer.Shader;
-import renderer.Texture;
+import renderer.Sprite;
+import renderer.TextureAtlas;
+import util.AssetPool;
 import util.Time;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.glfw.GLFW.*;
 
 public class LevelEditorScene extends Scene {
 
-    private float[] vertexArray = {
-            // position         // color              //UV coordinates
-            0.0f, 100.0f, 0.0f, 0.0f, 1.0f, 0.0f, 1.0f, 0.0f, 0.0f, // Top left
-            100.0f, 100.0f, 0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, // Top right
-            100.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, // Bottom right
-            0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 0.0f, 1.0f // Bottom left
-    };
-
-    // IMPORTANT: Must be in counter-clockwise order.
-    /*
-     * 0(1.3)(2.1)        1(1.2))
-     *
-     *
-     * 3(2.2)             2(1.1)(2.3)
-     * */
-    private int[] elementArray = {
-            2, 1, 0,
-            2, 0, 3
-    };
-
-    private int vaoID, vboID, eboID;
-
+    private static final int GRID_SIZE = 100;
+    private static final Path LEVEL_PATH = Paths.get("levels", "editor.scene");
+    private static final Path EXPORT_PATH = Paths.get("levels", "editor.scene.txt");
+    private static final Path AUTOSAVE_PATH = Paths.get(".cache", "autosave.scene");
+    private static final float AUTOSAVE_INTERVAL = 30.0f;
+    private static final int SPARKS_PER_CLICK = 5000;
+    private static final float SELECTION_LINE_WIDTH = 2.0f;
+    private static final Vector4f SELECTION_COLOR = new Vector4f(1.0f, 0.85f, 0.1f, 1.0f);
+
+    private CompletableFuture<Shader> shaderLoad;
+    private CompletableFuture<Shader> instancedShaderLoad;
+    private CompletableFuture<Shader> particleShaderLoad;
+    private CompletableFuture<TextureAtlas> atlasLoad;
+    private TextureAtlas atlas;
+    // Saved sprites are looked up in the atlas, sprites saved before it finished loading come back untextured
+    private final SceneSerializer serializer = new SceneSerializer(
+            name -> this.atlas != null && this.atlas.hasSprite(name) ? this.atlas.getSprite(name) : null);
+    private float autosaveTimer;
     private Shader defaultShader;
+    // Location of uTime in this program of the default shader, it changes when the shader is reloaded
+    private int uTimeProgram;
+    private int uTime;
 
-    public LevelEditorScene() {
-        this.defaultShader = new Shader("./assets/shaders/default.glsl");
-        this.defaultShader.compile();
-    }
+    protected Sprite sprite;
+    private GameObject spriteObject;
+    // Last object picked with a left click, outlined while it is alive
+    private GameObject selected;
 
-    protected Camera camera;
-    protected Texture texture;
+    private final ParticleSystem sparks = new ParticleSystem(200_000);
+    private Shader particleShader;
+    private final Vector2f clickPosition = new Vector2f();
+
+    // Simulated camera position at the latest and the previous tick, the camera itself is interpolated
+    private final Vector2f cameraPosition = new Vector2f();
+    private final Vector2f previousCameraPosition = new Vector2f();
 
     @Override
     public void init() {
-
         this.camera = new Camera(new Vector2f(0.0f, 0.0f));
-        this.texture = new Texture("./assets/images/Natsuki.png");
-
-        // ===========================================
-        // Generate VAO, VBO, EBO and send them to GPU
-        // ===========================================
-        this.vaoID = glGenVertexArrays();
-        glBindVertexArray(this.vaoID);
-
-        // Create VBO and upload the vertex buffer
-        this.vboID = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, this.vboID);
-        FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(this.vertexArray.length);
-        vertexBuffer.put(this.vertexArray).flip();
-        glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
-
-        // Create EBO and upload the indices
-        this.eboID = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.eboID);
-        IntBuffer elementBuffer = BufferUtils.createIntBuffer(this.elementArray.length);
-        elementBuffer.put(this.elementArray).flip();
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, elementBuffer, GL_STATIC_DRAW);
-
-        // Add the vertex attribute pointers
-        int positionSize = 3;
-        int colorSize = 4;
-        int uvSize = 2;
-        int vertexSizeBytes = (positionSize + colorSize + uvSize) * Float.BYTES;
-        glVertexAttribPointer(0, positionSize, GL_FLOAT, false, vertexSizeBytes, 0);
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(1, colorSize, GL_FLOAT, false, vertexSizeBytes, positionSize * Float.BYTES);
-        glEnableVertexAttribArray(1);
-        glVertexAttribPointer(2, uvSize, GL_FLOAT, false, vertexSizeBytes, (positionSize + colorSize) * Float.BYTES);
-        glEnableVertexAttribArray(2);
-
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        this.renderer.setCullCamera(this.camera);
+        // These finish over the next frames, alongside load(), and the scene keeps running with whatever is ready
+        this.shaderLoad = AssetPool.loadShaderAsync("./assets/shaders/default.glsl");
+        this.instancedShaderLoad = AssetPool.loadShaderAsync("./assets/shaders/instanced.glsl");
+        this.particleShaderLoad = AssetPool.loadShaderAsync("./assets/shaders/particle.glsl");
+        this.atlasLoad = AssetPool.loadAtlasAsync("./assets/images");
     }
 
     @Override
-    public void update(float dt) {
-
-        this.camera.position.x -= dt * 50.0f;
-        this.camera.position.y -= dt * 30.0f;
+    public void load() {
+        // Tile grid, every tile goes through the same batches
+        float xOffset = 10.0f;
+        float yOffset = 10.0f;
+        float totalWidth = 600.0f - xOffset * 2.0f;
+        float totalHeight = 300.0f - yOffset * 2.0f;
+        float sizeX = totalWidth / GRID_SIZE;
+        float sizeY = totalHeight / GRID_SIZE;
+        for (int x = 0; x < GRID_SIZE; x++) {
+            for (int y = 0; y < GRID_SIZE; y++) {
+                float xPos = xOffset + x * sizeX;
+                float yPos = yOffset + y * sizeY;
+                this.createGameObject("Tile " + x + "," + y)
+                        .setPosition(xPos, yPos)
+                        .setSize(sizeX, sizeY)
+                        .setColor(xPos / totalWidth, yPos / totalHeight, 1.0f, 1.0f);
+            }
+        }
+        this.spriteObject = this.createGameObject("Natsuki").setSize(100.0f, 100.0f);
+
+        this.sparks.setGravity(0.0f, -300.0f);
+        this.sparks.setDrag(0.5f);
+        this.sparks.setSize(3.0f, 1.0f);
+        this.sparks.setColor(new Vector4f(1.0f, 0.9f, 0.4f, 1.0f), new Vector4f(1.0f, 0.2f, 0.0f, 0.0f));
+        this.sparks.setAdditive(true);
+    }
 
-        // Bind shader program
-        this.defaultShader.use();
-        this.texture.bind();
+    @Override
+    public void dispose() {
+        super.dispose();
+        this.sparks.delete();
+    }
 
-        this.defaultShader.uploadMatrix4f("uProjection", this.camera.getProjectionMatrix());
-        this.defaultShader.uploadMatrix4f("uView", this.camera.getViewMatrix());
-        this.defaultShader.uploadFloat("uTime", Time.getTime());
+    @Override
+    public void update(float dt) {
+        this.previousCameraPosition.set(this.cameraPosition);
+        this.cameraPosition.x -= dt * 50.0f;
+        this.cameraPosition.y -= dt * 30.0f;
+        this.updateGameObjects(dt);
+
+        InputSnapshot input = Input.current();
+        if (input.wasButtonPressed(GLFW_MOUSE_BUTTON_LEFT)) {
+            // Clicking empty space clears the selection
+            this.selected = this.pickGameObject(input.getX(), input.getY());
+        }
+        // Right click throws sparks
+        if (input.wasButtonPressed(GLFW_MOUSE_BUTTON_RIGHT)) {
+            Vector2f world = this.camera.screenToWorld(input.getX(), input.getY(), this.clickPosition);
+            this.sparks.burst(SPARKS_PER_CLICK, world.x, world.y, 50.0f, 250.0f, 0.5f, 2.0f);
+        }
+        this.sparks.update(dt);
+        this.updateSaving(dt, input);
+    }
 
-        this.defaultShader.uploadTexture("TEX_SAMPLER", 0);
-        glActiveTexture(GL_TEXTURE0);
+    // Ctrl+S saves the level, Ctrl+L loads it, Ctrl+E exports it as text. Autosaves only append what changed.
+    private void updateSaving(float dt, InputSnapshot input) {
+        boolean control = input.isKeyDown(GLFW_KEY_LEFT_CONTROL) || input.isKeyDown(GLFW_KEY_RIGHT_CONTROL);
+        try {
+            if (control && input.wasKeyPressed(GLFW_KEY_S)) {
+                this.serializer.save(this, LEVEL_PATH);
+                System.out.println("Level saved to " + LEVEL_PATH.toAbsolutePath());
+            } else if (control && input.wasKeyPressed(GLFW_KEY_L) && Files.isRegularFile(LEVEL_PATH)) {
+                this.serializer.load(this, LEVEL_PATH);
+                this.spriteObject = null;
+                this.selected = null;
+                System.out.println("Level loaded from " + LEVEL_PATH.toAbsolutePath());
+            } else if (control && input.wasKeyPressed(GLFW_KEY_E)) {
+                this.serializer.exportText(this, EXPORT_PATH);
+                System.out.println("Level exported to " + EXPORT_PATH.toAbsolutePath());
+            }
+
+            this.autosaveTimer += dt;
+            if (this.autosaveTimer >= AUTOSAVE_INTERVAL) {
+                this.autosaveTimer = 0.0f;
+                this.serializer.saveDelta(this, AUTOSAVE_PATH);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        // Bind the VAO that we are using
-        glBindVertexArray(this.vaoID);
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.eboID);
+    @Override
+    public void render(float alpha) {
+        this.previousCameraPosition.lerp(this.cameraPosition, alpha, this.camera.position);
+
+        if (this.defaultShader == null) {
+            if (this.shaderLoad == null || !this.shaderLoad.isDone()) {
+                return;
+            }
+            if (this.shaderLoad.isCompletedExceptionally()) {
+                // Nothing to draw with, report it once and keep the game loop running
+                reportFailure("./assets/shaders/default.glsl", this.shaderLoad);
+                this.shaderLoad = null;
+                return;
+            }
+            this.defaultShader = this.shaderLoad.join();
+        }
+        if (this.uTimeProgram != this.defaultShader.getProgramId()) {
+            this.uTimeProgram = this.defaultShader.getProgramId();
+            this.uTime = this.defaultShader.getUniformLocation("uTime");
+        }
+        if (this.instancedShaderLoad != null && this.instancedShaderLoad.isDone()) {
+            // Until it is ready, or if it fails to load, the tiles keep going through the vertex batches
+            if (!this.instancedShaderLoad.isCompletedExceptionally()) {
+                this.renderer.setInstancedShader(this.instancedShaderLoad.join());
+            }
+            this.instancedShaderLoad = null;
+        }
+        if (this.atlasLoad != null && this.atlasLoad.isDone()) {
+            CompletableFuture<TextureAtlas> load = this.atlasLoad;
+            this.atlasLoad = null;
+            if (load.isCompletedExceptionally()) {
+                // Sprites stay untextured quads, and saved sprites load without their texture
+                reportFailure("./assets/images", load);
+            } else {
+                this.atlas = load.join();
+                this.sprite = this.atlas.getSprite("Natsuki.png");
+                // A loaded level brings its own sprites
+                if (this.spriteObject != null) {
+                    this.spriteObject.setSprite(this.sprite);
+                }
+            }
+        }
+
+        this.renderGameObjects(alpha);
+        if (this.selected != null && this.selected.isAlive()) {
+            this.drawOutline(this.selected);
+        }
+
+        this.defaultShader.uploadFloat(this.uTime, (float) Time.getFrameStartSeconds());
+        this.renderer.render(this.defaultShader, this.camera);
+
+        if (this.particleShaderLoad != null && this.particleShaderLoad.isDone()) {
+            // Without the shader the sparks are still simulated, just not drawn
+            if (!this.particleShaderLoad.isCompletedExceptionally()) {
+                this.particleShader = this.particleShaderLoad.join();
+            }
+            this.particleShaderLoad = null;
+        }
+        if (this.particleShader != null) {
+            this.sparks.render(this.particleShader, this.camera, alpha);
+        }
+    }
 
-        glDrawElements(GL_TRIANGLES, this.elementArray.length, GL_UNSIGNED_INT, 0);
+    private void drawOutline(GameObject gameObject) {
+        float x = gameObject.getX();
+        float y = gameObject.getY();
+        float width = gameObject.getWidth();
+        float height = gameObject.getHeight();
+        float line = SELECTION_LINE_WIDTH;
+        this.renderer.drawQuad(x - line, y - line, width + line * 2.0f, line, SELECTION_COLOR);
+        this.renderer.drawQuad(x - line, y + height, width + line * 2.0f, line, SELECTION_COLOR);
+        this.renderer.drawQuad(x - line, y, line, height, SELECTION_COLOR);
+        this.renderer.drawQuad(x + width, y, line, height, SELECTION_COLOR);
+    }
 
-        // Unbind everything
-        glBindVertexArray(0);
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
-        this.defaultShader.detach();
-        this.texture.unbind();
+    private static void reportFailure(String asset, CompletableFuture<?> load) {
+        System.out.println("ERROR: Could not load '" + asset + "'");
+        try {
+            load.join();
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
+        }
     }
 }
@@ -4,6 +4,10 @@ public class LevelScene extends Scene{
 
     public LevelScene(){
         System.out.println("Inside leve scene");
+    }
+
+    @Override
+    public void activate() {
         Window.get().r = 1.0f;
         Window.get().g = 1.0f;
         Window.get().b = 1.0f;
@@ -0,0 +1,204 @@
+package jade;
+
+import util.IntList;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index for moving entries. Every entry lives in exactly one node: the deepest one whose size
+ * still covers the entry, found from the entry's center. Nodes are loose, their bounds reach half a node
+ * further on every side, so an entry never has to be split between nodes and a small move usually keeps
+ * it in the same node, which makes updates O(1). Each level is stored as a flat array of nodes instead of
+ * linked child nodes, and levels without entries are skipped by queries.
+ * <p>
+ * Entries that aren't completely inside the world area are kept in a separate list that every query checks.
+ */
+public class LooseQuadtree extends SpatialIndex {
+    private static final int OUTSIDE = -1;
+
+    private final float originX, originY;
+    private final float worldSize;
+    private final int maxDepth;
+    // levels[depth][row * (1 << depth) + column], nodes are created on first use
+    private final IntList[][] levels;
+    private final int[] levelCounts;
+    private final IntList outside;
+
+    // Node of every entry by entity index, depth OUTSIDE for the outside list
+    private int[] nodeDepth;
+    private int[] nodeIndex;
+
+    private final IntList scratch;
+
+    /**
+     * @param originX world position of the bottom left corner of the root node
+     * @param worldSize width and height of the root node
+     * @param maxDepth depth of the smallest nodes, which are worldSize / 2^maxDepth wide
+     */
+    public LooseQuadtree(float originX, float originY, float worldSize, int maxDepth) {
+        assert worldSize > 0.0f && maxDepth >= 0 && maxDepth <= 12 : "Error: Invalid quadtree of " + worldSize + " with depth " + maxDepth;
+        this.originX = originX;
+        this.originY = originY;
+        this.worldSize = worldSize;
+        this.maxDepth = maxDepth;
+        this.levels = new IntList[maxDepth + 1][];
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            this.levels[depth] = new IntList[1 << (depth * 2)];
+        }
+        this.levelCounts = new int[maxDepth + 1];
+        this.outside = new IntList();
+        this.nodeDepth = new int[this.ids.length];
+        this.nodeIndex = new int[this.ids.length];
+        this.scratch = new IntList();
+    }
+
+    @Override
+    protected void grow(int capacity) {
+        super.grow(capacity);
+        this.nodeDepth = Arrays.copyOf(this.nodeDepth, capacity);
+        this.nodeIndex = Arrays.copyOf(this.nodeIndex, capacity);
+    }
+
+    private int depthFor(float minX, float minY, float maxX, float maxY) {
+        if (minX < this.originX || minY < this.originY
+                || maxX > this.originX + this.worldSize || maxY > this.originY + this.worldSize) {
+            return OUTSIDE;
+        }
+        float extent = Math.max(maxX - minX, maxY - minY);
+        if (extent <= 0.0f) {
+            return this.maxDepth;
+        }
+        // Deepest level whose nodes are at least as large as the entry
+        int depth = (int) Math.floor(Math.log(this.worldSize / extent) / Math.log(2.0));
+        depth = Math.max(0, Math.min(this.maxDepth, depth));
+        if (depth > 0 && this.worldSize / (1 << depth) < extent) {
+            // Rounding in the logarithm
+            depth--;
+        }
+        return depth;
+    }
+
+    private int nodeFor(int depth, float minX, float minY, float maxX, float maxY) {
+        int nodes = 1 << depth;
+        float nodeSize = this.worldSize / nodes;
+        int column = (int) (((minX + maxX) * 0.5f - this.originX) / nodeSize);
+        int row = (int) (((minY + maxY) * 0.5f - this.originY) / nodeSize);
+        column = Math.max(0, Math.min(nodes - 1, column));
+        row = Math.max(0, Math.min(nodes - 1, row));
+        return row * nodes + column;
+    }
+
+    @Override
+    protected void link(int key) {
+        int depth = this.depthFor(this.minX[key], this.minY[key], this.maxX[key], this.maxY[key]);
+        this.nodeDepth[key] = depth;
+        if (depth == OUTSIDE) {
+            this.outside.add(this.ids[key]);
+            return;
+        }
+        int node = this.nodeFor(depth, this.minX[key], this.minY[key], this.maxX[key], this.maxY[key]);
+        this.nodeIndex[key] = node;
+        IntList[] level = this.levels[depth];
+        if (level[node] == null) {
+            level[node] = new IntList(4);
+        }
+        level[node].add(this.ids[key]);
+        this.levelCounts[depth]++;
+    }
+
+    @Override
+    protected void unlink(int key) {
+        int depth = this.nodeDepth[key];
+        IntList node = depth == OUTSIDE ? this.outside : this.levels[depth][this.nodeIndex[key]];
+        node.swapRemove(node.indexOf(this.ids[key]));
+        if (depth != OUTSIDE) {
+            this.levelCounts[depth]--;
+        }
+    }
+
+    @Override
+    protected void relink(int key, float minX, float minY, float maxX, float maxY) {
+        int depth = this.depthFor(minX, minY, maxX, maxY);
+        if (depth != OUTSIDE && depth == this.nodeDepth[key]
+                && this.nodeFor(depth, minX, minY, maxX, maxY) == this.nodeIndex[key]) {
+            // Still in the same node, only the bounds change
+            this.setBounds(key, minX, minY, maxX, maxY);
+            return;
+        }
+        super.relink(key, minX, minY, maxX, maxY);
+    }
+
+    @Override
+    public void query(float minX, float minY, float maxX, float maxY, IntList result) {
+        for (int i = 0; i < this.outside.size(); i++) {
+            int id = this.outside.get(i);
+            if (this.overlaps(EntityStore.indexOf(id), minX, minY, maxX, maxY)) {
+                result.add(id);
+            }
+        }
+
+        for (int depth = 0; depth <= this.maxDepth; depth++) {
+            if (this.levelCounts[depth] == 0) {
+                continue;
+            }
+            int nodes = 1 << depth;
+            float nodeSize = this.worldSize / nodes;
+            // Entries reach up to half a node outside of their node
+            float margin = nodeSize * 0.5f;
+            int firstColumn = Math.max(0, (int) Math.floor((minX - margin - this.originX) / nodeSize));
+            int lastColumn = Math.min(nodes - 1, (int) Math.floor((maxX + margin - this.originX) / nodeSize));
+            int firstRow = Math.max(0, (int) Math.floor((minY - margin - this.originY) / nodeSize));
+            int lastRow = Math.min(nodes - 1, (int) Math.floor((maxY + margin - this.originY) / nodeSize));
+
+            IntList[] level = this.levels[depth];
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    IntList node = level[row * nodes + column];
+                    if (node == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < node.size(); i++) {
+                        int id = node.get(i);
+                        if (this.overlaps(EntityStore.indexOf(id), minX, minY, maxX, maxY)) {
+                            result.add(id);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests every entry overlapping the bounding box of the ray segment, so keep maxDistance reasonable.
+     * Entries outside the world area are only found within about two world sizes of the origin.
+     */
+    @Override
+    public int raycast(float originX, float originY, float directionX, float directionY, float maxDistance) {
+        float length = (float) Math.sqrt(directionX * directionX + directionY * directionY);
+        if (length == 0.0f) {
+            return -1;
+        }
+        directionX /= length;
+        directionY /= length;
+        // An unbounded ray would query every node, no entry inside the world is further away than this
+        float reach = Math.min(maxDistance, this.worldSize * 2.0f
+                + Math.abs(originX - this.originX) + Math.abs(originY - this.originY));
+        float endX = originX + directionX * reach;
+        float endY = originY + directionY * reach;
+
+        this.scratch.clear();
+        this.query(Math.min(originX, endX), Math.min(originY, endY), Math.max(originX, endX), Math.max(originY, endY), this.scratch);
+        int closest = -1;
+        float closestDistance = maxDistance;
+        for (int i = 0; i < this.scratch.size(); i++) {
+            int id = this.scratch.get(i);
+            float distance = this.intersect(EntityStore.indexOf(id), originX, originY, directionX, directionY, closestDistance);
+            if (distance <= closestDistance) {
+                closest = id;
+                closestDistance = distance;
+            }
+        }
+        this.setLastHitDistance(closest == -1 ? Float.POSITIVE_INFINITY : closestDistance);
+        return closest;
+    }
+}
@@ -0,0 +1,222 @@
+package jade;
+
+import org.joml.Vector2f;
+import org.joml.Vector4f;
+import renderer.Renderer;
+import renderer.Shader;
+import util.AssetPool;
+import util.Metrics;
+import util.MetricsSnapshot;
+import util.Time;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Debug overlay in the top left corner showing the {@link Metrics} of the running game: frame rate and the
+ * cost of the frame phases, draw calls and uploads, the heap, the allocation rate and garbage collections,
+ * above a graph of the recent frame times with the frames that saw a collection marked. The numbers are
+ * only reformatted a few times per second, so they stay readable and the overlay barely shows up in the
+ * allocation rate it reports. Text is drawn with a built in 3x5 pixel font, so no font asset is needed.
+ * <p>
+ * Must only be used on the render thread.
+ */
+public class MetricsOverlay {
+    private static final long REFRESH_NANOS = 250_000_000L;
+    private static final float SCALE = 2.0f;
+    private static final float ADVANCE = 4.0f * SCALE;
+    private static final float LINE_HEIGHT = 7.0f * SCALE;
+    private static final float MARGIN = 8.0f;
+    private static final float PADDING = 6.0f;
+    private static final int GRAPH_FRAMES = 200;
+    private static final float GRAPH_BAR_WIDTH = 2.0f;
+    private static final float GRAPH_HEIGHT = 100.0f;
+    private static final float GRAPH_MAX_MILLIS = 50.0f;
+    private static final float BUDGET_MILLIS = 1000.0f / 60.0f;
+
+    private static final Vector4f PANEL_COLOR = new Vector4f(0.0f, 0.0f, 0.0f, 0.65f);
+    private static final Vector4f TEXT_COLOR = new Vector4f(1.0f, 1.0f, 1.0f, 1.0f);
+    private static final Vector4f FAST_COLOR = new Vector4f(0.3f, 0.9f, 0.3f, 1.0f);
+    private static final Vector4f SLOW_COLOR = new Vector4f(1.0f, 0.8f, 0.2f, 1.0f);
+    private static final Vector4f HITCH_COLOR = new Vector4f(1.0f, 0.25f, 0.2f, 1.0f);
+    private static final Vector4f GC_COLOR = new Vector4f(0.9f, 0.3f, 1.0f, 1.0f);
+    private static final Vector4f BUDGET_COLOR = new Vector4f(1.0f, 1.0f, 1.0f, 0.4f);
+
+    // Rows of 3 pixels from the top, '#' is lit
+    private static final String FONT_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ./:-%";
+    private static final String[] FONT = {
+            "### #.# #.# #.# ###", ".#. ##. .#. .#. ###", "### ..# ### #.. ###", "### ..# .## ..# ###",
+            "#.# #.# ### ..# ..#", "### #.. ### ..# ###", "### #.. ### #.# ###", "### ..# ..# .#. .#.",
+            "### #.# ### #.# ###", "### #.# ### ..# ###", ".#. #.# ### #.# #.#", "##. #.# ##. #.# ##.",
+            ".## #.. #.. #.. .##", "##. #.# #.# #.# ##.", "### #.. ##. #.. ###", "### #.. ##. #.. #..",
+            ".## #.. #.# #.# .##", "#.# #.# ### #.# #.#", "### .#. .#. .#. ###", "..# ..# ..# #.# .#.",
+            "#.# #.# ##. #.# #.#", "#.. #.. #.. #.. ###", "#.# ### ### #.# #.#", "##. #.# #.# #.# #.#",
+            ".#. #.# #.# #.# .#.", "##. #.# ##. #.. #..", ".#. #.# #.# ##. .##", "##. #.# ##. #.# #.#",
+            ".## #.. .#. ..# ##.", "### .#. .#. .#. .#.", "#.# #.# #.# #.# ###", "#.# #.# #.# #.# .#.",
+            "#.# #.# ### ### #.#", "#.# #.# .#. #.# #.#", "#.# #.# .#. .#. .#.", "### ..# .#. #.. ###",
+            "... ... ... ... .#.", "..# ..# .#. #.. #..", "... .#. ... .#. ...", "... ... ### ... ...",
+            "#.# ..# .#. #.. #.#",
+    };
+    // Lit pixels of each character as 15 bits, the top left pixel in the highest bit
+    private static final int[] GLYPHS = new int[128];
+
+    private static final int FRAME = Metrics.histogram("frame");
+    private static final int UPDATE = Metrics.histogram("frame.update");
+    private static final int RENDER = Metrics.histogram("frame.render");
+    private static final int SWAP = Metrics.histogram("frame.swap");
+    private static final int GPU_RENDER = Metrics.histogram("gpu.render");
+    private static final int FPS = Metrics.gauge("fps");
+    private static final int DRAW_CALLS = Metrics.gauge("render.drawCalls");
+    private static final int CULLED_QUADS = Metrics.gauge("render.culledQuads");
+    private static final int UPLOADED_BYTES = Metrics.gauge("render.uploadedBytes");
+    private static final int UNIFORM_UPLOADS = Metrics.gauge("render.uniformUploads");
+    private static final int HEAP_USED = Metrics.gauge("jvm.heap.usedBytes");
+    private static final int HEAP_MAX = Metrics.gauge("jvm.heap.maxBytes");
+    private static final int ALLOCATION_RATE = Metrics.gauge("jvm.alloc.bytesPerSecond");
+    private static final int RENDER_THREAD_ALLOCATION = Metrics.gauge("jvm.alloc.renderThreadBytesPerFrame");
+    private static final int GC_COUNT = Metrics.counter("jvm.gc.count");
+    private static final int GC_MILLIS = Metrics.counter("jvm.gc.millis");
+    private static final int GC_DURATION = Metrics.histogram("jvm.gc.duration");
+
+    static {
+        for (int i = 0; i < FONT_CHARS.length(); i++) {
+            String rows = FONT[i].replace(" ", "");
+            int glyph = 0;
+            for (int pixel = 0; pixel < rows.length(); pixel++) {
+                glyph = (glyph << 1) | (rows.charAt(pixel) == '#' ? 1 : 0);
+            }
+            GLYPHS[FONT_CHARS.charAt(i)] = glyph;
+        }
+    }
+
+    private final Renderer renderer = new Renderer();
+    private final Camera camera = new Camera(new Vector2f(0.0f, 0.0f));
+    private final CompletableFuture<Shader> shaderLoad;
+    private Shader shader;
+    private int height = 720;
+
+    private final String[] lines = new String[5];
+    private float panelWidth;
+    private long lastRefresh = -REFRESH_NANOS;
+
+    // Ring of the latest frame times, and whether a collection was seen in that frame
+    private final float[] frameMillis = new float[GRAPH_FRAMES];
+    private final boolean[] collected = new boolean[GRAPH_FRAMES];
+    private int graphIndex = 0;
+    private long lastGcCount = -1;
+
+    public MetricsOverlay() {
+        this.shaderLoad = AssetPool.loadShaderAsync("./assets/shaders/default.glsl");
+    }
+
+    public void resize(int width, int height) {
+        this.camera.setViewportSize(width, height);
+        this.height = height;
+    }
+
+    /**
+     * Draws the overlay with the snapshot of the last frame, on top of whatever was drawn before.
+     */
+    public void render() {
+        MetricsSnapshot snapshot = Metrics.getSnapshot();
+        this.sample(snapshot);
+        if (this.shader == null) {
+            if (!this.shaderLoad.isDone() || this.shaderLoad.isCompletedExceptionally()) {
+                return;
+            }
+            this.shader = this.shaderLoad.join();
+        }
+        long now = Time.getNanos();
+        if (now - this.lastRefresh >= REFRESH_NANOS) {
+            this.refresh(snapshot);
+            this.lastRefresh = now;
+        }
+
+        float graphWidth = GRAPH_FRAMES * GRAPH_BAR_WIDTH;
+        float width = Math.max(this.panelWidth, graphWidth) + PADDING * 2.0f;
+        float panelHeight = this.lines.length * LINE_HEIGHT + GRAPH_HEIGHT + PADDING * 3.0f;
+        float top = this.height - MARGIN;
+        this.renderer.drawQuad(MARGIN, top - panelHeight, width, panelHeight, PANEL_COLOR);
+
+        float lineTop = top - PADDING;
+        for (String line : this.lines) {
+            this.drawText(line, MARGIN + PADDING, lineTop);
+            lineTop -= LINE_HEIGHT;
+        }
+
+        // Oldest frame on the left, the newest on the right
+        float graphBottom = top - panelHeight + PADDING;
+        float pixelsPerMilli = GRAPH_HEIGHT / GRAPH_MAX_MILLIS;
+        for (int i = 0; i < GRAPH_FRAMES; i++) {
+            int slot = (this.graphIndex + i) % GRAPH_FRAMES;
+            float millis = this.frameMillis[slot];
+            Vector4f color = millis <= BUDGET_MILLIS * 1.1f ? FAST_COLOR
+                    : millis <= BUDGET_MILLIS * 2.0f ? SLOW_COLOR : HITCH_COLOR;
+            float x = MARGIN + PADDING + i * GRAPH_BAR_WIDTH;
+            float barHeight = Math.min(millis, GRAPH_MAX_MILLIS) * pixelsPerMilli;
+            this.renderer.drawQuad(x, graphBottom, GRAPH_BAR_WIDTH, barHeight, color);
+            if (this.collected[slot]) {
+                this.renderer.drawQuad(x, graphBottom + GRAPH_HEIGHT - 4.0f, GRAPH_BAR_WIDTH, 4.0f, GC_COLOR);
+            }
+        }
+        float budgetY = graphBottom + BUDGET_MILLIS * pixelsPerMilli;
+        this.renderer.drawQuad(MARGIN + PADDING, budgetY, graphWidth, 1.0f, BUDGET_COLOR);
+
+        this.renderer.render(this.shader, this.camera);
+    }
+
+    private void sample(MetricsSnapshot snapshot) {
+        long gcCount = snapshot.getCounter(GC_COUNT);
+        this.frameMillis[this.graphIndex] = (float) snapshot.getLastMillis(FRAME);
+        this.collected[this.graphIndex] = this.lastGcCount >= 0 && gcCount != this.lastGcCount;
+        this.graphIndex = (this.graphIndex + 1) % GRAPH_FRAMES;
+        this.lastGcCount = gcCount;
+    }
+
+    private void refresh(MetricsSnapshot snapshot) {
+        double megabyte = 1024.0 * 1024.0;
+        this.lines[0] = format("FPS %.0f  FRAME %.2f MS  P99 %.1f MS", snapshot.getGauge(FPS),
+                snapshot.getLastMillis(FRAME), snapshot.getP99Millis(FRAME));
+        this.lines[1] = format("UPDATE %.2f  RENDER %.2f  SWAP %.2f  GPU %.2f MS",
+                snapshot.getLastMillis(UPDATE), snapshot.getLastMillis(RENDER), snapshot.getLastMillis(SWAP),
+                snapshot.getLastMillis(GPU_RENDER));
+        this.lines[2] = format("DRAWS %.0f  CULLED %.0f  UPLOADS %.0f KB  UNIFORMS %.0f",
+                snapshot.getGauge(DRAW_CALLS), snapshot.getGauge(CULLED_QUADS),
+                snapshot.getGauge(UPLOADED_BYTES) / 1024.0, snapshot.getGauge(UNIFORM_UPLOADS));
+        this.lines[3] = format("HEAP %.0f/%.0f MB  ALLOC %.1f MB/S  %.0f B/FRAME",
+                snapshot.getGauge(HEAP_USED) / megabyte, snapshot.getGauge(HEAP_MAX) / megabyte,
+                snapshot.getGauge(ALLOCATION_RATE) / megabyte, snapshot.getGauge(RENDER_THREAD_ALLOCATION));
+        this.lines[4] = format("GC %d  TOTAL %d MS  LAST %.0f MS", snapshot.getCounter(GC_COUNT),
+                snapshot.getCounter(GC_MILLIS), snapshot.getLastMillis(GC_DURATION));
+
+        int longest = 0;
+        for (String line : this.lines) {
+            longest = Math.max(longest, line.length());
+        }
+        this.panelWidth = longest * ADVANCE;
+    }
+
+    private static String format(String format, Object... args) {
+        // The font has no decimal comma
+        return String.format(Locale.ROOT, format, args);
+    }
+
+    private void drawText(String text, float x, float top) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int glyph = c < GLYPHS.length ? GLYPHS[c] : 0;
+            for (int pixel = 0; pixel < 15; pixel++) {
+                if ((glyph & (1 << (14 - pixel))) != 0) {
+                    float row = pixel / 3 + 1;
+                    float column = pixel % 3;
+                    this.renderer.drawQuad(x + column * SCALE, top - row * SCALE, SCALE, SCALE, TEXT_COLOR);
+                }
+            }
+            x += ADVANCE;
+        }
+    }
+
+    public void delete() {
+        this.renderer.delete();
+    }
+}
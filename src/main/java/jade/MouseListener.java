@@ -1,97 +1,55 @@
 package jade;
 
-import static org.lwjgl.glfw.GLFW.GLFW_PRESS;
-import static org.lwjgl.glfw.GLFW.GLFW_RELEASE;
-
+/**
+ * Mouse state of the current tick, a shorthand for {@link Input#current()}.
+ */
 public class MouseListener {
-    private static MouseListener instance;
-    private double scrollX, scrollY;
-    private double xPos, yPos, lastX, lastY;
-    private final boolean[] mouseButtonPressed = new boolean[3];
-    private boolean isDragging;
 
     private MouseListener() {
-        this.scrollX = 0.0;
-        this.scrollY = 0.0;
-        this.xPos = 0.0;
-        this.yPos = 0.0;
-        this.lastX = 0.0;
-        this.lastY = 0.0;
-    }
-
-    public static MouseListener get() {
-        if (instance == null) {
-            instance = new MouseListener();
-        }
 
-        return MouseListener.instance;
     }
 
     public static void mousePosCallback(long window, double xP, double yP) {
-        get().lastX = get().xPos;
-        get().lastY = get().yPos;
-        get().xPos = xP;
-        get().yPos = yP;
+        Input.cursorPosCallback(window, xP, yP);
     }
 
     public static void mouseButtonCallback(long window, int button, int action, int mods) {
-        if (action == GLFW_PRESS) {
-            if (button < get().mouseButtonPressed.length) {
-                get().mouseButtonPressed[button] = true;
-            }
-        } else if (action == GLFW_RELEASE) {
-            if (button < get().mouseButtonPressed.length) {
-                get().mouseButtonPressed[button] = false;
-                get().isDragging = false;
-            }
-        }
+        Input.mouseButtonCallback(window, button, action, mods);
     }
 
     public static void mouseScrollCallback(long window, double xOffset, double yOffset) {
-        get().scrollX = xOffset;
-        get().scrollY = yOffset;
-    }
-
-    public static void endFrame() {
-        get().scrollX = 0;
-        get().scrollY = 0;
-        get().lastX = get().xPos;
-        get().lastY = get().yPos;
+        Input.scrollCallback(window, xOffset, yOffset);
     }
 
     public static float getX() {
-        return (float) get().xPos;
+        return Input.current().getX();
     }
 
     public static float getY() {
-        return (float) get().yPos;
+        return Input.current().getY();
     }
 
     public static float getDx() {
-        return (float) (get().xPos - get().lastX);
+        return Input.current().getDx();
     }
 
     public static float getDy() {
-        return (float) (get().yPos - get().lastY);
+        return Input.current().getDy();
     }
 
     public static float getScrollX() {
-        return (float) get().scrollX;
+        return Input.current().getScrollX();
     }
 
     public static float getScrollY() {
-        return (float) get().scrollY;
+        return Input.current().getScrollY();
     }
 
     public static boolean getIsDragging() {
-        return get().isDragging;
+        return Input.current().isDragging();
     }
 
     public static boolean isButtonDown(int button) {
-        if (button < get().mouseButtonPressed.length) {
-            return get().mouseButtonPressed[button];
-        } else {
-            return false;
-        }
+        return Input.current().isButtonDown(button);
     }
 }
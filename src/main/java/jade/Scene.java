@@ -1,17 +1,280 @@
 package jade;
 
+import org.joml.Vector2f;
+import org.joml.Vector4f;
+import physics.PhysicsWorld;
+import renderer.Renderer;
+import util.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public abstract class Scene {
 
+    protected Renderer renderer = new Renderer();
     protected Camera camera;
+    protected final EntityStore entities = new EntityStore();
+    private final List<GameObject> gameObjects = new ArrayList<>();
+    private final List<GameObject> pendingDestroy = new ArrayList<>();
+    // Game objects by entity index, for turning query results back into game objects
+    private GameObject[] byEntity = new GameObject[256];
+    // Index of every game object in gameObjects, also by entity index, so removing one doesn't search
+    private int[] listIndexByEntity = new int[256];
 
-    public Scene() {
+    // Level geometry goes into the grid, anything with a velocity into the quadtree. Both cover 8192 units
+    // around the origin, entities further out still work but are found less efficiently.
+    protected final UniformGrid staticIndex = new UniformGrid(-4096.0f, -4096.0f, 64.0f, 128, 128);
+    protected final LooseQuadtree dynamicIndex = new LooseQuadtree(-4096.0f, -4096.0f, 8192.0f, 8);
+    // Created by scenes that need collision, see setPhysics
+    protected PhysicsWorld physics;
 
+    private final IntList queryResult = new IntList();
+    private final Vector4f viewBounds = new Vector4f();
+    private final Vector2f pickPosition = new Vector2f();
+
+    public Scene() {
+        this.entities.setSpatialIndex(this.staticIndex, this.dynamicIndex);
     }
 
+    /**
+     * Advances the simulation by one fixed tick.
+     */
     public abstract void update(float dt);
 
+    /**
+     * Draws the scene. Called once per presented frame, which may be more or less often than {@link #update(float)}.
+     *
+     * @param alpha how far the frame lies between the previous and the latest tick, from 0 to 1
+     */
+    public void render(float alpha) {
+
+    }
+
+    /**
+     * First step of the lifecycle, on the render thread as soon as the scene is handed to the
+     * {@link SceneManager}, e.g. to request assets from the {@link util.AssetPool} so they load alongside
+     * {@link #load()}.
+     */
     public void init() {
 
     }
 
+    /**
+     * Builds the scene's content, e.g. its game objects, on a loader thread while another scene keeps
+     * running. Must not touch GL or the asset pool; nothing else touches the scene until it returns.
+     */
+    public void load() {
+
+    }
+
+    /**
+     * Called on the render thread when the scene becomes the one receiving updates, the first time or
+     * again after an overlay above it was removed.
+     */
+    public void activate() {
+
+    }
+
+    /**
+     * Called on the render thread when the scene stops receiving updates, because an overlay covers it or
+     * it is about to be disposed.
+     */
+    public void deactivate() {
+
+    }
+
+    /**
+     * Releases the GL objects of the scene on the render thread, the last step of the lifecycle. Scenes
+     * holding GL objects of their own release them here as well. Shared assets from the asset pool stay.
+     */
+    public void dispose() {
+        this.renderer.delete();
+    }
+
+    /**
+     * @return whether scenes below this one on the {@link SceneManager}'s stack stop updating while it
+     * is shown, e.g. false for a HUD over a running level
+     */
+    public boolean pausesScenesBelow() {
+        return true;
+    }
+
+    public GameObject createGameObject(String name) {
+        GameObject gameObject = new GameObject(name, this.entities);
+        int index = EntityStore.indexOf(gameObject.getEntity());
+        if (index >= this.byEntity.length) {
+            int capacity = Math.max(index + 1, this.byEntity.length * 2);
+            this.byEntity = Arrays.copyOf(this.byEntity, capacity);
+            this.listIndexByEntity = Arrays.copyOf(this.listIndexByEntity, capacity);
+        }
+        this.byEntity[index] = gameObject;
+        this.listIndexByEntity[index] = this.gameObjects.size();
+        this.gameObjects.add(gameObject);
+        return gameObject;
+    }
+
+    /**
+     * Removes the game object at the end of the current update, so it's safe to call from a component.
+     */
+    public void destroyGameObject(GameObject gameObject) {
+        this.pendingDestroy.add(gameObject);
+    }
+
+    public List<GameObject> getGameObjects() {
+        return this.gameObjects;
+    }
+
+    /**
+     * Gives the scene a physics world over its entities, stepped every tick after the entity systems.
+     */
+    protected PhysicsWorld setPhysics(PhysicsWorld physics) {
+        this.physics = physics;
+        return physics;
+    }
+
+    public PhysicsWorld getPhysics() {
+        return this.physics;
+    }
+
+    /**
+     * Runs the entity systems and physics, spread over the {@link util.JobSystem}, then the components of
+     * every game object on the calling thread, since components may touch anything. The spatial index is
+     * brought up to date once the systems moved everything, so components query this tick's positions, and
+     * again at the end only if components or destroys changed the entities.
+     */
+    protected void updateGameObjects(float dt) {
+        this.entities.integrate(dt);
+        if (this.physics != null) {
+            this.physics.step(dt);
+        }
+        this.entities.updateSpatialIndex();
+        for (int i = 0; i < this.gameObjects.size(); i++) {
+            GameObject gameObject = this.gameObjects.get(i);
+            if (gameObject.hasComponents()) {
+                gameObject.update(dt);
+            }
+        }
+
+        for (int i = 0; i < this.pendingDestroy.size(); i++) {
+            this.removeGameObject(this.pendingDestroy.get(i));
+        }
+        this.pendingDestroy.clear();
+        if (this.entities.isSpatialIndexDirty()) {
+            this.entities.updateSpatialIndex();
+        }
+    }
+
+    /**
+     * Removes the game object right away, unlike {@link #destroyGameObject(GameObject)}.
+     */
+    void removeGameObject(GameObject gameObject) {
+        if (gameObject.isAlive()) {
+            int entityIndex = EntityStore.indexOf(gameObject.getEntity());
+            this.byEntity[entityIndex] = null;
+            if (this.physics != null) {
+                this.physics.removeBody(gameObject.getEntity());
+            }
+            gameObject.destroy();
+            // Order doesn't matter, fill the hole with the last game object
+            int index = this.listIndexByEntity[entityIndex];
+            GameObject last = this.gameObjects.remove(this.gameObjects.size() - 1);
+            if (index < this.gameObjects.size()) {
+                this.gameObjects.set(index, last);
+                this.listIndexByEntity[EntityStore.indexOf(last.getEntity())] = index;
+            }
+        }
+    }
+
+    /**
+     * Removes every game object right away, e.g. before loading another level into the scene.
+     */
+    void removeAllGameObjects() {
+        if (this.physics != null) {
+            this.physics.clear();
+        }
+        for (int i = this.gameObjects.size() - 1; i >= 0; i--) {
+            GameObject gameObject = this.gameObjects.get(i);
+            this.byEntity[EntityStore.indexOf(gameObject.getEntity())] = null;
+            gameObject.destroy();
+        }
+        this.gameObjects.clear();
+        this.pendingDestroy.clear();
+    }
+
+    /**
+     * Queues the sprites of all game objects the camera can see, interpolated between the last two ticks.
+     */
+    protected void renderGameObjects(float alpha) {
+        if (this.camera == null) {
+            this.entities.submitSprites(this.renderer, alpha);
+            return;
+        }
+        // Only does anything when game objects were added after the last tick, e.g. before the first one
+        this.entities.updateSpatialIndex();
+        this.camera.getWorldBounds(this.viewBounds);
+        IntList visible = this.queryEntities(this.viewBounds.x, this.viewBounds.y, this.viewBounds.z, this.viewBounds.w);
+        this.entities.submitSprites(this.renderer, alpha, visible);
+    }
+
+    /**
+     * Looks up the spatial index as of the last tick, so it doesn't see entities created or moved since.
+     *
+     * @return the ids of all entities overlapping the world space box. The list is reused by the next query.
+     */
+    public IntList queryEntities(float minX, float minY, float maxX, float maxY) {
+        this.queryResult.clear();
+        this.staticIndex.query(minX, minY, maxX, maxY, this.queryResult);
+        this.dynamicIndex.query(minX, minY, maxX, maxY, this.queryResult);
+        return this.queryResult;
+    }
+
+    /**
+     * Like {@link #queryEntities(float, float, float, float)} only sees the entities as of the last tick.
+     *
+     * @return the game object of the closest entity hit by the ray, or null
+     */
+    public GameObject raycast(float originX, float originY, float directionX, float directionY, float maxDistance) {
+        int hit = this.staticIndex.raycast(originX, originY, directionX, directionY, maxDistance);
+        float hitDistance = this.staticIndex.getLastHitDistance();
+        int dynamicHit = this.dynamicIndex.raycast(originX, originY, directionX, directionY, maxDistance);
+        if (dynamicHit != -1 && this.dynamicIndex.getLastHitDistance() < hitDistance) {
+            hit = dynamicHit;
+        }
+        return hit == -1 ? null : this.byEntity[EntityStore.indexOf(hit)];
+    }
+
+    /**
+     * @param screenX window position like {@link InputSnapshot#getX()} reports it
+     * @return the topmost game object with a sprite at that position, or null
+     */
+    public GameObject pickGameObject(float screenX, float screenY) {
+        if (this.camera == null) {
+            return null;
+        }
+        Vector2f world = this.camera.screenToWorld(screenX, screenY, this.pickPosition);
+        IntList hits = this.queryEntities(world.x, world.y, world.x, world.y);
+        // Sprites are drawn in draw order, so the last one in draw order is on top
+        GameObject top = null;
+        long topOrder = -1;
+        for (int i = 0; i < hits.size(); i++) {
+            int id = hits.get(i);
+            long order = this.entities.getDrawOrder(id);
+            if (order > topOrder && this.entities.has(id, EntityStore.SPRITE)) {
+                top = this.byEntity[EntityStore.indexOf(id)];
+                topOrder = order;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Called with the new framebuffer size in pixels after the window was resized, and once after {@link #init()}.
+     */
+    public void resize(int width, int height) {
+        if (this.camera != null) {
+            this.camera.setViewportSize(width, height);
+        }
+    }
+
 }
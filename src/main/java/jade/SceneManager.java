@@ -0,0 +1,277 @@
+package jade;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns the running scenes as a stack: the bottom one is the level, scenes pushed on top of it are overlays
+ * like a pause menu or a HUD. Every scene on the stack is drawn, bottom to top. The top scene is updated,
+ * and the ones below it as well as long as no scene above them pauses them.
+ * <p>
+ * A scene handed to the manager is initialized right away and then loaded on a loader thread, see the
+ * lifecycle in {@link Scene}. Switches, pushes and pops take effect in the order they were requested, each
+ * once its scene finished loading, so the current scenes keep running meanwhile and the change itself
+ * costs one frame. {@link #preload(Scene)} starts loading ahead of time so a later switch is immediate.
+ * A scene is on the stack at most once: switching to or pushing a scene that is already on the stack or
+ * waiting to be shown does nothing. Scenes leaving the stack are disposed right away, releasing their GL
+ * objects.
+ * <p>
+ * Must only be used from the thread owning the GL context.
+ */
+public class SceneManager {
+    private static final int SWITCH = 0;
+    private static final int PUSH = 1;
+    private static final int POP = 2;
+
+    private final List<Scene> stack = new ArrayList<>();
+    // Scenes receiving updates, bottom to top
+    private final List<Scene> active = new ArrayList<>();
+    private final List<Scene> nextActive = new ArrayList<>();
+    private final Map<Scene, CompletableFuture<Void>> loads = new IdentityHashMap<>();
+    private final Deque<Change> changes = new ArrayDeque<>();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scene-loader");
+        // Never keep the game alive just because a load is in flight
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int width, height;
+
+    private static class Change {
+        final int kind;
+        final Scene scene;
+
+        Change(int kind, Scene scene) {
+            this.kind = kind;
+            this.scene = scene;
+        }
+    }
+
+    /**
+     * Starts loading a scene without showing it. A preloaded scene that won't be shown after all is
+     * handed to {@link #cancel(Scene)}; it holds no GL objects yet. Does nothing for scenes that are
+     * already loading or on the stack.
+     */
+    public void preload(Scene scene) {
+        if (this.loads.containsKey(scene) || this.stack.contains(scene)) {
+            return;
+        }
+        scene.init();
+        this.loads.put(scene, CompletableFuture.runAsync(scene::load, this.loader));
+    }
+
+    /**
+     * Forgets a preloaded scene that was never switched to or pushed. Its load still runs to the end in
+     * the background.
+     */
+    public void cancel(Scene scene) {
+        for (Change change : this.changes) {
+            assert change.scene != scene : "Error: Cancelling a scene that is about to be shown";
+        }
+        this.loads.remove(scene);
+    }
+
+    /**
+     * Replaces every scene on the stack with the given one once it has loaded.
+     *
+     * @return false if the scene is already on the stack or waiting to be shown, nothing changes then
+     */
+    public boolean switchTo(Scene scene) {
+        return this.request(SWITCH, scene);
+    }
+
+    /**
+     * Puts an overlay on top of the stack once it has loaded.
+     *
+     * @return false if the overlay is already on the stack or waiting to be shown, nothing changes then
+     */
+    public boolean push(Scene overlay) {
+        return this.request(PUSH, overlay);
+    }
+
+    private boolean request(int kind, Scene scene) {
+        // Initializing or loading it again would race with the scene's own updates
+        if (this.stack.contains(scene) || this.isQueued(scene)) {
+            return false;
+        }
+        this.preload(scene);
+        this.changes.add(new Change(kind, scene));
+        return true;
+    }
+
+    private boolean isQueued(Scene scene) {
+        for (Change change : this.changes) {
+            if (change.scene == scene) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes and disposes the top scene, after the changes requested before it.
+     */
+    public void pop() {
+        this.changes.add(new Change(POP, null));
+    }
+
+    /**
+     * @return whether requested changes are still waiting for their scene to load
+     */
+    public boolean hasPendingChanges() {
+        return !this.changes.isEmpty();
+    }
+
+    /**
+     * @return the top scene, or null while the first scene is still loading
+     */
+    public Scene getTop() {
+        return this.stack.isEmpty() ? null : this.stack.get(this.stack.size() - 1);
+    }
+
+    /**
+     * Applies every requested change whose scene finished loading, in request order. Called once per frame
+     * before the updates.
+     */
+    public void processChanges() {
+        while (!this.changes.isEmpty()) {
+            Change change = this.changes.peek();
+            if (change.scene != null) {
+                CompletableFuture<Void> load = this.loads.get(change.scene);
+                if (load == null) {
+                    // Cancelled while waiting to be shown, there is nothing to show
+                    this.changes.poll();
+                    continue;
+                }
+                if (!load.isDone()) {
+                    break;
+                }
+                this.loads.remove(change.scene);
+                if (load.isCompletedExceptionally()) {
+                    // Keep the current scenes running, a scene that failed to load has nothing to show
+                    System.out.println("ERROR: Could not load scene " + change.scene.getClass().getSimpleName());
+                    try {
+                        load.join();
+                    } catch (CompletionException e) {
+                        e.getCause().printStackTrace();
+                    }
+                    this.changes.poll();
+                    continue;
+                }
+            }
+            this.changes.poll();
+            this.apply(change);
+        }
+    }
+
+    private void apply(Change change) {
+        switch (change.kind) {
+            case SWITCH:
+                for (int i = this.stack.size() - 1; i >= 0; i--) {
+                    this.remove(i);
+                }
+                this.add(change.scene);
+                break;
+            case PUSH:
+                this.add(change.scene);
+                break;
+            case POP:
+                if (!this.stack.isEmpty()) {
+                    this.remove(this.stack.size() - 1);
+                }
+                break;
+            default:
+                assert false : "Unknown scene change " + change.kind;
+                break;
+        }
+        this.updateActivity();
+    }
+
+    private void add(Scene scene) {
+        this.stack.add(scene);
+        if (this.width > 0) {
+            scene.resize(this.width, this.height);
+        }
+    }
+
+    private void remove(int index) {
+        Scene scene = this.stack.remove(index);
+        if (this.active.remove(scene)) {
+            scene.deactivate();
+        }
+        scene.dispose();
+    }
+
+    // Deactivates scenes that stopped updating, top first, then activates the new ones, bottom first
+    private void updateActivity() {
+        this.nextActive.clear();
+        for (int i = this.stack.size() - 1; i >= 0; i--) {
+            Scene scene = this.stack.get(i);
+            this.nextActive.add(0, scene);
+            if (scene.pausesScenesBelow()) {
+                break;
+            }
+        }
+        for (int i = this.active.size() - 1; i >= 0; i--) {
+            Scene scene = this.active.get(i);
+            if (!this.nextActive.contains(scene)) {
+                scene.deactivate();
+            }
+        }
+        for (int i = 0; i < this.nextActive.size(); i++) {
+            Scene scene = this.nextActive.get(i);
+            if (!this.active.contains(scene)) {
+                scene.activate();
+            }
+        }
+        this.active.clear();
+        this.active.addAll(this.nextActive);
+    }
+
+    /**
+     * Advances every active scene by one tick, bottom to top.
+     */
+    public void update(float dt) {
+        for (int i = 0; i < this.active.size(); i++) {
+            this.active.get(i).update(dt);
+        }
+    }
+
+    /**
+     * Draws every scene on the stack, bottom to top.
+     */
+    public void render(float alpha) {
+        for (int i = 0; i < this.stack.size(); i++) {
+            this.stack.get(i).render(alpha);
+        }
+    }
+
+    /**
+     * Passes the framebuffer size to every scene on the stack, and to scenes added later.
+     */
+    public void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        for (int i = 0; i < this.stack.size(); i++) {
+            this.stack.get(i).resize(width, height);
+        }
+    }
+
+    /**
+     * Removes and disposes every scene, top first, e.g. before the GL context goes away.
+     */
+    public void disposeAll() {
+        this.changes.clear();
+        for (int i = this.stack.size() - 1; i >= 0; i--) {
+            this.remove(i);
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package jade;
+
+import renderer.Sprite;
+import util.IntList;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Saves and loads the game objects of a scene in a compact binary format, streamed through a file channel
+ * and a reused direct buffer, so a level of a hundred thousand objects neither allocates per object while
+ * saving nor goes through reflection.
+ * <p>
+ * A scene file is a sequence of blocks. A full block replaces the scene, a delta block written by
+ * {@link #saveDelta(Scene, Path)} is appended afterwards and only carries the objects changed and removed
+ * since the previous block, which keeps autosaves of large levels cheap. Loading applies the blocks in
+ * order. Every block starts with a header, little endian ints:
+ * <pre>
+ * magic, version, kind (full or delta), record count, removed count
+ * </pre>
+ * followed by the keys of the removed objects and then the records. A record is
+ * <pre>
+ * key, name, components, x, y, width, height,
+ * [velocity x, velocity y]              with {@link EntityStore#MOTION}
+ * [sprite, r, g, b, a]                  with {@link EntityStore#SPRITE}
+ * </pre>
+ * where the key is the entity id at the time of saving, strings are modified UTF-8 behind an unsigned short
+ * byte count, and the sprite is an index into a table built up while reading: an index one past the end
+ * is followed by the name of a new sprite. The header is written last, so a block cut short by a crash
+ * still has a magic of 0 and is ignored.
+ * <p>
+ * Only the entity data and names are saved, not components. Sprites are saved by {@link Sprite#getName()}
+ * and looked up by the resolver when loading; sprites without a name, or that the resolver doesn't know,
+ * load as untextured quads with their color. Not thread safe, but independent of GL.
+ */
+public class SceneSerializer {
+    private static final int MAGIC = 0x4E435353; // "SSCN"
+    public static final int VERSION = 1;
+    private static final int KIND_FULL = 0;
+    private static final int KIND_DELTA = 1;
+    private static final int NO_SPRITE = -1;
+    private static final int HEADER_BYTES = 5 * Integer.BYTES;
+    // Key, components, sprite and up to 10 floats, names come on top
+    private static final int RECORD_BYTES = 13 * Integer.BYTES + 2 * Short.BYTES;
+    private static final int MAX_STRING_CHARS = 0xFFFF / 3;
+    private static final int BUFFER_BYTES = 1 << 18;
+    // Delta blocks appended before the next autosave rewrites the file in full
+    private static final int MAX_DELTAS = 32;
+    // Game object list indices are below EntityStore.MAX_ENTITIES, they go below the draw order
+    private static final int ORDER_SHIFT = Integer.numberOfTrailingZeros(EntityStore.MAX_ENTITIES);
+    private static final long ORDER_INDEX_MASK = EntityStore.MAX_ENTITIES - 1;
+
+    private final Function<String, Sprite> spriteResolver;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private FileChannel channel;
+
+    // Sprite table of the block being written or read
+    private final IdentityHashMap<Sprite, Integer> writtenSprites = new IdentityHashMap<>();
+    private final List<Sprite> readSprites = new ArrayList<>();
+    private char[] chars = new char[64];
+    // Saving: draw order and list index of every game object, sorted
+    private long[] order = new long[256];
+
+    // Loading: the game object of every key in the file, by the key's entity index
+    private GameObject[] loadedByIndex = new GameObject[256];
+    private int[] loadedKeys = new int[256];
+
+    // The file and scene the last full save wrote, deltas are only appended to it
+    private Path baselinePath;
+    private Scene baselineScene;
+    private int deltaCount;
+    private long lastSaveBytes;
+
+    /**
+     * @param spriteResolver turns saved sprite names back into sprites, returning null for unknown names
+     */
+    public SceneSerializer(Function<String, Sprite> spriteResolver) {
+        this.spriteResolver = spriteResolver;
+    }
+
+    /**
+     * @return bytes written by the last save, a whole file or one delta block
+     */
+    public long getLastSaveBytes() {
+        return this.lastSaveBytes;
+    }
+
+    // ==========================================================
+    // Saving
+    // ==========================================================
+
+    /**
+     * Writes the whole scene, replacing the file, and makes it the baseline for {@link #saveDelta(Scene, Path)}.
+     */
+    public void save(Scene scene, Path path) throws IOException {
+        // Written next to the final file and moved, so a crash never leaves half a level behind
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = parent.resolve(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.channel = channel;
+            List<GameObject> gameObjects = scene.getGameObjects();
+            this.sortByDrawOrder(scene.entities, gameObjects);
+            this.beginBlock(null);
+            for (int i = 0; i < gameObjects.size(); i++) {
+                this.putRecord(scene.entities, gameObjects.get((int) (this.order[i] & ORDER_INDEX_MASK)));
+            }
+            this.endBlock(0, KIND_FULL, gameObjects.size(), 0);
+            this.lastSaveBytes = channel.size();
+        } finally {
+            this.channel = null;
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        scene.entities.setTrackingChanges(true);
+        scene.entities.clearChanges();
+        this.baselinePath = path;
+        this.baselineScene = scene;
+        this.deltaCount = 0;
+    }
+
+    /**
+     * Appends the game objects changed, created and removed since the last save of this scene to the file.
+     * Writes the whole scene instead when the file isn't the last one saved for the scene, e.g. after a
+     * load, or when enough deltas piled up.
+     */
+    public void saveDelta(Scene scene, Path path) throws IOException {
+        if (scene != this.baselineScene || !path.equals(this.baselinePath) || this.deltaCount >= MAX_DELTAS
+                || !Files.isRegularFile(path)) {
+            this.save(scene, path);
+            return;
+        }
+
+        EntityStore entities = scene.entities;
+        IntList removed = entities.getDestroyedIds();
+        boolean complete = false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            this.channel = channel;
+            long start = channel.size();
+            channel.position(start);
+            List<GameObject> gameObjects = scene.getGameObjects();
+            this.sortByDrawOrder(entities, gameObjects);
+            this.beginBlock(removed);
+            int records = 0;
+            for (int i = 0; i < gameObjects.size(); i++) {
+                GameObject gameObject = gameObjects.get((int) (this.order[i] & ORDER_INDEX_MASK));
+                if (entities.isChanged(gameObject.getEntity())) {
+                    this.putRecord(entities, gameObject);
+                    records++;
+                }
+            }
+            this.endBlock(start, KIND_DELTA, records, removed.size());
+            this.lastSaveBytes = channel.size() - start;
+            complete = true;
+        } finally {
+            this.channel = null;
+            if (!complete) {
+                // Whatever got appended is ignored when loading, but nothing may be appended after it
+                this.baselinePath = null;
+            }
+        }
+        entities.clearChanges();
+        this.deltaCount++;
+    }
+
+    /**
+     * Fills the order with the list indices of the game objects in {@link EntityStore#getDrawOrder(int) draw
+     * order}. Records are written in that order, and loading creates the game objects in record order, so
+     * sprites overlap the same way after loading.
+     */
+    private void sortByDrawOrder(EntityStore entities, List<GameObject> gameObjects) {
+        int count = gameObjects.size();
+        if (this.order.length < count) {
+            this.order = new long[Math.max(count, this.order.length * 2)];
+        }
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            this.order[i] = (entities.getDrawOrder(gameObjects.get(i).getEntity()) << ORDER_SHIFT) | i;
+            sorted &= i == 0 || this.order[i - 1] < this.order[i];
+        }
+        if (!sorted) {
+            Arrays.sort(this.order, 0, count);
+        }
+    }
+
+    /**
+     * Starts a block in the buffer with a placeholder header and the removed keys.
+     */
+    private void beginBlock(IntList removed) throws IOException {
+        this.buffer.clear();
+        this.writtenSprites.clear();
+        for (int i = 0; i < HEADER_BYTES / Integer.BYTES; i++) {
+            this.buffer.putInt(0);
+        }
+        // Removals come first, so a key removed and an entity index reused in the same delta load right
+        for (int i = 0; removed != null && i < removed.size(); i++) {
+            this.ensureWritable(Integer.BYTES);
+            this.buffer.putInt(removed.get(i));
+        }
+    }
+
+    private void endBlock(long start, int kind, int records, int removedCount) throws IOException {
+        this.flush();
+
+        this.header.clear();
+        this.header.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(records).putInt(removedCount);
+        this.header.flip();
+        long position = start;
+        while (this.header.hasRemaining()) {
+            position += this.channel.write(this.header, position);
+        }
+    }
+
+    private void putRecord(EntityStore entities, GameObject gameObject) throws IOException {
+        int id = gameObject.getEntity();
+        String name = gameObject.getName();
+        int components = entities.getComponents(id);
+        Sprite sprite = (components & EntityStore.SPRITE) != 0 ? entities.getSprite(id) : null;
+        String spriteName = sprite != null ? sprite.getName() : null;
+        this.ensureWritable(RECORD_BYTES + 3 * name.length() + (spriteName != null ? 3 * spriteName.length() : 0));
+
+        this.buffer.putInt(id);
+        this.putString(name);
+        this.buffer.putInt(components);
+        this.buffer.putFloat(entities.getX(id));
+        this.buffer.putFloat(entities.getY(id));
+        this.buffer.putFloat(entities.getWidth(id));
+        this.buffer.putFloat(entities.getHeight(id));
+        if ((components & EntityStore.MOTION) != 0) {
+            this.buffer.putFloat(entities.getVelocityX(id));
+            this.buffer.putFloat(entities.getVelocityY(id));
+        }
+        if ((components & EntityStore.SPRITE) != 0) {
+            if (spriteName == null) {
+                this.buffer.putInt(NO_SPRITE);
+            } else {
+                Integer index = this.writtenSprites.get(sprite);
+                if (index != null) {
+                    this.buffer.putInt(index);
+                } else {
+                    this.buffer.putInt(this.writtenSprites.size());
+                    this.putString(spriteName);
+                    this.writtenSprites.put(sprite, this.writtenSprites.size());
+                }
+            }
+            this.buffer.putFloat(entities.getRed(id));
+            this.buffer.putFloat(entities.getGreen(id));
+            this.buffer.putFloat(entities.getBlue(id));
+            this.buffer.putFloat(entities.getAlpha(id));
+        }
+    }
+
+    private void putString(String value) throws IOException {
+        int length = value.length();
+        if (length > MAX_STRING_CHARS) {
+            throw new IOException("Error: '" + value.substring(0, 32) + "...' is longer than "
+                    + MAX_STRING_CHARS + " characters");
+        }
+        int start = this.buffer.position();
+        this.buffer.putShort((short) 0);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c < 0x0080) {
+                this.buffer.put((byte) c);
+            } else if (c < 0x0800) {
+                this.buffer.put((byte) (0xC0 | (c >> 6)));
+                this.buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                this.buffer.put((byte) (0xE0 | (c >> 12)));
+                this.buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                this.buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        this.buffer.putShort(start, (short) (this.buffer.position() - start - Short.BYTES));
+    }
+
+    private void ensureWritable(int bytes) throws IOException {
+        if (this.buffer.remaining() < bytes) {
+            this.flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    // ==========================================================
+    // Loading
+    // ==========================================================
+
+    /**
+     * Replaces the game objects of the scene with the ones saved in the file, applying its delta blocks.
+     * The scene's next {@link #saveDelta(Scene, Path)} writes the whole scene.
+     *
+     * @throws IOException if the file can't be read, isn't a scene file or is of a newer version
+     */
+    public void load(Scene scene, Path path) throws IOException {
+        EntityStore entities = scene.entities;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.channel = channel;
+            this.buffer.clear().limit(0);
+            boolean first = true;
+            while (this.ensureReadable(HEADER_BYTES, true)) {
+                int magic = this.buffer.getInt();
+                if (magic == 0) {
+                    // Block of an interrupted save, everything before it is complete
+                    break;
+                }
+                int version = this.buffer.getInt();
+                int kind = this.buffer.getInt();
+                if (magic != MAGIC || version < 1 || version > VERSION || (first && kind != KIND_FULL)) {
+                    throw new IOException("'" + path + "' is not a scene file of version " + VERSION + " or older");
+                }
+                int records = this.buffer.getInt();
+                int removed = this.buffer.getInt();
+                this.readBlock(scene, entities, kind, records, removed);
+                first = false;
+            }
+        } finally {
+            this.channel = null;
+            Arrays.fill(this.loadedByIndex, null);
+        }
+        if (scene == this.baselineScene) {
+            this.baselineScene = null;
+            this.baselinePath = null;
+        }
+    }
+
+    private void readBlock(Scene scene, EntityStore entities, int kind, int records, int removed) throws IOException {
+        this.readSprites.clear();
+        if (kind == KIND_FULL) {
+            scene.removeAllGameObjects();
+            Arrays.fill(this.loadedByIndex, null);
+        }
+        for (int i = 0; i < removed; i++) {
+            this.ensureReadable(Integer.BYTES, false);
+            int key = this.buffer.getInt();
+            int index = EntityStore.indexOf(key);
+            // Objects created and removed between two saves were never written
+            if (index < this.loadedByIndex.length && this.loadedByIndex[index] != null && this.loadedKeys[index] == key) {
+                scene.removeGameObject(this.loadedByIndex[index]);
+                this.loadedByIndex[index] = null;
+            }
+        }
+        for (int i = 0; i < records; i++) {
+            this.ensureReadable(Integer.BYTES + Short.BYTES, false);
+            int key = this.buffer.getInt();
+            String name = this.getString();
+            int index = EntityStore.indexOf(key);
+            if (index >= this.loadedByIndex.length) {
+                int capacity = Math.min(Math.max(index + 1, this.loadedByIndex.length * 2), EntityStore.MAX_ENTITIES);
+                this.loadedByIndex = Arrays.copyOf(this.loadedByIndex, capacity);
+                this.loadedKeys = Arrays.copyOf(this.loadedKeys, capacity);
+            }
+            GameObject gameObject = this.loadedByIndex[index];
+            if (gameObject == null || this.loadedKeys[index] != key || !gameObject.isAlive()) {
+                gameObject = scene.createGameObject(name);
+                this.loadedByIndex[index] = gameObject;
+                this.loadedKeys[index] = key;
+            }
+            this.readRecord(entities, gameObject.getEntity());
+        }
+    }
+
+    private void readRecord(EntityStore entities, int id) throws IOException {
+        this.ensureReadable(5 * Integer.BYTES, false);
+        int components = this.buffer.getInt();
+        entities.setPosition(id, this.buffer.getFloat(), this.buffer.getFloat());
+        entities.setSize(id, this.buffer.getFloat(), this.buffer.getFloat());
+        int missing = entities.getComponents(id) & ~components & (EntityStore.MOTION | EntityStore.SPRITE);
+        if (missing != 0) {
+            entities.remove(id, missing);
+        }
+        if ((components & EntityStore.MOTION) != 0) {
+            this.ensureReadable(2 * Float.BYTES, false);
+            entities.setVelocity(id, this.buffer.getFloat(), this.buffer.getFloat());
+        }
+        if ((components & EntityStore.SPRITE) != 0) {
+            this.ensureReadable(Integer.BYTES, false);
+            int spriteIndex = this.buffer.getInt();
+            Sprite sprite = null;
+            if (spriteIndex == this.readSprites.size()) {
+                this.ensureReadable(Short.BYTES, false);
+                sprite = this.spriteResolver.apply(this.getString());
+                this.readSprites.add(sprite);
+            } else if (spriteIndex != NO_SPRITE) {
+                if (spriteIndex < 0 || spriteIndex > this.readSprites.size()) {
+                    throw new IOException("Error: Sprite " + spriteIndex + " referenced before it was defined");
+                }
+                sprite = this.readSprites.get(spriteIndex);
+            }
+            this.ensureReadable(4 * Float.BYTES, false);
+            entities.setSprite(id, sprite, this.buffer.getFloat(), this.buffer.getFloat(),
+                    this.buffer.getFloat(), this.buffer.getFloat());
+        }
+    }
+
+    /**
+     * Reads a string, its byte count must already be readable.
+     */
+    private String getString() throws IOException {
+        int bytes = this.buffer.getShort() & 0xFFFF;
+        this.ensureReadable(bytes, false);
+        if (this.chars.length < bytes) {
+            this.chars = new char[Math.max(bytes, this.chars.length * 2)];
+        }
+        int length = 0;
+        int end = this.buffer.position() + bytes;
+        while (this.buffer.position() < end) {
+            int b = this.buffer.get() & 0xFF;
+            if (b < 0x80) {
+                this.chars[length++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                this.chars[length++] = (char) (((b & 0x1F) << 6) | (this.buffer.get() & 0x3F));
+            } else {
+                int b2 = this.buffer.get() & 0x3F;
+                this.chars[length++] = (char) (((b & 0x0F) << 12) | (b2 << 6) | (this.buffer.get() & 0x3F));
+            }
+        }
+        return new String(this.chars, 0, length);
+    }
+
+    /**
+     * Reads from the channel until at least the given number of bytes is buffered.
+     *
+     * @param atBlockStart whether the end of the file is allowed here
+     * @return false if the file ended cleanly before a block
+     */
+    private boolean ensureReadable(int bytes, boolean atBlockStart) throws IOException {
+        if (this.buffer.remaining() >= bytes) {
+            return true;
+        }
+        this.buffer.compact();
+        while (this.buffer.position() < bytes) {
+            if (this.channel.read(this.buffer) < 0) {
+                int buffered = this.buffer.position();
+                this.buffer.flip();
+                if (atBlockStart && buffered == 0) {
+                    return false;
+                }
+                throw new EOFException("Error: Scene file ends in the middle of a block");
+            }
+        }
+        this.buffer.flip();
+        return true;
+    }
+
+    // ==========================================================
+    // Text export
+    // ==========================================================
+
+    /**
+     * Writes the scene as text, one game object per line sorted by name, so two versions of a level can be
+     * compared with a diff tool. Only for reading, it can't be loaded.
+     */
+    public void exportText(Scene scene, Path path) throws IOException {
+        EntityStore entities = scene.entities;
+        List<GameObject> gameObjects = new ArrayList<>(scene.getGameObjects());
+        gameObjects.sort(Comparator.comparing(GameObject::getName));
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("# Scene version " + VERSION + ", " + gameObjects.size() + " game objects");
+            out.newLine();
+            for (GameObject gameObject : gameObjects) {
+                int id = gameObject.getEntity();
+                StringBuilder line = new StringBuilder(128);
+                line.append('"').append(gameObject.getName()).append('"')
+                        .append(" position ").append(entities.getX(id)).append(' ').append(entities.getY(id))
+                        .append(" size ").append(entities.getWidth(id)).append(' ').append(entities.getHeight(id));
+                if (entities.has(id, EntityStore.MOTION)) {
+                    line.append(" velocity ").append(entities.getVelocityX(id))
+                            .append(' ').append(entities.getVelocityY(id));
+                }
+                if (entities.has(id, EntityStore.SPRITE)) {
+                    Sprite sprite = entities.getSprite(id);
+                    if (sprite != null) {
+                        line.append(" sprite \"").append(sprite.getName() != null ? sprite.getName() : "?").append('"');
+                    }
+                    line.append(" color ").append(entities.getRed(id)).append(' ').append(entities.getGreen(id))
+                            .append(' ').append(entities.getBlue(id)).append(' ').append(entities.getAlpha(id));
+                }
+                out.write(line.toString());
+                out.newLine();
+            }
+        }
+    }
+}
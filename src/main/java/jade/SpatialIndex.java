@@ -0,0 +1,209 @@
+package jade;
+
+import util.IntList;
+
+import java.util.Arrays;
+
+/**
+ * Finds entities by their axis aligned world bounds without scanning all of them. Entries are keyed by
+ * {@link EntityStore} ids; the bounds of every entry are kept here as well, so queries never have to look
+ * into the store. Queries append the matching ids to a caller owned {@link IntList} and don't allocate.
+ * Not thread safe.
+ */
+public abstract class SpatialIndex {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int ABSENT = -1;
+
+    // Entry bounds and id by entity index
+    protected float[] minX, minY, maxX, maxY;
+    protected int[] ids;
+    private int size;
+
+    // Entries that were already visited by the running query carry its stamp
+    private int[] stamps;
+    private int stamp;
+
+    private float lastHitDistance;
+
+    protected SpatialIndex() {
+        this.minX = new float[INITIAL_CAPACITY];
+        this.minY = new float[INITIAL_CAPACITY];
+        this.maxX = new float[INITIAL_CAPACITY];
+        this.maxY = new float[INITIAL_CAPACITY];
+        this.ids = new int[INITIAL_CAPACITY];
+        this.stamps = new int[INITIAL_CAPACITY];
+        Arrays.fill(this.ids, ABSENT);
+        this.size = 0;
+        this.stamp = 0;
+    }
+
+    public void insert(int id, float minX, float minY, float maxX, float maxY) {
+        int key = EntityStore.indexOf(id);
+        if (key >= this.ids.length) {
+            this.grow(Math.max(key + 1, this.ids.length * 2));
+        }
+        assert this.ids[key] == ABSENT : "Error: Entity " + id + " is already indexed";
+        this.ids[key] = id;
+        this.setBounds(key, minX, minY, maxX, maxY);
+        this.link(key);
+        this.size++;
+    }
+
+    /**
+     * Moves an entry to its new bounds, inserting it if it isn't indexed yet.
+     */
+    public void update(int id, float minX, float minY, float maxX, float maxY) {
+        int key = EntityStore.indexOf(id);
+        if (!this.contains(id)) {
+            this.insert(id, minX, minY, maxX, maxY);
+            return;
+        }
+        if (this.minX[key] == minX && this.minY[key] == minY && this.maxX[key] == maxX && this.maxY[key] == maxY) {
+            return;
+        }
+        this.relink(key, minX, minY, maxX, maxY);
+    }
+
+    public void remove(int id) {
+        if (!this.contains(id)) {
+            return;
+        }
+        int key = EntityStore.indexOf(id);
+        this.unlink(key);
+        this.ids[key] = ABSENT;
+        this.size--;
+    }
+
+    public boolean contains(int id) {
+        int key = EntityStore.indexOf(id);
+        return key < this.ids.length && this.ids[key] == id;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Appends the ids of all entries overlapping the box, touching edges count as overlapping.
+     */
+    public abstract void query(float minX, float minY, float maxX, float maxY, IntList result);
+
+    public void queryPoint(float x, float y, IntList result) {
+        this.query(x, y, x, y, result);
+    }
+
+    /**
+     * Finds the first entry hit by a ray. The distance to the hit is available from
+     * {@link #getLastHitDistance()} afterwards.
+     *
+     * @param directionX direction of the ray, doesn't need to be normalized
+     * @param maxDistance how far along the ray to look, in world units
+     * @return the id of the closest entry hit, or -1
+     */
+    public abstract int raycast(float originX, float originY, float directionX, float directionY, float maxDistance);
+
+    public float getLastHitDistance() {
+        return this.lastHitDistance;
+    }
+
+    protected void setLastHitDistance(float distance) {
+        this.lastHitDistance = distance;
+    }
+
+    /**
+     * Adds the entry, whose bounds are already stored, to the structure.
+     */
+    protected abstract void link(int key);
+
+    /**
+     * Removes the entry from the structure, its bounds are still the ones it was linked with.
+     */
+    protected abstract void unlink(int key);
+
+    /**
+     * Moves the entry to new bounds. Structures that can often keep an entry in place override this.
+     */
+    protected void relink(int key, float minX, float minY, float maxX, float maxY) {
+        this.unlink(key);
+        this.setBounds(key, minX, minY, maxX, maxY);
+        this.link(key);
+    }
+
+    protected void setBounds(int key, float minX, float minY, float maxX, float maxY) {
+        this.minX[key] = minX;
+        this.minY[key] = minY;
+        this.maxX[key] = maxX;
+        this.maxY[key] = maxY;
+    }
+
+    protected void grow(int capacity) {
+        int oldCapacity = this.ids.length;
+        this.minX = Arrays.copyOf(this.minX, capacity);
+        this.minY = Arrays.copyOf(this.minY, capacity);
+        this.maxX = Arrays.copyOf(this.maxX, capacity);
+        this.maxY = Arrays.copyOf(this.maxY, capacity);
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.stamps = Arrays.copyOf(this.stamps, capacity);
+        Arrays.fill(this.ids, oldCapacity, capacity, ABSENT);
+    }
+
+    /**
+     * Starts a query that may see the same entry more than once, see {@link #firstVisit(int)}.
+     */
+    protected void beginVisits() {
+        this.stamp++;
+        if (this.stamp == 0) {
+            // Wrapped around, old stamps could collide with new ones
+            Arrays.fill(this.stamps, 0);
+            this.stamp = 1;
+        }
+    }
+
+    /**
+     * @return true the first time an entry is seen since {@link #beginVisits()}
+     */
+    protected boolean firstVisit(int key) {
+        if (this.stamps[key] == this.stamp) {
+            return false;
+        }
+        this.stamps[key] = this.stamp;
+        return true;
+    }
+
+    protected boolean overlaps(int key, float minX, float minY, float maxX, float maxY) {
+        return this.maxX[key] >= minX && this.minX[key] <= maxX
+                && this.maxY[key] >= minY && this.minY[key] <= maxY;
+    }
+
+    /**
+     * Slab test of a normalized ray against an entry.
+     *
+     * @return the distance at which the ray enters the entry, 0 if it starts inside, or
+     * {@link Float#POSITIVE_INFINITY} if it misses within maxDistance
+     */
+    protected float intersect(int key, float originX, float originY, float directionX, float directionY, float maxDistance) {
+        float near = 0.0f;
+        float far = maxDistance;
+        if (directionX == 0.0f) {
+            if (originX < this.minX[key] || originX > this.maxX[key]) {
+                return Float.POSITIVE_INFINITY;
+            }
+        } else {
+            float t0 = (this.minX[key] - originX) / directionX;
+            float t1 = (this.maxX[key] - originX) / directionX;
+            near = Math.max(near, Math.min(t0, t1));
+            far = Math.min(far, Math.max(t0, t1));
+        }
+        if (directionY == 0.0f) {
+            if (originY < this.minY[key] || originY > this.maxY[key]) {
+                return Float.POSITIVE_INFINITY;
+            }
+        } else {
+            float t0 = (this.minY[key] - originY) / directionY;
+            float t1 = (this.maxY[key] - originY) / directionY;
+            near = Math.max(near, Math.min(t0, t1));
+            far = Math.min(far, Math.max(t0, t1));
+        }
+        return near <= far ? near : Float.POSITIVE_INFINITY;
+    }
+}
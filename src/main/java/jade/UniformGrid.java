@@ -0,0 +1,186 @@
+package jade;
+
+import util.IntList;
+
+/**
+ * Spatial index for static level geometry: a fixed grid of equally sized cells, where every entry is
+ * listed in each cell it overlaps. Cheap to query when entries are about the size of a cell, but moving
+ * an entry touches all its cells, so prefer a {@link LooseQuadtree} for anything that moves every tick.
+ * <p>
+ * Entries outside the grid area are kept in the border cells, so range and point queries still find
+ * them; raycasts only cover the grid area.
+ */
+public class UniformGrid extends SpatialIndex {
+    private final float originX, originY;
+    private final float cellSize;
+    private final int columns, rows;
+    // Created on first use, row major
+    private final IntList[] cells;
+
+    /**
+     * @param originX world position of the bottom left corner of the grid
+     */
+    public UniformGrid(float originX, float originY, float cellSize, int columns, int rows) {
+        assert cellSize > 0.0f && columns > 0 && rows > 0 : "Error: Invalid grid " + columns + "x" + rows + " of " + cellSize;
+        this.originX = originX;
+        this.originY = originY;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.cells = new IntList[columns * rows];
+    }
+
+    private int column(float x) {
+        int column = (int) Math.floor((x - this.originX) / this.cellSize);
+        return Math.max(0, Math.min(this.columns - 1, column));
+    }
+
+    private int row(float y) {
+        int row = (int) Math.floor((y - this.originY) / this.cellSize);
+        return Math.max(0, Math.min(this.rows - 1, row));
+    }
+
+    @Override
+    protected void link(int key) {
+        int id = this.ids[key];
+        int lastColumn = this.column(this.maxX[key]);
+        int lastRow = this.row(this.maxY[key]);
+        for (int row = this.row(this.minY[key]); row <= lastRow; row++) {
+            for (int column = this.column(this.minX[key]); column <= lastColumn; column++) {
+                int cell = row * this.columns + column;
+                if (this.cells[cell] == null) {
+                    this.cells[cell] = new IntList(4);
+                }
+                this.cells[cell].add(id);
+            }
+        }
+    }
+
+    @Override
+    protected void unlink(int key) {
+        int id = this.ids[key];
+        int lastColumn = this.column(this.maxX[key]);
+        int lastRow = this.row(this.maxY[key]);
+        for (int row = this.row(this.minY[key]); row <= lastRow; row++) {
+            for (int column = this.column(this.minX[key]); column <= lastColumn; column++) {
+                IntList cell = this.cells[row * this.columns + column];
+                cell.swapRemove(cell.indexOf(id));
+            }
+        }
+    }
+
+    @Override
+    public void query(float minX, float minY, float maxX, float maxY, IntList result) {
+        this.beginVisits();
+        int lastColumn = this.column(maxX);
+        int lastRow = this.row(maxY);
+        for (int row = this.row(minY); row <= lastRow; row++) {
+            for (int column = this.column(minX); column <= lastColumn; column++) {
+                IntList cell = this.cells[row * this.columns + column];
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    int id = cell.get(i);
+                    int key = EntityStore.indexOf(id);
+                    if (this.firstVisit(key) && this.overlaps(key, minX, minY, maxX, maxY)) {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the cells along the ray in order and stops at the first cell that starts behind the closest hit.
+     */
+    @Override
+    public int raycast(float originX, float originY, float directionX, float directionY, float maxDistance) {
+        float length = (float) Math.sqrt(directionX * directionX + directionY * directionY);
+        if (length == 0.0f) {
+            return -1;
+        }
+        directionX /= length;
+        directionY /= length;
+
+        // Clip the ray to the grid area
+        float gridMaxX = this.originX + this.columns * this.cellSize;
+        float gridMaxY = this.originY + this.rows * this.cellSize;
+        float enter = 0.0f;
+        float exit = maxDistance;
+        if (directionX == 0.0f) {
+            if (originX < this.originX || originX > gridMaxX) {
+                return -1;
+            }
+        } else {
+            float t0 = (this.originX - originX) / directionX;
+            float t1 = (gridMaxX - originX) / directionX;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        if (directionY == 0.0f) {
+            if (originY < this.originY || originY > gridMaxY) {
+                return -1;
+            }
+        } else {
+            float t0 = (this.originY - originY) / directionY;
+            float t1 = (gridMaxY - originY) / directionY;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        if (enter > exit) {
+            return -1;
+        }
+
+        float startX = originX + directionX * enter;
+        float startY = originY + directionY * enter;
+        int column = this.column(startX);
+        int row = this.row(startY);
+        int stepColumn = directionX > 0.0f ? 1 : -1;
+        int stepRow = directionY > 0.0f ? 1 : -1;
+        // Distance along the ray to cross one cell, and to the next cell boundary on each axis
+        float deltaX = directionX == 0.0f ? Float.POSITIVE_INFINITY : this.cellSize / Math.abs(directionX);
+        float deltaY = directionY == 0.0f ? Float.POSITIVE_INFINITY : this.cellSize / Math.abs(directionY);
+        float nextX = directionX == 0.0f ? Float.POSITIVE_INFINITY
+                : enter + ((this.originX + (column + (directionX > 0.0f ? 1 : 0)) * this.cellSize) - startX) / directionX;
+        float nextY = directionY == 0.0f ? Float.POSITIVE_INFINITY
+                : enter + ((this.originY + (row + (directionY > 0.0f ? 1 : 0)) * this.cellSize) - startY) / directionY;
+
+        this.beginVisits();
+        int closest = -1;
+        float closestDistance = exit;
+        float cellEnter = enter;
+        while (cellEnter <= closestDistance) {
+            IntList cell = this.cells[row * this.columns + column];
+            if (cell != null) {
+                for (int i = 0; i < cell.size(); i++) {
+                    int id = cell.get(i);
+                    int key = EntityStore.indexOf(id);
+                    if (!this.firstVisit(key)) {
+                        continue;
+                    }
+                    float distance = this.intersect(key, originX, originY, directionX, directionY, closestDistance);
+                    if (distance <= closestDistance) {
+                        closest = id;
+                        closestDistance = distance;
+                    }
+                }
+            }
+
+            if (nextX < nextY) {
+                column += stepColumn;
+                cellEnter = nextX;
+                nextX += deltaX;
+            } else {
+                row += stepRow;
+                cellEnter = nextY;
+                nextY += deltaY;
+            }
+            if (column < 0 || column >= this.columns || row < 0 || row >= this.rows) {
+                break;
+            }
+        }
+        this.setLastHitDistance(closest == -1 ? Float.POSITIVE_INFINITY : closestDistance);
+        return closest;
+    }
+}
@@ -3,21 +3,83 @@ package jade;
 import org.lwjgl.Version;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryStack;
+import renderer.Framebuffer;
+import renderer.GLStateCache;
+import renderer.GpuTimer;
+import renderer.Renderer;
+import renderer.Shader;
+import renderer.StreamingBuffer;
+import renderer.UploadQueue;
+import util.AssetPool;
+import util.FrameTimeHistogram;
+import util.Metrics;
+import util.Profiler;
 import util.Time;
 
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 public class Window {
-    private final int width;
-    private final int height;
+    // Time each frame may spend finishing asynchronous loads on the GL thread
+    private static final long UPLOAD_BUDGET_NANOS = 2_000_000L;
+    // Longest frame the simulation tries to catch up with, e.g. after a breakpoint or a window drag
+    private static final double MAX_FRAME_TIME = 0.25;
+    // Ticks per frame before the remaining backlog is dropped to avoid a spiral of death
+    private static final int MAX_TICKS_PER_FRAME = 5;
+
+    private int width;
+    private int height;
     private final String title;
     private static Window window = null;
     private long glfwWindow;
-    private static Scene currentScene;
+    private static final SceneManager scenes = new SceneManager();
     private boolean fadeToBlack;
 
+    private GpuTimer gpuRenderTimer;
+    // F3 shows the metrics overlay
+    private MetricsOverlay metricsOverlay;
+    private boolean showMetrics;
+
+    // Headless mode renders into an offscreen framebuffer of a hidden window
+    private boolean headless;
+    private int contextApi;
+    private Framebuffer framebuffer;
+
+    private static final int PROFILE_FRAME = Profiler.register("frame");
+    private static final int PROFILE_POLL = Profiler.register("pollEvents");
+    private static final int PROFILE_UPLOADS = Profiler.register("uploads");
+    private static final int PROFILE_UPDATE = Profiler.register("update");
+    private static final int PROFILE_RENDER = Profiler.register("render");
+    private static final int PROFILE_SWAP = Profiler.register("swapBuffers");
+    private static final int PROFILE_PACING = Profiler.register("framePacing");
+
+    // The phases come from the profiler scopes above, so unlike the frame time they are only recorded while profiling
+    private static final int METRIC_FRAME = Metrics.histogram("frame");
+    private static final int METRIC_POLL = Metrics.histogram("frame.poll");
+    private static final int METRIC_UPLOADS = Metrics.histogram("frame.uploads");
+    private static final int METRIC_UPDATE = Metrics.histogram("frame.update");
+    private static final int METRIC_RENDER = Metrics.histogram("frame.render");
+    private static final int METRIC_SWAP = Metrics.histogram("frame.swap");
+    private static final int METRIC_PACING = Metrics.histogram("frame.pacing");
+    private static final int METRIC_GPU_RENDER = Metrics.histogram("gpu.render");
+    private static final int METRIC_FRAMES = Metrics.counter("frames");
+    private static final int METRIC_TICKS = Metrics.counter("ticks");
+    private static final int METRIC_DROPPED_TICKS = Metrics.counter("ticks.dropped");
+    private static final int METRIC_FPS = Metrics.gauge("fps");
+    private static final int METRIC_PENDING_ASSETS = Metrics.gauge("assets.pending");
+    private static final int METRIC_QUEUED_UPLOADS = Metrics.gauge("uploads.queued");
+
+    private int tickRate;
+    private FramePacing framePacing;
+    private final FrameLimiter frameLimiter;
+
     public float r, g, b, a;
 
     private Window() {
@@ -26,17 +88,23 @@ public class Window {
         this.title = "Mario";
         this.r = this.g = this.b = this.a = 1.0f;
         this.fadeToBlack = false;
+        this.tickRate = 60;
+        this.framePacing = FramePacing.VSYNC;
+        this.frameLimiter = new FrameLimiter(60);
+        this.headless = false;
+        this.contextApi = GLFW_NATIVE_CONTEXT_API;
     }
 
+    /**
+     * Switches to the scene once it has loaded in the background, the current one keeps running until then.
+     */
     public static void changeScene(int newScene) {
         switch (newScene) {
             case 0:
-                currentScene = new LevelEditorScene();
-                currentScene.init();
+                scenes.switchTo(new LevelEditorScene());
                 break;
             case 1:
-                currentScene = new LevelScene();
-                currentScene.init();
+                scenes.switchTo(new LevelScene());
                 break;
             default:
                 assert false : "Unknown scene '" + newScene + "'";
@@ -44,6 +112,10 @@ public class Window {
         }
     }
 
+    public static SceneManager getScenes() {
+        return scenes;
+    }
+
     public static Window get() {
         if (Window.window == null) {
             Window.window = new Window();
@@ -64,9 +136,12 @@ public class Window {
         // Configure GLFW
         glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
         glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
+        // Mesa only exposes 3.3 through a core profile
+        glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
+        glfwWindowHint(GLFW_CONTEXT_CREATION_API, this.contextApi);
         glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
         glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE);
-        glfwWindowHint(GLFW_MAXIMIZED, GLFW_TRUE);
+        glfwWindowHint(GLFW_MAXIMIZED, this.headless ? GLFW_FALSE : GLFW_TRUE);
 
 
         // Create the window
@@ -75,20 +150,22 @@ public class Window {
             throw new IllegalStateException("Failed to create the GLFW window");
         }
 
-        glfwSetCursorPosCallback(this.glfwWindow, MouseListener::mousePosCallback);
-        glfwSetMouseButtonCallback(this.glfwWindow, MouseListener::mouseButtonCallback);
-        glfwSetScrollCallback(this.glfwWindow, MouseListener::mouseScrollCallback);
-        //glfwSetFramebufferSizeCallback(this.glfwWindow,Window::framebufferSizeCallback);
+        glfwSetCursorPosCallback(this.glfwWindow, Input::cursorPosCallback);
+        glfwSetMouseButtonCallback(this.glfwWindow, Input::mouseButtonCallback);
+        glfwSetScrollCallback(this.glfwWindow, Input::scrollCallback);
+        glfwSetFramebufferSizeCallback(this.glfwWindow, Window::framebufferSizeCallback);
 
-        glfwSetKeyCallback(this.glfwWindow, KeyListener::keyCallback);
+        glfwSetKeyCallback(this.glfwWindow, Input::keyCallback);
 
         // Make the OpenGL the context
         glfwMakeContextCurrent(this.glfwWindow);
-        // Enable v-sync
-        glfwSwapInterval(1);
+        // Enable v-sync unless another pacing was requested
+        glfwSwapInterval(this.framePacing == FramePacing.VSYNC ? 1 : 0);
 
         // Make the window visible
-        glfwShowWindow(this.glfwWindow);
+        if (!this.headless) {
+            glfwShowWindow(this.glfwWindow);
+        }
 
         // This line is critical for LWJGL's interoperation with GLFW's
         // OpenGL context, or any context that is managed externally.
@@ -96,42 +173,268 @@ public class Window {
         // creates the GLCapabilities instance and makes the OpenGL
         // bindings available for use.
         GL.createCapabilities();
+        if (!this.headless) {
+            // The window may already have been maximized before the callback could see it
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                IntBuffer framebufferWidth = stack.mallocInt(1);
+                IntBuffer framebufferHeight = stack.mallocInt(1);
+                glfwGetFramebufferSize(this.glfwWindow, framebufferWidth, framebufferHeight);
+                this.resize(framebufferWidth.get(0), framebufferHeight.get(0));
+            }
+        }
+        this.gpuRenderTimer = new GpuTimer("gpu render");
+        this.metricsOverlay = new MetricsOverlay();
+        this.metricsOverlay.resize(this.width, this.height);
+
+        if (this.headless) {
+            this.framebuffer = new Framebuffer(this.width, this.height);
+            this.framebuffer.bind();
+        }
 
+        scenes.resize(this.width, this.height);
         Window.changeScene(0);
     }
 
     public void loop() {
-        float beginTime = Time.getTime();
-        float endTime;
-        float dt = -1.0f;
+        double tickDt = 1.0 / this.tickRate;
+        double accumulator = 0.0;
 
         while (!glfwWindowShouldClose(this.glfwWindow)) {
+            Time.beginFrame();
+            Profiler.begin(PROFILE_FRAME);
+            this.recordFrameTime();
+            accumulator += Math.min(Time.getDeltaSeconds(), MAX_FRAME_TIME);
+
             // Poll events
+            Profiler.begin(PROFILE_POLL);
             glfwPollEvents();
+            Metrics.record(METRIC_POLL, Profiler.end());
+
+            Profiler.begin(PROFILE_UPLOADS);
+            UploadQueue.process(UPLOAD_BUDGET_NANOS);
+            Metrics.record(METRIC_UPLOADS, Profiler.end());
+            scenes.processChanges();
+
+            // Advance the simulation in fixed steps so it behaves the same at any frame rate
+            Profiler.begin(PROFILE_UPDATE);
+            int ticks = 0;
+            while (accumulator >= tickDt && ticks < MAX_TICKS_PER_FRAME) {
+                // Input that arrives during a frame without a tick waits in the queue for the next one
+                Input.update();
+                this.checkDebugKeys();
+                scenes.update((float) tickDt);
+                accumulator -= tickDt;
+                ticks++;
+            }
+            Metrics.add(METRIC_TICKS, ticks);
+            if (accumulator >= tickDt) {
+                // Still behind after the maximum number of ticks, let the simulation run slow instead
+                Metrics.add(METRIC_DROPPED_TICKS, (long) (accumulator / tickDt));
+                accumulator %= tickDt;
+            }
+            Metrics.record(METRIC_UPDATE, Profiler.end());
 
+            Profiler.begin(PROFILE_RENDER);
+            this.gpuRenderTimer.begin();
             glClearColor(this.r, this.g, this.b, this.a);
             glClear(GL_COLOR_BUFFER_BIT);
 
-            if (dt >= 0) {
-                currentScene.update(dt);
+            // Blend between the last two ticks by how far we are into the next one
+            scenes.render((float) (accumulator / tickDt));
+            if (this.showMetrics) {
+                this.metricsOverlay.render();
             }
+            this.gpuRenderTimer.end();
+            Metrics.record(METRIC_RENDER, Profiler.end());
 
+            Profiler.begin(PROFILE_SWAP);
             glfwSwapBuffers(this.glfwWindow);
-            endTime = Time.getTime();
-            dt = endTime - beginTime;
-            beginTime = endTime;
+            Metrics.record(METRIC_SWAP, Profiler.end());
+            this.endFrame();
+
+            if (this.framePacing == FramePacing.CAPPED) {
+                Profiler.begin(PROFILE_PACING);
+                this.frameLimiter.sync();
+                Metrics.record(METRIC_PACING, Profiler.end());
+            }
+            Profiler.end();
+        }
+    }
+
+    // Time between the starts of the last two frames, including pacing, so it matches the frame rate
+    private void recordFrameTime() {
+        if (Time.getFrameCount() > 1) {
+            Metrics.record(METRIC_FRAME, Time.getFrameStartNanos() - Time.getPreviousFrameStartNanos());
+        }
+    }
+
+    // Closes the per-frame statistics, the metrics snapshot last so it sees the rest
+    private void endFrame() {
+        Renderer.endFrame();
+        Shader.endFrame();
+        StreamingBuffer.endFrame();
+        GLStateCache.endFrame();
+        Metrics.increment(METRIC_FRAMES);
+        Metrics.set(METRIC_FPS, Time.getSmoothedDeltaSeconds() > 0.0 ? 1.0 / Time.getSmoothedDeltaSeconds() : 0.0);
+        Metrics.set(METRIC_PENDING_ASSETS, AssetPool.getPendingCount());
+        Metrics.set(METRIC_QUEUED_UPLOADS, UploadQueue.size());
+        if (this.gpuRenderTimer.getLastNanos() > 0) {
+            Metrics.record(METRIC_GPU_RENDER, this.gpuRenderTimer.getLastNanos());
         }
+        Metrics.endFrame();
+    }
+
+    // F3 toggles the metrics overlay, F12 dumps the profiler's recent history as a Chrome trace
+    private void checkDebugKeys() {
+        if (Input.current().wasKeyPressed(GLFW_KEY_F3)) {
+            this.showMetrics = !this.showMetrics;
+        }
+        if (Input.current().wasKeyPressed(GLFW_KEY_F12)) {
+            Path path = Paths.get("profile-" + Time.getFrameCount() + ".json");
+            try {
+                Profiler.exportChromeTrace(path);
+                System.out.println("Profile written to " + path.toAbsolutePath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @param tickRate simulation ticks per second, takes effect the next time {@link #loop()} starts
+     */
+    public void setTickRate(int tickRate) {
+        assert tickRate > 0 : "Error: Tick rate must be positive, got " + tickRate;
+        this.tickRate = tickRate;
+    }
+
+    public int getTickRate() {
+        return this.tickRate;
+    }
+
+    /**
+     * @param targetFps only used by {@link FramePacing#CAPPED}
+     */
+    public void setFramePacing(FramePacing framePacing, int targetFps) {
+        this.framePacing = framePacing;
+        this.frameLimiter.setTargetFps(targetFps);
+        if (this.glfwWindow != NULL) {
+            glfwSwapInterval(framePacing == FramePacing.VSYNC ? 1 : 0);
+        }
+    }
+
+    public FramePacing getFramePacing() {
+        return this.framePacing;
     }
 
     public void run() {
         System.out.println("LWJGL version:" + Version.getVersion());
         this.init();
         this.loop();
+        scenes.disposeAll();
+        this.metricsOverlay.delete();
         glfwTerminate();
     }
 
+    /**
+     * Selects how GLFW creates the GL context, e.g. GLFW_OSMESA_CONTEXT_API or GLFW_EGL_CONTEXT_API to
+     * render through Mesa's software rasterizers. Must be called before {@link #run()}.
+     */
+    public void setContextApi(int contextApi) {
+        this.contextApi = contextApi;
+    }
+
+    /**
+     * Runs the startup scene without showing a window: every frame is rendered into an offscreen
+     * framebuffer, and the simulation advances exactly one tick of {@code dt} per frame, so the output
+     * is the same on every machine. Asynchronous loads are finished before the first frame.
+     * Prints the per-frame CPU cost, which includes waiting for the GPU to finish each frame.
+     *
+     * @param screenshotPath where to write the last frame as png, or null to skip the readback
+     * @return the frame time histogram of the run
+     */
+    public FrameTimeHistogram runHeadless(int frames, float dt, String screenshotPath) {
+        System.out.println("LWJGL version:" + Version.getVersion());
+        this.headless = true;
+        this.init();
+
+        while (AssetPool.getPendingCount() > 0 || UploadQueue.size() > 0 || scenes.hasPendingChanges()) {
+            UploadQueue.process(UPLOAD_BUDGET_NANOS);
+            scenes.processChanges();
+            Thread.yield();
+        }
+
+        Time.getFrameTimes().reset();
+        for (int i = 0; i < frames; i++) {
+            Time.beginFrame();
+            Profiler.begin(PROFILE_FRAME);
+            this.recordFrameTime();
+
+            Profiler.begin(PROFILE_UPDATE);
+            Input.update();
+            scenes.update(dt);
+            Metrics.add(METRIC_TICKS, 1);
+            Metrics.record(METRIC_UPDATE, Profiler.end());
+
+            Profiler.begin(PROFILE_RENDER);
+            glClearColor(this.r, this.g, this.b, this.a);
+            glClear(GL_COLOR_BUFFER_BIT);
+            scenes.render(1.0f);
+            glFinish();
+            Metrics.record(METRIC_RENDER, Profiler.end());
+
+            this.endFrame();
+            Profiler.end();
+        }
+        // Close the last frame so it lands in the histogram as well
+        Time.beginFrame();
+
+        FrameTimeHistogram frameTimes = Time.getFrameTimes();
+        System.out.printf("Headless: %d frames, mean %.3f ms, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms, %d draw calls, %d bytes uploaded per frame%n",
+                frameTimes.getCount(), frameTimes.getMeanMillis(), frameTimes.getP50Millis(),
+                frameTimes.getP95Millis(), frameTimes.getP99Millis(), frameTimes.getMaxMillis(), Renderer.getDrawCalls(),
+                StreamingBuffer.getUploadedBytes());
+
+        if (screenshotPath != null && !this.framebuffer.writePng(screenshotPath)) {
+            System.out.println("ERROR: Could not write '" + screenshotPath + "'");
+        }
+
+        scenes.disposeAll();
+        this.metricsOverlay.delete();
+        glfwTerminate();
+        return frameTimes;
+    }
+
+    /**
+     * @return the offscreen render target in headless mode, null otherwise
+     */
+    public Framebuffer getFramebuffer() {
+        return this.framebuffer;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
     public static void framebufferSizeCallback(long window, int width, int height) {
-        System.out.println(width);
-        System.out.println(height);
+        Window.get().resize(width, height);
+    }
+
+    private void resize(int width, int height) {
+        // A minimized window reports 0x0, keep rendering at the last real size
+        if (width <= 0 || height <= 0 || this.headless) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        glViewport(0, 0, width, height);
+        scenes.resize(width, height);
+        if (this.metricsOverlay != null) {
+            this.metricsOverlay.resize(width, height);
+        }
     }
 }
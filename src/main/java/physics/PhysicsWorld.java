@@ -0,0 +1,959 @@
+package physics;
+
+import jade.EntityStore;
+import util.IntList;
+import util.JobSystem;
+
+import java.util.Arrays;
+
+/**
+ * Axis aligned box physics for the entities of a scene. Bodies are boxes that never rotate, keyed by their
+ * {@link EntityStore} id and kept in parallel primitive arrays like the store keeps its components. A step
+ * <ol>
+ * <li>integrates gravity and moves every awake body against the {@link TileMap}, checking every tile
+ * along the way, so tiles are never tunneled through;</li>
+ * <li>finds pairs of overlapping bodies with a {@link SweepAndPrune} over the bounds swept during the
+ * step, so fast bodies still meet what they passed;</li>
+ * <li>classifies each pair as touching, penetrating or, for bullets, hit somewhere along the sweep;</li>
+ * <li>solves the contacts in a few Jacobi iterations: every contact computes its impulse from the state
+ * of the previous iteration, then every body sums up its own contacts;</li>
+ * <li>writes the positions back into the store and puts bodies to sleep that rested long enough.</li>
+ * </ol>
+ * All parts except the bookkeeping in between run on the {@link JobSystem}, writing only to their own
+ * contact or body, so the result doesn't depend on the thread count.
+ * <p>
+ * Sleeping bodies are left out of integration, solving and write back, and act like static bodies to the
+ * awake ones resting on them. They wake up when something moving touches them, when they are moved,
+ * pushed or given a velocity through the world, or when a body next to them is removed or moves away.
+ * <p>
+ * Bodies take the position and size their entity has when they are added; afterwards the world owns the
+ * position, so move bodies with {@link #setPosition(int, float, float)} instead of through the store.
+ * Entities with a body shouldn't have {@link EntityStore#MOTION} as well, or the store moves them twice.
+ * Not thread safe.
+ */
+public class PhysicsWorld {
+    public static final int DYNAMIC = 0;
+    public static final int STATIC = 1;
+
+    // Body flags
+    private static final int STATIC_BODY = 1;
+    private static final int BULLET = 1 << 1;
+    private static final int SLEEPING = 1 << 2;
+    private static final int GROUNDED = 1 << 3;
+    // Grounded at the end of the previous step, doesn't change during a step so contacts can read it
+    private static final int SUPPORTED = 1 << 4;
+
+    // Contact kinds
+    private static final int NO_CONTACT = 0;
+    private static final int CONTACT_X = 1;
+    private static final int CONTACT_Y = 2;
+    private static final int HIT_X = 3;
+    private static final int HIT_Y = 4;
+    // Stacked at the start of the step but not anymore, only wakes a sleeping upper side
+    private static final int SEPARATED = 5;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int ABSENT = -1;
+    // Smallest part of a loop worth handing to another thread
+    private static final int PARALLEL_CHUNK = 1024;
+    private static final int ITERATIONS = 4;
+    // Bodies closer than this count as touching, and penetration up to it is left alone, so resting
+    // contacts persist from step to step instead of flickering
+    private static final float SLOP = 0.01f;
+    // Share of the penetration removed per iteration
+    private static final float CORRECTION = 0.8f;
+    private static final float SLEEP_VELOCITY = 1.0f;
+    private static final float SLEEP_TIME = 0.5f;
+
+    private final EntityStore store;
+    private TileMap tiles;
+    private float gravityX, gravityY;
+    private float friction;
+    private boolean sleepingAllowed = true;
+
+    // Entity index -> body
+    private int[] bodyOf = new int[INITIAL_CAPACITY];
+
+    // Body -> data, packed in [0, size)
+    private int size;
+    private int[] entities;
+    private int[] flags;
+    private float[] x, y, width, height;
+    // Position at the start of the step, bodies are swept from here
+    private float[] startX, startY;
+    private float[] velocityX, velocityY;
+    private float[] inverseMass, restitution;
+    private float[] sleepTimer;
+    // Bounds for the broadphase, swept and grown by the slop
+    private float[] minX, minY, maxX, maxY;
+
+    // Awake dynamic bodies, and each body's position in the list or ABSENT
+    private final IntList awake = new IntList();
+    private int[] awakeIndex;
+
+    private final SweepAndPrune broadphase = new SweepAndPrune();
+    private final SweepAndPrune.ActiveFilter activeFilter = this::isMoving;
+    private final IntList candidates = new IntList();
+
+    // Contacts: the two bodies, their kind, and the normal pointing from a to b along the contact axis
+    private int contactCount;
+    private int[] contactA = new int[INITIAL_CAPACITY];
+    private int[] contactB = new int[INITIAL_CAPACITY];
+    private int[] contactKind = new int[INITIAL_CAPACITY];
+    private float[] contactNormal = new float[INITIAL_CAPACITY];
+    // Hits: fraction of the step at which the bodies met
+    private float[] contactTime = new float[INITIAL_CAPACITY];
+    // Per iteration: velocity change and position correction along the normal, per unit of inverse mass,
+    // and the inverse mass each side takes part with, 0 for a side that can't be moved by the contact
+    private float[] contactImpulse = new float[INITIAL_CAPACITY];
+    private float[] contactPush = new float[INITIAL_CAPACITY];
+    private float[] contactShareA = new float[INITIAL_CAPACITY];
+    private float[] contactShareB = new float[INITIAL_CAPACITY];
+    // Contacts of every awake body, from contactsOf[contactStart[body]] up to where the next body in the
+    // awake list starts, or contactTotal for the last one
+    private int[] contactStart;
+    private int[] contactsOf = new int[INITIAL_CAPACITY * 2];
+    private int contactTotal;
+
+    // State of the running step for the job system tasks, kept in fields so a step doesn't allocate
+    private final JobSystem.RangeTask integrateTask = this::integrateRange;
+    private final JobSystem.RangeTask classifyTask = this::classifyRange;
+    private final JobSystem.RangeTask hitTask = this::resolveHitsRange;
+    private final JobSystem.RangeTask contactTask = this::solveContactsRange;
+    private final JobSystem.RangeTask bodyTask = this::applyContactsRange;
+    private final JobSystem.RangeTask writeBackTask = this::writeBackRange;
+    private float stepDt;
+
+    public PhysicsWorld(EntityStore store) {
+        this.store = store;
+        Arrays.fill(this.bodyOf, ABSENT);
+        this.allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.entities = new int[capacity];
+        this.flags = new int[capacity];
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.width = new float[capacity];
+        this.height = new float[capacity];
+        this.startX = new float[capacity];
+        this.startY = new float[capacity];
+        this.velocityX = new float[capacity];
+        this.velocityY = new float[capacity];
+        this.inverseMass = new float[capacity];
+        this.restitution = new float[capacity];
+        this.sleepTimer = new float[capacity];
+        this.minX = new float[capacity];
+        this.minY = new float[capacity];
+        this.maxX = new float[capacity];
+        this.maxY = new float[capacity];
+        this.awakeIndex = new int[capacity];
+        this.contactStart = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+        this.entities = Arrays.copyOf(this.entities, capacity);
+        this.flags = Arrays.copyOf(this.flags, capacity);
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.width = Arrays.copyOf(this.width, capacity);
+        this.height = Arrays.copyOf(this.height, capacity);
+        this.startX = Arrays.copyOf(this.startX, capacity);
+        this.startY = Arrays.copyOf(this.startY, capacity);
+        this.velocityX = Arrays.copyOf(this.velocityX, capacity);
+        this.velocityY = Arrays.copyOf(this.velocityY, capacity);
+        this.inverseMass = Arrays.copyOf(this.inverseMass, capacity);
+        this.restitution = Arrays.copyOf(this.restitution, capacity);
+        this.sleepTimer = Arrays.copyOf(this.sleepTimer, capacity);
+        this.minX = Arrays.copyOf(this.minX, capacity);
+        this.minY = Arrays.copyOf(this.minY, capacity);
+        this.maxX = Arrays.copyOf(this.maxX, capacity);
+        this.maxY = Arrays.copyOf(this.maxY, capacity);
+        this.awakeIndex = Arrays.copyOf(this.awakeIndex, capacity);
+        this.contactStart = Arrays.copyOf(this.contactStart, capacity);
+    }
+
+    // ==========================================================
+    // Configuration
+    // ==========================================================
+
+    /**
+     * @param tiles level geometry bodies collide with, or null for none
+     */
+    public void setTileMap(TileMap tiles) {
+        this.tiles = tiles;
+        this.wakeAll();
+    }
+
+    public TileMap getTileMap() {
+        return this.tiles;
+    }
+
+    /**
+     * @param gravityY acceleration in world units per second squared, e.g. negative to fall down
+     */
+    public void setGravity(float gravityX, float gravityY) {
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+        this.wakeAll();
+    }
+
+    /**
+     * @param friction how fast grounded bodies lose horizontal speed, in world units per second squared;
+     *                 without it piles of bodies keep sliding apart and never fall asleep
+     */
+    public void setFriction(float friction) {
+        assert friction >= 0.0f : "Error: Negative friction " + friction;
+        this.friction = friction;
+    }
+
+    /**
+     * Turns sleeping off, e.g. to compare its cost; all bodies wake up.
+     */
+    public void setSleepingAllowed(boolean allowed) {
+        this.sleepingAllowed = allowed;
+        if (!allowed) {
+            this.wakeAll();
+        }
+    }
+
+    // ==========================================================
+    // Bodies
+    // ==========================================================
+
+    /**
+     * Adds a body with the entity's current position and size. Dynamic bodies start awake with a mass of 1.
+     *
+     * @param type {@link #DYNAMIC} or {@link #STATIC}
+     */
+    public void addBody(int entity, int type) {
+        assert !this.hasBody(entity) : "Error: Entity " + entity + " already has a body";
+        int index = EntityStore.indexOf(entity);
+        if (index >= this.bodyOf.length) {
+            int oldLength = this.bodyOf.length;
+            this.bodyOf = Arrays.copyOf(this.bodyOf, Math.max(index + 1, oldLength * 2));
+            Arrays.fill(this.bodyOf, oldLength, this.bodyOf.length, ABSENT);
+        }
+        if (this.size == this.entities.length) {
+            this.grow(this.size * 2);
+        }
+
+        int body = this.size++;
+        this.bodyOf[index] = body;
+        this.entities[body] = entity;
+        this.x[body] = this.startX[body] = this.store.getX(entity);
+        this.y[body] = this.startY[body] = this.store.getY(entity);
+        this.width[body] = this.store.getWidth(entity);
+        this.height[body] = this.store.getHeight(entity);
+        this.velocityX[body] = this.velocityY[body] = 0.0f;
+        this.restitution[body] = 0.0f;
+        this.sleepTimer[body] = 0.0f;
+        this.awakeIndex[body] = ABSENT;
+        if (type == STATIC) {
+            this.flags[body] = STATIC_BODY;
+            this.inverseMass[body] = 0.0f;
+        } else {
+            this.flags[body] = 0;
+            this.inverseMass[body] = 1.0f;
+            this.awakeIndex[body] = this.awake.size();
+            this.awake.add(body);
+        }
+        this.updateBounds(body);
+        this.broadphase.invalidate();
+    }
+
+    /**
+     * Removes the entity's body, if it has one, and wakes the bodies touching it.
+     */
+    public void removeBody(int entity) {
+        if (!this.hasBody(entity)) {
+            return;
+        }
+        int body = this.bodyOf[EntityStore.indexOf(entity)];
+        this.wakeTouching(body);
+        if (this.awakeIndex[body] != ABSENT) {
+            this.removeAwake(body);
+        }
+
+        int last = --this.size;
+        if (body != last) {
+            this.entities[body] = this.entities[last];
+            this.flags[body] = this.flags[last];
+            this.x[body] = this.x[last];
+            this.y[body] = this.y[last];
+            this.width[body] = this.width[last];
+            this.height[body] = this.height[last];
+            this.startX[body] = this.startX[last];
+            this.startY[body] = this.startY[last];
+            this.velocityX[body] = this.velocityX[last];
+            this.velocityY[body] = this.velocityY[last];
+            this.inverseMass[body] = this.inverseMass[last];
+            this.restitution[body] = this.restitution[last];
+            this.sleepTimer[body] = this.sleepTimer[last];
+            this.minX[body] = this.minX[last];
+            this.minY[body] = this.minY[last];
+            this.maxX[body] = this.maxX[last];
+            this.maxY[body] = this.maxY[last];
+            this.awakeIndex[body] = this.awakeIndex[last];
+            if (this.awakeIndex[body] != ABSENT) {
+                this.awake.set(this.awakeIndex[body], body);
+            }
+            this.bodyOf[EntityStore.indexOf(this.entities[body])] = body;
+        }
+        this.bodyOf[EntityStore.indexOf(entity)] = ABSENT;
+        this.broadphase.invalidate();
+    }
+
+    /**
+     * Removes all bodies.
+     */
+    public void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.bodyOf[EntityStore.indexOf(this.entities[i])] = ABSENT;
+        }
+        this.size = 0;
+        this.awake.clear();
+        this.contactCount = 0;
+        this.broadphase.invalidate();
+    }
+
+    public boolean hasBody(int entity) {
+        int index = EntityStore.indexOf(entity);
+        return index < this.bodyOf.length && this.bodyOf[index] != ABSENT
+                && this.entities[this.bodyOf[index]] == entity;
+    }
+
+    private int body(int entity) {
+        assert this.hasBody(entity) : "Error: Entity " + entity + " has no body";
+        return this.bodyOf[EntityStore.indexOf(entity)];
+    }
+
+    /**
+     * @return the number of bodies
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public int getAwakeCount() {
+        return this.awake.size();
+    }
+
+    /**
+     * @return the contacts found by the last step
+     */
+    public int getContactCount() {
+        return this.contactCount;
+    }
+
+    /**
+     * Moves the body and its entity, without interpolating from the old position.
+     */
+    public void setPosition(int entity, float x, float y) {
+        int body = this.body(entity);
+        this.wakeTouching(body);
+        this.x[body] = this.startX[body] = x;
+        this.y[body] = this.startY[body] = y;
+        this.store.setPosition(entity, x, y);
+        this.updateBounds(body);
+        this.wake(body);
+    }
+
+    public float getX(int entity) {
+        return this.x[this.body(entity)];
+    }
+
+    public float getY(int entity) {
+        return this.y[this.body(entity)];
+    }
+
+    public void setVelocity(int entity, float velocityX, float velocityY) {
+        int body = this.body(entity);
+        if ((this.flags[body] & STATIC_BODY) == 0) {
+            this.velocityX[body] = velocityX;
+            this.velocityY[body] = velocityY;
+            this.wake(body);
+        }
+    }
+
+    public float getVelocityX(int entity) {
+        return this.velocityX[this.body(entity)];
+    }
+
+    public float getVelocityY(int entity) {
+        return this.velocityY[this.body(entity)];
+    }
+
+    /**
+     * Changes the velocity by the impulse divided by the mass.
+     */
+    public void applyImpulse(int entity, float impulseX, float impulseY) {
+        int body = this.body(entity);
+        if ((this.flags[body] & STATIC_BODY) == 0) {
+            this.velocityX[body] += impulseX * this.inverseMass[body];
+            this.velocityY[body] += impulseY * this.inverseMass[body];
+            this.wake(body);
+        }
+    }
+
+    public void setMass(int entity, float mass) {
+        assert mass > 0.0f : "Error: Mass must be positive, got " + mass;
+        int body = this.body(entity);
+        if ((this.flags[body] & STATIC_BODY) == 0) {
+            this.inverseMass[body] = 1.0f / mass;
+        }
+    }
+
+    /**
+     * @param restitution how much of the approaching velocity is kept as a bounce, from 0 to 1
+     */
+    public void setRestitution(int entity, float restitution) {
+        this.restitution[this.body(entity)] = restitution;
+    }
+
+    /**
+     * Bullets are checked against other bodies along their whole way through a step, so they don't pass
+     * through bodies thinner than what they move per step. They stop where they first hit something.
+     * Tiles are always checked like that.
+     */
+    public void setBullet(int entity, boolean bullet) {
+        int body = this.body(entity);
+        this.flags[body] = bullet ? this.flags[body] | BULLET : this.flags[body] & ~BULLET;
+    }
+
+    public boolean isSleeping(int entity) {
+        return (this.flags[this.body(entity)] & SLEEPING) != 0;
+    }
+
+    /**
+     * @return whether the body was standing on a tile or another body in the last step
+     */
+    public boolean isGrounded(int entity) {
+        return (this.flags[this.body(entity)] & GROUNDED) != 0;
+    }
+
+    private void wake(int body) {
+        if ((this.flags[body] & STATIC_BODY) != 0 || this.awakeIndex[body] != ABSENT) {
+            return;
+        }
+        this.flags[body] &= ~SLEEPING;
+        this.sleepTimer[body] = 0.0f;
+        this.awakeIndex[body] = this.awake.size();
+        this.awake.add(body);
+    }
+
+    private void wakeAll() {
+        for (int i = 0; i < this.size; i++) {
+            this.wake(i);
+        }
+    }
+
+    // Bodies resting on a body that is about to move or vanish have to notice
+    private void wakeTouching(int body) {
+        for (int i = 0; i < this.size; i++) {
+            if (i != body && (this.flags[i] & SLEEPING) != 0 && this.maxX[i] >= this.minX[body]
+                    && this.minX[i] <= this.maxX[body] && this.maxY[i] >= this.minY[body] && this.minY[i] <= this.maxY[body]) {
+                this.wake(i);
+            }
+        }
+    }
+
+    private void removeAwake(int body) {
+        int index = this.awakeIndex[body];
+        this.awake.swapRemove(index);
+        if (index < this.awake.size()) {
+            this.awakeIndex[this.awake.get(index)] = index;
+        }
+        this.awakeIndex[body] = ABSENT;
+    }
+
+    private void updateBounds(int body) {
+        this.minX[body] = Math.min(this.x[body], this.startX[body]) - SLOP;
+        this.minY[body] = Math.min(this.y[body], this.startY[body]) - SLOP;
+        this.maxX[body] = Math.max(this.x[body], this.startX[body]) + this.width[body] + SLOP;
+        this.maxY[body] = Math.max(this.y[body], this.startY[body]) + this.height[body] + SLOP;
+    }
+
+    // ==========================================================
+    // Step
+    // ==========================================================
+
+    /**
+     * Advances all bodies by one fixed tick and writes their positions into the store.
+     */
+    public void step(float dt) {
+        if (this.awake.isEmpty()) {
+            this.contactCount = 0;
+            return;
+        }
+        this.stepDt = dt;
+
+        JobSystem.parallelFor(this.awake.size(), PARALLEL_CHUNK, this.integrateTask);
+
+        this.broadphase.findPairs(this.size, this.minX, this.minY, this.maxX, this.maxY, this.activeFilter, this.candidates);
+        this.contactCount = this.candidates.size() / 2;
+        this.ensureContacts(this.contactCount);
+        for (int i = 0; i < this.contactCount; i++) {
+            this.contactA[i] = this.candidates.get(2 * i);
+            this.contactB[i] = this.candidates.get(2 * i + 1);
+        }
+        JobSystem.parallelFor(this.contactCount, PARALLEL_CHUNK, this.classifyTask);
+        this.compactContacts();
+        this.buildContactLists();
+
+        JobSystem.parallelFor(this.awake.size(), PARALLEL_CHUNK, this.hitTask);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            JobSystem.parallelFor(this.contactCount, PARALLEL_CHUNK, this.contactTask);
+            JobSystem.parallelFor(this.awake.size(), PARALLEL_CHUNK, this.bodyTask);
+        }
+
+        JobSystem.parallelFor(this.awake.size(), PARALLEL_CHUNK, this.writeBackTask);
+        if (this.sleepingAllowed) {
+            this.fallAsleep();
+        }
+    }
+
+    private void integrateRange(int from, int to) {
+        float dt = this.stepDt;
+        TileMap tiles = this.tiles;
+        for (int i = from; i < to; i++) {
+            int body = this.awake.get(i);
+            this.flags[body] &= ~GROUNDED;
+            this.startX[body] = this.x[body];
+            this.startY[body] = this.y[body];
+            float velocityX = this.velocityX[body] += this.gravityX * dt;
+            float velocityY = this.velocityY[body] += this.gravityY * dt;
+            float dx = velocityX * dt;
+            float dy = velocityY * dt;
+            if (tiles != null) {
+                float allowedX = tiles.sweepX(this.x[body], this.y[body], this.width[body], this.height[body], dx);
+                if (allowedX != dx) {
+                    this.velocityX[body] = -velocityX * this.restitution[body];
+                }
+                this.x[body] += allowedX;
+                float allowedY = tiles.sweepY(this.x[body], this.y[body], this.width[body], this.height[body], dy);
+                if (allowedY != dy) {
+                    this.velocityY[body] = -velocityY * this.restitution[body];
+                    if (dy < 0.0f) {
+                        this.flags[body] |= GROUNDED;
+                    }
+                }
+                this.y[body] += allowedY;
+            } else {
+                this.x[body] += dx;
+                this.y[body] += dy;
+            }
+            this.updateBounds(body);
+        }
+    }
+
+    // ==========================================================
+    // Contacts
+    // ==========================================================
+
+    private void ensureContacts(int count) {
+        if (count > this.contactA.length) {
+            int capacity = Math.max(count, this.contactA.length * 2);
+            this.contactA = Arrays.copyOf(this.contactA, capacity);
+            this.contactB = Arrays.copyOf(this.contactB, capacity);
+            this.contactKind = Arrays.copyOf(this.contactKind, capacity);
+            this.contactNormal = Arrays.copyOf(this.contactNormal, capacity);
+            this.contactTime = Arrays.copyOf(this.contactTime, capacity);
+            this.contactImpulse = Arrays.copyOf(this.contactImpulse, capacity);
+            this.contactPush = Arrays.copyOf(this.contactPush, capacity);
+            this.contactShareA = Arrays.copyOf(this.contactShareA, capacity);
+            this.contactShareB = Arrays.copyOf(this.contactShareB, capacity);
+        }
+        if (2 * count > this.contactsOf.length) {
+            this.contactsOf = new int[Math.max(2 * count, this.contactsOf.length * 2)];
+        }
+    }
+
+    private void classifyRange(int from, int to) {
+        for (int c = from; c < to; c++) {
+            int a = this.contactA[c];
+            int b = this.contactB[c];
+            float overlapX = Math.min(this.x[a] + this.width[a], this.x[b] + this.width[b]) - Math.max(this.x[a], this.x[b]);
+            float overlapY = Math.min(this.y[a] + this.height[a], this.y[b] + this.height[b]) - Math.max(this.y[a], this.y[b]);
+            if (overlapX > -SLOP && overlapY > -SLOP) {
+                // Separate along the axis the bodies were apart on at the start of the step, or else along
+                // the axis of least overlap. Deep overlaps after a fast fall still push up, not sideways.
+                float startOverlapX = Math.min(this.startX[a] + this.width[a], this.startX[b] + this.width[b])
+                        - Math.max(this.startX[a], this.startX[b]);
+                float startOverlapY = Math.min(this.startY[a] + this.height[a], this.startY[b] + this.height[b])
+                        - Math.max(this.startY[a], this.startY[b]);
+                boolean alongX;
+                if (startOverlapX <= 0.0f && startOverlapY > 0.0f) {
+                    alongX = true;
+                } else if (startOverlapY <= 0.0f && startOverlapX > 0.0f) {
+                    alongX = false;
+                } else {
+                    alongX = overlapX < overlapY;
+                }
+                if (alongX) {
+                    this.contactKind[c] = CONTACT_X;
+                    this.contactNormal[c] = this.x[b] + 0.5f * this.width[b] > this.x[a] + 0.5f * this.width[a] ? 1.0f : -1.0f;
+                } else {
+                    this.contactKind[c] = CONTACT_Y;
+                    this.contactNormal[c] = this.y[b] + 0.5f * this.height[b] > this.y[a] + 0.5f * this.height[a] ? 1.0f : -1.0f;
+                }
+            } else if (((this.flags[a] | this.flags[b]) & BULLET) != 0) {
+                this.classifyHit(c, a, b);
+            } else {
+                this.contactKind[c] = NO_CONTACT;
+            }
+            if (this.contactKind[c] == NO_CONTACT && ((this.flags[a] | this.flags[b]) & SLEEPING) != 0) {
+                float startOverlapX = Math.min(this.startX[a] + this.width[a], this.startX[b] + this.width[b])
+                        - Math.max(this.startX[a], this.startX[b]);
+                float startOverlapY = Math.min(this.startY[a] + this.height[a], this.startY[b] + this.height[b])
+                        - Math.max(this.startY[a], this.startY[b]);
+                if (startOverlapX > -SLOP && startOverlapY > -SLOP && startOverlapX > startOverlapY) {
+                    this.contactKind[c] = SEPARATED;
+                    this.contactNormal[c] = this.startY[b] > this.startY[a] ? 1.0f : -1.0f;
+                }
+            }
+        }
+    }
+
+    /**
+     * Swept test of a against b, both moving from their start to their current position.
+     */
+    private void classifyHit(int c, int a, int b) {
+        float moveX = (this.x[a] - this.startX[a]) - (this.x[b] - this.startX[b]);
+        float moveY = (this.y[a] - this.startY[a]) - (this.y[b] - this.startY[b]);
+        float enterX, exitX, enterY, exitY;
+        if (moveX > 0.0f) {
+            enterX = (this.startX[b] - (this.startX[a] + this.width[a])) / moveX;
+            exitX = (this.startX[b] + this.width[b] - this.startX[a]) / moveX;
+        } else if (moveX < 0.0f) {
+            enterX = (this.startX[b] + this.width[b] - this.startX[a]) / moveX;
+            exitX = (this.startX[b] - (this.startX[a] + this.width[a])) / moveX;
+        } else {
+            boolean overlapping = this.startX[a] < this.startX[b] + this.width[b] && this.startX[b] < this.startX[a] + this.width[a];
+            enterX = overlapping ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+            exitX = Float.POSITIVE_INFINITY;
+        }
+        if (moveY > 0.0f) {
+            enterY = (this.startY[b] - (this.startY[a] + this.height[a])) / moveY;
+            exitY = (this.startY[b] + this.height[b] - this.startY[a]) / moveY;
+        } else if (moveY < 0.0f) {
+            enterY = (this.startY[b] + this.height[b] - this.startY[a]) / moveY;
+            exitY = (this.startY[b] - (this.startY[a] + this.height[a])) / moveY;
+        } else {
+            boolean overlapping = this.startY[a] < this.startY[b] + this.height[b] && this.startY[b] < this.startY[a] + this.height[a];
+            enterY = overlapping ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+            exitY = Float.POSITIVE_INFINITY;
+        }
+        float enter = Math.max(enterX, enterY);
+        float exit = Math.min(exitX, exitY);
+        if (enter < 0.0f || enter > 1.0f || enter >= exit) {
+            this.contactKind[c] = NO_CONTACT;
+            return;
+        }
+        this.contactTime[c] = enter;
+        if (enterX > enterY) {
+            this.contactKind[c] = HIT_X;
+            this.contactNormal[c] = moveX > 0.0f ? 1.0f : -1.0f;
+        } else {
+            this.contactKind[c] = HIT_Y;
+            this.contactNormal[c] = moveY > 0.0f ? 1.0f : -1.0f;
+        }
+    }
+
+    /**
+     * Drops the pairs that didn't touch and wakes sleeping bodies hit by something moving.
+     */
+    private void compactContacts() {
+        int count = 0;
+        for (int c = 0; c < this.contactCount; c++) {
+            int kind = this.contactKind[c];
+            if (kind == NO_CONTACT) {
+                continue;
+            }
+            int a = this.contactA[c];
+            int b = this.contactB[c];
+            float normal = this.contactNormal[c];
+            if ((this.flags[a] & SLEEPING) != 0 && this.isMovingInto(b, kind, -normal)) {
+                this.wake(a);
+            } else if ((this.flags[b] & SLEEPING) != 0 && this.isMovingInto(a, kind, normal)) {
+                this.wake(b);
+            }
+            if (kind == SEPARATED) {
+                // Whatever rested on the moving body lost its support, but there is nothing to solve
+                continue;
+            }
+            this.contactA[count] = a;
+            this.contactB[count] = b;
+            this.contactKind[count] = kind;
+            this.contactNormal[count] = normal;
+            this.contactTime[count] = this.contactTime[c];
+            count++;
+        }
+        this.contactCount = count;
+    }
+
+    /**
+     * Whether an awake body wakes a sleeping one it touches. Bodies coming to rest on a sleeping body or
+     * moving along its side leave it asleep; a hit, anything still moving towards it or its support
+     * moving away wakes it.
+     *
+     * @param towards direction from the body to the sleeping one along the contact axis
+     */
+    private boolean isMovingInto(int body, int kind, float towards) {
+        if (this.awakeIndex[body] == ABSENT) {
+            return false;
+        }
+        switch (kind) {
+            case CONTACT_X:
+                return this.sleepTimer[body] == 0.0f && this.velocityX[body] * towards > SLEEP_VELOCITY;
+            case CONTACT_Y:
+                return this.sleepTimer[body] == 0.0f && this.velocityY[body] * towards > SLEEP_VELOCITY;
+            case SEPARATED:
+                return towards > 0.0f;
+            default:
+                return true;
+        }
+    }
+
+    private void buildContactLists() {
+        int[] start = this.contactStart;
+        int awakeCount = this.awake.size();
+        for (int i = 0; i < awakeCount; i++) {
+            start[this.awake.get(i)] = 0;
+        }
+        for (int c = 0; c < this.contactCount; c++) {
+            if (this.awakeIndex[this.contactA[c]] != ABSENT) {
+                start[this.contactA[c]]++;
+            }
+            if (this.awakeIndex[this.contactB[c]] != ABSENT) {
+                start[this.contactB[c]]++;
+            }
+        }
+        // Counts to end offsets, then filling walks every body's range back down to its start
+        int offset = 0;
+        for (int i = 0; i < awakeCount; i++) {
+            int body = this.awake.get(i);
+            offset += start[body];
+            start[body] = offset;
+        }
+        this.contactTotal = offset;
+        for (int c = this.contactCount - 1; c >= 0; c--) {
+            if (this.awakeIndex[this.contactA[c]] != ABSENT) {
+                this.contactsOf[--start[this.contactA[c]]] = c;
+            }
+            if (this.awakeIndex[this.contactB[c]] != ABSENT) {
+                this.contactsOf[--start[this.contactB[c]]] = c;
+            }
+        }
+    }
+
+    private int contactEnd(int awakePosition) {
+        return awakePosition + 1 < this.awake.size() ? this.contactStart[this.awake.get(awakePosition + 1)] : this.contactTotal;
+    }
+
+    // ==========================================================
+    // Solver
+    // ==========================================================
+
+    private boolean isMoving(int body) {
+        return this.awakeIndex[body] != ABSENT;
+    }
+
+    /**
+     * Bullets go back to where they first hit something and lose the velocity towards it.
+     */
+    private void resolveHitsRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int body = this.awake.get(i);
+            if ((this.flags[body] & BULLET) == 0) {
+                continue;
+            }
+            float earliest = 2.0f;
+            int first = -1;
+            for (int k = this.contactStart[body], end = this.contactEnd(i); k < end; k++) {
+                int c = this.contactsOf[k];
+                if (this.contactKind[c] >= HIT_X && this.contactTime[c] < earliest) {
+                    earliest = this.contactTime[c];
+                    first = c;
+                }
+            }
+            if (first == -1) {
+                continue;
+            }
+            this.x[body] = this.startX[body] + (this.x[body] - this.startX[body]) * earliest;
+            this.y[body] = this.startY[body] + (this.y[body] - this.startY[body]) * earliest;
+            float bounce = -this.restitution[body];
+            if (this.contactKind[first] == HIT_X) {
+                this.velocityX[body] *= bounce;
+            } else {
+                this.velocityY[body] *= bounce;
+            }
+        }
+    }
+
+    private void solveContactsRange(int from, int to) {
+        float dt = this.stepDt;
+        for (int c = from; c < to; c++) {
+            int kind = this.contactKind[c];
+            if (kind >= HIT_X) {
+                this.contactImpulse[c] = this.contactPush[c] = this.contactShareA[c] = this.contactShareB[c] = 0.0f;
+                continue;
+            }
+            int a = this.contactA[c];
+            int b = this.contactB[c];
+            float inverseA = this.isMoving(a) ? this.inverseMass[a] : 0.0f;
+            float inverseB = this.isMoving(b) ? this.inverseMass[b] : 0.0f;
+            float inverseSum = inverseA + inverseB;
+            if (inverseSum == 0.0f) {
+                this.contactImpulse[c] = this.contactPush[c] = this.contactShareA[c] = this.contactShareB[c] = 0.0f;
+                continue;
+            }
+            float normal = this.contactNormal[c];
+            float velocityA = kind == CONTACT_X ? this.velocityX[a] : this.velocityY[a];
+            float velocityB = kind == CONTACT_X ? this.velocityX[b] : this.velocityY[b];
+            if (kind == CONTACT_Y) {
+                // A supported body can't be pushed down and won't fall either, so a stack rests on it like on
+                // the ground, without waiting for the iterations to stop every body below first
+                int below = normal > 0.0f ? a : b;
+                if ((this.flags[below] & SUPPORTED) != 0) {
+                    if (below == a) {
+                        velocityA = Math.max(velocityA, 0.0f);
+                    } else {
+                        velocityB = Math.max(velocityB, 0.0f);
+                    }
+                    if (below == a) {
+                        inverseA = 0.0f;
+                    } else {
+                        inverseB = 0.0f;
+                    }
+                    inverseSum = inverseA + inverseB;
+                    if (inverseSum == 0.0f) {
+                        this.contactImpulse[c] = this.contactPush[c] = this.contactShareA[c] = this.contactShareB[c] = 0.0f;
+                        continue;
+                    }
+                }
+            }
+            float depth;
+            if (kind == CONTACT_X) {
+                depth = Math.min(this.x[a] + this.width[a], this.x[b] + this.width[b]) - Math.max(this.x[a], this.x[b]);
+            } else {
+                depth = Math.min(this.y[a] + this.height[a], this.y[b] + this.height[b]) - Math.max(this.y[a], this.y[b]);
+            }
+            float approach = (velocityB - velocityA) * normal;
+
+            float impulse = 0.0f;
+            if (depth >= 0.0f) {
+                if (approach < 0.0f) {
+                    float bounce = Math.max(this.restitution[a], this.restitution[b]);
+                    impulse = -(1.0f + bounce) * approach / inverseSum;
+                }
+            } else if (approach < depth / dt) {
+                // Not touching yet, only take away the speed that would close the gap within the step
+                impulse = -(approach - depth / dt) / inverseSum;
+            }
+            this.contactImpulse[c] = impulse;
+            this.contactPush[c] = Math.max(depth - SLOP, 0.0f) * CORRECTION / inverseSum;
+            this.contactShareA[c] = inverseA;
+            this.contactShareB[c] = inverseB;
+        }
+    }
+
+    private void applyContactsRange(int from, int to) {
+        TileMap tiles = this.tiles;
+        for (int i = from; i < to; i++) {
+            int body = this.awake.get(i);
+            int start = this.contactStart[body];
+            int end = this.contactEnd(i);
+            if (start == end) {
+                continue;
+            }
+            // Every contact assumed it was the only one. Contacts pushing the same way overlap in what they
+            // ask for, so only the strongest one per direction is applied, which keeps stacks from overshooting.
+            float upX = 0.0f, downX = 0.0f, upY = 0.0f, downY = 0.0f;
+            float pushUpX = 0.0f, pushDownX = 0.0f, pushUpY = 0.0f, pushDownY = 0.0f;
+            for (int k = start; k < end; k++) {
+                int c = this.contactsOf[k];
+                int kind = this.contactKind[c];
+                if (kind >= HIT_X) {
+                    continue;
+                }
+                // The normal points from a to b, a is pushed the other way
+                boolean isA = this.contactA[c] == body;
+                float sign = isA ? -this.contactNormal[c] : this.contactNormal[c];
+                float share = isA ? this.contactShareA[c] : this.contactShareB[c];
+                float impulse = this.contactImpulse[c] * share;
+                float push = this.contactPush[c] * share;
+                if (kind == CONTACT_X) {
+                    if (sign > 0.0f) {
+                        upX = Math.max(upX, impulse);
+                        pushUpX = Math.max(pushUpX, push);
+                    } else {
+                        downX = Math.max(downX, impulse);
+                        pushDownX = Math.max(pushDownX, push);
+                    }
+                } else {
+                    if (sign > 0.0f) {
+                        upY = Math.max(upY, impulse);
+                        pushUpY = Math.max(pushUpY, push);
+                        int other = isA ? this.contactB[c] : this.contactA[c];
+                        if (!this.isMoving(other) || (this.flags[other] & SUPPORTED) != 0) {
+                            this.flags[body] |= GROUNDED;
+                        }
+                    } else {
+                        downY = Math.max(downY, impulse);
+                        pushDownY = Math.max(pushDownY, push);
+                    }
+                }
+            }
+            this.velocityX[body] += upX - downX;
+            this.velocityY[body] += upY - downY;
+            float dx = pushUpX - pushDownX;
+            float dy = pushUpY - pushDownY;
+            if (tiles != null) {
+                dx = tiles.sweepX(this.x[body], this.y[body], this.width[body], this.height[body], dx);
+                this.x[body] += dx;
+                dy = tiles.sweepY(this.x[body], this.y[body], this.width[body], this.height[body], dy);
+                this.y[body] += dy;
+            } else {
+                this.x[body] += dx;
+                this.y[body] += dy;
+            }
+        }
+    }
+
+    private void writeBackRange(int from, int to) {
+        float dt = this.stepDt;
+        for (int i = from; i < to; i++) {
+            int body = this.awake.get(i);
+            this.flags[body] = (this.flags[body] & GROUNDED) != 0 ? this.flags[body] | SUPPORTED : this.flags[body] & ~SUPPORTED;
+            this.store.setSimulatedPosition(this.entities[body], this.x[body], this.y[body]);
+            this.updateBounds(body);
+            float velocityX = this.velocityX[body];
+            if ((this.flags[body] & GROUNDED) != 0) {
+                float slowdown = this.friction * dt;
+                velocityX = this.velocityX[body] = velocityX > 0.0f ? Math.max(0.0f, velocityX - slowdown) : Math.min(0.0f, velocityX + slowdown);
+            }
+            float velocityY = this.velocityY[body];
+            if (velocityX * velocityX + velocityY * velocityY < SLEEP_VELOCITY * SLEEP_VELOCITY) {
+                this.sleepTimer[body] += dt;
+            } else {
+                this.sleepTimer[body] = 0.0f;
+            }
+        }
+    }
+
+    private void fallAsleep() {
+        for (int i = this.awake.size() - 1; i >= 0; i--) {
+            int body = this.awake.get(i);
+            if (this.sleepTimer[body] >= SLEEP_TIME) {
+                this.removeAwake(body);
+                this.flags[body] |= SLEEPING;
+                this.velocityX[body] = this.velocityY[body] = 0.0f;
+                this.startX[body] = this.x[body];
+                this.startY[body] = this.y[body];
+                this.updateBounds(body);
+            }
+        }
+    }
+}
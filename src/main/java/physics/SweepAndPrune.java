@@ -0,0 +1,178 @@
+package physics;
+
+import util.IntList;
+import util.JobSystem;
+
+import java.util.Arrays;
+
+/**
+ * Broadphase of the {@link PhysicsWorld}: keeps the bodies sorted by the left edge of their bounds and
+ * finds overlapping pairs by sweeping along that order. Bodies barely move between steps, so the order is
+ * repaired with an insertion sort that is close to a single pass; it is only sorted from scratch after
+ * bodies were added or removed.
+ * <p>
+ * Only pairs with at least one active body are reported. An inactive body, e.g. a sleeping one, looks up
+ * the end of its sweep with a binary search and skips the sweep when no active body lies in between, so a
+ * mostly resting world costs little more than the sort.
+ * <p>
+ * The sweep is split into fixed ranges of the sorted order, each collecting its pairs into its own list,
+ * so it runs on the {@link JobSystem} and the merged pairs come out in the same order on any thread count.
+ */
+class SweepAndPrune {
+    // Sorted positions per sweep job
+    private static final int CHUNK = 1024;
+
+    private int[] order = new int[0];
+    private int count;
+    private boolean rebuild = true;
+    private long[] sortKeys = new long[0];
+    // Active bodies in the sorted order before each position
+    private int[] activeBefore = new int[1];
+    private boolean[] active = new boolean[0];
+
+    private IntList[] chunkPairs = new IntList[0];
+
+    // State of the running sweep for the job tasks
+    private final JobSystem.RangeTask sweepTask = this::sweepChunks;
+    private float[] minX, minY, maxX, maxY;
+
+    /**
+     * Tells the bodies that moved this step from the resting ones.
+     */
+    interface ActiveFilter {
+        boolean isActive(int body);
+    }
+
+    /**
+     * Bodies were added or removed, the next update sorts from scratch.
+     */
+    void invalidate() {
+        this.rebuild = true;
+    }
+
+    /**
+     * Finds every pair of the first count bodies whose bounds overlap and of which at least one is active.
+     *
+     * @param pairs receives the pairs as two consecutive body indices, cleared first
+     */
+    void findPairs(int count, float[] minX, float[] minY, float[] maxX, float[] maxY, ActiveFilter filter, IntList pairs) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        if (this.rebuild || count != this.count) {
+            this.sortFromScratch(count);
+        } else {
+            this.insertionSort();
+        }
+        if (this.active.length < count) {
+            this.active = new boolean[this.order.length];
+            this.activeBefore = new int[this.order.length + 1];
+        }
+        for (int i = 0; i < count; i++) {
+            boolean active = this.active[i] = filter.isActive(this.order[i]);
+            this.activeBefore[i + 1] = this.activeBefore[i] + (active ? 1 : 0);
+        }
+
+        int chunks = (count + CHUNK - 1) / CHUNK;
+        if (this.chunkPairs.length < chunks) {
+            int oldLength = this.chunkPairs.length;
+            this.chunkPairs = Arrays.copyOf(this.chunkPairs, chunks);
+            for (int i = oldLength; i < chunks; i++) {
+                this.chunkPairs[i] = new IntList(64);
+            }
+        }
+        JobSystem.parallelFor(chunks, 1, this.sweepTask);
+
+        pairs.clear();
+        for (int c = 0; c < chunks; c++) {
+            IntList chunk = this.chunkPairs[c];
+            for (int i = 0; i < chunk.size(); i++) {
+                pairs.add(chunk.get(i));
+            }
+        }
+    }
+
+    private void sortFromScratch(int count) {
+        if (this.order.length < count) {
+            this.order = new int[Math.max(count, this.order.length * 2)];
+            this.sortKeys = new long[this.order.length];
+        }
+        // Sortable bits of the edge in the high half, the body in the low half
+        for (int i = 0; i < count; i++) {
+            this.sortKeys[i] = ((long) sortableBits(this.minX[i]) << 32) | i;
+        }
+        Arrays.sort(this.sortKeys, 0, count);
+        for (int i = 0; i < count; i++) {
+            this.order[i] = (int) this.sortKeys[i];
+        }
+        this.count = count;
+        this.rebuild = false;
+    }
+
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    private void insertionSort() {
+        int[] order = this.order;
+        float[] minX = this.minX;
+        for (int i = 1; i < this.count; i++) {
+            int body = order[i];
+            float key = minX[body];
+            int j = i - 1;
+            while (j >= 0 && minX[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = body;
+        }
+    }
+
+    // First position after i whose left edge is beyond right
+    private int sweepEnd(int i, float right) {
+        int low = i + 1, high = this.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.minX[this.order[middle]] > right) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private void sweepChunks(int fromChunk, int toChunk) {
+        int[] order = this.order;
+        float[] minX = this.minX, minY = this.minY, maxX = this.maxX, maxY = this.maxY;
+        for (int c = fromChunk; c < toChunk; c++) {
+            IntList pairs = this.chunkPairs[c];
+            pairs.clear();
+            int end = Math.min(this.count, (c + 1) * CHUNK);
+            for (int i = c * CHUNK; i < end; i++) {
+                int a = order[i];
+                float right = maxX[a];
+                boolean activeA = this.active[i];
+                int last = this.count;
+                if (!activeA) {
+                    last = this.sweepEnd(i, right);
+                    if (this.activeBefore[last] == this.activeBefore[i + 1]) {
+                        continue;
+                    }
+                }
+                for (int j = i + 1; j < last; j++) {
+                    int b = order[j];
+                    if (minX[b] > right) {
+                        break;
+                    }
+                    if (maxY[b] >= minY[a] && minY[b] <= maxY[a] && (activeA || this.active[j])) {
+                        pairs.add(a);
+                        pairs.add(b);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package physics;
+
+/**
+ * Solid level tiles on a fixed grid. Bodies are moved against it one axis at a time, and every move checks
+ * all tiles between the start and the end position, so no speed lets a body pass through a wall. The tile
+ * under the leading edge is checked as well, so a body that ended up slightly inside a wall, e.g. through
+ * rounding, never moves any further into it. Tiles outside the map are empty.
+ * <p>
+ * Reads are safe from several threads at once, as long as no tile changes during a physics step.
+ */
+public class TileMap {
+    // Tolerance in tiles, so a body resting exactly on a tile edge isn't counted as overlapping it
+    private static final float EDGE_EPSILON = 1.0e-4f;
+
+    private final float originX, originY;
+    private final float tileSize;
+    private final int columns, rows;
+    // Row major
+    private final boolean[] solid;
+
+    /**
+     * @param originX world position of the bottom left corner of the map
+     */
+    public TileMap(float originX, float originY, float tileSize, int columns, int rows) {
+        assert tileSize > 0.0f && columns > 0 && rows > 0 : "Error: Invalid tile map " + columns + "x" + rows + " of " + tileSize;
+        this.originX = originX;
+        this.originY = originY;
+        this.tileSize = tileSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.solid = new boolean[columns * rows];
+    }
+
+    public void setSolid(int column, int row, boolean solid) {
+        assert column >= 0 && column < this.columns && row >= 0 && row < this.rows
+                : "Error: Tile " + column + "," + row + " is outside the map";
+        this.solid[row * this.columns + column] = solid;
+    }
+
+    public boolean isSolid(int column, int row) {
+        return column >= 0 && column < this.columns && row >= 0 && row < this.rows
+                && this.solid[row * this.columns + column];
+    }
+
+    public float getTileSize() {
+        return this.tileSize;
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the column containing the world position, may be outside the map
+     */
+    public int columnOf(float x) {
+        return (int) Math.floor((x - this.originX) / this.tileSize);
+    }
+
+    public int rowOf(float y) {
+        return (int) Math.floor((y - this.originY) / this.tileSize);
+    }
+
+    /**
+     * Moves a box horizontally until it touches a solid tile.
+     *
+     * @param x left edge of the box
+     * @param y bottom edge of the box
+     * @return how far the box can move, dx or less
+     */
+    public float sweepX(float x, float y, float width, float height, float dx) {
+        if (dx == 0.0f) {
+            return 0.0f;
+        }
+        int firstRow = Math.max(0, this.firstCovered(y, this.originY));
+        int lastRow = Math.min(this.rows - 1, this.lastCovered(y + height, this.originY));
+        if (firstRow > lastRow) {
+            return dx;
+        }
+        if (dx > 0.0f) {
+            float edge = x + width;
+            int first = Math.max(0, this.firstCovered(edge, this.originX));
+            int last = Math.min(this.columns - 1, this.lastCovered(edge + dx, this.originX));
+            for (int column = first; column <= last; column++) {
+                if (this.isColumnSolid(column, firstRow, lastRow)) {
+                    return Math.max(0.0f, this.originX + column * this.tileSize - edge);
+                }
+            }
+        } else {
+            int first = Math.min(this.columns - 1, this.lastCovered(x, this.originX));
+            int last = Math.max(0, this.firstCovered(x + dx, this.originX));
+            for (int column = first; column >= last; column--) {
+                if (this.isColumnSolid(column, firstRow, lastRow)) {
+                    return Math.min(0.0f, this.originX + (column + 1) * this.tileSize - x);
+                }
+            }
+        }
+        return dx;
+    }
+
+    /**
+     * Moves a box vertically until it touches a solid tile.
+     *
+     * @return how far the box can move, dy or less
+     */
+    public float sweepY(float x, float y, float width, float height, float dy) {
+        if (dy == 0.0f) {
+            return 0.0f;
+        }
+        int firstColumn = Math.max(0, this.firstCovered(x, this.originX));
+        int lastColumn = Math.min(this.columns - 1, this.lastCovered(x + width, this.originX));
+        if (firstColumn > lastColumn) {
+            return dy;
+        }
+        if (dy > 0.0f) {
+            float edge = y + height;
+            int first = Math.max(0, this.firstCovered(edge, this.originY));
+            int last = Math.min(this.rows - 1, this.lastCovered(edge + dy, this.originY));
+            for (int row = first; row <= last; row++) {
+                if (this.isRowSolid(row, firstColumn, lastColumn)) {
+                    return Math.max(0.0f, this.originY + row * this.tileSize - edge);
+                }
+            }
+        } else {
+            int first = Math.min(this.rows - 1, this.lastCovered(y, this.originY));
+            int last = Math.max(0, this.firstCovered(y + dy, this.originY));
+            for (int row = first; row >= last; row--) {
+                if (this.isRowSolid(row, firstColumn, lastColumn)) {
+                    return Math.min(0.0f, this.originY + (row + 1) * this.tileSize - y);
+                }
+            }
+        }
+        return dy;
+    }
+
+    // Tile containing a lower edge; a lower edge within the tolerance of a tile's top belongs to the tile above
+    private int firstCovered(float min, float origin) {
+        return (int) Math.floor((min - origin) / this.tileSize + EDGE_EPSILON);
+    }
+
+    // Tile containing an upper edge; an upper edge within the tolerance of a tile's bottom belongs to the tile below
+    private int lastCovered(float max, float origin) {
+        return (int) Math.ceil((max - origin) / this.tileSize - EDGE_EPSILON) - 1;
+    }
+
+    private boolean isColumnSolid(int column, int firstRow, int lastRow) {
+        for (int row = firstRow; row <= lastRow; row++) {
+            if (this.solid[row * this.columns + column]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isRowSolid(int row, int firstColumn, int lastColumn) {
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            if (this.solid[row * this.columns + column]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,301 @@
+package renderer;
+
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+/**
+ * Records a frame's rendering as a flat stream of primitive encoded commands instead of calling GL right
+ * away, so draws can be sorted and replayed on any {@link RenderBackend}, including one without a GPU.
+ * <p>
+ * There are two parts. Setup commands, like uniform and vertex uploads, run first and in recording order.
+ * Draws run afterwards, sorted by the key they were recorded with, see {@link #key(int, int, int, int)};
+ * draws with equal keys keep their recording order. Uniforms therefore hold one value per program for the
+ * whole buffer.
+ * <p>
+ * All storage is preallocated and only grows, so recording a frame of the usual size doesn't allocate.
+ * Batches referenced by a recorded buffer must not be refilled until it was executed.
+ */
+public class CommandBuffer {
+    // Key layout, from the most significant bit: unused sign bit, layer, shader, texture, depth, sequence
+    private static final int SEQUENCE_BITS = 20;
+    private static final int DEPTH_BITS = 13;
+    private static final int TEXTURE_BITS = 12;
+    private static final int SHADER_BITS = 12;
+    private static final int LAYER_BITS = 6;
+    private static final int DEPTH_SHIFT = SEQUENCE_BITS;
+    private static final int TEXTURE_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int SHADER_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+    private static final int LAYER_SHIFT = SHADER_SHIFT + SHADER_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    public static final int MAX_LAYER = (1 << LAYER_BITS) - 1;
+    public static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+    public static final int MAX_DRAWS = 1 << SEQUENCE_BITS;
+
+    // Setup opcodes
+    private static final int OP_BLEND = 0;
+    private static final int OP_UNIFORM_MATRIX4 = 1;
+    private static final int OP_UNIFORM_FLOAT = 2;
+    private static final int OP_UNIFORM_INT_ARRAY = 3;
+    private static final int OP_UPLOAD_VERTICES = 4;
+
+    private static final int NO_PROGRAM = -1;
+
+    private int[] setup;
+    private int setupSize;
+    private float[] floats;
+    private int floatsSize;
+
+    // Draw i: sort key in keys[i] with i in the sequence bits, its record at draws[drawOffsets[i]]
+    private long[] keys;
+    private int[] drawOffsets;
+    private int[] draws;
+    private int drawsSize;
+    private int drawCount;
+    private boolean sorted;
+
+    private Object[] objects;
+    private int objectCount;
+
+    // Textures bound while executing, by unit
+    private final int[] boundTextures = new int[QuadBatch.MAX_TEXTURE_SLOTS];
+
+    public CommandBuffer() {
+        this(256);
+    }
+
+    public CommandBuffer(int expectedDraws) {
+        expectedDraws = Math.max(expectedDraws, 1);
+        this.setup = new int[expectedDraws * 4];
+        this.floats = new float[64];
+        this.keys = new long[expectedDraws];
+        this.drawOffsets = new int[expectedDraws];
+        this.draws = new int[expectedDraws * 6];
+        this.objects = new Object[expectedDraws];
+        this.sorted = true;
+    }
+
+    /**
+     * Packs a sort key, every part is clamped to its range. Draws are ordered by layer first, then by shader
+     * and texture to minimize state changes, then by depth. Blended draws whose order matters should leave
+     * shader and texture at 0 so only the depth orders them within the layer.
+     *
+     * @param layer 0 to {@link #MAX_LAYER}
+     * @param shader program id, only its low 12 bits are used
+     * @param texture texture id, only its low 12 bits are used
+     * @param depth 0 to {@link #MAX_DEPTH}, lower depths are drawn first
+     */
+    public static long key(int layer, int shader, int texture, int depth) {
+        long key = (long) clamp(layer, MAX_LAYER) << LAYER_SHIFT;
+        key |= (long) (shader & ((1 << SHADER_BITS) - 1)) << SHADER_SHIFT;
+        key |= (long) (texture & ((1 << TEXTURE_BITS) - 1)) << TEXTURE_SHIFT;
+        key |= (long) clamp(depth, MAX_DEPTH) << DEPTH_SHIFT;
+        return key;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    public void clear() {
+        this.setupSize = 0;
+        this.floatsSize = 0;
+        this.drawsSize = 0;
+        this.drawCount = 0;
+        this.sorted = true;
+        Arrays.fill(this.objects, 0, this.objectCount, null);
+        this.objectCount = 0;
+    }
+
+    public int getDrawCount() {
+        return this.drawCount;
+    }
+
+    // ==========================================================
+    // Recording
+    // ==========================================================
+    public void setBlend(int src, int dst) {
+        this.ensureSetup(3);
+        this.setup[this.setupSize++] = OP_BLEND;
+        this.setup[this.setupSize++] = src;
+        this.setup[this.setupSize++] = dst;
+    }
+
+    public void uploadMatrix4f(int program, int location, Matrix4f matrix) {
+        if (location < 0) {
+            return;
+        }
+        this.ensureSetup(4);
+        this.ensureFloats(16);
+        matrix.get(this.floats, this.floatsSize);
+        this.setup[this.setupSize++] = OP_UNIFORM_MATRIX4;
+        this.setup[this.setupSize++] = program;
+        this.setup[this.setupSize++] = location;
+        this.setup[this.setupSize++] = this.floatsSize;
+        this.floatsSize += 16;
+    }
+
+    public void uploadFloat(int program, int location, float value) {
+        if (location < 0) {
+            return;
+        }
+        this.ensureSetup(4);
+        this.ensureFloats(1);
+        this.floats[this.floatsSize] = value;
+        this.setup[this.setupSize++] = OP_UNIFORM_FLOAT;
+        this.setup[this.setupSize++] = program;
+        this.setup[this.setupSize++] = location;
+        this.setup[this.setupSize++] = this.floatsSize++;
+    }
+
+    public void uploadIntArray(int program, int location, int[] values) {
+        if (location < 0) {
+            return;
+        }
+        this.ensureSetup(4 + values.length);
+        this.setup[this.setupSize++] = OP_UNIFORM_INT_ARRAY;
+        this.setup[this.setupSize++] = program;
+        this.setup[this.setupSize++] = location;
+        this.setup[this.setupSize++] = values.length;
+        System.arraycopy(values, 0, this.setup, this.setupSize, values.length);
+        this.setupSize += values.length;
+    }
+
+    public void uploadVertices(QuadBatch batch, int floatCount) {
+        this.ensureSetup(3);
+        this.setup[this.setupSize++] = OP_UPLOAD_VERTICES;
+        this.setup[this.setupSize++] = this.addObject(batch);
+        this.setup[this.setupSize++] = floatCount;
+    }
+
+    /**
+     * Records a draw of the batch's first quadCount quads, with the given textures bound to units 1 and up.
+     */
+    public void drawBatch(long key, int program, QuadBatch batch, int quadCount, int[] textures, int textureCount) {
+        if (this.drawCount == MAX_DRAWS) {
+            throw new IllegalStateException("Error: More than " + MAX_DRAWS + " draws in one command buffer");
+        }
+        if (this.drawCount == this.keys.length) {
+            int capacity = Math.min(this.keys.length * 2, MAX_DRAWS);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.drawOffsets = Arrays.copyOf(this.drawOffsets, capacity);
+        }
+        int size = 4 + textureCount;
+        if (this.drawsSize + size > this.draws.length) {
+            this.draws = Arrays.copyOf(this.draws, Math.max(this.draws.length * 2, this.drawsSize + size));
+        }
+
+        int offset = this.drawsSize;
+        this.draws[offset] = program;
+        this.draws[offset + 1] = this.addObject(batch);
+        this.draws[offset + 2] = quadCount;
+        this.draws[offset + 3] = textureCount;
+        System.arraycopy(textures, 0, this.draws, offset + 4, textureCount);
+        this.drawsSize += size;
+
+        long sequencedKey = (key & ~SEQUENCE_MASK) | this.drawCount;
+        if (this.drawCount > 0 && sequencedKey < this.keys[this.drawCount - 1]) {
+            this.sorted = false;
+        }
+        this.keys[this.drawCount] = sequencedKey;
+        this.drawOffsets[this.drawCount] = offset;
+        this.drawCount++;
+    }
+
+    private int addObject(Object object) {
+        if (this.objectCount == this.objects.length) {
+            this.objects = Arrays.copyOf(this.objects, this.objects.length * 2);
+        }
+        this.objects[this.objectCount] = object;
+        return this.objectCount++;
+    }
+
+    private void ensureSetup(int count) {
+        if (this.setupSize + count > this.setup.length) {
+            this.setup = Arrays.copyOf(this.setup, Math.max(this.setup.length * 2, this.setupSize + count));
+        }
+    }
+
+    private void ensureFloats(int count) {
+        if (this.floatsSize + count > this.floats.length) {
+            this.floats = Arrays.copyOf(this.floats, Math.max(this.floats.length * 2, this.floatsSize + count));
+        }
+    }
+
+    // ==========================================================
+    // Replay
+    // ==========================================================
+
+    /**
+     * Sorts the draws by key. Called by {@link #execute(RenderBackend)} when needed.
+     */
+    public void sort() {
+        if (!this.sorted) {
+            // The sequence bits make every key unique and keep equal keys in recording order
+            Arrays.sort(this.keys, 0, this.drawCount);
+            this.sorted = true;
+        }
+    }
+
+    /**
+     * Replays the setup commands, then the sorted draws. The buffer stays intact, so it can be executed again.
+     */
+    public void execute(RenderBackend backend) {
+        this.sort();
+        int program = NO_PROGRAM;
+
+        int i = 0;
+        while (i < this.setupSize) {
+            switch (this.setup[i]) {
+                case OP_BLEND:
+                    backend.setBlend(this.setup[i + 1], this.setup[i + 2]);
+                    i += 3;
+                    break;
+                case OP_UNIFORM_MATRIX4:
+                    program = this.useProgram(backend, program, this.setup[i + 1]);
+                    backend.uploadMatrix4f(this.setup[i + 2], this.floats, this.setup[i + 3]);
+                    i += 4;
+                    break;
+                case OP_UNIFORM_FLOAT:
+                    program = this.useProgram(backend, program, this.setup[i + 1]);
+                    backend.uploadFloat(this.setup[i + 2], this.floats[this.setup[i + 3]]);
+                    i += 4;
+                    break;
+                case OP_UNIFORM_INT_ARRAY:
+                    program = this.useProgram(backend, program, this.setup[i + 1]);
+                    backend.uploadIntArray(this.setup[i + 2], this.setup, i + 4, this.setup[i + 3]);
+                    i += 4 + this.setup[i + 3];
+                    break;
+                case OP_UPLOAD_VERTICES:
+                    backend.uploadVertices((QuadBatch) this.objects[this.setup[i + 1]], this.setup[i + 2]);
+                    i += 3;
+                    break;
+                default:
+                    throw new IllegalStateException("Error: Unknown command " + this.setup[i] + " at " + i);
+            }
+        }
+
+        // Whatever was bound before is unknown, the backend's own state cache may still skip the first binds
+        Arrays.fill(this.boundTextures, -1);
+        for (int d = 0; d < this.drawCount; d++) {
+            int offset = this.drawOffsets[(int) (this.keys[d] & SEQUENCE_MASK)];
+            program = this.useProgram(backend, program, this.draws[offset]);
+            int textureCount = this.draws[offset + 3];
+            for (int t = 0; t < textureCount; t++) {
+                int texture = this.draws[offset + 4 + t];
+                if (this.boundTextures[t + 1] != texture) {
+                    backend.bindTexture(t + 1, texture);
+                    this.boundTextures[t + 1] = texture;
+                }
+            }
+            backend.drawBatch((QuadBatch) this.objects[this.draws[offset + 1]], this.draws[offset + 2]);
+        }
+    }
+
+    private int useProgram(RenderBackend backend, int current, int program) {
+        if (current != program) {
+            backend.useProgram(program);
+        }
+        return program;
+    }
+}
@@ -0,0 +1,158 @@
+package renderer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A texture cooked by {@link TextureCooker}: decoded, mipmapped and optionally block compressed ahead of
+ * time, so loading it is a memory mapping and the GL upload reads straight from the mapped file.
+ * Opening doesn't touch GL, so it can run on loader threads. The mapping is released once the object
+ * is garbage collected.
+ * <p>
+ * File layout, little endian: a header of {@link #HEADER_INTS} ints (magic, version, format, width,
+ * height, level count, filter, wrap, flags), then the offset and size of every level, then the levels,
+ * each aligned to {@link #LEVEL_ALIGNMENT} bytes. Levels halve in size down to 1x1.
+ */
+public class CookedTexture {
+    static final int MAGIC = 'C' | 'T' << 8 | 'E' << 16 | 'X' << 24;
+    static final int VERSION = 1;
+    static final int HEADER_INTS = 9;
+    static final int LEVEL_ALIGNMENT = 16;
+    static final int FLAG_SRGB = 1;
+
+    // Tightly packed 8 bit RGBA
+    public static final int FORMAT_RGBA8 = 0;
+    // S3TC DXT5 blocks, 16 bytes per 4x4 texels
+    public static final int FORMAT_BC3 = 1;
+
+    private final Path path;
+    private final ByteBuffer data;
+    private final int format;
+    private final int width, height, levels;
+    private final TextureParams params;
+
+    private CookedTexture(Path path, ByteBuffer data, int format, int width, int height, int levels,
+                          TextureParams params) {
+        this.path = path;
+        this.data = data;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+        this.params = params;
+    }
+
+    /**
+     * Maps a cooked file and checks its header.
+     *
+     * @throws IOException if the file can't be read, or wasn't written by this version of the cooker
+     */
+    public static CookedTexture open(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer data = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.capacity() < HEADER_INTS * Integer.BYTES || data.getInt(0) != MAGIC) {
+            throw new IOException("'" + path + "' is not a cooked texture");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("'" + path + "' was cooked by version " + data.getInt(4) + ", expected " + VERSION);
+        }
+        int format = data.getInt(8);
+        int width = data.getInt(12);
+        int height = data.getInt(16);
+        int levels = data.getInt(20);
+        if (format != FORMAT_RGBA8 && format != FORMAT_BC3 || width <= 0 || height <= 0 || levels <= 0
+                || levels > levelCount(width, height)) {
+            throw new IOException("'" + path + "' has a corrupt header");
+        }
+        int table = HEADER_INTS * Integer.BYTES;
+        for (int i = 0; i < levels; i++) {
+            long end = (long) data.getInt(table + i * 8) + data.getInt(table + i * 8 + 4);
+            if (end > data.capacity()) {
+                throw new IOException("'" + path + "' is truncated");
+            }
+        }
+
+        TextureParams params = new TextureParams()
+                .setFilter(data.getInt(24))
+                .setWrap(data.getInt(28))
+                .setSrgb((data.getInt(32) & FLAG_SRGB) != 0)
+                .setMipmaps(levels > 1)
+                .setCompress(format == FORMAT_BC3);
+        return new CookedTexture(path, data, format, width, height, levels, params);
+    }
+
+    /**
+     * @return the number of levels of a full mip chain, down to 1x1
+     */
+    public static int levelCount(int width, int height) {
+        int size = Math.max(width, height);
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * @return the bytes of a level in the given format
+     */
+    public static int levelSize(int format, int width, int height) {
+        if (format == FORMAT_BC3) {
+            return ((width + 3) / 4) * ((height + 3) / 4) * 16;
+        }
+        return width * height * 4;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public int getFormat() {
+        return this.format;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getLevelCount() {
+        return this.levels;
+    }
+
+    public int getLevelWidth(int level) {
+        return Math.max(1, this.width >> level);
+    }
+
+    public int getLevelHeight(int level) {
+        return Math.max(1, this.height >> level);
+    }
+
+    /**
+     * @return the pixels of a level, a view into the mapped file
+     */
+    public ByteBuffer getLevel(int level) {
+        int table = HEADER_INTS * Integer.BYTES + level * 8;
+        int offset = this.data.getInt(table);
+        int size = this.data.getInt(table + 4);
+        ByteBuffer view = this.data.duplicate();
+        view.position(offset);
+        view.limit(offset + size);
+        return view.slice();
+    }
+
+    /**
+     * @return the parameters the texture was cooked with
+     */
+    public TextureParams getParams() {
+        return this.params;
+    }
+}
@@ -0,0 +1,84 @@
+package renderer;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.stb.STBImageWrite.stbi_flip_vertically_on_write;
+import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
+
+/**
+ * Offscreen render target with an RGBA8 color texture, used for headless rendering and pixel readback.
+ */
+public class Framebuffer {
+    private final int width, height;
+    private int fboID;
+    private int colorTexID;
+
+    public Framebuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        this.fboID = glGenFramebuffers();
+        GLStateCache.bindFramebuffer(this.fboID);
+
+        this.colorTexID = glGenTextures();
+        GLStateCache.bindTexture(this.colorTexID);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, this.colorTexID, 0);
+
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Error: Framebuffer is not complete, status 0x" + Integer.toHexString(status));
+        }
+        GLStateCache.bindFramebuffer(0);
+    }
+
+    public void bind() {
+        GLStateCache.bindFramebuffer(this.fboID);
+        glViewport(0, 0, this.width, this.height);
+    }
+
+    public void unbind() {
+        GLStateCache.bindFramebuffer(0);
+    }
+
+    /**
+     * Reads the color attachment back into a new buffer of tightly packed RGBA rows, bottom row first.
+     * Waits for all pending rendering, so keep it out of timed sections.
+     */
+    public ByteBuffer readPixels() {
+        ByteBuffer pixels = BufferUtils.createByteBuffer(this.width * this.height * 4);
+        GLStateCache.bindFramebuffer(this.fboID);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glReadPixels(0, 0, this.width, this.height, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+        return pixels;
+    }
+
+    public boolean writePng(String filePath) {
+        ByteBuffer pixels = this.readPixels();
+        // GL rows start at the bottom, image files at the top
+        stbi_flip_vertically_on_write(true);
+        return stbi_write_png(filePath, this.width, this.height, 4, pixels, this.width * 4);
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getTextureId() {
+        return this.colorTexID;
+    }
+
+    public void delete() {
+        GLStateCache.deleteFramebuffer(this.fboID);
+        GLStateCache.deleteTexture(this.colorTexID);
+    }
+}
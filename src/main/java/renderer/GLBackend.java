@@ -0,0 +1,77 @@
+package renderer;
+
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Replays command buffers through OpenGL. State changes go through {@link GLStateCache}, so this must only
+ * be used on the thread owning the GL context.
+ */
+public class GLBackend implements RenderBackend {
+    private static final GLBackend instance = new GLBackend();
+
+    private GLBackend() {
+
+    }
+
+    public static GLBackend get() {
+        return instance;
+    }
+
+    @Override
+    public void setBlend(int src, int dst) {
+        GLStateCache.enableBlend();
+        GLStateCache.blendFunc(src, dst);
+    }
+
+    @Override
+    public void useProgram(int program) {
+        GLStateCache.useProgram(program);
+    }
+
+    @Override
+    public void uploadMatrix4f(int location, float[] values, int offset) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer matrix = stack.mallocFloat(16);
+            matrix.put(values, offset, 16).flip();
+            glUniformMatrix4fv(location, false, matrix);
+        }
+        Shader.recordUniformUpload();
+    }
+
+    @Override
+    public void uploadFloat(int location, float value) {
+        glUniform1f(location, value);
+        Shader.recordUniformUpload();
+    }
+
+    @Override
+    public void uploadIntArray(int location, int[] values, int offset, int count) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer array = stack.mallocInt(count);
+            array.put(values, offset, count).flip();
+            glUniform1iv(location, array);
+        }
+        Shader.recordUniformUpload();
+    }
+
+    @Override
+    public void uploadVertices(QuadBatch batch, int floatCount) {
+        batch.uploadVertices(floatCount);
+    }
+
+    @Override
+    public void bindTexture(int unit, int texture) {
+        GLStateCache.bindTexture(unit, texture);
+    }
+
+    @Override
+    public void drawBatch(QuadBatch batch, int quadCount) {
+        batch.draw(quadCount);
+        Renderer.recordDrawCall();
+    }
+}
@@ -0,0 +1,262 @@
+package renderer;
+
+import util.Metrics;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Shadow copy of the GL binding state. Every bind goes through here so calls that would
+ * not change anything never reach the driver. Must only be used from the thread owning
+ * the GL context, and {@link #invalidate()} must be called whenever something bypasses it.
+ */
+public class GLStateCache {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 32;
+
+    private static int program = UNKNOWN;
+    private static int activeTextureUnit = UNKNOWN;
+    private static final int[] textures = new int[MAX_TEXTURE_UNITS];
+    private static int vertexArray = UNKNOWN;
+    private static int arrayBuffer = UNKNOWN;
+    private static int elementArrayBuffer = UNKNOWN;
+    private static int framebuffer = UNKNOWN;
+    private static int blendEnabled = UNKNOWN;
+    private static int blendSrc = UNKNOWN, blendDst = UNKNOWN;
+
+    private static boolean counting = false;
+    private static int issued = 0, elided = 0;
+    private static int lastFrameIssued = 0, lastFrameElided = 0;
+    private static final int METRIC_ISSUED = Metrics.gauge("gl.stateChangesIssued");
+    private static final int METRIC_ELIDED = Metrics.gauge("gl.stateChangesElided");
+
+    static {
+        Arrays.fill(textures, UNKNOWN);
+    }
+
+    private GLStateCache() {
+
+    }
+
+    public static void useProgram(int id) {
+        if (program == id) {
+            elide();
+            return;
+        }
+        glUseProgram(id);
+        program = id;
+        issue();
+    }
+
+    /**
+     * @param unit texture unit index, 0 for GL_TEXTURE0
+     */
+    public static void activeTexture(int unit) {
+        if (activeTextureUnit == unit) {
+            elide();
+            return;
+        }
+        glActiveTexture(GL_TEXTURE0 + unit);
+        activeTextureUnit = unit;
+        issue();
+    }
+
+    /**
+     * Binds a 2D texture to the given unit, switching the active unit only if needed.
+     */
+    public static void bindTexture(int unit, int id) {
+        if (textures[unit] == id) {
+            elide();
+            return;
+        }
+        activeTexture(unit);
+        glBindTexture(GL_TEXTURE_2D, id);
+        textures[unit] = id;
+        issue();
+    }
+
+    /**
+     * Binds a 2D texture to whichever unit is currently active.
+     */
+    public static void bindTexture(int id) {
+        if (activeTextureUnit == UNKNOWN) {
+            activeTexture(0);
+        }
+        bindTexture(activeTextureUnit, id);
+    }
+
+    public static void bindVertexArray(int id) {
+        if (vertexArray == id) {
+            elide();
+            return;
+        }
+        glBindVertexArray(id);
+        vertexArray = id;
+        // The element buffer binding is part of the VAO state
+        elementArrayBuffer = UNKNOWN;
+        issue();
+    }
+
+    public static void bindBuffer(int target, int id) {
+        if (target == GL_ARRAY_BUFFER) {
+            if (arrayBuffer == id) {
+                elide();
+                return;
+            }
+            arrayBuffer = id;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            if (elementArrayBuffer == id) {
+                elide();
+                return;
+            }
+            elementArrayBuffer = id;
+        }
+        glBindBuffer(target, id);
+        issue();
+    }
+
+    public static void bindFramebuffer(int id) {
+        if (framebuffer == id) {
+            elide();
+            return;
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, id);
+        framebuffer = id;
+        issue();
+    }
+
+    public static void enableBlend() {
+        if (blendEnabled == GL_TRUE) {
+            elide();
+            return;
+        }
+        glEnable(GL_BLEND);
+        blendEnabled = GL_TRUE;
+        issue();
+    }
+
+    public static void disableBlend() {
+        if (blendEnabled == GL_FALSE) {
+            elide();
+            return;
+        }
+        glDisable(GL_BLEND);
+        blendEnabled = GL_FALSE;
+        issue();
+    }
+
+    public static void blendFunc(int src, int dst) {
+        if (blendSrc == src && blendDst == dst) {
+            elide();
+            return;
+        }
+        glBlendFunc(src, dst);
+        blendSrc = src;
+        blendDst = dst;
+        issue();
+    }
+
+    // ==========================================================
+    // Deleting an object implicitly unbinds it, forget about it
+    // ==========================================================
+    public static void deleteProgram(int id) {
+        glDeleteProgram(id);
+        if (program == id) {
+            program = UNKNOWN;
+        }
+    }
+
+    public static void deleteTexture(int id) {
+        glDeleteTextures(id);
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if (textures[i] == id) {
+                textures[i] = UNKNOWN;
+            }
+        }
+    }
+
+    public static void deleteVertexArray(int id) {
+        glDeleteVertexArrays(id);
+        if (vertexArray == id) {
+            vertexArray = UNKNOWN;
+            elementArrayBuffer = UNKNOWN;
+        }
+    }
+
+    public static void deleteBuffer(int id) {
+        glDeleteBuffers(id);
+        if (arrayBuffer == id) {
+            arrayBuffer = UNKNOWN;
+        }
+        if (elementArrayBuffer == id) {
+            elementArrayBuffer = UNKNOWN;
+        }
+    }
+
+    public static void deleteFramebuffer(int id) {
+        glDeleteFramebuffers(id);
+        if (framebuffer == id) {
+            framebuffer = UNKNOWN;
+        }
+    }
+
+    /**
+     * Forgets all tracked state, e.g. after a context switch or after third party code touched GL.
+     */
+    public static void invalidate() {
+        program = UNKNOWN;
+        activeTextureUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        vertexArray = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        framebuffer = UNKNOWN;
+        blendEnabled = UNKNOWN;
+        blendSrc = blendDst = UNKNOWN;
+    }
+
+    private static void issue() {
+        if (counting) {
+            issued++;
+        }
+    }
+
+    private static void elide() {
+        if (counting) {
+            elided++;
+        }
+    }
+
+    public static void setCounting(boolean enabled) {
+        counting = enabled;
+        issued = elided = 0;
+        lastFrameIssued = lastFrameElided = 0;
+    }
+
+    public static boolean isCounting() {
+        return counting;
+    }
+
+    public static void endFrame() {
+        lastFrameIssued = issued;
+        lastFrameElided = elided;
+        Metrics.set(METRIC_ISSUED, issued);
+        Metrics.set(METRIC_ELIDED, elided);
+        issued = elided = 0;
+    }
+
+    /**
+     * @return state changes that reached the driver during the last completed frame, 0 unless counting
+     */
+    public static int getIssued() {
+        return lastFrameIssued;
+    }
+
+    /**
+     * @return redundant state changes skipped during the last completed frame, 0 unless counting
+     */
+    public static int getElided() {
+        return lastFrameElided;
+    }
+}
@@ -0,0 +1,82 @@
+package renderer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import util.Profiler;
+import util.Time;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjecti64;
+
+/**
+ * Measures how long the GPU spends on the commands issued between {@link #begin()} and {@link #end()}
+ * using GL_TIME_ELAPSED queries. Results are read back {@link #LATENCY} frames later, so reading them
+ * never stalls the pipeline, and are recorded on the profiler's GPU track. GL_TIME_ELAPSED queries can't
+ * nest, so only one GpuTimer may be running at a time. Does nothing when the context lacks timer queries.
+ */
+public class GpuTimer {
+    private static final int LATENCY = 4;
+
+    private final int scopeId;
+    private final boolean supported;
+    private final int[] queries = new int[LATENCY];
+    // CPU time the query in each slot was started at, used to place the sample on the timeline
+    private final long[] cpuStarts = new long[LATENCY];
+    private final boolean[] pending = new boolean[LATENCY];
+    private int current = 0;
+    private long lastNanos = 0;
+
+    public GpuTimer(String name) {
+        this.scopeId = Profiler.register(name);
+        GLCapabilities caps = GL.getCapabilities();
+        this.supported = caps.OpenGL33 || caps.GL_ARB_timer_query;
+        if (this.supported) {
+            glGenQueries(this.queries);
+        }
+    }
+
+    public void begin() {
+        if (!this.supported || !Profiler.isEnabled()) {
+            return;
+        }
+        // Collect the oldest result first, its slot gets reused now
+        this.collect(this.current);
+        glBeginQuery(GL_TIME_ELAPSED, this.queries[this.current]);
+        this.cpuStarts[this.current] = Time.getNanos();
+    }
+
+    public void end() {
+        if (!this.supported || !Profiler.isEnabled()) {
+            return;
+        }
+        glEndQuery(GL_TIME_ELAPSED);
+        this.pending[this.current] = true;
+        this.current = (this.current + 1) % LATENCY;
+    }
+
+    private void collect(int slot) {
+        if (!this.pending[slot]) {
+            return;
+        }
+        // The query is LATENCY frames old by now, if it still isn't done drop it rather than wait
+        if (glGetQueryObjecti(this.queries[slot], GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+            this.lastNanos = glGetQueryObjecti64(this.queries[slot], GL_QUERY_RESULT);
+            Profiler.record(this.scopeId, Profiler.GPU_TRACK, 0, this.cpuStarts[slot], this.lastNanos);
+        }
+        this.pending[slot] = false;
+    }
+
+    /**
+     * @return the most recent GPU duration read back, in nanoseconds
+     */
+    public long getLastNanos() {
+        return this.lastNanos;
+    }
+
+    public void delete() {
+        if (this.supported) {
+            glDeleteQueries(this.queries);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package renderer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+
+/**
+ * Quads as one instance each: a single shared unit quad is drawn with glDrawElementsInstanced, and every
+ * instance only carries its rectangle, color, UV rectangle and texture slot. That is 13 floats per quad
+ * instead of the 40 a {@link RenderBatch} packs, for both the CPU writing them and the upload.
+ * Needs a shader with the instance layout, see assets/shaders/instanced.glsl.
+ */
+public class InstanceBatch extends QuadBatch {
+    // Instance
+    // ========
+    // Rect (x, y, w, h)              Color                          UV rect (u0, v0, u1, v1)      Texture id
+    // float, float, float, float,   float, float, float, float,   float, float, float, float,   float
+    private static final int RECT_SIZE = 4;
+    private static final int COLOR_SIZE = 4;
+    private static final int UV_RECT_SIZE = 4;
+    private static final int TEX_ID_SIZE = 1;
+
+    private static final int RECT_OFFSET = 0;
+    private static final int COLOR_OFFSET = RECT_OFFSET + RECT_SIZE * Float.BYTES;
+    private static final int UV_RECT_OFFSET = COLOR_OFFSET + COLOR_SIZE * Float.BYTES;
+    private static final int TEX_ID_OFFSET = UV_RECT_OFFSET + UV_RECT_SIZE * Float.BYTES;
+
+    public static final int INSTANCE_SIZE = RECT_SIZE + COLOR_SIZE + UV_RECT_SIZE + TEX_ID_SIZE;
+    private static final int INSTANCE_SIZE_BYTES = INSTANCE_SIZE * Float.BYTES;
+
+    // Corner of the unit quad, 0 at the left/bottom and 1 at the right/top
+    private static final int CORNER_SIZE = 2;
+
+    private int vaoID, quadID, eboID;
+    private StreamingBuffer instanceBuffer;
+    // Byte offset of the last upload inside the streaming buffer
+    private int instanceOffset;
+
+    public InstanceBatch(int maxBatchSize) {
+        super(maxBatchSize, INSTANCE_SIZE);
+    }
+
+    /**
+     * @return whether the current context can draw instanced batches
+     */
+    public static boolean isSupported() {
+        return GL.getCapabilities().OpenGL33;
+    }
+
+    @Override
+    public void start() {
+        this.vaoID = glGenVertexArrays();
+        GLStateCache.bindVertexArray(this.vaoID);
+
+        // Top left, top right, bottom right, bottom left, like the corners of a RenderBatch quad
+        FloatBuffer corners = BufferUtils.createFloatBuffer(4 * CORNER_SIZE);
+        corners.put(0.0f).put(1.0f).put(1.0f).put(1.0f).put(1.0f).put(0.0f).put(0.0f).put(0.0f).flip();
+        this.quadID = glGenBuffers();
+        GLStateCache.bindBuffer(GL_ARRAY_BUFFER, this.quadID);
+        glBufferData(GL_ARRAY_BUFFER, corners, GL_STATIC_DRAW);
+        glVertexAttribPointer(0, CORNER_SIZE, GL_FLOAT, false, CORNER_SIZE * Float.BYTES, 0);
+        glEnableVertexAttribArray(0);
+
+        // Counter-clockwise, like RenderBatch
+        IntBuffer indices = BufferUtils.createIntBuffer(6);
+        indices.put(2).put(1).put(0).put(2).put(0).put(3).flip();
+        this.eboID = glGenBuffers();
+        GLStateCache.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.eboID);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+
+        this.instanceBuffer = new StreamingBuffer(GL_ARRAY_BUFFER, this.vertices.capacity() * Float.BYTES);
+        this.pointInstanceAttributes(0);
+        for (int attribute = 1; attribute <= 4; attribute++) {
+            glEnableVertexAttribArray(attribute);
+            glVertexAttribDivisor(attribute, 1);
+        }
+    }
+
+    /**
+     * Points the per instance attributes at an upload. Instanced draws have no base instance before GL 4.2,
+     * so this is how a draw starts at an arbitrary place in the streaming buffer. Needs the VAO bound.
+     */
+    private void pointInstanceAttributes(int byteOffset) {
+        GLStateCache.bindBuffer(GL_ARRAY_BUFFER, this.instanceBuffer.getId());
+        glVertexAttribPointer(1, RECT_SIZE, GL_FLOAT, false, INSTANCE_SIZE_BYTES, byteOffset + RECT_OFFSET);
+        glVertexAttribPointer(2, COLOR_SIZE, GL_FLOAT, false, INSTANCE_SIZE_BYTES, byteOffset + COLOR_OFFSET);
+        glVertexAttribPointer(3, UV_RECT_SIZE, GL_FLOAT, false, INSTANCE_SIZE_BYTES, byteOffset + UV_RECT_OFFSET);
+        glVertexAttribPointer(4, TEX_ID_SIZE, GL_FLOAT, false, INSTANCE_SIZE_BYTES, byteOffset + TEX_ID_OFFSET);
+    }
+
+    @Override
+    public void writeQuad(int quad, float x, float y, float width, float height,
+                          float r, float g, float b, float a,
+                          Texture texture, float u0, float v0, float u1, float v1) {
+        FloatBuffer buf = this.vertices;
+        int offset = quad * INSTANCE_SIZE;
+        buf.put(offset, x);
+        buf.put(offset + 1, y);
+        buf.put(offset + 2, width);
+        buf.put(offset + 3, height);
+        buf.put(offset + 4, r);
+        buf.put(offset + 5, g);
+        buf.put(offset + 6, b);
+        buf.put(offset + 7, a);
+        buf.put(offset + 8, u0);
+        buf.put(offset + 9, v0);
+        buf.put(offset + 10, u1);
+        buf.put(offset + 11, v1);
+        buf.put(offset + 12, texture == null ? 0 : this.slotOf(texture));
+    }
+
+    @Override
+    void uploadVertices(int floatCount) {
+        if (this.vaoID == 0) {
+            this.start();
+        }
+        this.instanceOffset = this.instanceBuffer.write(memAddress(this.vertices), floatCount * Float.BYTES,
+                INSTANCE_SIZE_BYTES);
+    }
+
+    @Override
+    void draw(int quadCount) {
+        if (this.vaoID == 0) {
+            this.start();
+        }
+        GLStateCache.bindVertexArray(this.vaoID);
+        this.pointInstanceAttributes(this.instanceOffset);
+        glDrawElementsInstanced(GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0, quadCount);
+    }
+
+    @Override
+    public void delete() {
+        if (this.vaoID == 0) {
+            return;
+        }
+        GLStateCache.deleteVertexArray(this.vaoID);
+        GLStateCache.deleteBuffer(this.quadID);
+        GLStateCache.deleteBuffer(this.eboID);
+        this.instanceBuffer.delete();
+        this.vaoID = 0;
+    }
+}
@@ -0,0 +1,410 @@
+package renderer;
+
+import jade.Camera;
+import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
+import util.JobSystem;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.system.MemoryUtil.memPutFloat;
+import static org.lwjgl.system.MemoryUtil.memPutInt;
+
+/**
+ * Short lived quads like sparks, dust or smoke, in numbers far beyond what goes through a {@link Renderer}.
+ * Particles live in parallel primitive arrays of a fixed capacity: emitting appends, expiring moves the last
+ * particle into the hole, so neither allocates. Particles only store their own motion and age; size and
+ * color follow from the age and are shared by the whole system.
+ * <p>
+ * The update is a branch free loop over the arrays, which the JIT turns into SIMD code, split over the
+ * {@link JobSystem} for large systems. Drawing writes one 16 byte instance per particle straight into a
+ * mapped {@link StreamingBuffer}, again split over the job system, and draws them all with a single
+ * instanced call. Needs a shader with the particle instance layout, see assets/shaders/particle.glsl.
+ * <p>
+ * Updating works without a GL context, drawing must happen on the thread owning it.
+ */
+public class ParticleSystem {
+    // Instance
+    // ========
+    // Position (x, y)   Size    Color
+    // float, float,     float,  4 normalized unsigned bytes
+    private static final int POSITION_SIZE = 2;
+    private static final int SIZE_SIZE = 1;
+    private static final int POSITION_OFFSET = 0;
+    private static final int SIZE_OFFSET = POSITION_OFFSET + POSITION_SIZE * Float.BYTES;
+    private static final int COLOR_OFFSET = SIZE_OFFSET + SIZE_SIZE * Float.BYTES;
+    public static final int INSTANCE_BYTES = COLOR_OFFSET + 4;
+
+    // Corner of the unit quad, 0 at the left/bottom and 1 at the right/top
+    private static final int CORNER_SIZE = 2;
+    // Smallest part of a loop worth handing to another thread
+    private static final int PARALLEL_CHUNK = 8192;
+    // Colors over the lifetime are looked up instead of blended per particle
+    private static final int RAMP_SIZE = 256;
+
+    private final int capacity;
+    private int count;
+    private long dropped;
+
+    private final float[] x, y;
+    private final float[] velocityX, velocityY;
+    // Age from 0 at birth to 1 at expiry, and how much of that passes per second
+    private final float[] age, ageRate;
+
+    private float gravityX, gravityY;
+    private float drag;
+    private float startSize = 4.0f, endSize = 0.0f;
+    private final int[] colorRamp = new int[RAMP_SIZE];
+    private Texture texture;
+    private boolean additive;
+    private final Random random;
+
+    // State of the running update or instance write for the job tasks
+    private final JobSystem.RangeTask simulateTask = this::simulateRange;
+    private final JobSystem.RangeTask writeTask = this::writeRange;
+    private float stepDt;
+    private float lastDt;
+    private long writeAddress;
+    private float writeTimeOffset;
+
+    private int vaoID, quadID, eboID;
+    private StreamingBuffer instanceBuffer;
+    // Uniform locations of the program used by the last draw
+    private int program;
+    private int uViewProjection, uTexture, uTextured;
+
+    /**
+     * @param capacity the most particles alive at once, emitting beyond it drops the new particles
+     */
+    public ParticleSystem(int capacity) {
+        this(capacity, System.nanoTime());
+    }
+
+    /**
+     * @param seed of the random numbers bursts are spread with, so they repeat between runs
+     */
+    public ParticleSystem(int capacity, long seed) {
+        assert capacity > 0 : "Error: Particle capacity must be positive, got " + capacity;
+        this.capacity = capacity;
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.velocityX = new float[capacity];
+        this.velocityY = new float[capacity];
+        this.age = new float[capacity];
+        this.ageRate = new float[capacity];
+        this.random = new Random(seed);
+        this.setColor(new Vector4f(1.0f, 1.0f, 1.0f, 1.0f), new Vector4f(1.0f, 1.0f, 1.0f, 0.0f));
+    }
+
+    // ==========================================================
+    // Settings
+    // ==========================================================
+
+    /**
+     * @param gravityY acceleration in world units per second squared, e.g. negative to fall down
+     */
+    public void setGravity(float gravityX, float gravityY) {
+        this.gravityX = gravityX;
+        this.gravityY = gravityY;
+    }
+
+    /**
+     * @param drag share of the velocity lost per second, 0 keeps particles at their speed
+     */
+    public void setDrag(float drag) {
+        assert drag >= 0.0f : "Error: Negative drag " + drag;
+        this.drag = drag;
+    }
+
+    /**
+     * Particles grow or shrink linearly from the start size at birth to the end size at expiry.
+     */
+    public void setSize(float startSize, float endSize) {
+        this.startSize = startSize;
+        this.endSize = endSize;
+    }
+
+    /**
+     * Particles fade linearly from the start color at birth to the end color at expiry.
+     */
+    public void setColor(Vector4f start, Vector4f end) {
+        boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        for (int i = 0; i < RAMP_SIZE; i++) {
+            float t = i / (float) (RAMP_SIZE - 1);
+            int r = toByte(start.x + (end.x - start.x) * t);
+            int g = toByte(start.y + (end.y - start.y) * t);
+            int b = toByte(start.z + (end.z - start.z) * t);
+            int a = toByte(start.w + (end.w - start.w) * t);
+            // The shader reads the bytes in memory order as r, g, b, a
+            this.colorRamp[i] = littleEndian ? r | g << 8 | b << 16 | a << 24 : r << 24 | g << 16 | b << 8 | a;
+        }
+    }
+
+    private static int toByte(float channel) {
+        return Math.round(Math.max(0.0f, Math.min(1.0f, channel)) * 255.0f);
+    }
+
+    /**
+     * @param texture drawn stretched over every particle, or null for plain colored squares
+     */
+    public void setTexture(Texture texture) {
+        this.texture = texture;
+    }
+
+    /**
+     * @param additive whether particles add their light instead of covering what is behind them, e.g. for
+     *                 fire and sparks
+     */
+    public void setAdditive(boolean additive) {
+        this.additive = additive;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the number of particles alive
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return the number of particles not emitted so far because the system was full
+     */
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    // ==========================================================
+    // Emission
+    // ==========================================================
+
+    /**
+     * Adds a particle at the center position, or drops it if the system is full.
+     *
+     * @param lifetime seconds until the particle expires
+     * @return whether the particle was added
+     */
+    public boolean emit(float x, float y, float velocityX, float velocityY, float lifetime) {
+        assert lifetime > 0.0f : "Error: Particle lifetime must be positive, got " + lifetime;
+        if (this.count == this.capacity) {
+            this.dropped++;
+            return false;
+        }
+        int i = this.count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.velocityX[i] = velocityX;
+        this.velocityY[i] = velocityY;
+        this.age[i] = 0.0f;
+        this.ageRate[i] = 1.0f / lifetime;
+        return true;
+    }
+
+    /**
+     * Emits particles from one point into random directions.
+     *
+     * @return the number of particles added, less than count if the system ran full
+     */
+    public int burst(int count, float x, float y, float minSpeed, float maxSpeed, float minLifetime, float maxLifetime) {
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            double angle = this.random.nextDouble() * 2.0 * Math.PI;
+            float speed = minSpeed + (maxSpeed - minSpeed) * this.random.nextFloat();
+            float lifetime = minLifetime + (maxLifetime - minLifetime) * this.random.nextFloat();
+            if (!this.emit(x, y, (float) Math.cos(angle) * speed, (float) Math.sin(angle) * speed, lifetime)) {
+                this.dropped += count - i - 1;
+                break;
+            }
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Removes every particle.
+     */
+    public void clear() {
+        this.count = 0;
+    }
+
+    // ==========================================================
+    // Simulation
+    // ==========================================================
+
+    /**
+     * Moves every particle by one tick and removes the expired ones.
+     */
+    public void update(float dt) {
+        this.stepDt = dt;
+        this.lastDt = dt;
+        JobSystem.parallelFor(this.count, PARALLEL_CHUNK, this.simulateTask);
+
+        // From the back, so the particle moved into a hole was already checked
+        float[] age = this.age;
+        for (int i = this.count - 1; i >= 0; i--) {
+            if (age[i] >= 1.0f) {
+                this.swapRemove(i);
+            }
+        }
+    }
+
+    private void simulateRange(int from, int to) {
+        float dt = this.stepDt;
+        float accelerationX = this.gravityX * dt;
+        float accelerationY = this.gravityY * dt;
+        float damping = Math.max(0.0f, 1.0f - this.drag * dt);
+        float[] x = this.x, y = this.y, velocityX = this.velocityX, velocityY = this.velocityY;
+        float[] age = this.age, ageRate = this.ageRate;
+        // No branches or calls, so the loop is vectorized
+        for (int i = from; i < to; i++) {
+            float vx = (velocityX[i] + accelerationX) * damping;
+            float vy = (velocityY[i] + accelerationY) * damping;
+            velocityX[i] = vx;
+            velocityY[i] = vy;
+            x[i] += vx * dt;
+            y[i] += vy * dt;
+            age[i] += ageRate[i] * dt;
+        }
+    }
+
+    private void swapRemove(int i) {
+        int last = --this.count;
+        this.x[i] = this.x[last];
+        this.y[i] = this.y[last];
+        this.velocityX[i] = this.velocityX[last];
+        this.velocityY[i] = this.velocityY[last];
+        this.age[i] = this.age[last];
+        this.ageRate[i] = this.ageRate[last];
+    }
+
+    // ==========================================================
+    // Drawing
+    // ==========================================================
+
+    /**
+     * Writes the instance of every particle, {@link #INSTANCE_BYTES} each, to off-heap memory.
+     *
+     * @param timeOffset seconds the positions are moved along the velocities, e.g. negative to draw the
+     *                   particles between the previous and the latest tick
+     */
+    void writeInstances(long address, float timeOffset) {
+        this.writeAddress = address;
+        this.writeTimeOffset = timeOffset;
+        JobSystem.parallelFor(this.count, PARALLEL_CHUNK, this.writeTask);
+    }
+
+    private void writeRange(int from, int to) {
+        long address = this.writeAddress + (long) from * INSTANCE_BYTES;
+        float timeOffset = this.writeTimeOffset;
+        float startSize = this.startSize;
+        float sizeChange = this.endSize - this.startSize;
+        int[] colorRamp = this.colorRamp;
+        float[] x = this.x, y = this.y, velocityX = this.velocityX, velocityY = this.velocityY, age = this.age;
+        for (int i = from; i < to; i++) {
+            float t = Math.min(age[i], 1.0f);
+            memPutFloat(address + POSITION_OFFSET, x[i] + velocityX[i] * timeOffset);
+            memPutFloat(address + POSITION_OFFSET + Float.BYTES, y[i] + velocityY[i] * timeOffset);
+            memPutFloat(address + SIZE_OFFSET, startSize + sizeChange * t);
+            memPutInt(address + COLOR_OFFSET, colorRamp[(int) (t * (RAMP_SIZE - 1))]);
+            address += INSTANCE_BYTES;
+        }
+    }
+
+    /**
+     * Draws every particle with one instanced draw call, interpolated between the last two ticks like
+     * sprites are. Needs a shader with the particle instance layout.
+     *
+     * @param alpha how far the frame lies between the previous and the latest tick, from 0 to 1
+     */
+    public void render(Shader shader, Camera camera, float alpha) {
+        if (this.count == 0) {
+            return;
+        }
+        if (this.vaoID == 0) {
+            this.start();
+        }
+        // A reloaded shader keeps its object but gets a new program
+        if (this.program != shader.getProgramId()) {
+            this.program = shader.getProgramId();
+            this.uViewProjection = shader.getUniformLocation("uViewProjection");
+            this.uTexture = shader.getUniformLocation("uTexture");
+            this.uTextured = shader.getUniformLocation("uTextured");
+        }
+
+        int bytes = this.count * INSTANCE_BYTES;
+        this.writeInstances(this.instanceBuffer.map(bytes, INSTANCE_BYTES), -(1.0f - alpha) * this.lastDt);
+        int byteOffset = this.instanceBuffer.unmap();
+
+        shader.uploadMatrix4f(this.uViewProjection, camera.getViewProjectionMatrix());
+        shader.uploadInt(this.uTexture, 0);
+        shader.uploadInt(this.uTextured, this.texture != null ? 1 : 0);
+        if (this.texture != null) {
+            GLStateCache.bindTexture(0, this.texture.getId());
+        }
+        GLStateCache.enableBlend();
+        GLStateCache.blendFunc(GL_SRC_ALPHA, this.additive ? GL_ONE : GL_ONE_MINUS_SRC_ALPHA);
+        shader.use();
+
+        GLStateCache.bindVertexArray(this.vaoID);
+        this.pointInstanceAttributes(byteOffset);
+        glDrawElementsInstanced(GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0, this.count);
+        Renderer.recordDrawCall();
+    }
+
+    private void start() {
+        this.vaoID = glGenVertexArrays();
+        GLStateCache.bindVertexArray(this.vaoID);
+
+        // Top left, top right, bottom right, bottom left, like InstanceBatch
+        FloatBuffer corners = BufferUtils.createFloatBuffer(4 * CORNER_SIZE);
+        corners.put(0.0f).put(1.0f).put(1.0f).put(1.0f).put(1.0f).put(0.0f).put(0.0f).put(0.0f).flip();
+        this.quadID = glGenBuffers();
+        GLStateCache.bindBuffer(GL_ARRAY_BUFFER, this.quadID);
+        glBufferData(GL_ARRAY_BUFFER, corners, GL_STATIC_DRAW);
+        glVertexAttribPointer(0, CORNER_SIZE, GL_FLOAT, false, CORNER_SIZE * Float.BYTES, 0);
+        glEnableVertexAttribArray(0);
+
+        IntBuffer indices = BufferUtils.createIntBuffer(6);
+        indices.put(2).put(1).put(0).put(2).put(0).put(3).flip();
+        this.eboID = glGenBuffers();
+        GLStateCache.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.eboID);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+
+        this.instanceBuffer = new StreamingBuffer(GL_ARRAY_BUFFER, this.capacity * INSTANCE_BYTES);
+        this.pointInstanceAttributes(0);
+        for (int attribute = 1; attribute <= 3; attribute++) {
+            glEnableVertexAttribArray(attribute);
+            glVertexAttribDivisor(attribute, 1);
+        }
+    }
+
+    // Instanced draws have no base instance before GL 4.2, see InstanceBatch. Needs the VAO bound.
+    private void pointInstanceAttributes(int byteOffset) {
+        GLStateCache.bindBuffer(GL_ARRAY_BUFFER, this.instanceBuffer.getId());
+        glVertexAttribPointer(1, POSITION_SIZE, GL_FLOAT, false, INSTANCE_BYTES, byteOffset + POSITION_OFFSET);
+        glVertexAttribPointer(2, SIZE_SIZE, GL_FLOAT, false, INSTANCE_BYTES, byteOffset + SIZE_OFFSET);
+        glVertexAttribPointer(3, 4, GL_UNSIGNED_BYTE, true, INSTANCE_BYTES, byteOffset + COLOR_OFFSET);
+    }
+
+    /**
+     * Releases the GL objects. The particles stay, drawing again creates new ones.
+     */
+    public void delete() {
+        if (this.vaoID == 0) {
+            return;
+        }
+        GLStateCache.deleteVertexArray(this.vaoID);
+        GLStateCache.deleteBuffer(this.quadID);
+        GLStateCache.deleteBuffer(this.eboID);
+        this.instanceBuffer.delete();
+        this.vaoID = 0;
+        this.program = 0;
+    }
+}
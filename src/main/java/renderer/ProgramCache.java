@@ -0,0 +1,299 @@
+package renderer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.GL_FALSE;
+import static org.lwjgl.opengl.GL11.GL_RENDERER;
+import static org.lwjgl.opengl.GL11.GL_TRUE;
+import static org.lwjgl.opengl.GL11.GL_VENDOR;
+import static org.lwjgl.opengl.GL11.GL_VERSION;
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL11.glGetString;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL41.*;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Linked shader programs, shared by every {@link Shader} with the same preprocessed source. Defines are
+ * part of that source, so each variant gets its own program. Programs are reference counted and deleted
+ * once the last shader using them releases them.
+ * <p>
+ * Where the driver can hand out program binaries (GL 4.1 or ARB_get_program_binary) every newly linked
+ * program is also written to the cache directory, so the next start loads it instead of compiling. The
+ * driver is part of the key, and a binary the driver rejects anyway is deleted and compiled again.
+ * <p>
+ * Must only be used on the thread owning the GL context.
+ */
+public class ProgramCache {
+    private static Path directory = Paths.get(".cache", "shaders");
+    private static boolean diskCacheEnabled = true;
+
+    private static final Map<String, Program> programs = new HashMap<>();
+    private static final Map<Integer, Program> programsById = new HashMap<>();
+
+    // Vendor, renderer and version of the context, null until the first program is requested
+    private static String driver;
+    private static boolean binariesSupported;
+
+    private static int memoryHits = 0;
+    private static int diskHits = 0;
+    private static int compiles = 0;
+
+    private ProgramCache() {
+
+    }
+
+    private static class Program {
+        final String key;
+        final int id;
+        int references;
+
+        Program(String key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Changes where program binaries are kept, before the first program is requested.
+     */
+    public static void setDirectory(Path cacheDirectory) {
+        directory = cacheDirectory;
+    }
+
+    public static void setDiskCacheEnabled(boolean enabled) {
+        diskCacheEnabled = enabled;
+    }
+
+    /**
+     * Returns the program for the source, linking it only if it is neither in memory nor on disk yet.
+     * Every successful call has to be paired with a {@link #release(int)}.
+     *
+     * @param name shown in compile and link errors, usually the shader's file path
+     * @return the program id, 0 if compiling or linking failed, the error is printed
+     */
+    public static int acquire(String name, ShaderSource source) {
+        if (driver == null) {
+            GLCapabilities caps = GL.getCapabilities();
+            driver = glGetString(GL_VENDOR) + "|" + glGetString(GL_RENDERER) + "|" + glGetString(GL_VERSION);
+            binariesSupported = (caps.OpenGL41 || caps.GL_ARB_get_program_binary)
+                    && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+        }
+        String key = key(source);
+        Program program = programs.get(key);
+        if (program != null) {
+            memoryHits++;
+            program.references++;
+            return program.id;
+        }
+
+        boolean useDisk = diskCacheEnabled && binariesSupported;
+        int id = useDisk ? loadBinary(key) : 0;
+        if (id != 0) {
+            diskHits++;
+        } else {
+            id = link(name, source, useDisk);
+            if (id == 0) {
+                return 0;
+            }
+            compiles++;
+            if (useDisk) {
+                saveBinary(key, id);
+            }
+        }
+
+        program = new Program(key, id);
+        program.references = 1;
+        programs.put(key, program);
+        programsById.put(id, program);
+        return id;
+    }
+
+    /**
+     * Gives back a program returned by {@link #acquire(String, ShaderSource)}, deleting it once unused.
+     */
+    public static void release(int programId) {
+        Program program = programsById.get(programId);
+        if (program == null || --program.references > 0) {
+            return;
+        }
+        programs.remove(program.key);
+        programsById.remove(programId);
+        GLStateCache.deleteProgram(programId);
+    }
+
+    private static String key(ShaderSource source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(driver.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.getVertex().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.getFragment().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int link(String name, ShaderSource source, boolean retrievable) {
+        int vertexID = compileStage(name, "Vertex", GL_VERTEX_SHADER, source.getVertex());
+        int fragmentID = compileStage(name, "Fragment", GL_FRAGMENT_SHADER, source.getFragment());
+        if (vertexID == 0 || fragmentID == 0) {
+            glDeleteShader(vertexID);
+            glDeleteShader(fragmentID);
+            return 0;
+        }
+
+        int program = glCreateProgram();
+        if (retrievable) {
+            glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
+        glAttachShader(program, vertexID);
+        glAttachShader(program, fragmentID);
+        glLinkProgram(program);
+        glDeleteShader(vertexID);
+        glDeleteShader(fragmentID);
+        // Check for linking errors
+        if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) {
+            int len = glGetProgrami(program, GL_INFO_LOG_LENGTH);
+            System.out.println("ERROR: '" + name + "'\n\tShader program linking failed.");
+            System.out.println(glGetProgramInfoLog(program, len));
+            GLStateCache.deleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    private static int compileStage(String name, String stage, int type, String source) {
+        int id = glCreateShader(type);
+        glShaderSource(id, source);
+        glCompileShader(id);
+        // Check for errors in compilation
+        if (glGetShaderi(id, GL_COMPILE_STATUS) == GL_FALSE) {
+            int len = glGetShaderi(id, GL_INFO_LOG_LENGTH);
+            System.out.println("ERROR: '" + name + "'\n\t" + stage + " shader compilation failed.");
+            System.out.println(glGetShaderInfoLog(id, len));
+            glDeleteShader(id);
+            return 0;
+        }
+        return id;
+    }
+
+    // Binary file: the binary format as a native order int, followed by the binary itself
+    private static int loadBinary(String key) {
+        Path file = directory.resolve(key + ".bin");
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+        ByteBuffer data = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= Integer.BYTES || size > Integer.MAX_VALUE) {
+                return 0;
+            }
+            data = memAlloc((int) size);
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // Read until full
+            }
+            data.flip();
+            int format = data.getInt(0);
+            data.position(Integer.BYTES);
+
+            int program = glCreateProgram();
+            glProgramBinary(program, format, data);
+            if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) {
+                // Usually a driver update, the program is compiled and the binary replaced
+                GLStateCache.deleteProgram(program);
+                Files.deleteIfExists(file);
+                return 0;
+            }
+            return program;
+        } catch (IOException e) {
+            return 0;
+        } finally {
+            if (data != null) {
+                memFree(data);
+            }
+        }
+    }
+
+    private static void saveBinary(String key, int program) {
+        int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer data = memAlloc(Integer.BYTES + length);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer written = stack.mallocInt(1);
+            IntBuffer format = stack.mallocInt(1);
+            data.position(Integer.BYTES);
+            glGetProgramBinary(program, written, format, data);
+            data.putInt(0, format.get(0));
+            data.position(0);
+            data.limit(Integer.BYTES + written.get(0));
+
+            // Written next to the final file and moved, so a crash never leaves half a binary behind
+            Files.createDirectories(directory);
+            Path file = directory.resolve(key + ".bin");
+            Path temporary = directory.resolve(key + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: Couldn't write program binary to '" + directory + "': " + e.getMessage());
+        } finally {
+            memFree(data);
+        }
+    }
+
+    /**
+     * @return requests served by a program that was already linked
+     */
+    public static int getMemoryHits() {
+        return memoryHits;
+    }
+
+    /**
+     * @return programs loaded from a binary instead of compiled
+     */
+    public static int getDiskHits() {
+        return diskHits;
+    }
+
+    public static int getCompiles() {
+        return compiles;
+    }
+}
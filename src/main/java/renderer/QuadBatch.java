@@ -0,0 +1,140 @@
+package renderer;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Quads that share up to {@link #MAX_TEXTURE_SLOTS} - 1 textures and are drawn with a single draw call.
+ * Subclasses decide how a quad is laid out in the vertex data and how it is drawn.
+ */
+public abstract class QuadBatch {
+    // Slot 0 is reserved for untextured quads, so a batch holds at most MAX_TEXTURE_SLOTS - 1 textures
+    public static final int MAX_TEXTURE_SLOTS = 8;
+
+    protected final int maxBatchSize;
+    protected final int floatsPerQuad;
+    protected final FloatBuffer vertices;
+    private final Texture[] textures;
+    private final int[] textureIds;
+    private int numTextures;
+    protected int numQuads;
+
+    protected QuadBatch(int maxBatchSize, int floatsPerQuad) {
+        this.maxBatchSize = maxBatchSize;
+        this.floatsPerQuad = floatsPerQuad;
+        this.vertices = BufferUtils.createFloatBuffer(maxBatchSize * floatsPerQuad);
+        this.textures = new Texture[MAX_TEXTURE_SLOTS - 1];
+        this.textureIds = new int[MAX_TEXTURE_SLOTS - 1];
+        this.numTextures = 0;
+        this.numQuads = 0;
+    }
+
+    /**
+     * Creates the GL objects of the batch. Called the first time the batch has something to
+     * draw, so quads can be queued before there is a GL context.
+     */
+    public abstract void start();
+
+    public boolean hasRoom() {
+        return this.numQuads < this.maxBatchSize;
+    }
+
+    public boolean hasTextureRoom() {
+        return this.numTextures < this.textures.length;
+    }
+
+    public boolean hasTexture(Texture texture) {
+        return texture == null || this.slotOf(texture) != 0;
+    }
+
+    public boolean isEmpty() {
+        return this.numQuads == 0;
+    }
+
+    /**
+     * Appends a quad to the batch. The caller must have checked {@link #hasRoom()} and,
+     * for a texture not yet in this batch, {@link #hasTextureRoom()}.
+     * UV (u0, v0) maps to the top left corner and (u1, v1) to the bottom right corner.
+     */
+    public void addQuad(float x, float y, float width, float height,
+                        float r, float g, float b, float a,
+                        Texture texture, float u0, float v0, float u1, float v1) {
+        this.writeQuad(this.reserveQuad(texture), x, y, width, height, r, g, b, a, texture, u0, v0, u1, v1);
+    }
+
+    /**
+     * Claims the next quad and a texture slot for it without writing its vertices, with the same
+     * preconditions as {@link #addQuad}.
+     *
+     * @return the index to pass to {@link #writeQuad}
+     */
+    public int reserveQuad(Texture texture) {
+        if (texture != null && this.slotOf(texture) == 0) {
+            this.textures[this.numTextures++] = texture;
+        }
+        return this.numQuads++;
+    }
+
+    /**
+     * Writes the vertices of a reserved quad. Only reads the batch's state otherwise, so different quads
+     * may be written from different threads once all of them are reserved.
+     */
+    public abstract void writeQuad(int quad, float x, float y, float width, float height,
+                                   float r, float g, float b, float a,
+                                   Texture texture, float u0, float v0, float u1, float v1);
+
+    /**
+     * @return the texture slot the shader samples the texture from, 0 if it isn't in this batch
+     */
+    protected int slotOf(Texture texture) {
+        for (int i = 0; i < this.numTextures; i++) {
+            if (this.textures[i] == texture) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Records the upload of the packed vertices and a single draw call for the whole batch, then resets it
+     * so it can be refilled once the command buffer was executed.
+     */
+    public void record(CommandBuffer commands, long key, int program) {
+        if (this.numQuads == 0) {
+            return;
+        }
+        for (int i = 0; i < this.numTextures; i++) {
+            this.textureIds[i] = this.textures[i].getId();
+        }
+        commands.uploadVertices(this, this.numQuads * this.floatsPerQuad);
+        commands.drawBatch(key, program, this, this.numQuads, this.textureIds, this.numTextures);
+        this.clear();
+    }
+
+    /**
+     * Streams the first floatCount floats of the vertex data to the GPU.
+     */
+    abstract void uploadVertices(int floatCount);
+
+    /**
+     * Draws the first quadCount uploaded quads. The shader must already be in use and the textures bound.
+     */
+    abstract void draw(int quadCount);
+
+    /**
+     * Drops every queued quad without drawing it.
+     */
+    public void clear() {
+        for (int i = 0; i < this.numTextures; i++) {
+            this.textures[i] = null;
+        }
+        this.numTextures = 0;
+        this.numQuads = 0;
+    }
+
+    /**
+     * Releases the GL objects, the batch can't be drawn anymore afterwards.
+     */
+    public abstract void delete();
+}
@@ -0,0 +1,95 @@
+package renderer;
+
+/**
+ * Backend that doesn't render anything and only counts what it was asked to do, for checking and
+ * benchmarking the submission path without a GPU.
+ */
+public class RecordingBackend implements RenderBackend {
+    private int programChanges;
+    private int textureBinds;
+    private int uniformUploads;
+    private int drawCalls;
+    private int quads;
+    private long uploadedBytes;
+
+    @Override
+    public void setBlend(int src, int dst) {
+
+    }
+
+    @Override
+    public void useProgram(int program) {
+        this.programChanges++;
+    }
+
+    @Override
+    public void uploadMatrix4f(int location, float[] values, int offset) {
+        this.uniformUploads++;
+    }
+
+    @Override
+    public void uploadFloat(int location, float value) {
+        this.uniformUploads++;
+    }
+
+    @Override
+    public void uploadIntArray(int location, int[] values, int offset, int count) {
+        this.uniformUploads++;
+    }
+
+    @Override
+    public void uploadVertices(QuadBatch batch, int floatCount) {
+        this.uploadedBytes += (long) floatCount * Float.BYTES;
+    }
+
+    @Override
+    public void bindTexture(int unit, int texture) {
+        this.textureBinds++;
+    }
+
+    @Override
+    public void drawBatch(QuadBatch batch, int quadCount) {
+        this.drawCalls++;
+        this.quads += quadCount;
+    }
+
+    public void reset() {
+        this.programChanges = 0;
+        this.textureBinds = 0;
+        this.uniformUploads = 0;
+        this.drawCalls = 0;
+        this.quads = 0;
+        this.uploadedBytes = 0;
+    }
+
+    public int getProgramChanges() {
+        return this.programChanges;
+    }
+
+    public int getTextureBinds() {
+        return this.textureBinds;
+    }
+
+    public int getUniformUploads() {
+        return this.uniformUploads;
+    }
+
+    public int getDrawCalls() {
+        return this.drawCalls;
+    }
+
+    public int getQuads() {
+        return this.quads;
+    }
+
+    public long getUploadedBytes() {
+        return this.uploadedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingBackend{programChanges=" + this.programChanges + ", textureBinds=" + this.textureBinds
+                + ", uniformUploads=" + this.uniformUploads + ", drawCalls=" + this.drawCalls
+                + ", quads=" + this.quads + ", uploadedBytes=" + this.uploadedBytes + "}";
+    }
+}
@@ -0,0 +1,30 @@
+package renderer;
+
+/**
+ * Executes the commands replayed from a {@link CommandBuffer}. The buffer already skips program and
+ * texture changes that wouldn't change anything, so every call here is a real state change.
+ */
+public interface RenderBackend {
+
+    void setBlend(int src, int dst);
+
+    void useProgram(int program);
+
+    /**
+     * Uploads 16 floats starting at offset, column major, to the program in use.
+     */
+    void uploadMatrix4f(int location, float[] values, int offset);
+
+    void uploadFloat(int location, float value);
+
+    void uploadIntArray(int location, int[] values, int offset, int count);
+
+    /**
+     * Streams the first floatCount vertex floats of the batch to its vertex buffer.
+     */
+    void uploadVertices(QuadBatch batch, int floatCount);
+
+    void bindTexture(int unit, int texture);
+
+    void drawBatch(QuadBatch batch, int quadCount);
+}
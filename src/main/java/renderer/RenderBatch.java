@@ -0,0 +1,141 @@
+package renderer;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+
+/**
+ * Quads as four full vertices each, drawn with glDrawElements. Works on every GL 3.3 context.
+ */
+public class RenderBatch extends QuadBatch {
+    // Vertex
+    // ======
+    // Pos                  Color                          UV coordinates    Texture id
+    // float, float, float, float, float, float, float,   float, float,     float
+    private static final int POS_SIZE = 3;
+    private static final int COLOR_SIZE = 4;
+    private static final int UV_SIZE = 2;
+    private static final int TEX_ID_SIZE = 1;
+
+    private static final int POS_OFFSET = 0;
+    private static final int COLOR_OFFSET = POS_OFFSET + POS_SIZE * Float.BYTES;
+    private static final int UV_OFFSET = COLOR_OFFSET + COLOR_SIZE * Float.BYTES;
+    private static final int TEX_ID_OFFSET = UV_OFFSET + UV_SIZE * Float.BYTES;
+
+    public static final int VERTEX_SIZE = POS_SIZE + COLOR_SIZE + UV_SIZE + TEX_ID_SIZE;
+    private static final int VERTEX_SIZE_BYTES = VERTEX_SIZE * Float.BYTES;
+
+    private int vaoID, eboID;
+    private StreamingBuffer vertexBuffer;
+    // First vertex of the last upload inside the streaming buffer
+    private int baseVertex;
+
+    public RenderBatch(int maxBatchSize) {
+        super(maxBatchSize, 4 * VERTEX_SIZE);
+    }
+
+    @Override
+    public void start() {
+        // Generate and bind a Vertex Array Object
+        this.vaoID = glGenVertexArrays();
+        GLStateCache.bindVertexArray(this.vaoID);
+
+        // The vertices are streamed in every frame, each upload lands at a different place in the buffer
+        this.vertexBuffer = new StreamingBuffer(GL_ARRAY_BUFFER, this.vertices.capacity() * Float.BYTES);
+        GLStateCache.bindBuffer(GL_ARRAY_BUFFER, this.vertexBuffer.getId());
+
+        // Create and upload the indices buffer, it never changes
+        this.eboID = glGenBuffers();
+        GLStateCache.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.eboID);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, generateIndices(), GL_STATIC_DRAW);
+
+        // Enable the buffer attribute pointers
+        glVertexAttribPointer(0, POS_SIZE, GL_FLOAT, false, VERTEX_SIZE_BYTES, POS_OFFSET);
+        glEnableVertexAttribArray(0);
+        glVertexAttribPointer(1, COLOR_SIZE, GL_FLOAT, false, VERTEX_SIZE_BYTES, COLOR_OFFSET);
+        glEnableVertexAttribArray(1);
+        glVertexAttribPointer(2, UV_SIZE, GL_FLOAT, false, VERTEX_SIZE_BYTES, UV_OFFSET);
+        glEnableVertexAttribArray(2);
+        glVertexAttribPointer(3, TEX_ID_SIZE, GL_FLOAT, false, VERTEX_SIZE_BYTES, TEX_ID_OFFSET);
+        glEnableVertexAttribArray(3);
+    }
+
+    @Override
+    public void writeQuad(int quad, float x, float y, float width, float height,
+                          float r, float g, float b, float a,
+                          Texture texture, float u0, float v0, float u1, float v1) {
+        float texId = texture == null ? 0 : this.slotOf(texture);
+
+        int offset = quad * 4 * VERTEX_SIZE;
+        // Top left, top right, bottom right, bottom left
+        offset = this.putVertex(offset, x, y + height, r, g, b, a, u0, v0, texId);
+        offset = this.putVertex(offset, x + width, y + height, r, g, b, a, u1, v0, texId);
+        offset = this.putVertex(offset, x + width, y, r, g, b, a, u1, v1, texId);
+        this.putVertex(offset, x, y, r, g, b, a, u0, v1, texId);
+    }
+
+    private int putVertex(int offset, float x, float y, float r, float g, float b, float a,
+                          float u, float v, float texId) {
+        FloatBuffer buf = this.vertices;
+        buf.put(offset, x);
+        buf.put(offset + 1, y);
+        buf.put(offset + 2, 0.0f);
+        buf.put(offset + 3, r);
+        buf.put(offset + 4, g);
+        buf.put(offset + 5, b);
+        buf.put(offset + 6, a);
+        buf.put(offset + 7, u);
+        buf.put(offset + 8, v);
+        buf.put(offset + 9, texId);
+        return offset + VERTEX_SIZE;
+    }
+
+    @Override
+    void uploadVertices(int floatCount) {
+        if (this.vaoID == 0) {
+            this.start();
+        }
+        int offset = this.vertexBuffer.write(memAddress(this.vertices), floatCount * Float.BYTES, VERTEX_SIZE_BYTES);
+        this.baseVertex = offset / VERTEX_SIZE_BYTES;
+    }
+
+    @Override
+    void draw(int quadCount) {
+        if (this.vaoID == 0) {
+            this.start();
+        }
+        GLStateCache.bindVertexArray(this.vaoID);
+        glDrawElementsBaseVertex(GL_TRIANGLES, quadCount * 6, GL_UNSIGNED_INT, 0, this.baseVertex);
+    }
+
+    @Override
+    public void delete() {
+        if (this.vaoID == 0) {
+            return;
+        }
+        GLStateCache.deleteVertexArray(this.vaoID);
+        GLStateCache.deleteBuffer(this.eboID);
+        this.vertexBuffer.delete();
+        this.vaoID = 0;
+    }
+
+    private IntBuffer generateIndices() {
+        // 6 indices per quad (3 per triangle)
+        IntBuffer elements = BufferUtils.createIntBuffer(6 * this.maxBatchSize);
+        for (int i = 0; i < this.maxBatchSize; i++) {
+            // IMPORTANT: Must be in counter-clockwise order.
+            int offset = 4 * i;
+            // Triangle 1
+            elements.put(offset + 2).put(offset + 1).put(offset);
+            // Triangle 2
+            elements.put(offset + 2).put(offset).put(offset + 3);
+        }
+        elements.flip();
+        return elements;
+    }
+}
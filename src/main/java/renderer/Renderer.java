@@ -0,0 +1,252 @@
+package renderer;
+
+import jade.Camera;
+import org.joml.Vector4f;
+import util.Metrics;
+import util.Profiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.GL_ONE_MINUS_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11.GL_SRC_ALPHA;
+
+public class Renderer {
+    private static final int MAX_BATCH_SIZE = 1000;
+    // Quad references keep the quad index within its batch in the low bits
+    private static final int QUAD_BITS = 16;
+    private static final int QUAD_MASK = (1 << QUAD_BITS) - 1;
+    private static final int[] TEXTURE_SLOTS = {0, 1, 2, 3, 4, 5, 6, 7};
+
+    private static final int PROFILE_FLUSH = Profiler.register("Renderer.flush");
+    private static final int METRIC_DRAW_CALLS = Metrics.gauge("render.drawCalls");
+    private static final int METRIC_CULLED_QUADS = Metrics.gauge("render.culledQuads");
+
+    private static int drawCalls = 0;
+    private static int lastFrameDrawCalls = 0;
+    private static int culledQuads = 0;
+    private static int lastFrameCulledQuads = 0;
+
+    private final List<QuadBatch> batches;
+    // Index of the batch currently being filled, batches past it are idle this frame
+    private int currentBatch;
+
+    // Uniform locations of the shader and program used by the last render() call
+    private Shader shader;
+    private int program;
+    private int uViewProjection, uTextures;
+
+    // Draws every batch instanced with this shader when set and supported, see setInstancedShader()
+    private Shader instancedShader;
+
+    private Camera cullCamera;
+    private int layer;
+    private final CommandBuffer commands = new CommandBuffer();
+
+    public Renderer() {
+        this.batches = new ArrayList<>();
+        this.currentBatch = 0;
+    }
+
+    /**
+     * Quads entirely outside this camera's view are dropped on submission. Null disables culling.
+     */
+    public void setCullCamera(Camera cullCamera) {
+        this.cullCamera = cullCamera;
+    }
+
+    /**
+     * Switches to instanced batches drawn with the given shader, which has to take the instance layout of
+     * {@link InstanceBatch}. Null, or a context without instancing, keeps the vertex batches drawn with the
+     * shader passed to {@link #render(Shader, Camera)}. Must be called on the GL thread between frames,
+     * since the current batches are deleted when the mode changes.
+     */
+    public void setInstancedShader(Shader instancedShader) {
+        if (instancedShader != null && !InstanceBatch.isSupported()) {
+            instancedShader = null;
+        }
+        boolean modeChanged = (instancedShader == null) != (this.instancedShader == null);
+        this.instancedShader = instancedShader;
+        if (modeChanged) {
+            for (int i = 0; i < this.batches.size(); i++) {
+                this.batches.get(i).delete();
+            }
+            this.batches.clear();
+            this.currentBatch = 0;
+        }
+    }
+
+    public boolean isInstanced() {
+        return this.instancedShader != null;
+    }
+
+    public void drawQuad(float x, float y, float width, float height, Vector4f color) {
+        this.drawQuad(x, y, width, height, color.x, color.y, color.z, color.w, null, 0.0f, 0.0f, 1.0f, 1.0f);
+    }
+
+    public void drawQuad(float x, float y, float width, float height, Vector4f color, Texture texture) {
+        this.drawQuad(x, y, width, height, color.x, color.y, color.z, color.w, texture, 0.0f, 0.0f, 1.0f, 1.0f);
+    }
+
+    public void drawQuad(float x, float y, float width, float height, Vector4f color, Sprite sprite) {
+        this.drawQuad(x, y, width, height, color.x, color.y, color.z, color.w, sprite.getTexture(),
+                sprite.getU0(), sprite.getV0(), sprite.getU1(), sprite.getV1());
+    }
+
+    /**
+     * Queues a quad for this frame. Quads are drawn in submission order; consecutive quads are
+     * packed into the same batch until it runs out of room or texture slots.
+     */
+    public void drawQuad(float x, float y, float width, float height,
+                         float r, float g, float b, float a,
+                         Texture texture, float u0, float v0, float u1, float v1) {
+        if (this.cullCamera != null && !this.cullCamera.isVisible(x, y, x + width, y + height)) {
+            culledQuads++;
+            return;
+        }
+        QuadBatch batch = this.batchFor(texture);
+        batch.addQuad(x, y, width, height, r, g, b, a, texture, u0, v0, u1, v1);
+    }
+
+    /**
+     * Claims room for a quad in submission order without writing it yet, see {@link #writeQuad}.
+     * The quad isn't culled.
+     *
+     * @return a reference to the quad, only valid until the next {@link #render(Shader, Camera)}
+     */
+    public int reserveQuad(Texture texture) {
+        QuadBatch batch = this.batchFor(texture);
+        return (this.currentBatch << QUAD_BITS) | batch.reserveQuad(texture);
+    }
+
+    /**
+     * Fills in a quad claimed with {@link #reserveQuad(Texture)}, with the same texture. Safe to call from
+     * several threads at once for different quads, as long as nothing is reserved meanwhile.
+     */
+    public void writeQuad(int quad, float x, float y, float width, float height,
+                          float r, float g, float b, float a,
+                          Texture texture, float u0, float v0, float u1, float v1) {
+        this.batches.get(quad >>> QUAD_BITS).writeQuad(quad & QUAD_MASK, x, y, width, height,
+                r, g, b, a, texture, u0, v0, u1, v1);
+    }
+
+    /**
+     * Drops everything queued since the last render without drawing it.
+     */
+    public void clear() {
+        for (int i = 0; i < this.batches.size(); i++) {
+            this.batches.get(i).clear();
+        }
+        this.currentBatch = 0;
+    }
+
+    /**
+     * Releases the GL objects of every batch. The renderer stays usable, the next frame creates new ones.
+     */
+    public void delete() {
+        for (int i = 0; i < this.batches.size(); i++) {
+            this.batches.get(i).delete();
+        }
+        this.batches.clear();
+        this.currentBatch = 0;
+    }
+
+    private QuadBatch batchFor(Texture texture) {
+        if (this.currentBatch < this.batches.size()) {
+            QuadBatch batch = this.batches.get(this.currentBatch);
+            if (batch.hasRoom() && (batch.hasTexture(texture) || batch.hasTextureRoom())) {
+                return batch;
+            }
+            // Keep the submission order, so never go back to an earlier batch
+            if (!batch.isEmpty()) {
+                this.currentBatch++;
+            }
+        }
+
+        if (this.currentBatch == this.batches.size()) {
+            this.batches.add(this.instancedShader != null ? new InstanceBatch(MAX_BATCH_SIZE)
+                    : new RenderBatch(MAX_BATCH_SIZE));
+        }
+        return this.batches.get(this.currentBatch);
+    }
+
+    /**
+     * Flushes every batch filled since the last call, one draw call per batch.
+     */
+    public void render(Shader shader, Camera camera) {
+        Profiler.begin(PROFILE_FLUSH);
+        this.commands.clear();
+        this.record(shader, camera, this.commands);
+        this.commands.execute(GLBackend.get());
+        Profiler.end();
+    }
+
+    /**
+     * Records every batch filled since the last call into the command buffer instead of drawing it, so
+     * several renderers can share one buffer and be sorted by layer. The batches are refilled by the next
+     * frame, so the buffer has to be executed before that. Doesn't touch GL.
+     */
+    public void record(Shader shader, Camera camera, CommandBuffer commands) {
+        if (this.instancedShader != null) {
+            shader = this.instancedShader;
+        }
+        // A reloaded shader keeps its object but gets a new program
+        if (this.shader != shader || this.program != shader.getProgramId()) {
+            this.shader = shader;
+            this.program = shader.getProgramId();
+            this.uViewProjection = shader.getUniformLocation("uViewProjection");
+            this.uTextures = shader.getUniformLocation("uTextures");
+        }
+
+        int program = shader.getProgramId();
+        commands.setBlend(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        commands.uploadMatrix4f(program, this.uViewProjection, camera.getViewProjectionMatrix());
+        commands.uploadIntArray(program, this.uTextures, TEXTURE_SLOTS);
+
+        // Sprites are blended, so keep the submission order within the layer instead of sorting by texture
+        int last = Math.min(this.currentBatch, this.batches.size() - 1);
+        for (int i = 0; i <= last; i++) {
+            this.batches.get(i).record(commands, CommandBuffer.key(this.layer, 0, 0, i), program);
+        }
+        this.currentBatch = 0;
+    }
+
+    /**
+     * @param layer draw order between renderers recording into the same command buffer, lower layers first
+     */
+    public void setLayer(int layer) {
+        assert layer >= 0 && layer <= CommandBuffer.MAX_LAYER : "Error: Layer " + layer + " out of range";
+        this.layer = layer;
+    }
+
+    public int getLayer() {
+        return this.layer;
+    }
+
+    public static void recordDrawCall() {
+        drawCalls++;
+    }
+
+    public static void endFrame() {
+        lastFrameDrawCalls = drawCalls;
+        lastFrameCulledQuads = culledQuads;
+        Metrics.set(METRIC_DRAW_CALLS, drawCalls);
+        Metrics.set(METRIC_CULLED_QUADS, culledQuads);
+        drawCalls = 0;
+        culledQuads = 0;
+    }
+
+    /**
+     * @return the number of draw calls issued during the last completed frame
+     */
+    public static int getDrawCalls() {
+        return lastFrameDrawCalls;
+    }
+
+    /**
+     * @return the number of quads dropped by camera culling during the last completed frame
+     */
+    public static int getCulledQuads() {
+        return lastFrameCulledQuads;
+    }
+}
@@ -5,182 +5,308 @@ import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import org.lwjgl.BufferUtils;
+import util.Metrics;
+import util.Profiler;
 
 import java.io.IOException;
 import java.nio.FloatBuffer;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-import static org.lwjgl.opengl.GL11.GL_FALSE;
 import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL20.glGetProgramInfoLog;
 
 public class Shader {
 
     private int shaderProgramID;
-    private String vertexShaderSource;
-    private String fragmentShaderSource;
-    private String filePath;
-    private boolean beingUsed;
+    private ShaderSource source;
+    private final String filePath;
+    private final Map<String, String> defines;
 
-    public Shader(String filepath) {
-        this.filePath = filepath;
-        this.beingUsed = false;
-        try {
-            String source = new String(Files.readAllBytes(Paths.get(this.filePath)));
-            String[] splitString = source.split("(#type)( )+([a-zA-Z]+)");
-
-            // Find the first pattern after "#type 'pattern'
-            int index = source.indexOf("#type") + 6;
-            int eol = source.indexOf("\r\n", index);
-            String firstPattern = source.substring(index, eol).trim();
-
-            // Find the second pattern after "#type 'pattern'
-            index = source.indexOf("#type", eol) + 6;
-            eol = source.indexOf("\r\n", index);
-            String secondPattern = source.substring(index, eol).trim();
-
-            if (firstPattern.equals("vertex")) {
-                this.vertexShaderSource = splitString[1];
-            } else if (firstPattern.equals("fragment")) {
-                this.fragmentShaderSource = splitString[1];
-            } else {
-                throw new IOException("Unexpected token: '" + firstPattern + "'");
-            }
+    // Active uniforms of the linked program, filled once by reflectUniforms()
+    private final Map<String, Integer> uniformLocations = new HashMap<>();
+    // Scratch buffer shared by the matrix uploads, large enough for a mat4
+    private final FloatBuffer matBuffer = BufferUtils.createFloatBuffer(4 * 4);
 
-            if (secondPattern.equals("vertex")) {
-                this.vertexShaderSource = splitString[2];
-            } else if (secondPattern.equals("fragment")) {
-                this.fragmentShaderSource = splitString[2];
-            } else {
-                throw new IOException("Unexpected token: '" + secondPattern + "'");
-            }
+    private static final int PROFILE_PARSE = Profiler.register("Shader.parse");
+    private static final int PROFILE_COMPILE = Profiler.register("Shader.compile");
+    private static final int METRIC_UNIFORM_UPLOADS = Metrics.gauge("render.uniformUploads");
 
-            System.out.println("vertex shader:\n" + this.vertexShaderSource);
-            System.out.println("fragment shader:\n" + this.fragmentShaderSource);
+    private static int uniformUploads = 0;
+    private static int lastFrameUniformUploads = 0;
 
+    public Shader(String filepath) {
+        this(filepath, Collections.emptyMap());
+    }
+
+    /**
+     * A variant of the shader, the defines are inserted into every stage, see {@link ShaderPreprocessor}.
+     */
+    public Shader(String filepath, Map<String, String> defines) {
+        this(filepath, null, defines);
+    }
 
+    /**
+     * Preprocesses a shader source that was read elsewhere. Only included files are read from disk, GL isn't touched.
+     */
+    public Shader(String filepath, String source) {
+        this(filepath, source, Collections.emptyMap());
+    }
+
+    private Shader(String filepath, String source, Map<String, String> defines) {
+        this.filePath = filepath;
+        this.defines = Collections.unmodifiableMap(new HashMap<>(defines));
+        Profiler.begin(PROFILE_PARSE);
+        try {
+            this.source = source != null ? ShaderPreprocessor.process(filepath, source, this.defines)
+                    : ShaderPreprocessor.process(filepath, this.defines);
         } catch (IOException e) {
             e.printStackTrace();
-            assert false : "Error: Couldn't open file for shader: '" + "'";
+            assert false : "Error: Couldn't parse shader: '" + filepath + "'";
+        } finally {
+            Profiler.end();
         }
     }
 
+    /**
+     * Links the program, or takes it from the {@link ProgramCache} when a shader with the same source and
+     * defines was linked before, in this run or an earlier one.
+     *
+     * @throws IllegalStateException if the source couldn't be read or doesn't compile, the error is printed
+     */
     public void compile() {
+        Profiler.begin(PROFILE_COMPILE);
+        try {
+            int program = this.source != null ? ProgramCache.acquire(this.filePath, this.source) : 0;
+            if (program == 0) {
+                throw new IllegalStateException("Error: Couldn't compile shader: '" + this.filePath + "'");
+            }
+            this.shaderProgramID = program;
+            this.reflectUniforms();
+        } finally {
+            Profiler.end();
+        }
+    }
 
-        int vertexID, fragmentID;
-
-        // =========================
-        // Compile and link shaders
-        // =========================
-
-        // 1. Load and compile the vertex shader
-        vertexID = glCreateShader(GL_VERTEX_SHADER);
-        // Pass the shader source to the GPU
-        glShaderSource(vertexID, this.vertexShaderSource);
-        glCompileShader(vertexID);
-        // Check for errors in compilation
-        int success = glGetShaderi(vertexID, GL_COMPILE_STATUS);
-        if (success == GL_FALSE) {
-            int len = glGetShaderi(vertexID, GL_INFO_LOG_LENGTH);
-            System.out.println("ERROR: '" + this.filePath + "'\n\tVertex shader compilation failed.");
-            System.out.println(glGetShaderInfoLog(vertexID, len));
-            assert false : "";
+    /**
+     * Swaps in a newly preprocessed source, e.g. after the file changed on disk. If the new source doesn't
+     * compile the shader keeps its current program, the error is printed. Uniform locations may change.
+     *
+     * @return whether the new program is in use
+     */
+    public boolean reload(ShaderSource source) {
+        Profiler.begin(PROFILE_COMPILE);
+        try {
+            int program = ProgramCache.acquire(this.filePath, source);
+            if (program == 0) {
+                return false;
+            }
+            if (this.shaderProgramID != 0) {
+                ProgramCache.release(this.shaderProgramID);
+            }
+            this.source = source;
+            this.shaderProgramID = program;
+            this.reflectUniforms();
+            return true;
+        } finally {
+            Profiler.end();
         }
+    }
 
-        // 2. Load and compile the fragment shader
-        fragmentID = glCreateShader(GL_FRAGMENT_SHADER);
-        // Pass the shader source to the GPU
-        glShaderSource(fragmentID, this.fragmentShaderSource);
-        glCompileShader(fragmentID);
-        // Check for errors in compilation
-        success = glGetShaderi(fragmentID, GL_COMPILE_STATUS);
-        if (success == GL_FALSE) {
-            int len = glGetShaderi(fragmentID, GL_INFO_LOG_LENGTH);
-            System.out.println("ERROR: '" + this.filePath + "'\n\tFragment shader compilation failed.");
-            System.out.println(glGetShaderInfoLog(fragmentID, len));
-            assert false : "";
+    /**
+     * Gives the program back to the {@link ProgramCache}, the shader can't be used anymore afterwards.
+     */
+    public void delete() {
+        if (this.shaderProgramID != 0) {
+            ProgramCache.release(this.shaderProgramID);
+            this.shaderProgramID = 0;
         }
+    }
+
+    public String getFilePath() {
+        return this.filePath;
+    }
+
+    public Map<String, String> getDefines() {
+        return this.defines;
+    }
+
+    /**
+     * @return the files the current source was built from, empty if it couldn't be parsed
+     */
+    public List<Path> getDependencies() {
+        return this.source != null ? this.source.getDependencies() : Collections.emptyList();
+    }
 
-        // 3. Link shaders
-        this.shaderProgramID = glCreateProgram();
-        glAttachShader(this.shaderProgramID, vertexID);
-        glAttachShader(this.shaderProgramID, fragmentID);
-        glLinkProgram(this.shaderProgramID);
-        // Check for linking errors
-        success = glGetProgrami(this.shaderProgramID, GL_LINK_STATUS);
-        if (success == GL_FALSE) {
-            int len = glGetProgrami(this.shaderProgramID, GL_INFO_LOG_LENGTH);
-            System.out.println("ERROR: '" + this.filePath + "'\n\tShader program linking failed.");
-            System.out.println(glGetProgramInfoLog(this.shaderProgramID, len));
-            assert false : "";
+    private void reflectUniforms() {
+        this.uniformLocations.clear();
+        int count = glGetProgrami(this.shaderProgramID, GL_ACTIVE_UNIFORMS);
+        IntBuffer size = BufferUtils.createIntBuffer(1);
+        IntBuffer type = BufferUtils.createIntBuffer(1);
+        for (int i = 0; i < count; i++) {
+            String name = glGetActiveUniform(this.shaderProgramID, i, size, type);
+            int location = glGetUniformLocation(this.shaderProgramID, name);
+            // Arrays are reported as "name[0]", register them under the plain name as well
+            if (name.endsWith("[0]")) {
+                this.uniformLocations.put(name.substring(0, name.length() - 3), location);
+            }
+            this.uniformLocations.put(name, location);
         }
-        glDeleteShader(vertexID);
-        glDeleteShader(fragmentID);
     }
 
     public void use() {
-        if (!this.beingUsed) {
-            glUseProgram(this.shaderProgramID);
-            this.beingUsed = true;
-        }
+        GLStateCache.useProgram(this.shaderProgramID);
     }
 
     public void detach() {
-        glUseProgram(0);
-        this.beingUsed = false;
+        GLStateCache.useProgram(0);
+    }
+
+    /**
+     * @return the location resolved at link time, or -1 if the program has no active uniform with that name
+     */
+    public int getUniformLocation(String varName) {
+        Integer location = this.uniformLocations.get(varName);
+        return location != null ? location : -1;
     }
 
     public void uploadMatrix4f(String varName, Matrix4f mat4) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadMatrix4f(this.getUniformLocation(varName), mat4);
+    }
+
+    public void uploadMatrix4f(int varLocation, Matrix4f mat4) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
-        FloatBuffer matBuffer = BufferUtils.createFloatBuffer(4 * 4);
-        mat4.get(matBuffer);
-        glUniformMatrix4fv(varLocation, false, matBuffer);
+        mat4.get(this.matBuffer);
+        glUniformMatrix4fv(varLocation, false, this.matBuffer);
+        uniformUploads++;
     }
 
     public void uploadMatrix3f(String varName, Matrix3f mat3) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadMatrix3f(this.getUniformLocation(varName), mat3);
+    }
+
+    public void uploadMatrix3f(int varLocation, Matrix3f mat3) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
-        FloatBuffer matBuffer = BufferUtils.createFloatBuffer(3 * 3);
-        mat3.get(matBuffer);
-        glUniformMatrix3fv(varLocation, false, matBuffer);
+        this.matBuffer.limit(3 * 3);
+        mat3.get(this.matBuffer);
+        glUniformMatrix3fv(varLocation, false, this.matBuffer);
+        this.matBuffer.clear();
+        uniformUploads++;
     }
 
     public void uploadVec4f(String varName, Vector4f vec) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadVec4f(this.getUniformLocation(varName), vec);
+    }
+
+    public void uploadVec4f(int varLocation, Vector4f vec) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
         glUniform4f(varLocation, vec.x, vec.y, vec.z, vec.w);
+        uniformUploads++;
     }
 
     public void uploadVec3f(String varName, Vector3f vec) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadVec3f(this.getUniformLocation(varName), vec);
+    }
+
+    public void uploadVec3f(int varLocation, Vector3f vec) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
         glUniform3f(varLocation, vec.x, vec.y, vec.z);
+        uniformUploads++;
     }
 
     public void uploadVec2f(String varName, Vector3f vec) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadVec2f(this.getUniformLocation(varName), vec);
+    }
+
+    public void uploadVec2f(int varLocation, Vector3f vec) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
         glUniform2f(varLocation, vec.x, vec.y);
+        uniformUploads++;
     }
 
     public void uploadFloat(String varName, float var) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadFloat(this.getUniformLocation(varName), var);
+    }
+
+    public void uploadFloat(int varLocation, float var) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
         glUniform1f(varLocation, var);
+        uniformUploads++;
     }
 
     public void uploadInt(String varName, int var) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadInt(this.getUniformLocation(varName), var);
+    }
+
+    public void uploadInt(int varLocation, int var) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
         glUniform1i(varLocation, var);
+        uniformUploads++;
     }
 
     public void uploadTexture(String varName, int slot) {
-        int varLocation = glGetUniformLocation(this.shaderProgramID, varName);
+        this.uploadInt(this.getUniformLocation(varName), slot);
+    }
+
+    public void uploadIntArray(String varName, int[] array) {
+        this.uploadIntArray(this.getUniformLocation(varName), array);
+    }
+
+    public void uploadIntArray(int varLocation, int[] array) {
+        if (varLocation < 0) {
+            return;
+        }
         this.use();
-        glUniform1i(varLocation, slot);
+        glUniform1iv(varLocation, array);
+        uniformUploads++;
+    }
+
+    public int getProgramId() {
+        return this.shaderProgramID;
+    }
+
+    /**
+     * Counts a glUniform call made outside of this class, e.g. by {@link GLBackend}.
+     */
+    static void recordUniformUpload() {
+        uniformUploads++;
+    }
+
+    public static void endFrame() {
+        lastFrameUniformUploads = uniformUploads;
+        Metrics.set(METRIC_UNIFORM_UPLOADS, uniformUploads);
+        uniformUploads = 0;
+    }
+
+    /**
+     * @return the number of glUniform calls issued by all shaders during the last completed frame
+     */
+    public static int getUniformUploads() {
+        return lastFrameUniformUploads;
     }
 
 }
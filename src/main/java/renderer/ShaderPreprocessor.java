@@ -0,0 +1,151 @@
+package renderer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns a .glsl file into its stages. The file holds one section per stage, each starting with a line
+ * "#type vertex" or "#type fragment". Besides that it understands
+ * <ul>
+ * <li>#include "file", relative to the including file, expanded recursively anywhere in the file</li>
+ * <li>defines passed in for shader variants, inserted as #define lines right after each stage's #version</li>
+ * </ul>
+ * Any line ending is accepted. Touches neither GL nor stdout, so it can run on loader threads.
+ */
+public class ShaderPreprocessor {
+    private static final String TYPE = "#type";
+    private static final String INCLUDE = "#include";
+    private static final String VERSION = "#version";
+
+    private ShaderPreprocessor() {
+
+    }
+
+    public static ShaderSource process(String filepath, Map<String, String> defines) throws IOException {
+        return process(filepath, read(Paths.get(filepath).toAbsolutePath().normalize()), defines);
+    }
+
+    /**
+     * Preprocesses a source that was read elsewhere. Includes are still read from disk, relative to filepath.
+     */
+    public static ShaderSource process(String filepath, String source, Map<String, String> defines)
+            throws IOException {
+        Path file = Paths.get(filepath).toAbsolutePath().normalize();
+        List<Path> dependencies = new ArrayList<>();
+        if (Files.isRegularFile(file)) {
+            dependencies.add(file);
+        }
+        StringBuilder expanded = new StringBuilder(source.length());
+        expand(file, normalizeLineEndings(source), new ArrayList<>(), dependencies, expanded);
+
+        String vertex = null;
+        String fragment = null;
+        String[] lines = expanded.toString().split("\n", -1);
+        int i = 0;
+        while (i < lines.length) {
+            String line = lines[i].trim();
+            if (!line.startsWith(TYPE)) {
+                if (!line.isEmpty() && !line.startsWith("//")) {
+                    throw new IOException("'" + filepath + "': Unexpected '" + line + "' before the first #type");
+                }
+                i++;
+                continue;
+            }
+
+            String type = line.substring(TYPE.length()).trim();
+            StringBuilder stage = new StringBuilder();
+            i++;
+            while (i < lines.length && !lines[i].trim().startsWith(TYPE)) {
+                stage.append(lines[i]).append('\n');
+                i++;
+            }
+            String stageSource = insertDefines(stage.toString(), defines);
+            if (type.equals("vertex") && vertex == null) {
+                vertex = stageSource;
+            } else if (type.equals("fragment") && fragment == null) {
+                fragment = stageSource;
+            } else {
+                throw new IOException("'" + filepath + "': Unexpected token: '" + type + "'");
+            }
+        }
+        if (vertex == null || fragment == null) {
+            throw new IOException("'" + filepath + "': Expected a vertex and a fragment section");
+        }
+        return new ShaderSource(vertex, fragment, dependencies);
+    }
+
+    private static void expand(Path file, String source, List<Path> includeStack, List<Path> dependencies,
+                               StringBuilder out) throws IOException {
+        includeStack.add(file);
+        int start = 0;
+        while (start < source.length()) {
+            int end = source.indexOf('\n', start);
+            if (end < 0) {
+                end = source.length();
+            }
+            String line = source.substring(start, end);
+            String trimmed = line.trim();
+            if (trimmed.startsWith(INCLUDE)) {
+                Path included = resolveInclude(file, trimmed);
+                if (includeStack.contains(included)) {
+                    throw new IOException("'" + file + "': Include cycle through '" + included + "'");
+                }
+                if (!dependencies.contains(included)) {
+                    dependencies.add(included);
+                }
+                expand(included, read(included), includeStack, dependencies, out);
+            } else {
+                out.append(line).append('\n');
+            }
+            start = end + 1;
+        }
+        includeStack.remove(includeStack.size() - 1);
+    }
+
+    private static Path resolveInclude(Path file, String line) throws IOException {
+        String name = line.substring(INCLUDE.length()).trim();
+        if (name.length() < 2 || !(name.startsWith("\"") && name.endsWith("\"")
+                || name.startsWith("<") && name.endsWith(">"))) {
+            throw new IOException("'" + file + "': Malformed include '" + line + "'");
+        }
+        Path directory = file.getParent();
+        Path relative = Paths.get(name.substring(1, name.length() - 1));
+        return (directory != null ? directory.resolve(relative) : relative).toAbsolutePath().normalize();
+    }
+
+    private static String insertDefines(String stage, Map<String, String> defines) {
+        if (defines.isEmpty()) {
+            return stage;
+        }
+        // Sorted, so the same defines always produce the same source and hit the same cached program
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, String> define : new TreeMap<>(defines).entrySet()) {
+            lines.append("#define ").append(define.getKey()).append(' ').append(define.getValue()).append('\n');
+        }
+
+        // #version has to stay the first statement of the stage
+        int version = stage.indexOf(VERSION);
+        boolean versionFirst = version >= 0 && stage.substring(0, version).trim().isEmpty();
+        int insertAt = 0;
+        if (versionFirst) {
+            int eol = stage.indexOf('\n', version);
+            insertAt = eol < 0 ? stage.length() : eol + 1;
+        }
+        return stage.substring(0, insertAt) + lines + stage.substring(insertAt);
+    }
+
+    private static String normalizeLineEndings(String source) {
+        return source.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    private static String read(Path path) throws IOException {
+        return normalizeLineEndings(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+    }
+}
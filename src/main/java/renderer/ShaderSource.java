@@ -0,0 +1,36 @@
+package renderer;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The stages of a preprocessed shader, ready for glShaderSource: includes expanded, defines inserted and
+ * line endings normalized to LF. Immutable, so it can be built on any thread.
+ */
+public class ShaderSource {
+    private final String vertex;
+    private final String fragment;
+    private final List<Path> dependencies;
+
+    ShaderSource(String vertex, String fragment, List<Path> dependencies) {
+        this.vertex = vertex;
+        this.fragment = fragment;
+        this.dependencies = Collections.unmodifiableList(dependencies);
+    }
+
+    public String getVertex() {
+        return this.vertex;
+    }
+
+    public String getFragment() {
+        return this.fragment;
+    }
+
+    /**
+     * @return the absolute paths of the shader file itself, if it exists, and of every file it includes
+     */
+    public List<Path> getDependencies() {
+        return this.dependencies;
+    }
+}
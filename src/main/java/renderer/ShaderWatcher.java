@@ -0,0 +1,142 @@
+package renderer;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Hot reload for shaders. Once started, every watched shader is rebuilt when its file or any file it
+ * includes changes: a background thread reads and preprocesses the new source, and the compile and swap
+ * run on the render thread through the {@link UploadQueue}, between two frames. A shader that fails to
+ * compile keeps drawing with its previous program.
+ */
+public class ShaderWatcher {
+    // Editors often save in several steps, changes this close together are reloaded once
+    private static final long SETTLE_MILLIS = 50;
+
+    private static final Object lock = new Object();
+    private static final Map<Path, List<Shader>> shadersByFile = new HashMap<>();
+    private static final Set<Path> directories = new HashSet<>();
+    private static WatchService service;
+
+    private ShaderWatcher() {
+
+    }
+
+    /**
+     * Starts watching, shaders have to be registered with {@link #watch(Shader)} afterwards.
+     */
+    public static void start() {
+        synchronized (lock) {
+            if (service != null) {
+                return;
+            }
+            try {
+                service = FileSystems.getDefault().newWatchService();
+            } catch (IOException e) {
+                System.out.println("Warning: Shader hot reload unavailable: " + e.getMessage());
+                return;
+            }
+        }
+        Thread thread = new Thread(ShaderWatcher::run, "shader-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static boolean isRunning() {
+        synchronized (lock) {
+            return service != null;
+        }
+    }
+
+    /**
+     * Reloads the shader whenever one of its files changes. Does nothing unless the watcher was started.
+     */
+    public static void watch(Shader shader) {
+        synchronized (lock) {
+            if (service == null) {
+                return;
+            }
+            for (Path file : shader.getDependencies()) {
+                List<Shader> shaders = shadersByFile.computeIfAbsent(file, ignored -> new ArrayList<>());
+                if (!shaders.contains(shader)) {
+                    shaders.add(shader);
+                }
+                Path directory = file.getParent();
+                if (directory != null && directories.add(directory)) {
+                    try {
+                        directory.register(service, ENTRY_MODIFY, ENTRY_CREATE);
+                    } catch (IOException e) {
+                        directories.remove(directory);
+                        System.out.println("Warning: Couldn't watch '" + directory + "': " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Thread.sleep(SETTLE_MILLIS);
+                Set<Path> changed = new HashSet<>();
+                do {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path) {
+                            changed.add(directory.resolve((Path) event.context()).toAbsolutePath().normalize());
+                        }
+                    }
+                    key.reset();
+                } while ((key = service.poll(0, TimeUnit.MILLISECONDS)) != null);
+                reload(changed);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    private static void reload(Set<Path> changed) {
+        Set<Shader> affected = new LinkedHashSet<>();
+        synchronized (lock) {
+            for (Path file : changed) {
+                List<Shader> shaders = shadersByFile.get(file);
+                if (shaders != null) {
+                    affected.addAll(shaders);
+                }
+            }
+        }
+        for (Shader shader : affected) {
+            ShaderSource source;
+            try {
+                source = ShaderPreprocessor.process(shader.getFilePath(), shader.getDefines());
+            } catch (IOException e) {
+                System.out.println("ERROR: '" + shader.getFilePath() + "'\n\tShader reload failed: " + e.getMessage());
+                continue;
+            }
+            UploadQueue.submit(() -> {
+                if (shader.reload(source)) {
+                    // The includes may have changed as well
+                    watch(shader);
+                    System.out.println("Reloaded shader '" + shader.getFilePath() + "'");
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package renderer;
+
+/**
+ * A rectangular region of a texture. UV (u0, v0) is the top left corner and (u1, v1) the bottom right one.
+ */
+public class Sprite {
+    private final Texture texture;
+    private final float u0, v0, u1, v1;
+    private final int width, height;
+    private final String name;
+
+    /**
+     * The whole texture, named after its file.
+     */
+    public Sprite(Texture texture) {
+        this(texture, 0.0f, 0.0f, 1.0f, 1.0f, texture.getWidth(), texture.getHeight(), texture.getFilePath());
+    }
+
+    public Sprite(Texture texture, float u0, float v0, float u1, float v1, int width, int height) {
+        this(texture, u0, v0, u1, v1, width, height, null);
+    }
+
+    /**
+     * @param name how saved scenes refer to the sprite, null if it can't be saved by name
+     */
+    public Sprite(Texture texture, float u0, float v0, float u1, float v1, int width, int height, String name) {
+        this.texture = texture;
+        this.name = name;
+        this.u0 = u0;
+        this.v0 = v0;
+        this.u1 = u1;
+        this.v1 = v1;
+        this.width = width;
+        this.height = height;
+    }
+
+    public Texture getTexture() {
+        return this.texture;
+    }
+
+    public float getU0() {
+        return this.u0;
+    }
+
+    public float getV0() {
+        return this.v0;
+    }
+
+    public float getU1() {
+        return this.u1;
+    }
+
+    public float getV1() {
+        return this.v1;
+    }
+
+    /**
+     * @return the width of the region in pixels
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * @return the height of the region in pixels
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return the name saved scenes refer to the sprite by, or null
+     */
+    public String getName() {
+        return this.name;
+    }
+}
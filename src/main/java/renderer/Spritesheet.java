@@ -0,0 +1,47 @@
+package renderer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slices a texture laid out as a uniform grid of sprites, left to right and top to bottom.
+ */
+public class Spritesheet {
+    private final Texture texture;
+    private final List<Sprite> sprites;
+
+    public Spritesheet(Texture texture, int spriteWidth, int spriteHeight, int numSprites, int spacing) {
+        this.texture = texture;
+        this.sprites = new ArrayList<>(numSprites);
+
+        float texWidth = texture.getWidth();
+        float texHeight = texture.getHeight();
+        int currentX = 0;
+        int currentY = 0;
+        for (int i = 0; i < numSprites; i++) {
+            if (currentX + spriteWidth > texture.getWidth()) {
+                currentX = 0;
+                currentY += spriteHeight + spacing;
+            }
+            assert currentY + spriteHeight <= texture.getHeight() : "Error: Spritesheet runs past the texture: " + texture.getFilePath();
+
+            this.sprites.add(new Sprite(texture,
+                    currentX / texWidth, currentY / texHeight,
+                    (currentX + spriteWidth) / texWidth, (currentY + spriteHeight) / texHeight,
+                    spriteWidth, spriteHeight, texture.getFilePath() + "#" + i));
+            currentX += spriteWidth + spacing;
+        }
+    }
+
+    public Texture getTexture() {
+        return this.texture;
+    }
+
+    public Sprite getSprite(int index) {
+        return this.sprites.get(index);
+    }
+
+    public int size() {
+        return this.sprites.size();
+    }
+}
@@ -0,0 +1,217 @@
+package renderer;
+
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import util.Metrics;
+import util.Time;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.GL44.GL_MAP_PERSISTENT_BIT;
+import static org.lwjgl.opengl.GL44.glBufferStorage;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+/**
+ * GPU buffer for data that is rewritten every frame. Writes go straight from off-heap memory into memory
+ * mapped from the buffer, without glBufferData/glBufferSubData copies or intermediate Java arrays.
+ * <p>
+ * Where the context has glBufferStorage (GL 4.4 or ARB_buffer_storage) the buffer is mapped once,
+ * persistently, and used as a ring of {@link #FRAMES} regions: each frame writes into its own region, and a
+ * fence makes sure the GPU is done reading a region before it is written again. Elsewhere the buffer is
+ * orphaned whenever it runs full and every write maps just the range it needs, unsynchronized.
+ * <p>
+ * Must only be used on the thread owning the GL context.
+ */
+public class StreamingBuffer {
+    // Regions in the persistent ring, one per frame the GPU may lag behind
+    private static final int FRAMES = 3;
+
+    private static boolean persistentMappingAllowed = true;
+    private static long uploadedBytes = 0;
+    private static long lastFrameUploadedBytes = 0;
+    private static final int METRIC_UPLOADED_BYTES = Metrics.gauge("render.uploadedBytes");
+
+    private final int target;
+    private final int id;
+    private final int regionBytes;
+    private final boolean persistent;
+
+    // Persistent mode: address of the mapped ring, the region in use and a fence per region
+    private long mappedAddress;
+    private final long[] fences = new long[FRAMES];
+    private int region;
+    private long regionFrame;
+
+    // Write position inside the current region, or inside the whole buffer when orphaning
+    private int offset;
+    // Byte offset inside the buffer of the last mapped range
+    private int mappedOffset;
+
+    /**
+     * @param regionBytes the most one frame is expected to write, writes beyond it cost a fence wait
+     *                    or an orphaning
+     */
+    public StreamingBuffer(int target, int regionBytes) {
+        this.target = target;
+        this.regionBytes = regionBytes;
+        GLCapabilities caps = GL.getCapabilities();
+        this.persistent = persistentMappingAllowed && (caps.OpenGL44 || caps.GL_ARB_buffer_storage);
+
+        this.id = glGenBuffers();
+        GLStateCache.bindBuffer(target, this.id);
+        if (this.persistent) {
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            long size = (long) regionBytes * FRAMES;
+            if (caps.OpenGL44) {
+                glBufferStorage(target, size, flags);
+            } else {
+                ARBBufferStorage.glBufferStorage(target, size, flags);
+            }
+            ByteBuffer mapped = glMapBufferRange(target, 0, size, flags);
+            if (mapped == null) {
+                throw new IllegalStateException("Error: Could not map streaming buffer of " + size + " bytes");
+            }
+            this.mappedAddress = memAddress(mapped);
+            this.regionFrame = Time.getFrameCount();
+        } else {
+            glBufferData(target, regionBytes, GL_STREAM_DRAW);
+        }
+        this.region = 0;
+        this.offset = 0;
+    }
+
+    /**
+     * Decides the mode of buffers created afterwards, e.g. to compare persistent mapping against orphaning.
+     */
+    public static void setPersistentMappingAllowed(boolean allowed) {
+        persistentMappingAllowed = allowed;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public boolean isPersistent() {
+        return this.persistent;
+    }
+
+    /**
+     * Copies bytes from off-heap memory into the buffer.
+     *
+     * @param alignment the returned offset is a multiple of it, e.g. the vertex size for base vertex draws
+     * @return the byte offset inside the buffer the data was written to
+     */
+    public int write(long sourceAddress, int bytes, int alignment) {
+        memCopy(sourceAddress, this.map(bytes, alignment), bytes);
+        return this.unmap();
+    }
+
+    /**
+     * Maps room for bytes in the buffer, for data written straight into it instead of being copied from
+     * somewhere else, e.g. by several threads at once. Nothing else may touch the buffer until
+     * {@link #unmap()}.
+     *
+     * @param alignment the mapped offset is a multiple of it, e.g. the vertex size for base vertex draws
+     * @return the address to write the bytes to
+     */
+    public long map(int bytes, int alignment) {
+        assert bytes <= this.regionBytes : "Error: Writing " + bytes + " bytes into a region of " + this.regionBytes;
+        int start = (this.offset + alignment - 1) / alignment * alignment;
+        long address = this.persistent ? this.mapPersistent(bytes, start) : this.mapOrphaned(bytes, start);
+        uploadedBytes += bytes;
+        return address;
+    }
+
+    /**
+     * Ends the write started by {@link #map(int, int)}.
+     *
+     * @return the byte offset inside the buffer the data was written to
+     */
+    public int unmap() {
+        if (!this.persistent) {
+            GLStateCache.bindBuffer(this.target, this.id);
+            glUnmapBuffer(this.target);
+        }
+        return this.mappedOffset;
+    }
+
+    private long mapPersistent(int bytes, int start) {
+        long frame = Time.getFrameCount();
+        if (frame != this.regionFrame || start + bytes > this.regionBytes) {
+            this.nextRegion();
+            this.regionFrame = frame;
+            start = 0;
+        }
+        this.mappedOffset = this.region * this.regionBytes + start;
+        this.offset = start + bytes;
+        return this.mappedAddress + this.mappedOffset;
+    }
+
+    private void nextRegion() {
+        // Everything drawn from the region so far is submitted, fence it and wait for the next one to be free
+        if (this.fences[this.region] != 0) {
+            glDeleteSync(this.fences[this.region]);
+        }
+        this.fences[this.region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        this.region = (this.region + 1) % FRAMES;
+        long fence = this.fences[this.region];
+        if (fence != 0) {
+            int result;
+            do {
+                result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 1_000_000L);
+            } while (result == GL_TIMEOUT_EXPIRED);
+            glDeleteSync(fence);
+            this.fences[this.region] = 0;
+        }
+        this.offset = 0;
+    }
+
+    private long mapOrphaned(int bytes, int start) {
+        GLStateCache.bindBuffer(this.target, this.id);
+        if (start + bytes > this.regionBytes) {
+            // Hand the old storage to the driver, it stays alive until the GPU is done with it
+            glBufferData(this.target, this.regionBytes, GL_STREAM_DRAW);
+            start = 0;
+        }
+        ByteBuffer mapped = glMapBufferRange(this.target, start, bytes,
+                GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_UNSYNCHRONIZED_BIT);
+        if (mapped == null) {
+            throw new IllegalStateException("Error: Could not map " + bytes + " bytes of a streaming buffer");
+        }
+        this.mappedOffset = start;
+        this.offset = start + bytes;
+        return memAddress(mapped);
+    }
+
+    public void delete() {
+        if (this.persistent) {
+            GLStateCache.bindBuffer(this.target, this.id);
+            glUnmapBuffer(this.target);
+            for (int i = 0; i < FRAMES; i++) {
+                if (this.fences[i] != 0) {
+                    glDeleteSync(this.fences[i]);
+                    this.fences[i] = 0;
+                }
+            }
+        }
+        GLStateCache.deleteBuffer(this.id);
+    }
+
+    public static void endFrame() {
+        lastFrameUploadedBytes = uploadedBytes;
+        Metrics.set(METRIC_UPLOADED_BYTES, uploadedBytes);
+        uploadedBytes = 0;
+    }
+
+    /**
+     * @return bytes written into streaming buffers during the last completed frame
+     */
+    public static long getUploadedBytes() {
+        return lastFrameUploadedBytes;
+    }
+}
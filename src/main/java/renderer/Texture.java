@@ -1,60 +1,178 @@
 package renderer;
 
-import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import util.Profiler;
 
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+import static org.lwjgl.opengl.EXTTextureSRGB.GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT5_EXT;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.stb.STBImage.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage2D;
+import static org.lwjgl.opengl.GL21.GL_SRGB8;
+import static org.lwjgl.opengl.GL21.GL_SRGB8_ALPHA8;
+import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 
 public class Texture {
+    private static final int PROFILE_UPLOAD = Profiler.register("Texture.upload");
+
     private String filePath;
     private int texID;
+    private int width, height;
 
+    /**
+     * Loads the cooked version of an image, cooking it first if needed, see {@link TextureCooker}.
+     */
     public Texture(String filePath) {
         this.filePath = filePath;
 
-        // Generate texture on GPU
+        CookedTexture cooked = null;
+        try {
+            cooked = TextureCooker.load(filePath, isCompressionSupported());
+        } catch (IllegalStateException e) {
+            assert false : e.getMessage();
+        }
+        this.texID = glGenTextures();
+        if (cooked != null) {
+            this.upload(cooked);
+        }
+    }
+
+    /**
+     * Uploads a texture cooked ahead of time, straight from its mapped file.
+     */
+    public Texture(CookedTexture cooked) {
+        this.filePath = cooked.getPath().toString();
+        this.texID = glGenTextures();
+        this.upload(cooked);
+    }
+
+    /**
+     * Uploads an image decoded ahead of time, e.g. on a loader thread. The caller still owns the data.
+     */
+    public Texture(TextureData data) {
+        this(data, TextureParams.forImage(data.getFilePath()));
+    }
+
+    public Texture(TextureData data, TextureParams params) {
+        this.filePath = data.getFilePath();
         this.texID = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, this.texID);
-
-        // Set texture parameters
-        // Repeat the image in both directions
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
-        // When stretching image, pixelate
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-        // When shrinking image, pixelate
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-
-        IntBuffer width = BufferUtils.createIntBuffer(1);
-        IntBuffer height = BufferUtils.createIntBuffer(1);
-        IntBuffer channel = BufferUtils.createIntBuffer(1);
-        ByteBuffer image = stbi_load(filePath, width, height, channel, 0);
-        if (image != null) {
-            if (channel.get(0) == 4) {
-                glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width.get(0), height.get(0), 0,
-                        GL_RGBA, GL_UNSIGNED_BYTE, image);
-            } else if (channel.get(0) == 3) {
-                glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, width.get(0), height.get(0), 0,
-                        GL_RGB, GL_UNSIGNED_BYTE, image);
-            }else {
-                assert false : "Error: Texture image unknown channel: " + filePath;
+        this.upload(data, params);
+    }
+
+    /**
+     * @return whether cooked textures may be block compressed on this context, including as sRGB
+     */
+    public static boolean isCompressionSupported() {
+        GLCapabilities caps = GL.getCapabilities();
+        return caps.GL_EXT_texture_compression_s3tc && caps.GL_EXT_texture_sRGB;
+    }
+
+    private void applyParams(TextureParams params, int levels) {
+        GLStateCache.bindTexture(this.texID);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, params.getWrap());
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, params.getWrap());
+        int filter = params.getFilter();
+        int minFilter = filter;
+        if (levels > 1) {
+            minFilter = filter == GL_NEAREST ? GL_NEAREST_MIPMAP_NEAREST : GL_LINEAR_MIPMAP_LINEAR;
+        }
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, minFilter);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, filter);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels - 1);
+    }
+
+    private void upload(CookedTexture cooked) {
+        Profiler.begin(PROFILE_UPLOAD);
+        TextureParams params = cooked.getParams();
+        this.width = cooked.getWidth();
+        this.height = cooked.getHeight();
+        this.applyParams(params, cooked.getLevelCount());
+        for (int level = 0; level < cooked.getLevelCount(); level++) {
+            int levelWidth = cooked.getLevelWidth(level);
+            int levelHeight = cooked.getLevelHeight(level);
+            if (cooked.getFormat() == CookedTexture.FORMAT_BC3) {
+                int format = params.isSrgb() ? GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT5_EXT : GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+                glCompressedTexImage2D(GL_TEXTURE_2D, level, format, levelWidth, levelHeight, 0,
+                        cooked.getLevel(level));
+            } else {
+                glTexImage2D(GL_TEXTURE_2D, level, params.isSrgb() ? GL_SRGB8_ALPHA8 : GL_RGBA8,
+                        levelWidth, levelHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, cooked.getLevel(level));
             }
+        }
+        Profiler.end();
+    }
 
+    private void upload(TextureData data, TextureParams params) {
+        Profiler.begin(PROFILE_UPLOAD);
+        this.width = data.getWidth();
+        this.height = data.getHeight();
+        int levels = params.hasMipmaps() ? CookedTexture.levelCount(this.width, this.height) : 1;
+        this.applyParams(params, levels);
+        if (data.getChannels() == 4) {
+            glTexImage2D(GL_TEXTURE_2D, 0, params.isSrgb() ? GL_SRGB8_ALPHA8 : GL_RGBA8, this.width, this.height, 0,
+                    GL_RGBA, GL_UNSIGNED_BYTE, data.getPixels());
+        } else if (data.getChannels() == 3) {
+            // RGB rows aren't necessarily a multiple of 4 bytes long
+            glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+            glTexImage2D(GL_TEXTURE_2D, 0, params.isSrgb() ? GL_SRGB8 : GL_RGB8, this.width, this.height, 0,
+                    GL_RGB, GL_UNSIGNED_BYTE, data.getPixels());
+            glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
         } else {
-            assert false : "Error: Texture could not load image: " + filePath;
+            assert false : "Error: Texture image unknown channel: " + this.filePath;
+        }
+        if (levels > 1) {
+            glGenerateMipmap(GL_TEXTURE_2D);
         }
-        stbi_image_free(image);
-        glBindTexture(GL_TEXTURE_2D, 0);
+        Profiler.end();
     }
 
+    /**
+     * Creates a texture from tightly packed RGBA pixels, e.g. an atlas page.
+     */
+    public Texture(int width, int height, ByteBuffer pixels) {
+        this.filePath = "Generated";
+        this.width = width;
+        this.height = height;
+
+        this.texID = glGenTextures();
+        // Clamp so sprites on the border of the page don't sample the opposite edge, and no mipmaps so
+        // neighbouring sprites don't bleed into each other
+        this.applyParams(new TextureParams().setWrap(GL_CLAMP_TO_EDGE).setMipmaps(false), 1);
+
+        Profiler.begin(PROFILE_UPLOAD);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0,
+                GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+        Profiler.end();
+    }
     public void bind() {
-        glBindTexture(GL_TEXTURE_2D, this.texID);
+        GLStateCache.bindTexture(this.texID);
+    }
+
+    public void bind(int unit) {
+        GLStateCache.bindTexture(unit, this.texID);
     }
 
     public void unbind() {
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLStateCache.bindTexture(0);
+    }
+
+    public String getFilePath() {
+        return this.filePath;
+    }
+
+    public int getId() {
+        return this.texID;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
     }
 }
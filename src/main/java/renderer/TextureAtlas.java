@@ -0,0 +1,232 @@
+package renderer;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs many small images into a few large RGBA pages so batches can draw them without switching textures.
+ * Images are added with {@link #add(String, String)} and placed by {@link #pack()} using a shelf packer,
+ * tallest images first. Not thread safe; {@link #layout()} may run on a loader thread as long as only one
+ * thread uses the atlas at a time.
+ */
+public class TextureAtlas {
+    public static final int DEFAULT_PAGE_SIZE = 2048;
+    // Gap left between packed images so linear filtering doesn't pick up the neighbours
+    private static final int PADDING = 1;
+
+    private final int pageSize;
+    private final List<Image> pending;
+    // Pages filled by layout() and waiting for upload()
+    private final List<Page> laidOut;
+    private final Map<String, Sprite> sprites;
+    private final List<Texture> pages;
+    private long usedPixels;
+    private long pagePixels;
+
+    public TextureAtlas() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    public TextureAtlas(int pageSize) {
+        this.pageSize = pageSize;
+        this.pending = new ArrayList<>();
+        this.laidOut = new ArrayList<>();
+        this.sprites = new HashMap<>();
+        this.pages = new ArrayList<>();
+        this.usedPixels = 0;
+        this.pagePixels = 0;
+    }
+
+    /**
+     * Decodes an image and queues it for the next {@link #pack()}.
+     */
+    public void add(String name, String filePath) {
+        TextureData data;
+        try {
+            // Always expand to RGBA so every image can share a page
+            data = TextureData.load(filePath, 4);
+        } catch (IllegalStateException e) {
+            assert false : e.getMessage();
+            return;
+        }
+        this.add(name, data);
+    }
+
+    /**
+     * Queues an image decoded ahead of time. The atlas takes ownership of the data, which must be RGBA.
+     */
+    public void add(String name, TextureData data) {
+        assert data.getChannels() == 4 : "Error: TextureAtlas needs RGBA images: " + data.getFilePath();
+        this.pending.add(new Image(name, data));
+    }
+
+    /**
+     * Places every queued image on a page and uploads the pages to the GPU. Sprites handed out
+     * by a previous call stay valid.
+     */
+    public void pack() {
+        this.layout();
+        this.upload();
+    }
+
+    /**
+     * CPU half of {@link #pack()}: places the queued images and copies them into page memory.
+     * Doesn't touch GL, so loader threads can run it ahead of {@link #upload()}.
+     */
+    public void layout() {
+        this.pending.sort((a, b) -> Integer.compare(b.height, a.height));
+
+        for (Image image : this.pending) {
+            Page page = null;
+            int position = -1;
+            if (image.width > this.pageSize || image.height > this.pageSize) {
+                // Doesn't fit on a regular page, give it one of its own
+                page = new Page(image.width, image.height);
+                this.laidOut.add(page);
+                position = page.place(image.width, image.height);
+            } else {
+                for (int i = 0; i < this.laidOut.size() && position < 0; i++) {
+                    page = this.laidOut.get(i);
+                    position = page.place(image.width, image.height);
+                }
+                if (position < 0) {
+                    page = new Page(this.pageSize, this.pageSize);
+                    this.laidOut.add(page);
+                    position = page.place(image.width, image.height);
+                }
+            }
+            page.blit(image, position & 0xFFFF, position >>> 16);
+            image.data.free();
+        }
+        this.pending.clear();
+    }
+
+    /**
+     * GL half of {@link #pack()}: uploads the pages built by {@link #layout()} and creates their sprites.
+     */
+    public void upload() {
+        for (Page page : this.laidOut) {
+            Texture texture = new Texture(page.width, page.height, page.pixels);
+            this.pages.add(texture);
+            this.pagePixels += (long) page.width * page.height;
+            MemoryUtil.memFree(page.pixels);
+
+            for (int i = 0; i < page.images.size(); i++) {
+                Image image = page.images.get(i);
+                int x = page.positions.get(i) & 0xFFFF;
+                int y = page.positions.get(i) >>> 16;
+                this.sprites.put(image.name, new Sprite(texture,
+                        (float) x / page.width, (float) y / page.height,
+                        (float) (x + image.width) / page.width, (float) (y + image.height) / page.height,
+                        image.width, image.height, image.name));
+                this.usedPixels += (long) image.width * image.height;
+            }
+        }
+        this.laidOut.clear();
+    }
+
+    /**
+     * Frees pages built by {@link #layout()} without uploading them.
+     */
+    public void discardLayout() {
+        for (Page page : this.laidOut) {
+            MemoryUtil.memFree(page.pixels);
+        }
+        this.laidOut.clear();
+    }
+
+    public Sprite getSprite(String name) {
+        Sprite sprite = this.sprites.get(name);
+        assert sprite != null : "Error: TextureAtlas has no sprite named '" + name + "'";
+        return sprite;
+    }
+
+    public boolean hasSprite(String name) {
+        return this.sprites.containsKey(name);
+    }
+
+    public int getSpriteCount() {
+        return this.sprites.size();
+    }
+
+    public int getPageCount() {
+        return this.pages.size();
+    }
+
+    public Texture getPage(int index) {
+        return this.pages.get(index);
+    }
+
+    /**
+     * @return the fraction of page pixels covered by sprites, between 0 and 1
+     */
+    public float getOccupancy() {
+        return this.pagePixels == 0 ? 0.0f : (float) ((double) this.usedPixels / this.pagePixels);
+    }
+
+    private static class Image {
+        final String name;
+        final int width, height;
+        final TextureData data;
+
+        Image(String name, TextureData data) {
+            this.name = name;
+            this.width = data.getWidth();
+            this.height = data.getHeight();
+            this.data = data;
+        }
+    }
+
+    private static class Page {
+        final int width, height;
+        final ByteBuffer pixels;
+        final List<Image> images = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        int cursorX = 0, shelfY = 0, shelfHeight = 0;
+
+        Page(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = MemoryUtil.memCalloc(width * height * 4);
+        }
+
+        /**
+         * @return the position packed as (y << 16 | x), or -1 if the image doesn't fit
+         */
+        int place(int w, int h) {
+            int x = this.cursorX;
+            int y = this.shelfY;
+            int shelf = this.shelfHeight;
+            if (x + w > this.width) {
+                // Start a new shelf on top of the current one
+                x = 0;
+                y += shelf;
+                shelf = 0;
+            }
+            if (x + w > this.width || y + h > this.height) {
+                return -1;
+            }
+            this.cursorX = x + w + PADDING;
+            this.shelfY = y;
+            this.shelfHeight = Math.max(shelf, h + PADDING);
+            return y << 16 | x;
+        }
+
+        void blit(Image image, int x, int y) {
+            long src = MemoryUtil.memAddress(image.data.getPixels());
+            long dst = MemoryUtil.memAddress(this.pixels);
+            int rowBytes = image.width * 4;
+            for (int row = 0; row < image.height; row++) {
+                MemoryUtil.memCopy(src + (long) row * rowBytes,
+                        dst + ((long) (y + row) * this.width + x) * 4, rowBytes);
+            }
+            this.images.add(image);
+            this.positions.add(y << 16 | x);
+        }
+    }
+}
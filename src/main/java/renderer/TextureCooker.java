@@ -0,0 +1,345 @@
+package renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converts images into {@link CookedTexture} files: decoded once, mipmapped with an alpha weighted box
+ * filter and, if the image's {@link TextureParams} ask for it, compressed to S3TC DXT5 (BC3).
+ * <p>
+ * Images are cooked on first use into the cache directory and cooked again whenever the image or its
+ * properties file is newer than the cooked file. Cooking ahead of time, e.g. for a release, is
+ * <pre>
+ * java renderer.TextureCooker assets/images [output directory]
+ * </pre>
+ * or the cookAssets Gradle task. Doesn't touch GL, so it can run on loader threads.
+ */
+public class TextureCooker {
+    private static Path directory = Paths.get(".cache", "textures");
+
+    private TextureCooker() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: TextureCooker <image directory> [output directory]");
+            return;
+        }
+        if (args.length > 1) {
+            setDirectory(Paths.get(args[1]));
+        }
+        File[] files = new File(args[0]).listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+        if (files == null) {
+            throw new IOException("Could not list '" + args[0] + "'");
+        }
+        for (File file : files) {
+            TextureParams params = TextureParams.forImage(file.getPath());
+            Path cooked = cookedPathOf(file.getPath(), params.isCompressed());
+            cook(file.getPath(), params, params.isCompressed(), cooked);
+            System.out.println("Cooked '" + file.getPath() + "' to '" + cooked + "' (" + Files.size(cooked) + " bytes)");
+        }
+    }
+
+    /**
+     * Changes where cooked textures are read from and written to.
+     */
+    public static void setDirectory(Path cacheDirectory) {
+        directory = cacheDirectory;
+    }
+
+    /**
+     * Opens the cooked version of an image, cooking it first if it is missing or out of date.
+     *
+     * @param compressionSupported whether the GPU can sample BC3, see {@link Texture#isCompressionSupported()};
+     *                             images asking for compression are cooked uncompressed without it
+     * @throws IllegalStateException if the image can't be read or cooked
+     */
+    public static CookedTexture load(String imagePath, boolean compressionSupported) {
+        TextureParams params = TextureParams.forImage(imagePath);
+        boolean compress = params.isCompressed() && compressionSupported;
+        Path cooked = cookedPathOf(imagePath, compress);
+        try {
+            if (isUpToDate(imagePath, cooked)) {
+                try {
+                    return CookedTexture.open(cooked);
+                } catch (IOException e) {
+                    // Written by another version or damaged, cook it again below
+                }
+            }
+            cook(imagePath, params, compress, cooked);
+            return CookedTexture.open(cooked);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error: Couldn't cook texture '" + imagePath + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return where the cooked version of an image lives, mirroring the image's path below the cache directory
+     */
+    public static Path cookedPathOf(String imagePath, boolean compressed) {
+        Path image = Paths.get(imagePath).normalize();
+        if (image.getRoot() != null) {
+            image = image.getRoot().relativize(image);
+        }
+        return directory.resolve(image + (compressed ? ".bc3" : "") + ".ctex");
+    }
+
+    private static boolean isUpToDate(String imagePath, Path cooked) throws IOException {
+        if (!Files.isRegularFile(cooked)) {
+            return false;
+        }
+        long cookedTime = Files.getLastModifiedTime(cooked).toMillis();
+        Path sidecar = TextureParams.sidecarOf(imagePath);
+        return Files.getLastModifiedTime(Paths.get(imagePath)).toMillis() <= cookedTime
+                && (!Files.isRegularFile(sidecar) || Files.getLastModifiedTime(sidecar).toMillis() <= cookedTime);
+    }
+
+    /**
+     * Decodes, mipmaps and optionally compresses an image into a cooked file.
+     */
+    public static void cook(String imagePath, TextureParams params, boolean compress, Path out) throws IOException {
+        TextureData image;
+        try {
+            image = TextureData.load(imagePath, 4);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[][] levels = new byte[params.hasMipmaps() ? CookedTexture.levelCount(width, height) : 1][];
+        levels[0] = new byte[width * height * 4];
+        image.getPixels().get(levels[0]);
+        image.free();
+        for (int i = 1; i < levels.length; i++) {
+            levels[i] = downsample(levels[i - 1], Math.max(1, width >> (i - 1)), Math.max(1, height >> (i - 1)));
+        }
+
+        int format = compress ? CookedTexture.FORMAT_BC3 : CookedTexture.FORMAT_RGBA8;
+        int tableEnd = CookedTexture.HEADER_INTS * Integer.BYTES + levels.length * 8;
+        int[] offsets = new int[levels.length];
+        int size = tableEnd;
+        for (int i = 0; i < levels.length; i++) {
+            size = align(size);
+            offsets[i] = size;
+            size += CookedTexture.levelSize(format, Math.max(1, width >> i), Math.max(1, height >> i));
+        }
+
+        ByteBuffer file = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(CookedTexture.MAGIC).putInt(CookedTexture.VERSION).putInt(format)
+                .putInt(width).putInt(height).putInt(levels.length)
+                .putInt(params.getFilter()).putInt(params.getWrap())
+                .putInt(params.isSrgb() ? CookedTexture.FLAG_SRGB : 0);
+        for (int i = 0; i < levels.length; i++) {
+            int levelWidth = Math.max(1, width >> i);
+            int levelHeight = Math.max(1, height >> i);
+            file.putInt(offsets[i]).putInt(CookedTexture.levelSize(format, levelWidth, levelHeight));
+        }
+        for (int i = 0; i < levels.length; i++) {
+            file.position(offsets[i]);
+            if (compress) {
+                encodeBC3(levels[i], Math.max(1, width >> i), Math.max(1, height >> i), file);
+            } else {
+                file.put(levels[i]);
+            }
+        }
+        file.position(0);
+        write(out, file);
+    }
+
+    private static int align(int offset) {
+        int alignment = CookedTexture.LEVEL_ALIGNMENT;
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+
+    private static void write(Path out, ByteBuffer data) throws IOException {
+        // Written next to the final file and moved, so a crash never leaves half a texture behind
+        Path parent = out.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = parent.resolve(out.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        try {
+            Files.move(temporary, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, out, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Halves an RGBA image, averaging 2x2 texels. Colors are weighted by alpha, so fully transparent
+     * texels don't bleed their (usually black) color into the edges of a sprite.
+     */
+    static byte[] downsample(byte[] src, int width, int height) {
+        int dstWidth = Math.max(1, width >> 1);
+        int dstHeight = Math.max(1, height >> 1);
+        byte[] dst = new byte[dstWidth * dstHeight * 4];
+        for (int y = 0; y < dstHeight; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                int r = 0, g = 0, b = 0, a = 0, plainR = 0, plainG = 0, plainB = 0;
+                for (int i = 0; i < 4; i++) {
+                    int sx = Math.min(x * 2 + (i & 1), width - 1);
+                    int sy = Math.min(y * 2 + (i >> 1), height - 1);
+                    int p = (sy * width + sx) * 4;
+                    int alpha = src[p + 3] & 0xFF;
+                    r += (src[p] & 0xFF) * alpha;
+                    g += (src[p + 1] & 0xFF) * alpha;
+                    b += (src[p + 2] & 0xFF) * alpha;
+                    a += alpha;
+                    plainR += src[p] & 0xFF;
+                    plainG += src[p + 1] & 0xFF;
+                    plainB += src[p + 2] & 0xFF;
+                }
+                int d = (y * dstWidth + x) * 4;
+                if (a > 0) {
+                    dst[d] = (byte) ((r + a / 2) / a);
+                    dst[d + 1] = (byte) ((g + a / 2) / a);
+                    dst[d + 2] = (byte) ((b + a / 2) / a);
+                } else {
+                    dst[d] = (byte) ((plainR + 2) / 4);
+                    dst[d + 1] = (byte) ((plainG + 2) / 4);
+                    dst[d + 2] = (byte) ((plainB + 2) / 4);
+                }
+                dst[d + 3] = (byte) ((a + 2) / 4);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Compresses an RGBA image into DXT5 blocks. Endpoints are the corners of each block's color bounding
+     * box, which is fast and good enough for sprites; edges of blocks past the image repeat the last texel.
+     */
+    static void encodeBC3(byte[] rgba, int width, int height, ByteBuffer out) {
+        int[] block = new int[16 * 4];
+        for (int by = 0; by < height; by += 4) {
+            for (int bx = 0; bx < width; bx += 4) {
+                for (int i = 0; i < 16; i++) {
+                    int x = Math.min(bx + (i & 3), width - 1);
+                    int y = Math.min(by + (i >> 2), height - 1);
+                    int p = (y * width + x) * 4;
+                    for (int c = 0; c < 4; c++) {
+                        block[i * 4 + c] = rgba[p + c] & 0xFF;
+                    }
+                }
+                encodeAlphaBlock(block, out);
+                encodeColorBlock(block, out);
+            }
+        }
+    }
+
+    private static void encodeAlphaBlock(int[] block, ByteBuffer out) {
+        int min = 255, max = 0;
+        for (int i = 0; i < 16; i++) {
+            min = Math.min(min, block[i * 4 + 3]);
+            max = Math.max(max, block[i * 4 + 3]);
+        }
+        // With alpha0 > alpha1 the palette holds both endpoints and 6 values between them
+        int[] palette = new int[8];
+        palette[0] = max;
+        palette[1] = min;
+        for (int i = 2; i < 8; i++) {
+            palette[i] = ((8 - i) * max + (i - 1) * min) / 7;
+        }
+        long indices = 0;
+        if (max != min) {
+            for (int i = 0; i < 16; i++) {
+                indices |= (long) nearest(palette, block[i * 4 + 3]) << (3 * i);
+            }
+        }
+        out.put((byte) max).put((byte) min);
+        for (int i = 0; i < 6; i++) {
+            out.put((byte) (indices >>> (8 * i)));
+        }
+    }
+
+    private static int nearest(int[] palette, int value) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int distance = Math.abs(palette[i] - value);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static void encodeColorBlock(int[] block, ByteBuffer out) {
+        int[] min = {255, 255, 255};
+        int[] max = {0, 0, 0};
+        for (int i = 0; i < 16; i++) {
+            for (int c = 0; c < 3; c++) {
+                min[c] = Math.min(min[c], block[i * 4 + c]);
+                max[c] = Math.max(max[c], block[i * 4 + c]);
+            }
+        }
+        // Inset the box a little, the extremes are rarely worth an endpoint each
+        for (int c = 0; c < 3; c++) {
+            int inset = (max[c] - min[c]) >> 4;
+            min[c] += inset;
+            max[c] -= inset;
+        }
+        int color0 = to565(max);
+        int color1 = to565(min);
+        if (color0 < color1) {
+            int swap = color0;
+            color0 = color1;
+            color1 = swap;
+        }
+
+        int indices = 0;
+        if (color0 != color1) {
+            int[][] palette = new int[4][];
+            palette[0] = from565(color0);
+            palette[1] = from565(color1);
+            palette[2] = new int[3];
+            palette[3] = new int[3];
+            for (int c = 0; c < 3; c++) {
+                palette[2][c] = (2 * palette[0][c] + palette[1][c]) / 3;
+                palette[3][c] = (palette[0][c] + 2 * palette[1][c]) / 3;
+            }
+            for (int i = 0; i < 16; i++) {
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int p = 0; p < 4; p++) {
+                    int dr = palette[p][0] - block[i * 4];
+                    int dg = palette[p][1] - block[i * 4 + 1];
+                    int db = palette[p][2] - block[i * 4 + 2];
+                    int distance = dr * dr + dg * dg + db * db;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = p;
+                    }
+                }
+                indices |= best << (2 * i);
+            }
+        }
+        out.putShort((short) color0).putShort((short) color1).putInt(indices);
+    }
+
+    private static int to565(int[] rgb) {
+        return ((rgb[0] * 31 + 127) / 255) << 11 | ((rgb[1] * 63 + 127) / 255) << 5 | (rgb[2] * 31 + 127) / 255;
+    }
+
+    private static int[] from565(int color) {
+        int r = (color >> 11) & 31;
+        int g = (color >> 5) & 63;
+        int b = color & 31;
+        return new int[]{(r << 3) | (r >> 2), (g << 2) | (g >> 4), (b << 3) | (b >> 2)};
+    }
+}
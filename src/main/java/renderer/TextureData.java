@@ -0,0 +1,78 @@
+package renderer;
+
+import org.lwjgl.system.MemoryStack;
+import util.Profiler;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.stb.STBImage.*;
+
+/**
+ * Decoded pixels of an image, ready to be uploaded by a {@link Texture}. Decoding doesn't touch GL,
+ * so it can run on any thread; the pixels must be released with {@link #free()} once uploaded.
+ */
+public class TextureData {
+    private static final int PROFILE_DECODE = Profiler.register("Texture.decode");
+
+    private final String filePath;
+    private final int width, height, channels;
+    private ByteBuffer pixels;
+
+    private TextureData(String filePath, int width, int height, int channels, ByteBuffer pixels) {
+        this.filePath = filePath;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.pixels = pixels;
+    }
+
+    /**
+     * @param desiredChannels number of channels to expand the image to, or 0 to keep the file's own
+     * @throws IllegalStateException if the image can't be read or decoded
+     */
+    public static TextureData load(String filePath, int desiredChannels) {
+        Profiler.begin(PROFILE_DECODE);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer width = stack.mallocInt(1);
+            IntBuffer height = stack.mallocInt(1);
+            IntBuffer channel = stack.mallocInt(1);
+            ByteBuffer image = stbi_load(filePath, width, height, channel, desiredChannels);
+            if (image == null) {
+                throw new IllegalStateException("Error: Texture could not load image: " + filePath
+                        + " (" + stbi_failure_reason() + ")");
+            }
+            int channels = desiredChannels != 0 ? desiredChannels : channel.get(0);
+            return new TextureData(filePath, width.get(0), height.get(0), channels, image);
+        } finally {
+            Profiler.end();
+        }
+    }
+
+    public String getFilePath() {
+        return this.filePath;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getChannels() {
+        return this.channels;
+    }
+
+    public ByteBuffer getPixels() {
+        return this.pixels;
+    }
+
+    public void free() {
+        if (this.pixels != null) {
+            stbi_image_free(this.pixels);
+            this.pixels = null;
+        }
+    }
+}
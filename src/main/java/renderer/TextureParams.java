@@ -0,0 +1,113 @@
+package renderer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_REPEAT;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+
+/**
+ * How a texture is sampled and stored. Defaults to linear filtering, repeating, mipmapped, linear color
+ * and uncompressed. An image can override them with a properties file next to it, named like the image
+ * plus ".properties", e.g. "Natsuki.png.properties":
+ * <pre>
+ * filter=nearest       # or linear
+ * wrap=clamp           # or repeat
+ * srgb=true            # sampled as sRGB, the framebuffer has to be sRGB as well
+ * mipmaps=false
+ * compress=true        # block compressed where the GPU supports it
+ * </pre>
+ */
+public class TextureParams {
+    public static final String SIDECAR_EXTENSION = ".properties";
+
+    private int filter = GL_LINEAR;
+    private int wrap = GL_REPEAT;
+    private boolean srgb = false;
+    private boolean mipmaps = true;
+    private boolean compress = false;
+
+    /**
+     * @return the defaults, overridden by the image's properties file if it has one
+     * @throws IllegalStateException if the properties file exists but can't be read
+     */
+    public static TextureParams forImage(String imagePath) {
+        TextureParams params = new TextureParams();
+        Path sidecar = sidecarOf(imagePath);
+        if (!Files.isRegularFile(sidecar)) {
+            return params;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(sidecar)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error: Couldn't read texture parameters '" + sidecar + "'", e);
+        }
+        String filter = properties.getProperty("filter", "linear");
+        params.filter = filter.equals("nearest") ? GL_NEAREST : GL_LINEAR;
+        String wrap = properties.getProperty("wrap", "repeat");
+        params.wrap = wrap.equals("clamp") ? GL_CLAMP_TO_EDGE : GL_REPEAT;
+        params.srgb = Boolean.parseBoolean(properties.getProperty("srgb", "false"));
+        params.mipmaps = Boolean.parseBoolean(properties.getProperty("mipmaps", "true"));
+        params.compress = Boolean.parseBoolean(properties.getProperty("compress", "false"));
+        return params;
+    }
+
+    public static Path sidecarOf(String imagePath) {
+        return Paths.get(imagePath + SIDECAR_EXTENSION);
+    }
+
+    public TextureParams setFilter(int filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public TextureParams setWrap(int wrap) {
+        this.wrap = wrap;
+        return this;
+    }
+
+    public TextureParams setSrgb(boolean srgb) {
+        this.srgb = srgb;
+        return this;
+    }
+
+    public TextureParams setMipmaps(boolean mipmaps) {
+        this.mipmaps = mipmaps;
+        return this;
+    }
+
+    public TextureParams setCompress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
+    /**
+     * @return GL_LINEAR or GL_NEAREST, used for magnification and between the texels of a mip level
+     */
+    public int getFilter() {
+        return this.filter;
+    }
+
+    public int getWrap() {
+        return this.wrap;
+    }
+
+    public boolean isSrgb() {
+        return this.srgb;
+    }
+
+    public boolean hasMipmaps() {
+        return this.mipmaps;
+    }
+
+    public boolean isCompressed() {
+        return this.compress;
+    }
+}
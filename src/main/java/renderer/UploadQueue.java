@@ -0,0 +1,47 @@
+package renderer;
+
+import util.Time;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hands GL work from loader threads to the render thread. Any thread may {@link #submit(Runnable)};
+ * the render thread drains the queue once per frame within a time budget, so a burst of finished
+ * loads is spread over several frames instead of causing a hitch.
+ */
+public class UploadQueue {
+    private static final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private UploadQueue() {
+
+    }
+
+    public static void submit(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Runs queued uploads until the queue is empty or the budget is spent. At least one upload runs
+     * per call, so a single upload larger than the budget can't starve the queue.
+     *
+     * @return the number of uploads that ran
+     */
+    public static int process(long budgetNanos) {
+        long deadline = Time.getNanos() + budgetNanos;
+        int count = 0;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            count++;
+            if (Time.getNanos() >= deadline) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    public static int size() {
+        return tasks.size();
+    }
+}
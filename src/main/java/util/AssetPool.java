@@ -0,0 +1,265 @@
+package util;
+
+import renderer.Shader;
+import renderer.ShaderWatcher;
+import renderer.Texture;
+import renderer.TextureAtlas;
+import renderer.TextureCooker;
+import renderer.TextureData;
+import renderer.UploadQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads each shader, texture and atlas once and hands out the shared instance afterwards.
+ * Assets are keyed by canonical path, so "./assets/a.png" and "assets/a.png" are the same asset.
+ * Must only be used from the thread owning the GL context.
+ * <p>
+ * The loadXxxAsync variants read and decode on a pool of loader threads and hand the GL upload to the
+ * {@link UploadQueue}; their futures complete on the render thread once the asset is usable.
+ */
+public class AssetPool {
+    private static final int LOADER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static final Map<String, Shader> shaders = new HashMap<>();
+    private static final Map<String, Texture> textures = new HashMap<>();
+    private static final Map<String, TextureAtlas> atlases = new HashMap<>();
+
+    private static final Map<String, CompletableFuture<Shader>> pendingShaders = new HashMap<>();
+    private static final Map<String, CompletableFuture<Texture>> pendingTextures = new HashMap<>();
+    private static final Map<String, CompletableFuture<TextureAtlas>> pendingAtlases = new HashMap<>();
+
+    private static final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, new LoaderThreadFactory());
+
+    private static int hits = 0;
+    private static int misses = 0;
+
+    private AssetPool() {
+
+    }
+
+    public static Shader getShader(String resourceName) {
+        String key = canonicalPath(resourceName);
+        Shader shader = shaders.get(key);
+        if (shader != null) {
+            hits++;
+            return shader;
+        }
+        misses++;
+        shader = new Shader(resourceName);
+        shader.compile();
+        ShaderWatcher.watch(shader);
+        shaders.put(key, shader);
+        return shader;
+    }
+
+    public static Texture getTexture(String resourceName) {
+        String key = canonicalPath(resourceName);
+        Texture texture = textures.get(key);
+        if (texture != null) {
+            hits++;
+            return texture;
+        }
+        misses++;
+        texture = new Texture(resourceName);
+        textures.put(key, texture);
+        return texture;
+    }
+
+    /**
+     * Packs every png directly inside a directory into an atlas. Sprites are named after their file name.
+     */
+    public static TextureAtlas getAtlas(String directory) {
+        String key = canonicalPath(directory);
+        TextureAtlas atlas = atlases.get(key);
+        if (atlas != null) {
+            hits++;
+            return atlas;
+        }
+        misses++;
+        atlas = new TextureAtlas();
+        for (File file : listImages(directory)) {
+            atlas.add(file.getName(), file.getPath());
+        }
+        atlas.pack();
+        atlases.put(key, atlas);
+        return atlas;
+    }
+
+    public static CompletableFuture<Shader> loadShaderAsync(String resourceName) {
+        // Reading and splitting the source doesn't need GL, only compiling does
+        return loadAsync(canonicalPath(resourceName), shaders, pendingShaders,
+                () -> CompletableFuture.supplyAsync(() -> new Shader(resourceName), loader),
+                shader -> {
+                    shader.compile();
+                    ShaderWatcher.watch(shader);
+                    return shader;
+                },
+                shader -> {
+                });
+    }
+
+    /**
+     * Asynchronous {@link #getTexture(String)}. Cooking, if the image wasn't cooked yet, and mapping the
+     * cooked file run on a loader thread, the render thread only uploads from the mapping.
+     */
+    public static CompletableFuture<Texture> loadTextureAsync(String resourceName) {
+        // Capabilities are only known on the render thread
+        boolean compressionSupported = Texture.isCompressionSupported();
+        return loadAsync(canonicalPath(resourceName), textures, pendingTextures,
+                () -> CompletableFuture.supplyAsync(
+                        () -> TextureCooker.load(resourceName, compressionSupported), loader),
+                Texture::new,
+                cooked -> {
+                });
+    }
+
+    /**
+     * Asynchronous {@link #getAtlas(String)}. Images are decoded in parallel, one loader task each,
+     * and the pages are laid out on a loader thread as well, leaving only the page upload to the render thread.
+     */
+    public static CompletableFuture<TextureAtlas> loadAtlasAsync(String directory) {
+        return loadAsync(canonicalPath(directory), atlases, pendingAtlases,
+                () -> {
+                    File[] files = listImages(directory);
+                    List<CompletableFuture<TextureData>> decodes = new ArrayList<>(files.length);
+                    for (File file : files) {
+                        decodes.add(CompletableFuture.supplyAsync(() -> TextureData.load(file.getPath(), 4), loader));
+                    }
+                    return CompletableFuture.allOf(decodes.toArray(new CompletableFuture<?>[0]))
+                            .whenComplete((ignored, error) -> {
+                                if (error != null) {
+                                    // Don't leak the images that did decode
+                                    for (CompletableFuture<TextureData> decode : decodes) {
+                                        decode.thenAccept(TextureData::free);
+                                    }
+                                }
+                            })
+                            .thenApplyAsync(ignored -> {
+                                TextureAtlas atlas = new TextureAtlas();
+                                for (int i = 0; i < files.length; i++) {
+                                    atlas.add(files[i].getName(), decodes.get(i).join());
+                                }
+                                atlas.layout();
+                                return atlas;
+                            }, loader);
+                },
+                atlas -> {
+                    atlas.upload();
+                    return atlas;
+                },
+                TextureAtlas::discardLayout);
+    }
+
+    /**
+     * Shared tail of the asynchronous loads. Decoding runs wherever the decode future runs, the upload
+     * and all bookkeeping run on the render thread through the {@link UploadQueue}.
+     *
+     * @param discard releases decoded data that lost the race against a synchronous load of the same asset
+     */
+    private static <D, T> CompletableFuture<T> loadAsync(String key, Map<String, T> loaded,
+                                                         Map<String, CompletableFuture<T>> pending,
+                                                         Supplier<CompletableFuture<D>> decode,
+                                                         Function<D, T> upload, Consumer<D> discard) {
+        T asset = loaded.get(key);
+        if (asset != null) {
+            hits++;
+            return CompletableFuture.completedFuture(asset);
+        }
+        CompletableFuture<T> result = pending.get(key);
+        if (result != null) {
+            hits++;
+            return result;
+        }
+        misses++;
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pending.put(key, future);
+        decode.get().whenComplete((decoded, error) -> UploadQueue.submit(() -> {
+            pending.remove(key);
+            if (error != null) {
+                future.completeExceptionally(error);
+                return;
+            }
+            T existing = loaded.get(key);
+            if (existing != null) {
+                discard.accept(decoded);
+                future.complete(existing);
+                return;
+            }
+            try {
+                T uploaded = upload.apply(decoded);
+                loaded.put(key, uploaded);
+                future.complete(uploaded);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }));
+        return future;
+    }
+
+    private static File[] listImages(String directory) {
+        File[] files = new File(directory).listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+        assert files != null : "Error: Could not list atlas directory '" + directory + "'";
+        return files != null ? files : new File[0];
+    }
+
+    private static String canonicalPath(String resourceName) {
+        File file = new File(resourceName);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    public static int getHits() {
+        return hits;
+    }
+
+    public static int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of asynchronous loads that haven't completed yet
+     */
+    public static int getPendingCount() {
+        return pendingShaders.size() + pendingTextures.size() + pendingAtlases.size();
+    }
+
+    public static void printStats() {
+        System.out.println("AssetPool: " + hits + " hits, " + misses + " misses, "
+                + shaders.size() + " shaders, " + textures.size() + " textures");
+        for (Map.Entry<String, TextureAtlas> entry : atlases.entrySet()) {
+            TextureAtlas atlas = entry.getValue();
+            System.out.println("\tatlas '" + entry.getKey() + "': " + atlas.getSpriteCount() + " sprites on "
+                    + atlas.getPageCount() + " pages, " + Math.round(atlas.getOccupancy() * 100.0f) + "% occupied");
+        }
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "asset-loader-" + this.count.incrementAndGet());
+            // Never keep the game alive just because a load is in flight
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
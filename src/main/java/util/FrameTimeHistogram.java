@@ -0,0 +1,75 @@
+package util;
+
+/**
+ * Fixed bucket histogram of frame times. Recording is allocation free and constant time, percentiles
+ * are exact to the bucket width (0.1 ms) up to 100 ms; longer frames share one overflow bucket.
+ */
+public class FrameTimeHistogram {
+    private static final long BUCKET_NANOS = 100_000L;
+    private static final int NUM_BUCKETS = 1000;
+
+    private final long[] buckets = new long[NUM_BUCKETS + 1];
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    public void record(long frameNanos) {
+        int bucket = (int) Math.min(Math.max(frameNanos, 0) / BUCKET_NANOS, NUM_BUCKETS);
+        this.buckets[bucket]++;
+        this.count++;
+        this.totalNanos += frameNanos;
+        this.maxNanos = Math.max(this.maxNanos, frameNanos);
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99 for p99
+     * @return the upper edge of the bucket holding the percentile, in milliseconds, or 0 when empty
+     */
+    public double getPercentileMillis(double percentile) {
+        if (this.count == 0) {
+            return 0.0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * this.count);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += this.buckets[i];
+            if (seen >= rank) {
+                return (i + 1) * BUCKET_NANOS * 1E-6;
+            }
+        }
+        return this.maxNanos * 1E-6;
+    }
+
+    public double getP50Millis() {
+        return this.getPercentileMillis(50.0);
+    }
+
+    public double getP95Millis() {
+        return this.getPercentileMillis(95.0);
+    }
+
+    public double getP99Millis() {
+        return this.getPercentileMillis(99.0);
+    }
+
+    public double getMeanMillis() {
+        return this.count == 0 ? 0.0 : (double) this.totalNanos / this.count * 1E-6;
+    }
+
+    public double getMaxMillis() {
+        return this.maxNanos * 1E-6;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = 0;
+        }
+        this.count = 0;
+        this.totalNanos = 0;
+        this.maxNanos = 0;
+    }
+}
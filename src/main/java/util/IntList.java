@@ -0,0 +1,75 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, so hot paths can collect ids without boxing. Reuse one instance
+ * and {@link #clear()} it instead of creating a new one per query.
+ */
+public class IntList {
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        this.values = new int[Math.max(capacity, 1)];
+        this.size = 0;
+    }
+
+    public void add(int value) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+        this.values[this.size++] = value;
+    }
+
+    public int get(int index) {
+        assert index < this.size : "Error: Index " + index + " out of bounds for size " + this.size;
+        return this.values[index];
+    }
+
+    public void set(int index, int value) {
+        assert index < this.size : "Error: Index " + index + " out of bounds for size " + this.size;
+        this.values[index] = value;
+    }
+
+    /**
+     * Removes the value at the index by moving the last value into its place.
+     */
+    public int swapRemove(int index) {
+        int value = this.values[index];
+        this.values[index] = this.values[--this.size];
+        return value;
+    }
+
+    /**
+     * @return the index of the first occurrence of the value, or -1
+     */
+    public int indexOf(int value) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void sort() {
+        Arrays.sort(this.values, 0, this.size);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+}
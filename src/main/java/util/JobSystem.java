@@ -0,0 +1,124 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Work stealing pool for CPU work that doesn't touch GL. {@link #parallelFor(int, int, RangeTask)} splits a
+ * loop over the workers and returns once every part is done; {@link #schedule(Runnable, CompletableFuture[])}
+ * runs a job once the jobs it depends on have finished. GL calls stay on the thread owning the context.
+ * <p>
+ * With a thread count of 1 every job runs inline on the calling thread, which keeps a frame deterministic
+ * and is useful for comparing against the parallel run.
+ */
+public class JobSystem {
+    private static int threadCount = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool;
+
+    private JobSystem() {
+
+    }
+
+    /**
+     * A part of a loop, covering the indices from (inclusive) to (exclusive).
+     */
+    public interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Changes the number of threads jobs run on. Must not be called while jobs are running.
+     */
+    public static synchronized void setThreadCount(int threads) {
+        assert threads > 0 : "Error: Thread count must be positive, got " + threads;
+        if (threads == threadCount) {
+            return;
+        }
+        threadCount = threads;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static int getThreadCount() {
+        return threadCount;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(threadCount, JobSystem::newWorker, null, false);
+        }
+        return pool;
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("job-worker-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @return where to run jobs, the calling thread itself with a thread count of 1
+     */
+    public static Executor executor() {
+        return threadCount == 1 ? Runnable::run : pool();
+    }
+
+    /**
+     * Runs the job after all dependencies completed. A failed dependency fails the job without running it.
+     */
+    public static CompletableFuture<Void> schedule(Runnable job, CompletableFuture<?>... dependencies) {
+        if (dependencies.length == 0) {
+            return CompletableFuture.runAsync(job, executor());
+        }
+        return CompletableFuture.allOf(dependencies).thenRunAsync(job, executor());
+    }
+
+    /**
+     * Runs the task over [0, count) in parts of at least minChunk indices, in parallel, and waits for all
+     * of them. Parts may run in any order and on any worker, so the task must only write to its own range.
+     */
+    public static void parallelFor(int count, int minChunk, RangeTask task) {
+        if (count <= 0) {
+            return;
+        }
+        int chunk = Math.max(minChunk, 1);
+        if (threadCount == 1 || count <= chunk) {
+            task.run(0, count);
+            return;
+        }
+        // A few parts per worker, so stealing can even out parts that take longer
+        chunk = Math.max(chunk, count / (threadCount * 4));
+        pool().invoke(new RangeAction(task, 0, count, chunk));
+    }
+
+    private static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task;
+        private final int from, to, chunk;
+
+        RangeAction(RangeTask task, int from, int to, int chunk) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.chunk) {
+                this.task.run(this.from, this.to);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new RangeAction(this.task, this.from, middle, this.chunk),
+                    new RangeAction(this.task, middle, this.to, this.chunk));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package util;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Feeds JVM telemetry from the management beans into {@link Metrics}: heap use, how fast the game
+ * allocates, and every garbage collection with its duration. Collections are reported by the collectors'
+ * notifications as they happen, the rest is sampled by {@link Metrics#endFrame()}.
+ * <p>
+ * Allocation is counted per thread, which HotSpot supports through com.sun.management; elsewhere the
+ * allocation gauges stay at 0. Bytes allocated by threads that ended between two samples are missed.
+ * Collection durations come from the collectors in whole milliseconds, and for concurrent collectors
+ * include the phases that ran alongside the game, so they are an upper bound on the pause.
+ */
+class JvmMetrics {
+    private static final int HEAP_USED = Metrics.gauge("jvm.heap.usedBytes");
+    private static final int HEAP_COMMITTED = Metrics.gauge("jvm.heap.committedBytes");
+    private static final int HEAP_MAX = Metrics.gauge("jvm.heap.maxBytes");
+    private static final int ALLOCATION_RATE = Metrics.gauge("jvm.alloc.bytesPerSecond");
+    private static final int RENDER_THREAD_ALLOCATION = Metrics.gauge("jvm.alloc.renderThreadBytesPerFrame");
+    private static final int THREADS = Metrics.gauge("jvm.threads");
+    private static final int GC_COUNT = Metrics.counter("jvm.gc.count");
+    private static final int GC_MILLIS = Metrics.counter("jvm.gc.millis");
+    private static final int GC_DURATION = Metrics.histogram("jvm.gc.duration");
+
+    // Durations reported by the collectors since the last frame, waiting for the render thread
+    private static final long[] pendingDurations = new long[64];
+    private static int pendingCount = 0;
+
+    private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean allocation = allocationBean();
+    // Bytes allocated by each thread at the latest and the sample before, swapped every sample
+    private static Map<Long, Long> allocatedByThread = new HashMap<>();
+    private static Map<Long, Long> allocatedBefore = new HashMap<>();
+    private static long renderThreadId = -1;
+    private static long renderThreadAllocated = 0;
+
+    static {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                    String type = notification.getType();
+                    if (type.equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                        CompositeData data = (CompositeData) notification.getUserData();
+                        collected(GarbageCollectionNotificationInfo.from(data).getGcInfo().getDuration());
+                    }
+                }, null, null);
+            }
+        }
+    }
+
+    private JvmMetrics() {
+
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+                if (bean.isThreadAllocatedMemorySupported()) {
+                    bean.setThreadAllocatedMemoryEnabled(true);
+                    return bean;
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            // Not available on this VM, the allocation gauges stay at 0
+        }
+        return null;
+    }
+
+    // Called on the collector's notification thread
+    private static void collected(long durationMillis) {
+        Metrics.increment(GC_COUNT);
+        Metrics.add(GC_MILLIS, durationMillis);
+        synchronized (pendingDurations) {
+            if (pendingCount < pendingDurations.length) {
+                pendingDurations[pendingCount++] = durationMillis * 1_000_000L;
+            }
+        }
+    }
+
+    /**
+     * Records the collections reported since the last frame, and what the render thread allocated during
+     * the frame. That measurement itself allocates a few dozen bytes on Java 8.
+     */
+    static void endFrame() {
+        synchronized (pendingDurations) {
+            for (int i = 0; i < pendingCount; i++) {
+                Metrics.record(GC_DURATION, pendingDurations[i]);
+            }
+            pendingCount = 0;
+        }
+
+        if (allocation != null) {
+            if (renderThreadId < 0) {
+                renderThreadId = Thread.currentThread().getId();
+                renderThreadAllocated = allocation.getThreadAllocatedBytes(renderThreadId);
+            }
+            long allocated = allocation.getThreadAllocatedBytes(renderThreadId);
+            Metrics.set(RENDER_THREAD_ALLOCATION, allocated - renderThreadAllocated);
+            renderThreadAllocated = allocated;
+        }
+    }
+
+    /**
+     * Samples the heap and the allocation of every thread, once per report interval.
+     */
+    static void sample(long intervalNanos) {
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        Metrics.set(HEAP_USED, heap.getUsed());
+        Metrics.set(HEAP_COMMITTED, heap.getCommitted());
+        Metrics.set(HEAP_MAX, heap.getMax());
+        Metrics.set(THREADS, threads.getThreadCount());
+
+        if (allocation != null) {
+            long[] ids = allocation.getAllThreadIds();
+            long[] bytes = allocation.getThreadAllocatedBytes(ids);
+            long allocated = 0;
+            Map<Long, Long> previous = allocatedByThread;
+            allocatedByThread = allocatedBefore;
+            allocatedBefore = previous;
+            allocatedByThread.clear();
+            for (int i = 0; i < ids.length; i++) {
+                // -1 for threads that ended after the ids were taken
+                if (bytes[i] < 0) {
+                    continue;
+                }
+                Long before = previous.get(ids[i]);
+                allocated += bytes[i] - (before != null ? before : 0L);
+                allocatedByThread.put(ids[i], bytes[i]);
+            }
+            // The first sample would count everything since startup
+            if (!previous.isEmpty()) {
+                Metrics.set(ALLOCATION_RATE, allocated / (intervalNanos * 1E-9));
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of runtime metrics: counters that only go up, gauges that hold their latest value, and
+ * histograms of durations. Ids come from {@link #counter(String)}, {@link #gauge(String)} and
+ * {@link #histogram(String)}, which like {@link Profiler#register(String)} should be called once and kept in
+ * a static field. Recording never allocates. Counters may be added to from any thread, gauges and histograms
+ * only from the render thread.
+ * <p>
+ * {@link #endFrame()} takes a snapshot of every metric at the end of each frame. Once per
+ * {@link #REPORT_INTERVAL_NANOS report interval} the JVM is sampled through {@link JvmMetrics} and every
+ * histogram is summarized and starts over, so percentiles describe the last interval rather than the whole
+ * run. Other threads read the snapshot through {@link #copySnapshot(MetricsSnapshot)} or {@link #toJson()},
+ * e.g. the {@link MetricsServer}, and {@link #setLog(Path)} appends one snapshot per interval to a file.
+ */
+public class Metrics {
+    public static final long REPORT_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int CAPACITY = 256;
+
+    private static final Registry counterRegistry = new Registry("counter");
+    private static final Registry gaugeRegistry = new Registry("gauge");
+    private static final Registry histogramRegistry = new Registry("histogram");
+
+    private static final AtomicLongArray counters = new AtomicLongArray(CAPACITY);
+    private static final double[] gauges = new double[CAPACITY];
+    private static final FrameTimeHistogram[] histograms = new FrameTimeHistogram[CAPACITY];
+    private static final long[] lastNanos = new long[CAPACITY];
+
+    // Filled by the render thread, then copied into the published one for everybody else
+    private static final MetricsSnapshot current = new MetricsSnapshot(CAPACITY);
+    private static final MetricsSnapshot published = new MetricsSnapshot(CAPACITY);
+    private static long frame = 0;
+    private static long lastReport = 0;
+
+    private static Writer log;
+    private static final StringBuilder logLine = new StringBuilder(4096);
+
+    private Metrics() {
+
+    }
+
+    /**
+     * @return the id of the counter with this name, registering it the first time
+     */
+    public static int counter(String name) {
+        return counterRegistry.register(name);
+    }
+
+    public static int gauge(String name) {
+        return gaugeRegistry.register(name);
+    }
+
+    /**
+     * Histograms take durations in nanoseconds and are exact to 0.1 ms up to 100 ms, see
+     * {@link FrameTimeHistogram}.
+     */
+    public static synchronized int histogram(String name) {
+        int id = histogramRegistry.register(name);
+        if (histograms[id] == null) {
+            histograms[id] = new FrameTimeHistogram();
+        }
+        return id;
+    }
+
+    public static void increment(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    public static void add(int counter, long amount) {
+        counters.addAndGet(counter, amount);
+    }
+
+    public static void set(int gauge, double value) {
+        gauges[gauge] = value;
+    }
+
+    /**
+     * @param nanos a duration, ignored when negative, e.g. what {@link Profiler#end()} returns while disabled
+     */
+    public static void record(int histogram, long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        histograms[histogram].record(nanos);
+        lastNanos[histogram] = nanos;
+    }
+
+    /**
+     * Snapshots every metric. Called once per frame on the render thread, after everything that feeds
+     * metrics during the frame.
+     */
+    public static void endFrame() {
+        long now = Time.getNanos();
+        boolean report = now - lastReport >= REPORT_INTERVAL_NANOS;
+        if (report) {
+            JvmMetrics.sample(now - lastReport);
+        }
+        JvmMetrics.endFrame();
+
+        MetricsSnapshot snapshot = current;
+        snapshot.frame = frame++;
+        snapshot.timeNanos = now;
+        synchronized (Metrics.class) {
+            snapshot.counterNames = counterRegistry.getNames();
+            snapshot.gaugeNames = gaugeRegistry.getNames();
+            snapshot.histogramNames = histogramRegistry.getNames();
+        }
+        snapshot.counterCount = snapshot.counterNames.length;
+        snapshot.gaugeCount = snapshot.gaugeNames.length;
+        snapshot.histogramCount = snapshot.histogramNames.length;
+        for (int i = 0; i < snapshot.counterCount; i++) {
+            snapshot.counters[i] = counters.get(i);
+        }
+        System.arraycopy(gauges, 0, snapshot.gauges, 0, snapshot.gaugeCount);
+        System.arraycopy(lastNanos, 0, snapshot.lastNanos, 0, snapshot.histogramCount);
+        if (report) {
+            snapshot.intervalNanos = now - lastReport;
+            for (int i = 0; i < snapshot.histogramCount; i++) {
+                FrameTimeHistogram histogram = histograms[i];
+                snapshot.counts[i] = histogram.getCount();
+                double max = histogram.getMaxMillis();
+                snapshot.meanMillis[i] = histogram.getMeanMillis();
+                // Percentiles are bucket edges, which may lie past the largest value
+                snapshot.p50Millis[i] = Math.min(histogram.getP50Millis(), max);
+                snapshot.p95Millis[i] = Math.min(histogram.getP95Millis(), max);
+                snapshot.p99Millis[i] = Math.min(histogram.getP99Millis(), max);
+                snapshot.maxMillis[i] = max;
+                histogram.reset();
+            }
+            lastReport = now;
+        }
+
+        synchronized (published) {
+            published.copyFrom(snapshot);
+        }
+        if (report && log != null) {
+            writeLog(snapshot);
+        }
+    }
+
+    /**
+     * @return the snapshot of the last frame, only for the render thread; it is overwritten every frame
+     */
+    public static MetricsSnapshot getSnapshot() {
+        return current;
+    }
+
+    /**
+     * Copies the snapshot of the last frame, from any thread.
+     */
+    public static void copySnapshot(MetricsSnapshot into) {
+        synchronized (published) {
+            into.copyFrom(published);
+        }
+    }
+
+    /**
+     * @return the snapshot of the last frame as JSON, from any thread
+     */
+    public static String toJson() {
+        synchronized (published) {
+            return published.toJson();
+        }
+    }
+
+    /**
+     * Appends a line of JSON with the snapshot to the file at the end of every report interval, so long
+     * runs can be checked afterwards without a profiler. Null stops logging. Render thread only.
+     */
+    public static void setLog(Path path) throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        if (path != null) {
+            // Earlier runs stay in the file
+            log = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        }
+    }
+
+    private static void writeLog(MetricsSnapshot snapshot) {
+        logLine.setLength(0);
+        snapshot.writeJson(logLine);
+        logLine.append('\n');
+        try {
+            log.append(logLine);
+            // A crash shouldn't cost the lines leading up to it
+            log.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            log = null;
+        }
+    }
+
+    // Names of one kind of metric, the index is the id
+    private static class Registry {
+        private final String kind;
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        // Rebuilt on every registration, so snapshots can share it
+        private String[] nameArray = new String[0];
+
+        Registry(String kind) {
+            this.kind = kind;
+        }
+
+        int register(String name) {
+            synchronized (Metrics.class) {
+                Integer id = this.ids.get(name);
+                if (id == null) {
+                    assert this.names.size() < CAPACITY : "Error: More than " + CAPACITY + " " + this.kind + "s";
+                    id = this.names.size();
+                    this.names.add(name);
+                    this.ids.put(name, id);
+                    this.nameArray = this.names.toArray(new String[0]);
+                }
+                return id;
+            }
+        }
+
+        String[] getNames() {
+            return this.nameArray;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package util;
+
+/**
+ * Values of every registered metric at the end of one frame, see {@link Metrics}. Metrics are looked up by
+ * the id they were registered with. Histogram summaries cover the last full report interval, so they only
+ * change once per interval; the latest recorded value of each histogram changes every frame.
+ */
+public class MetricsSnapshot {
+    long frame;
+    long timeNanos;
+    long intervalNanos;
+
+    int counterCount, gaugeCount, histogramCount;
+    String[] counterNames = new String[0];
+    String[] gaugeNames = new String[0];
+    String[] histogramNames = new String[0];
+
+    final long[] counters;
+    final double[] gauges;
+    final long[] lastNanos;
+    final long[] counts;
+    final double[] meanMillis, p50Millis, p95Millis, p99Millis, maxMillis;
+
+    public MetricsSnapshot(int capacity) {
+        this.counters = new long[capacity];
+        this.gauges = new double[capacity];
+        this.lastNanos = new long[capacity];
+        this.counts = new long[capacity];
+        this.meanMillis = new double[capacity];
+        this.p50Millis = new double[capacity];
+        this.p95Millis = new double[capacity];
+        this.p99Millis = new double[capacity];
+        this.maxMillis = new double[capacity];
+    }
+
+    void copyFrom(MetricsSnapshot other) {
+        this.frame = other.frame;
+        this.timeNanos = other.timeNanos;
+        this.intervalNanos = other.intervalNanos;
+        this.counterCount = other.counterCount;
+        this.gaugeCount = other.gaugeCount;
+        this.histogramCount = other.histogramCount;
+        // Name arrays are replaced rather than modified, so sharing them is safe
+        this.counterNames = other.counterNames;
+        this.gaugeNames = other.gaugeNames;
+        this.histogramNames = other.histogramNames;
+        System.arraycopy(other.counters, 0, this.counters, 0, other.counterCount);
+        System.arraycopy(other.gauges, 0, this.gauges, 0, other.gaugeCount);
+        int histograms = other.histogramCount;
+        System.arraycopy(other.lastNanos, 0, this.lastNanos, 0, histograms);
+        System.arraycopy(other.counts, 0, this.counts, 0, histograms);
+        System.arraycopy(other.meanMillis, 0, this.meanMillis, 0, histograms);
+        System.arraycopy(other.p50Millis, 0, this.p50Millis, 0, histograms);
+        System.arraycopy(other.p95Millis, 0, this.p95Millis, 0, histograms);
+        System.arraycopy(other.p99Millis, 0, this.p99Millis, 0, histograms);
+        System.arraycopy(other.maxMillis, 0, this.maxMillis, 0, histograms);
+    }
+
+    public long getFrame() {
+        return this.frame;
+    }
+
+    public double getSeconds() {
+        return this.timeNanos * 1E-9;
+    }
+
+    public long getCounter(int id) {
+        return id < this.counterCount ? this.counters[id] : 0;
+    }
+
+    public double getGauge(int id) {
+        return id < this.gaugeCount ? this.gauges[id] : 0.0;
+    }
+
+    /**
+     * @return the value recorded last, in milliseconds, whether or not it was recorded this frame
+     */
+    public double getLastMillis(int histogram) {
+        return histogram < this.histogramCount ? this.lastNanos[histogram] * 1E-6 : 0.0;
+    }
+
+    /**
+     * @return the number of values recorded during the last report interval
+     */
+    public long getCount(int histogram) {
+        return histogram < this.histogramCount ? this.counts[histogram] : 0;
+    }
+
+    public double getMeanMillis(int histogram) {
+        return histogram < this.histogramCount ? this.meanMillis[histogram] : 0.0;
+    }
+
+    public double getP50Millis(int histogram) {
+        return histogram < this.histogramCount ? this.p50Millis[histogram] : 0.0;
+    }
+
+    public double getP95Millis(int histogram) {
+        return histogram < this.histogramCount ? this.p95Millis[histogram] : 0.0;
+    }
+
+    public double getP99Millis(int histogram) {
+        return histogram < this.histogramCount ? this.p99Millis[histogram] : 0.0;
+    }
+
+    public double getMaxMillis(int histogram) {
+        return histogram < this.histogramCount ? this.maxMillis[histogram] : 0.0;
+    }
+
+    /**
+     * Writes the snapshot as one line of JSON, metrics keyed by name.
+     */
+    public void writeJson(StringBuilder out) {
+        out.append("{\"frame\":").append(this.frame)
+                .append(",\"seconds\":").append(this.getSeconds())
+                .append(",\"intervalSeconds\":").append(this.intervalNanos * 1E-9)
+                .append(",\"counters\":{");
+        for (int i = 0; i < this.counterCount; i++) {
+            writeName(out, this.counterNames[i], i);
+            out.append(this.counters[i]);
+        }
+        out.append("},\"gauges\":{");
+        for (int i = 0; i < this.gaugeCount; i++) {
+            writeName(out, this.gaugeNames[i], i);
+            writeNumber(out, this.gauges[i]);
+        }
+        out.append("},\"histograms\":{");
+        for (int i = 0; i < this.histogramCount; i++) {
+            writeName(out, this.histogramNames[i], i);
+            out.append("{\"count\":").append(this.counts[i]);
+            out.append(",\"lastMs\":");
+            writeNumber(out, this.lastNanos[i] * 1E-6);
+            out.append(",\"meanMs\":");
+            writeNumber(out, this.meanMillis[i]);
+            out.append(",\"p50Ms\":");
+            writeNumber(out, this.p50Millis[i]);
+            out.append(",\"p95Ms\":");
+            writeNumber(out, this.p95Millis[i]);
+            out.append(",\"p99Ms\":");
+            writeNumber(out, this.p99Millis[i]);
+            out.append(",\"maxMs\":");
+            writeNumber(out, this.maxMillis[i]);
+            out.append('}');
+        }
+        out.append("}}");
+    }
+
+    public String toJson() {
+        StringBuilder out = new StringBuilder(1024);
+        this.writeJson(out);
+        return out.toString();
+    }
+
+    private static void writeName(StringBuilder out, String name, int index) {
+        if (index > 0) {
+            out.append(',');
+        }
+        out.append('"').append(name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\":");
+    }
+
+    private static void writeNumber(StringBuilder out, double value) {
+        // JSON has no NaN or infinity
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else {
+            out.append(value);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hierarchical frame profiler. Scopes are opened with {@link #begin(int)} and closed with {@link #end()}
+ * on the same thread; every closed scope becomes one sample in a fixed size ring buffer, so steady state
+ * profiling never allocates. Any thread may record; scope ids come from {@link #register(String)}, which
+ * should be called once and kept in a static field.
+ * <p>
+ * GPU durations measured by {@link renderer.GpuTimer} are recorded on a separate track.
+ */
+public class Profiler {
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_DEPTH = 64;
+    public static final int GPU_TRACK = 0;
+
+    private static volatile boolean enabled = true;
+
+    // Scope names, the index is the scope id
+    private static final List<String> names = new ArrayList<>();
+    private static final Map<String, Integer> ids = new HashMap<>();
+
+    // Ring buffer of closed scopes, one slot per sample across all arrays
+    private static final int[] sampleScope = new int[CAPACITY];
+    private static final int[] sampleTrack = new int[CAPACITY];
+    private static final int[] sampleDepth = new int[CAPACITY];
+    private static final long[] sampleStart = new long[CAPACITY];
+    private static final long[] sampleDuration = new long[CAPACITY];
+    private static final AtomicLong writeIndex = new AtomicLong(0);
+
+    private static final List<String> trackNames = new ArrayList<>();
+    private static final ThreadLocal<ScopeStack> stacks = ThreadLocal.withInitial(Profiler::newStack);
+
+    static {
+        trackNames.add("GPU");
+    }
+
+    private Profiler() {
+
+    }
+
+    public static synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void begin(int scopeId) {
+        if (!enabled) {
+            return;
+        }
+        ScopeStack stack = stacks.get();
+        if (stack.depth < MAX_DEPTH) {
+            stack.scopes[stack.depth] = scopeId;
+            stack.starts[stack.depth] = Time.getNanos();
+        }
+        stack.depth++;
+    }
+
+    /**
+     * Closes the innermost open scope.
+     *
+     * @return the duration of the scope in nanoseconds, or -1 while profiling is disabled or the scope
+     * wasn't recorded, e.g. for feeding a {@link Metrics} histogram
+     */
+    public static long end() {
+        if (!enabled) {
+            return -1;
+        }
+        long now = Time.getNanos();
+        ScopeStack stack = stacks.get();
+        if (stack.depth == 0) {
+            // Profiling got enabled between a begin() and its end()
+            return -1;
+        }
+        stack.depth--;
+        if (stack.depth >= MAX_DEPTH) {
+            return -1;
+        }
+        int depth = stack.depth;
+        long duration = now - stack.starts[depth];
+        record(stack.scopes[depth], stack.track, depth, stack.starts[depth], duration);
+        return duration;
+    }
+
+    /**
+     * Records a sample measured elsewhere, e.g. a GPU timer query that was read back later.
+     */
+    public static void record(int scopeId, int track, int depth, long startNanos, long durationNanos) {
+        if (!enabled) {
+            return;
+        }
+        int slot = (int) (writeIndex.getAndIncrement() & MASK);
+        sampleScope[slot] = scopeId;
+        sampleTrack[slot] = track;
+        sampleDepth[slot] = depth;
+        sampleStart[slot] = startNanos;
+        sampleDuration[slot] = durationNanos;
+    }
+
+    /**
+     * Writes the samples still held in the ring buffer in the Chrome trace event format,
+     * viewable in chrome://tracing or Perfetto. Samples recorded while exporting may be torn.
+     */
+    public static void exportChromeTrace(Path path) throws IOException {
+        long end = writeIndex.get();
+        long start = Math.max(0, end - CAPACITY);
+        String[] scopeNames;
+        String[] tracks;
+        synchronized (Profiler.class) {
+            scopeNames = names.toArray(new String[0]);
+            tracks = trackNames.toArray(new String[0]);
+        }
+
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            boolean first = true;
+            for (int track = 0; track < tracks.length; track++) {
+                first = writeSeparator(writer, first);
+                writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + track
+                        + ",\"args\":{\"name\":\"" + escape(tracks[track]) + "\"}}");
+            }
+            for (long i = start; i < end; i++) {
+                int slot = (int) (i & MASK);
+                int scope = sampleScope[slot];
+                String name = scope < scopeNames.length ? scopeNames[scope] : "unknown";
+                first = writeSeparator(writer, first);
+                writer.write("{\"name\":\"" + escape(name) + "\",\"ph\":\"X\",\"pid\":1"
+                        + ",\"tid\":" + sampleTrack[slot]
+                        + ",\"ts\":" + sampleStart[slot] / 1000.0
+                        + ",\"dur\":" + sampleDuration[slot] / 1000.0
+                        + ",\"args\":{\"depth\":" + sampleDepth[slot] + "}}");
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    private static boolean writeSeparator(Writer writer, boolean first) throws IOException {
+        if (!first) {
+            writer.write(",\n");
+        }
+        return false;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static ScopeStack newStack() {
+        synchronized (Profiler.class) {
+            trackNames.add(Thread.currentThread().getName());
+            return new ScopeStack(trackNames.size() - 1);
+        }
+    }
+
+    private static class ScopeStack {
+        final int track;
+        final int[] scopes = new int[MAX_DEPTH];
+        final long[] starts = new long[MAX_DEPTH];
+        int depth = 0;
+
+        ScopeStack(int track) {
+            this.track = track;
+        }
+    }
+}
@@ -1,10 +1,90 @@
 package util;
 
+/**
+ * Monotonic engine clock. Time is kept as long nanoseconds since startup, so it stays exact however long
+ * the game runs; seconds are only handed out as doubles.
+ */
 public class Time {
-    public static float timeStarted = System.nanoTime();
+    private static final long timeStarted = System.nanoTime();
+    // Weight of the newest frame in the smoothed delta
+    private static final double SMOOTHING = 0.1;
 
+    private static long frameCount = 0;
+    private static long frameStart = 0;
+    private static long previousFrameStart = 0;
+    private static double deltaSeconds = 0.0;
+    private static double smoothedDeltaSeconds = 0.0;
+    private static final FrameTimeHistogram frameTimes = new FrameTimeHistogram();
+
+    private Time() {
+
+    }
+
+    /**
+     * @deprecated float seconds lose precision after a few hours, use {@link #getSeconds()} or {@link #getNanos()}
+     */
+    @Deprecated
     public static float getTime() {
-        return (float) ((System.nanoTime() - timeStarted) * 1E-9);
+        return (float) getSeconds();
+    }
+
+    public static long getNanos() {
+        return System.nanoTime() - timeStarted;
+    }
+
+    public static double getSeconds() {
+        return getNanos() * 1E-9;
+    }
+
+    /**
+     * Marks the start of a frame. Must be called exactly once per frame, before anything reads the frame time.
+     */
+    public static void beginFrame() {
+        long now = getNanos();
+        if (frameCount > 0) {
+            long delta = now - frameStart;
+            deltaSeconds = delta * 1E-9;
+            smoothedDeltaSeconds = frameCount == 1
+                    ? deltaSeconds
+                    : smoothedDeltaSeconds + SMOOTHING * (deltaSeconds - smoothedDeltaSeconds);
+            frameTimes.record(delta);
+        }
+        previousFrameStart = frameStart;
+        frameStart = now;
+        frameCount++;
+    }
+
+    public static long getFrameCount() {
+        return frameCount;
+    }
+
+    public static long getFrameStartNanos() {
+        return frameStart;
+    }
+
+    public static long getPreviousFrameStartNanos() {
+        return previousFrameStart;
+    }
+
+    public static double getFrameStartSeconds() {
+        return frameStart * 1E-9;
+    }
+
+    /**
+     * @return the time between the starts of the previous and the current frame, 0 on the first frame
+     */
+    public static double getDeltaSeconds() {
+        return deltaSeconds;
+    }
+
+    /**
+     * @return an exponential moving average of {@link #getDeltaSeconds()}, steadier for display and pacing
+     */
+    public static double getSmoothedDeltaSeconds() {
+        return smoothedDeltaSeconds;
+    }
 
+    public static FrameTimeHistogram getFrameTimes() {
+        return frameTimes;
     }
 }
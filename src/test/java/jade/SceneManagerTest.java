@@ -0,0 +1,116 @@
+package jade;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests the same scene more than once and checks that it goes through its lifecycle only once. The
+ * scenes draw nothing, so none of it needs GL.
+ */
+public class SceneManagerTest {
+    private final SceneManager scenes = new SceneManager();
+
+    // Processes changes like the game loop would, until every requested scene finished loading
+    private void processUntilDone() throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        this.scenes.processChanges();
+        while (this.scenes.hasPendingChanges()) {
+            assertTrue("Scenes took too long to load", System.nanoTime() < deadline);
+            Thread.sleep(1);
+            this.scenes.processChanges();
+        }
+    }
+
+    @Test
+    public void switchingTwiceInOneFrameShowsTheSceneOnce() throws InterruptedException {
+        CountingScene scene = new CountingScene();
+
+        assertTrue(this.scenes.switchTo(scene));
+        assertFalse(this.scenes.switchTo(scene));
+        assertFalse(this.scenes.push(scene));
+        this.processUntilDone();
+
+        assertSame(scene, this.scenes.getTop());
+        assertEquals(1, scene.inits.get());
+        assertEquals(1, scene.loads.get());
+        assertEquals(1, scene.activations.get());
+        assertEquals(0, scene.disposals.get());
+    }
+
+    @Test
+    public void sceneOnTheStackIsNotInitializedAgain() throws InterruptedException {
+        CountingScene level = new CountingScene();
+        CountingScene overlay = new CountingScene();
+        this.scenes.switchTo(level);
+        this.scenes.push(overlay);
+        this.processUntilDone();
+
+        assertFalse(this.scenes.switchTo(level));
+        assertFalse(this.scenes.push(overlay));
+        this.scenes.preload(level);
+        this.processUntilDone();
+
+        assertSame(overlay, this.scenes.getTop());
+        assertEquals(1, level.inits.get());
+        assertEquals(1, level.loads.get());
+        assertEquals(1, overlay.inits.get());
+        assertEquals(1, overlay.loads.get());
+    }
+
+    @Test
+    public void poppedSceneCanBePushedAgain() throws InterruptedException {
+        CountingScene level = new CountingScene();
+        CountingScene overlay = new CountingScene();
+        this.scenes.switchTo(level);
+        this.scenes.push(overlay);
+        this.scenes.pop();
+        this.processUntilDone();
+        assertSame(level, this.scenes.getTop());
+        assertEquals(1, overlay.disposals.get());
+
+        assertTrue(this.scenes.push(overlay));
+        this.processUntilDone();
+
+        assertSame(overlay, this.scenes.getTop());
+        assertEquals(2, overlay.inits.get());
+    }
+
+    private static class CountingScene extends Scene {
+        final AtomicInteger inits = new AtomicInteger();
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger activations = new AtomicInteger();
+        final AtomicInteger disposals = new AtomicInteger();
+
+        @Override
+        public void init() {
+            this.inits.incrementAndGet();
+        }
+
+        @Override
+        public void load() {
+            this.loads.incrementAndGet();
+        }
+
+        @Override
+        public void activate() {
+            this.activations.incrementAndGet();
+        }
+
+        @Override
+        public void dispose() {
+            this.disposals.incrementAndGet();
+            super.dispose();
+        }
+
+        @Override
+        public void update(float dt) {
+
+        }
+    }
+}
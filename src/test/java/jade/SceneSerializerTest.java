@@ -0,0 +1,232 @@
+package jade;
+
+import org.joml.Vector2f;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import renderer.Sprite;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saves scenes, appends deltas and loads them back into another scene, comparing the game objects by
+ * name and entity data since entity ids differ between the two scenes. None of it needs GL.
+ */
+public class SceneSerializerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, Sprite> sprites = new HashMap<>();
+    private SceneSerializer serializer;
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        for (String name : Arrays.asList("ground", "mario", "goomba")) {
+            this.sprites.put(name, new Sprite(null, 0.0f, 0.0f, 1.0f, 1.0f, 16, 16, name));
+        }
+        this.serializer = new SceneSerializer(this.sprites::get);
+        this.path = this.folder.getRoot().toPath().resolve("level.scene");
+    }
+
+    private Scene createLevel() {
+        Scene scene = new TestScene();
+        for (int i = 0; i < 3; i++) {
+            scene.createGameObject("ground" + i).setPosition(i * 32.0f, 0.0f).setSize(32.0f, 32.0f)
+                    .setSprite(this.sprites.get("ground"));
+        }
+        scene.createGameObject("mario").setPosition(16.0f, 32.0f).setSize(16.0f, 24.0f)
+                .setVelocity(2.0f, -1.0f).setSprite(this.sprites.get("mario"));
+        // Unnamed sprites can't be saved by name and come back untextured, with their color
+        scene.createGameObject("coin").setPosition(48.0f, 64.0f)
+                .setSprite(new Sprite(null, 0.0f, 0.0f, 1.0f, 1.0f, 8, 8)).setColor(1.0f, 0.8f, 0.0f, 1.0f);
+        scene.createGameObject("trigger").setPosition(80.0f, 0.0f).setSize(4.0f, 64.0f);
+        return scene;
+    }
+
+    private static GameObject find(Scene scene, String name) {
+        for (GameObject gameObject : scene.getGameObjects()) {
+            if (gameObject.getName().equals(name)) {
+                return gameObject;
+            }
+        }
+        throw new AssertionError("No game object named " + name);
+    }
+
+    private Scene load() throws IOException {
+        Scene scene = new TestScene();
+        this.serializer.load(scene, this.path);
+        return scene;
+    }
+
+    @Test
+    public void fullSaveLoadsBack() throws IOException {
+        Scene scene = this.createLevel();
+
+        this.serializer.save(scene, this.path);
+
+        assertEquals(describe(scene), describe(this.load()));
+        assertEquals(Files.size(this.path), this.serializer.getLastSaveBytes());
+    }
+
+    @Test
+    public void deltasApplyChangesRemovalsAndReusedIndices() throws IOException {
+        Scene scene = this.createLevel();
+        this.serializer.save(scene, this.path);
+        long fullBytes = this.serializer.getLastSaveBytes();
+
+        // The goomba takes the entity index the coin had, with a new generation
+        GameObject coin = find(scene, "coin");
+        scene.removeGameObject(coin);
+        GameObject goomba = scene.createGameObject("goomba").setPosition(96.0f, 32.0f)
+                .setVelocity(-1.0f, 0.0f).setSprite(this.sprites.get("goomba"));
+        assertEquals(EntityStore.indexOf(coin.getEntity()), EntityStore.indexOf(goomba.getEntity()));
+        assertNotEquals(coin.getEntity(), goomba.getEntity());
+        find(scene, "mario").setPosition(20.0f, 40.0f).setVelocity(0.0f, 0.0f);
+        this.serializer.saveDelta(scene, this.path);
+        assertTrue(this.serializer.getLastSaveBytes() < fullBytes);
+        assertEquals(describe(scene), describe(this.load()));
+
+        // Removed and reused again within one delta, and components dropped from a saved object
+        scene.removeGameObject(goomba);
+        GameObject koopa = scene.createGameObject("koopa").setPosition(128.0f, 32.0f);
+        assertEquals(EntityStore.indexOf(goomba.getEntity()), EntityStore.indexOf(koopa.getEntity()));
+        scene.entities.remove(find(scene, "ground1").getEntity(), EntityStore.SPRITE);
+        scene.removeGameObject(find(scene, "trigger"));
+        this.serializer.saveDelta(scene, this.path);
+
+        List<String> expected = describe(scene);
+        Scene loaded = this.load();
+        assertEquals(expected, describe(loaded));
+        assertEquals(Arrays.asList("ground0", "ground1", "ground2", "koopa", "mario"), names(loaded));
+    }
+
+    @Test
+    public void loadReplacesTheGameObjectsOfTheScene() throws IOException {
+        this.serializer.save(this.createLevel(), this.path);
+        Scene scene = new TestScene();
+        scene.createGameObject("leftover");
+
+        this.serializer.load(scene, this.path);
+
+        assertEquals(describe(this.createLevel()), describe(scene));
+    }
+
+    @Test
+    public void interruptedDeltaIsIgnored() throws IOException {
+        Scene scene = this.createLevel();
+        this.serializer.save(scene, this.path);
+        List<String> saved = describe(scene);
+        long fullBytes = Files.size(this.path);
+        find(scene, "mario").setPosition(0.0f, 100.0f);
+        this.serializer.saveDelta(scene, this.path);
+
+        // A crash before the header was written leaves the block's header zeroed
+        byte[] bytes = Files.readAllBytes(this.path);
+        Arrays.fill(bytes, (int) fullBytes, (int) fullBytes + 5 * Integer.BYTES, (byte) 0);
+        Files.write(this.path, bytes);
+
+        assertEquals(saved, describe(this.load()));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedBlockFailsToLoad() throws IOException {
+        Scene scene = this.createLevel();
+        this.serializer.save(scene, this.path);
+        find(scene, "mario").setPosition(0.0f, 100.0f);
+        this.serializer.saveDelta(scene, this.path);
+
+        byte[] bytes = Files.readAllBytes(this.path);
+        Files.write(this.path, Arrays.copyOf(bytes, bytes.length - 6));
+
+        this.load();
+    }
+
+    @Test
+    public void lastCreatedStaysOnTopAfterRemovalsAndLoads() throws IOException {
+        Scene scene = new TestScene();
+        for (int i = 0; i < 4; i++) {
+            scene.createGameObject("tile" + i).setSize(32.0f, 32.0f).setSprite(this.sprites.get("ground"));
+        }
+        scene.createGameObject("natsuki").setSize(16.0f, 16.0f).setSprite(this.sprites.get("mario"));
+        assertEquals("natsuki", pickAtOrigin(scene));
+
+        // Moves natsuki into the freed slot and list position, in front of the other tiles
+        scene.removeGameObject(find(scene, "tile0"));
+        assertEquals("natsuki", pickAtOrigin(scene));
+        this.serializer.save(scene, this.path);
+        scene.removeGameObject(find(scene, "tile1"));
+        this.serializer.saveDelta(scene, this.path);
+
+        assertEquals("natsuki", pickAtOrigin(this.load()));
+    }
+
+    private static String pickAtOrigin(Scene scene) {
+        scene.camera = new Camera(new Vector2f(), 100.0f, 100.0f);
+        scene.entities.updateSpatialIndex();
+        return scene.pickGameObject(8.0f, 92.0f).getName();
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Files.write(this.path, "not a scene file at all".getBytes("UTF-8"));
+
+        this.load();
+    }
+
+    private static List<String> names(Scene scene) {
+        List<String> names = new ArrayList<>();
+        for (GameObject gameObject : scene.getGameObjects()) {
+            names.add(gameObject.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    // Everything the serializer saves about each game object, sorted by name
+    private static List<String> describe(Scene scene) {
+        EntityStore entities = scene.entities;
+        List<String> lines = new ArrayList<>();
+        for (GameObject gameObject : scene.getGameObjects()) {
+            int id = gameObject.getEntity();
+            int components = entities.getComponents(id);
+            StringBuilder line = new StringBuilder(gameObject.getName())
+                    .append(' ').append(components)
+                    .append(' ').append(entities.getX(id)).append(',').append(entities.getY(id))
+                    .append(' ').append(entities.getWidth(id)).append('x').append(entities.getHeight(id));
+            if ((components & EntityStore.MOTION) != 0) {
+                line.append(" v").append(entities.getVelocityX(id)).append(',').append(entities.getVelocityY(id));
+            }
+            if ((components & EntityStore.SPRITE) != 0) {
+                Sprite sprite = entities.getSprite(id);
+                line.append(' ').append(sprite != null ? sprite.getName() : null)
+                        .append(' ').append(entities.getRed(id)).append(',').append(entities.getGreen(id))
+                        .append(',').append(entities.getBlue(id)).append(',').append(entities.getAlpha(id));
+            }
+            lines.add(line.toString());
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static class TestScene extends Scene {
+        @Override
+        public void update(float dt) {
+
+        }
+    }
+}
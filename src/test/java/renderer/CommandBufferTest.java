@@ -0,0 +1,162 @@
+package renderer;
+
+import org.joml.Matrix4f;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays command buffers on a {@link RecordingBackend} that also logs every call, so the order of the
+ * replayed commands and the state changes the buffer skips can be checked without a GL context.
+ */
+public class CommandBufferTest {
+    private CommandBuffer commands;
+    private LoggingBackend backend;
+    private RenderBatch batch;
+
+    @Before
+    public void setUp() {
+        this.commands = new CommandBuffer(4);
+        this.backend = new LoggingBackend();
+        this.batch = new RenderBatch(1);
+    }
+
+    // Uses the shader part of the key as the program and the quad count to tell the draws apart
+    private void draw(int layer, int shader, int texture, int depth, int quads) {
+        long key = CommandBuffer.key(layer, shader, texture, depth);
+        this.commands.drawBatch(key, shader, this.batch, quads, new int[]{texture}, 1);
+    }
+
+    @Test
+    public void drawsReplayByLayerShaderTextureThenDepth() {
+        this.draw(1, 2, 7, 0, 10);
+        this.draw(0, 3, 5, 4, 11);
+        this.draw(0, 2, 9, 0, 12);
+        this.draw(0, 2, 5, 8, 13);
+        this.draw(0, 2, 5, 1, 14);
+        this.draw(1, 2, 7, 0, 15);
+
+        this.commands.execute(this.backend);
+
+        assertEquals(Arrays.asList(
+                "program 2", "texture 1=5", "draw 14", "draw 13",
+                "texture 1=9", "draw 12",
+                "program 3", "texture 1=5", "draw 11",
+                "program 2", "texture 1=7", "draw 10", "draw 15"), this.backend.log);
+        assertEquals(3, this.backend.getProgramChanges());
+        assertEquals(4, this.backend.getTextureBinds());
+        assertEquals(6, this.backend.getDrawCalls());
+        assertEquals(10 + 11 + 12 + 13 + 14 + 15, this.backend.getQuads());
+    }
+
+    @Test
+    public void equalKeysKeepRecordingOrder() {
+        for (int i = 0; i < 5; i++) {
+            this.draw(2, 1, 1, 3, 20 + i);
+        }
+
+        this.commands.execute(this.backend);
+
+        assertEquals(Arrays.asList("program 1", "texture 1=1",
+                "draw 20", "draw 21", "draw 22", "draw 23", "draw 24"), this.backend.log);
+    }
+
+    @Test
+    public void onlyChangedTextureUnitsAreRebound() {
+        long key = CommandBuffer.key(0, 1, 0, 0);
+        this.commands.drawBatch(key, 1, this.batch, 1, new int[]{4, 5}, 2);
+        this.commands.drawBatch(key, 1, this.batch, 2, new int[]{4, 6}, 2);
+        this.commands.drawBatch(key, 1, this.batch, 3, new int[]{4, 6}, 2);
+
+        this.commands.execute(this.backend);
+
+        assertEquals(Arrays.asList("program 1", "texture 1=4", "texture 2=5", "draw 1",
+                "texture 2=6", "draw 2", "draw 3"), this.backend.log);
+        assertEquals(1, this.backend.getProgramChanges());
+        assertEquals(3, this.backend.getTextureBinds());
+    }
+
+    @Test
+    public void setupRunsFirstInRecordingOrder() {
+        this.draw(0, 3, 1, 0, 30);
+        this.commands.uploadFloat(2, 0, 1.0f);
+        this.commands.uploadFloat(2, 1, 2.0f);
+        // Uniforms without a location are dropped while recording
+        this.commands.uploadFloat(2, -1, 3.0f);
+        this.commands.uploadMatrix4f(3, 4, new Matrix4f());
+        this.commands.uploadVertices(this.batch, 24);
+
+        this.commands.execute(this.backend);
+
+        // The program of the last uniform is still in use for the draw
+        assertEquals(Arrays.asList("program 2", "float 0=1.0", "float 1=2.0", "program 3", "matrix 4",
+                "vertices 24", "texture 1=1", "draw 30"), this.backend.log);
+        assertEquals(3, this.backend.getUniformUploads());
+        assertEquals(24 * Float.BYTES, this.backend.getUploadedBytes());
+    }
+
+    @Test
+    public void executingAgainReplaysTheSameCommands() {
+        this.draw(1, 2, 3, 0, 40);
+        this.draw(0, 2, 4, 0, 41);
+        this.commands.execute(this.backend);
+        List<String> first = new ArrayList<>(this.backend.log);
+        this.backend.log.clear();
+
+        this.commands.execute(this.backend);
+
+        assertEquals(first, this.backend.log);
+    }
+
+    @Test
+    public void keyPartsAreClampedToTheirRange() {
+        assertEquals(CommandBuffer.key(CommandBuffer.MAX_LAYER, 0, 0, 0), CommandBuffer.key(1000, 0, 0, 0));
+        assertEquals(CommandBuffer.key(0, 0, 0, 0), CommandBuffer.key(-1, 0, 0, -5));
+        assertEquals(CommandBuffer.key(0, 0, 0, CommandBuffer.MAX_DEPTH), CommandBuffer.key(0, 0, 0, 1 << 20));
+    }
+
+    private static class LoggingBackend extends RecordingBackend {
+        final List<String> log = new ArrayList<>();
+
+        @Override
+        public void useProgram(int program) {
+            super.useProgram(program);
+            this.log.add("program " + program);
+        }
+
+        @Override
+        public void uploadMatrix4f(int location, float[] values, int offset) {
+            super.uploadMatrix4f(location, values, offset);
+            this.log.add("matrix " + location);
+        }
+
+        @Override
+        public void uploadFloat(int location, float value) {
+            super.uploadFloat(location, value);
+            this.log.add("float " + location + "=" + value);
+        }
+
+        @Override
+        public void uploadVertices(QuadBatch batch, int floatCount) {
+            super.uploadVertices(batch, floatCount);
+            this.log.add("vertices " + floatCount);
+        }
+
+        @Override
+        public void bindTexture(int unit, int texture) {
+            super.bindTexture(unit, texture);
+            this.log.add("texture " + unit + "=" + texture);
+        }
+
+        @Override
+        public void drawBatch(QuadBatch batch, int quadCount) {
+            super.drawBatch(batch, quadCount);
+            this.log.add("draw " + quadCount);
+        }
+    }
+}